@@ -1,7 +1,14 @@
 package com.moppy.api;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moppy.core.analysis.SongReport;
+import com.moppy.core.comms.NetworkManager;
+import com.moppy.core.comms.bridge.BridgeSharedMemory;
+import com.moppy.core.comms.bridge.BridgeTCP;
+import com.moppy.core.comms.bridge.BridgeTCPServer;
 import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.library.MidiLibrary;
+import com.moppy.core.midi.PlaylistQueue;
 import com.moppy.core.status.StatusBus;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -11,32 +18,65 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class MoppyAPIServer {
 
+    private static final long MAX_DISCOVERY_WAIT_MILLIS = 30000;
+    private static final int MAX_ANALYZE_FILES = 1000;
+
     private final HttpServer server;
-    private final PlaybackService playbackService;
+    private final ExecutorService httpExecutor = Executors.newFixedThreadPool(10);
+    // Analyses run one at a time (each is already spread across the cores) and off the HTTP threads
+    private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
+    private final SessionManager sessions;
     private final NetworkManager networkManager;
     private final ObjectMapper objectMapper;
+    private MidiLibrary library = new MidiLibrary(List.of(), null);
 
     public MoppyAPIServer(int port) throws IOException {
+        this(port, false);
+    }
+
+    /**
+     * @param autoTuneLinks If true, each link is tuned to the capabilities its devices report (see
+     * {@link NetworkManager#setAutoTune(boolean)})
+     */
+    public MoppyAPIServer(int port, boolean autoTuneLinks) throws IOException {
         // Initialize core components
         StatusBus statusBus = new StatusBus();
 
-        // Initialize network manager (replaces simple BridgeUDP)
+        // Initialize network manager (replaces simple BridgeUDP).  Everything it finds is connected once it's
+        // started, including serial ports plugged in later (which are found in the background).
         networkManager = new NetworkManager(statusBus);
+        networkManager.setAutoConnect(true);
+        networkManager.setAutoTune(autoTuneLinks);
+        try {
+            networkManager.addBridge("udp", null);
+        } catch (IOException e) {
+            System.err.println("Failed to initialize UDP bridge: " + e.getMessage());
+        }
+        networkManager.watchSerialPorts();
         NetworkBridge<?> networkBridge = networkManager.getPrimaryBridge();
 
-        playbackService = new PlaybackService(statusBus, networkBridge);
+        sessions = new SessionManager(networkBridge, networkManager::getRecentlySeenDevices);
+        statusBus.registerConsumer(sessions);
         objectMapper = new ObjectMapper();
 
         // Create HTTP server
         server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        server.setExecutor(httpExecutor);
 
         setupRoutes();
     }
@@ -58,6 +98,18 @@ public class MoppyAPIServer {
         server.createContext("/api/volume", new VolumeHandler());
         server.createContext("/api/loop", new LoopHandler());
 
+        // Playlist that plays songs back to back
+        server.createContext("/api/queue", new QueueHandler());
+
+        // Whether songs will play well on the discovered devices
+        server.createContext("/api/analyze", new AnalyzeHandler());
+
+        // Songs found under the library directories
+        server.createContext("/api/library", new LibraryHandler());
+
+        // Named sessions, each with the endpoints above under /api/sessions/{id}/
+        server.createContext("/api/sessions", new SessionsHandler());
+
         // Network management endpoints
         server.createContext("/api/network/status", new NetworkStatusHandler());
         server.createContext("/api/network/devices", new NetworkDevicesHandler());
@@ -69,10 +121,30 @@ public class MoppyAPIServer {
         server.createContext("/api/", new CorsHandler());
     }
 
+    /**
+     * Adds a network bridge that isn't discovered automatically; call before {@link #start()}.
+     */
+    public void addNetworkBridge(NetworkBridge<?> bridge) {
+        networkManager.addNetworkBridge(bridge);
+    }
+
+    /**
+     * Sets the library of songs to browse and search; call before {@link #start()}.
+     */
+    public void setLibrary(MidiLibrary library) {
+        this.library.close();
+        this.library = library;
+    }
+
     public void start() {
         // Start the network manager first
         networkManager.start();
 
+        // Find new and changed songs in the background; the saved index is searchable meanwhile
+        if (!library.getDirectories().isEmpty()) {
+            library.scan();
+        }
+
         server.start();
         System.out.println("Moppy API Server started on port " + server.getAddress().getPort());
         System.out.println("API endpoints available at http://localhost:" + server.getAddress().getPort() + "/api/");
@@ -81,10 +153,11 @@ public class MoppyAPIServer {
     }
 
     public void stop() {
+        library.close();
         try {
-            playbackService.shutdown();
+            sessions.shutdown();
         } catch (IOException e) {
-            System.err.println("Error shutting down playback service: " + e.getMessage());
+            System.err.println("Error shutting down playback sessions: " + e.getMessage());
         }
 
         // Stop the network manager
@@ -95,6 +168,8 @@ public class MoppyAPIServer {
         }
 
         server.stop(5);
+        analysisExecutor.shutdownNow();
+        httpExecutor.shutdown();
     }
 
     private void sendJsonResponse(HttpExchange exchange, Object response, int statusCode) throws IOException {
@@ -129,10 +204,38 @@ public class MoppyAPIServer {
         }
     }
 
-    // Handler classes
-    private class PlayHandler implements HttpHandler {
+    private Map<String, String> readQueryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Handles a request for one session: the default session when registered directly under /api/, or
+     * the session named in the path when called from {@link SessionsHandler}.
+     */
+    private abstract class PlaybackHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
+            handle(exchange, sessions.getDefaultSession());
+        }
+
+        abstract void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException;
+    }
+
+    // Handler classes
+    private class PlayHandler extends PlaybackHandler {
+        @Override
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if (!"POST".equals(exchange.getRequestMethod())) {
                 sendErrorResponse(exchange, "Method not allowed", 405);
                 return;
@@ -150,9 +253,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class PauseHandler implements HttpHandler {
+    private class PauseHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if (!"POST".equals(exchange.getRequestMethod())) {
                 sendErrorResponse(exchange, "Method not allowed", 405);
                 return;
@@ -166,9 +269,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class StopHandler implements HttpHandler {
+    private class StopHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if (!"POST".equals(exchange.getRequestMethod())) {
                 sendErrorResponse(exchange, "Method not allowed", 405);
                 return;
@@ -182,9 +285,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class LoadHandler implements HttpHandler {
+    private class LoadHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if (!"POST".equals(exchange.getRequestMethod())) {
                 sendErrorResponse(exchange, "Method not allowed", 405);
                 return;
@@ -213,9 +316,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class StateHandler implements HttpHandler {
+    private class StateHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if (!"GET".equals(exchange.getRequestMethod())) {
                 sendErrorResponse(exchange, "Method not allowed", 405);
                 return;
@@ -226,9 +329,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class StatusHandler implements HttpHandler {
+    private class StatusHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if (!"GET".equals(exchange.getRequestMethod())) {
                 sendErrorResponse(exchange, "Method not allowed", 405);
                 return;
@@ -247,9 +350,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class PositionHandler implements HttpHandler {
+    private class PositionHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if ("GET".equals(exchange.getRequestMethod())) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("position", playbackService.getState().getPosition());
@@ -281,9 +384,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class TempoHandler implements HttpHandler {
+    private class TempoHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if ("GET".equals(exchange.getRequestMethod())) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("tempo", playbackService.getState().getTempo());
@@ -315,9 +418,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class VolumeHandler implements HttpHandler {
+    private class VolumeHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if ("GET".equals(exchange.getRequestMethod())) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("volume", playbackService.getState().getVolume());
@@ -349,9 +452,9 @@ public class MoppyAPIServer {
         }
     }
 
-    private class LoopHandler implements HttpHandler {
+    private class LoopHandler extends PlaybackHandler {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
             if ("GET".equals(exchange.getRequestMethod())) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("loop", playbackService.getState().isLoop());
@@ -408,6 +511,364 @@ public class MoppyAPIServer {
         }
     }
 
+    /**
+     * /queue: GET the playlist, POST a song to it, PUT its settings, DELETE it (or one song with ?index=n).
+     * /queue/play, /queue/stop, /queue/skip: POST to control it.
+     */
+    private class QueueHandler extends PlaybackHandler {
+        @Override
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String action = path.substring(path.lastIndexOf("/queue") + "/queue".length()).replaceAll("^/+|/+$", "");
+            PlaylistQueue queue = playbackService.getQueue();
+            try {
+                if (action.isEmpty()) {
+                    handleQueue(exchange, playbackService, queue);
+                    return;
+                }
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    sendErrorResponse(exchange, "Method not allowed", 405);
+                    return;
+                }
+                switch (action) {
+                    case "play":
+                        String requestBody = readRequestBody(exchange);
+                        int index = 0;
+                        if (!requestBody.isBlank()) {
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> request = objectMapper.readValue(requestBody, Map.class);
+                            if (request.get("index") != null) {
+                                index = (Integer) request.get("index");
+                            }
+                        }
+                        playbackService.playQueue(index);
+                        break;
+                    case "stop":
+                        playbackService.stop();
+                        break;
+                    case "skip":
+                        queue.skip();
+                        break;
+                    default:
+                        sendErrorResponse(exchange, "Not found", 404);
+                        return;
+                }
+                sendJsonResponse(exchange, describeQueue(queue), 200);
+            } catch (Exception e) {
+                sendErrorResponse(exchange, e.getMessage(), 400);
+            }
+        }
+
+        private void handleQueue(HttpExchange exchange, PlaybackService playbackService, PlaylistQueue queue) throws Exception {
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                    break;
+                case "POST": {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> request = objectMapper.readValue(readRequestBody(exchange), Map.class);
+                    String filePath = (String) request.get("filePath");
+                    if (filePath == null || filePath.trim().isEmpty()) {
+                        sendErrorResponse(exchange, "filePath is required", 400);
+                        return;
+                    }
+                    playbackService.enqueue(filePath);
+                    break;
+                }
+                case "PUT": {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> request = objectMapper.readValue(readRequestBody(exchange), Map.class);
+                    if (request.get("overlapMillis") != null) {
+                        queue.setOverlapMillis(((Number) request.get("overlapMillis")).longValue());
+                    }
+                    if (request.get("repeat") != null) {
+                        queue.setRepeat((Boolean) request.get("repeat"));
+                    }
+                    break;
+                }
+                case "DELETE":
+                    String index = readQueryParameters(exchange).get("index");
+                    if (index == null) {
+                        queue.clear();
+                    } else {
+                        queue.remove(Integer.parseInt(index));
+                    }
+                    break;
+                default:
+                    sendErrorResponse(exchange, "Method not allowed", 405);
+                    return;
+            }
+            sendJsonResponse(exchange, describeQueue(queue), 200);
+        }
+
+        private Map<String, Object> describeQueue(PlaylistQueue queue) {
+            List<String> files = new ArrayList<>();
+            queue.getFiles().forEach(file -> files.add(file.getPath()));
+            Map<String, Object> description = new HashMap<>();
+            description.put("files", files);
+            description.put("currentIndex", queue.getCurrentIndex());
+            description.put("isPlaying", queue.isPlaying());
+            description.put("position", TimeUnit.MICROSECONDS.toSeconds(queue.getPositionMicros()));
+            description.put("duration", TimeUnit.MICROSECONDS.toSeconds(queue.getCurrentLengthMicros()));
+            description.put("overlapMillis", queue.getOverlapMillis());
+            description.put("repeat", queue.isRepeat());
+            description.put("lateStarts", queue.getLateStarts());
+            return description;
+        }
+    }
+
+    /**
+     * POST {"filePath": ...}, {"filePaths": [...]} or {"queue": true} to check songs against the devices
+     * seen on the network, as the session would play them.
+     */
+    private class AnalyzeHandler extends PlaybackHandler {
+        @Override
+        void handle(HttpExchange exchange, PlaybackService playbackService) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendErrorResponse(exchange, "Method not allowed", 405);
+                return;
+            }
+
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> request = objectMapper.readValue(readRequestBody(exchange), Map.class);
+                List<String> filePaths = new ArrayList<>();
+                if (request.get("filePath") != null) {
+                    filePaths.add((String) request.get("filePath"));
+                }
+                if (request.get("filePaths") != null) {
+                    @SuppressWarnings("unchecked")
+                    List<String> requestPaths = (List<String>) request.get("filePaths");
+                    filePaths.addAll(requestPaths);
+                }
+                if (Boolean.TRUE.equals(request.get("queue"))) {
+                    playbackService.getQueue().getFiles().forEach(file -> filePaths.add(file.getPath()));
+                }
+                if (filePaths.isEmpty()) {
+                    sendErrorResponse(exchange, "filePath, filePaths or queue is required", 400);
+                    return;
+                }
+                if (filePaths.size() > MAX_ANALYZE_FILES) {
+                    sendErrorResponse(exchange, "At most " + MAX_ANALYZE_FILES + " songs can be analysed at once", 400);
+                    return;
+                }
+
+                // The exchange is answered when the analysis is done, so it doesn't tie up the server's threads
+                CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return playbackService.analyze(filePaths, networkManager.getRecentlySeenDevices());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                }, analysisExecutor).whenCompleteAsync((reports, ex) -> {
+                    try {
+                        sendReports(exchange, reports, ex);
+                    } catch (IOException e) {
+                        System.err.println("Error answering song analysis: " + e.getMessage());
+                        exchange.close();
+                    }
+                }, httpExecutor);
+            } catch (Exception e) {
+                sendErrorResponse(exchange, e.getMessage(), 400);
+            }
+        }
+
+        private void sendReports(HttpExchange exchange, List<SongReport> reports, Throwable ex) throws IOException {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof InterruptedException) {
+                sendErrorResponse(exchange, "Analysis interrupted", 503);
+            } else if (cause != null) {
+                sendErrorResponse(exchange, cause.getMessage(), 400);
+            } else {
+                Map<String, Object> response = new HashMap<>();
+                response.put("reports", reports);
+                response.put("playable", reports.stream().allMatch(SongReport::isPlayable));
+                sendJsonResponse(exchange, response, 200);
+            }
+        }
+    }
+
+    /**
+     * /library: GET a page of songs (?q=text&maxPolyphony=n&sort=NAME&offset=0&limit=50).
+     * /library/status: GET the directories and scan progress.  /library/scan: POST to look for changes.
+     */
+    private class LibraryHandler implements HttpHandler {
+        private static final int DEFAULT_PAGE_SIZE = 50;
+        private static final int MAX_PAGE_SIZE = 500;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                addCorsHeaders(exchange);
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            String action = exchange.getRequestURI().getPath().substring("/api/library".length()).replaceAll("^/+|/+$", "");
+            switch (action) {
+                case "":
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        sendErrorResponse(exchange, "Method not allowed", 405);
+                        return;
+                    }
+                    search(exchange);
+                    break;
+                case "status":
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        sendErrorResponse(exchange, "Method not allowed", 405);
+                        return;
+                    }
+                    sendJsonResponse(exchange, describeLibrary(), 200);
+                    break;
+                case "scan":
+                    if (!"POST".equals(exchange.getRequestMethod())) {
+                        sendErrorResponse(exchange, "Method not allowed", 405);
+                        return;
+                    }
+                    library.scan();
+                    sendJsonResponse(exchange, describeLibrary(), 202);
+                    break;
+                default:
+                    sendErrorResponse(exchange, "Not found", 404);
+                    break;
+            }
+        }
+
+        private void search(HttpExchange exchange) throws IOException {
+            Map<String, String> parameters = readQueryParameters(exchange);
+            try {
+                MidiLibrary.SortOrder sort = MidiLibrary.SortOrder.valueOf(parameters.getOrDefault("sort", "NAME").toUpperCase());
+                int maxPolyphony = Integer.parseInt(parameters.getOrDefault("maxPolyphony", "0"));
+                int offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+                int limit = Math.min(MAX_PAGE_SIZE, Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_SIZE))));
+                MidiLibrary.Page page = library.search(parameters.get("q"), maxPolyphony, sort, offset, limit);
+
+                Map<String, Object> response = new HashMap<>();
+                response.put("total", page.getTotal());
+                response.put("offset", page.getOffset());
+                response.put("songs", page.getSongs());
+                response.put("scanning", library.isScanning());
+                sendJsonResponse(exchange, response, 200);
+            } catch (IllegalArgumentException e) {
+                sendErrorResponse(exchange, "Invalid search: " + e.getMessage(), 400);
+            }
+        }
+
+        private Map<String, Object> describeLibrary() {
+            List<String> directories = new ArrayList<>();
+            library.getDirectories().forEach(directory -> directories.add(directory.toString()));
+            Map<String, Object> status = new HashMap<>();
+            status.put("directories", directories);
+            status.put("songs", library.size());
+            status.put("scanning", library.isScanning());
+            status.put("lastScan", library.getLastScan());
+            return status;
+        }
+    }
+
+    private class SessionsHandler implements HttpHandler {
+        private final Map<String, PlaybackHandler> actions = new HashMap<>();
+
+        SessionsHandler() {
+            actions.put("load", new LoadHandler());
+            actions.put("play", new PlayHandler());
+            actions.put("pause", new PauseHandler());
+            actions.put("stop", new StopHandler());
+            actions.put("state", new StateHandler());
+            actions.put("status", new StatusHandler());
+            actions.put("position", new PositionHandler());
+            actions.put("tempo", new TempoHandler());
+            actions.put("volume", new VolumeHandler());
+            actions.put("loop", new LoopHandler());
+            actions.put("queue", new QueueHandler());
+            actions.put("analyze", new AnalyzeHandler());
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                addCorsHeaders(exchange);
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            // /api/sessions[/{id}[/{action}]]
+            String path = exchange.getRequestURI().getPath().substring("/api/sessions".length());
+            String[] parts = path.replaceAll("^/+|/+$", "").split("/");
+            if (parts[0].isEmpty()) {
+                handleSessions(exchange);
+                return;
+            }
+
+            PlaybackService session = sessions.getSession(parts[0]);
+            if (session == null) {
+                sendErrorResponse(exchange, "Session not found: " + parts[0], 404);
+            } else if (parts.length == 1) {
+                handleSession(exchange, session);
+            } else if (parts.length >= 3 && "queue".equals(parts[1])) {
+                actions.get("queue").handle(exchange, session);
+            } else if (parts.length == 2 && actions.containsKey(parts[1])) {
+                actions.get(parts[1]).handle(exchange, session);
+            } else {
+                sendErrorResponse(exchange, "Not found", 404);
+            }
+        }
+
+        private void handleSessions(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                List<Map<String, Object>> sessionList = new ArrayList<>();
+                for (PlaybackService session : sessions.getSessions()) {
+                    sessionList.add(describeSession(session));
+                }
+                Map<String, Object> response = new HashMap<>();
+                response.put("sessions", sessionList);
+                sendJsonResponse(exchange, response, 200);
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                try {
+                    SessionConfig config = objectMapper.readValue(readRequestBody(exchange), SessionConfig.class);
+                    PlaybackService session = sessions.createSession(config);
+                    sendJsonResponse(exchange, describeSession(session), 201);
+                } catch (IllegalStateException e) {
+                    sendErrorResponse(exchange, e.getMessage(), 409);
+                } catch (Exception e) {
+                    sendErrorResponse(exchange, e.getMessage(), 400);
+                }
+            } else {
+                sendErrorResponse(exchange, "Method not allowed", 405);
+            }
+        }
+
+        private void handleSession(HttpExchange exchange, PlaybackService session) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                sendJsonResponse(exchange, describeSession(session), 200);
+            } else if ("DELETE".equals(exchange.getRequestMethod())) {
+                try {
+                    sessions.removeSession(session.getSessionId());
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("success", true);
+                    response.put("message", "Session removed");
+                    sendJsonResponse(exchange, response, 200);
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(exchange, e.getMessage(), 400);
+                }
+            } else {
+                sendErrorResponse(exchange, "Method not allowed", 405);
+            }
+        }
+
+        private Map<String, Object> describeSession(PlaybackService session) {
+            session.updateState();
+            SessionConfig config = session.getConfig();
+            Map<String, Object> description = new HashMap<>();
+            description.put("id", config.getId());
+            description.put("devices", config.getDevices());
+            description.put("deviceAddress", config.getDeviceAddress());
+            description.put("deviceScript", config.getDeviceScript());
+            description.put("state", session.getState());
+            return description;
+        }
+    }
+
     private class NetworkStatusHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -421,6 +882,9 @@ public class MoppyAPIServer {
             networkStatus.put("connectedBridges", networkManager.getConnectedBridgeCount());
             networkStatus.put("discoveredDevices", networkManager.getDiscoveredDeviceCount());
             networkStatus.put("availableBridges", networkManager.getAvailableNetworkBridges().keySet());
+            networkStatus.put("bridgeStates", networkManager.getBridgeStates());
+            networkStatus.put("udpDestinations", networkManager.getUdpDestinationStats());
+            networkStatus.put("tcpRoundTrips", networkManager.getTcpRoundTrips());
 
             sendJsonResponse(exchange, networkStatus, 200);
         }
@@ -434,9 +898,38 @@ public class MoppyAPIServer {
                 return;
             }
 
+            // Optionally hold the response until discovery is ready, so clients don't have to poll or sleep.
+            // The exchange is answered when the wait ends, so waiting clients don't tie up the server's threads.
+            Map<String, String> query = readQueryParameters(exchange);
+            if (query.containsKey("expect") || query.containsKey("timeout")) {
+                int expect;
+                long timeout;
+                try {
+                    expect = Integer.parseInt(query.getOrDefault("expect", "0"));
+                    timeout = Math.min(MAX_DISCOVERY_WAIT_MILLIS, Long.parseLong(query.getOrDefault("timeout", "2000")));
+                } catch (NumberFormatException e) {
+                    sendErrorResponse(exchange, "Invalid expect or timeout: " + e.getMessage(), 400);
+                    return;
+                }
+                networkManager.awaitDevices(expect, timeout).whenCompleteAsync((devices, ex) -> {
+                    try {
+                        sendDevices(exchange);
+                    } catch (IOException e) {
+                        System.err.println("Error answering device discovery: " + e.getMessage());
+                        exchange.close();
+                    }
+                }, httpExecutor);
+                return;
+            }
+
+            sendDevices(exchange);
+        }
+
+        private void sendDevices(HttpExchange exchange) throws IOException {
             Map<String, Object> response = new HashMap<>();
             response.put("devices", networkManager.getRecentlySeenDevices());
             response.put("count", networkManager.getDiscoveredDeviceCount());
+            response.put("roundTripMicros", networkManager.getDeviceRoundTrips());
 
             sendJsonResponse(exchange, response, 200);
         }
@@ -444,22 +937,60 @@ public class MoppyAPIServer {
 
     public static void main(String[] args) {
         int port = 8080;
+        List<NetworkBridge<?>> extraBridges = new ArrayList<>();
+        List<Path> libraryDirectories = new ArrayList<>();
+        Path libraryIndex = Path.of(System.getProperty("user.home"), ".moppy", "library.idx");
+        boolean autoTuneLinks = false;
 
         // Parse command line arguments
         for (int i = 0; i < args.length; i++) {
             if ("--port".equals(args[i]) && i + 1 < args.length) {
                 try {
-                    port = Integer.parseInt(args[i + 1]);
+                    port = Integer.parseInt(args[++i]);
                 } catch (NumberFormatException e) {
-                    System.err.println("Invalid port number: " + args[i + 1]);
+                    System.err.println("Invalid port number: " + args[i]);
                     System.exit(1);
                 }
-                break;
+            } else if ("--tcp".equals(args[i]) && i + 1 < args.length) {
+                // Connect to a remote host or device over TCP (host:port); may be repeated
+                try {
+                    extraBridges.add(new BridgeTCP(args[++i]));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid --tcp address: " + e.getMessage());
+                    System.exit(1);
+                }
+            } else if ("--shm".equals(args[i]) && i + 1 < args.length) {
+                // Hand frames to a separate shm-send process (see MoppyCLI) through ring files at this path
+                extraBridges.add(new BridgeSharedMemory(args[++i]));
+            } else if ("--library".equals(args[i]) && i + 1 < args.length) {
+                // Directory of MIDI files to index for /api/library; may be repeated
+                libraryDirectories.add(Path.of(args[++i]));
+            } else if ("--library-index".equals(args[i]) && i + 1 < args.length) {
+                libraryIndex = Path.of(args[++i]);
+            } else if ("--auto-tune".equals(args[i])) {
+                // Pace serial ports and batch UDP frames to what the devices report they can take
+                autoTuneLinks = true;
+            } else if ("--tcp-server".equals(args[i])) {
+                // Accept TCP connections, optionally on a specific port
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    try {
+                        extraBridges.add(new BridgeTCPServer(BridgeTCP.parsePort(args[++i])));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid --tcp-server port: " + e.getMessage());
+                        System.exit(1);
+                    }
+                } else {
+                    extraBridges.add(new BridgeTCPServer());
+                }
             }
         }
 
         try {
-            MoppyAPIServer server = new MoppyAPIServer(port);
+            MoppyAPIServer server = new MoppyAPIServer(port, autoTuneLinks);
+            extraBridges.forEach(server::addNetworkBridge);
+            if (!libraryDirectories.isEmpty()) {
+                server.setLibrary(new MidiLibrary(libraryDirectories, libraryIndex));
+            }
 
             // Add shutdown hook
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -480,6 +1011,14 @@ public class MoppyAPIServer {
             System.out.println("  GET/PUT /api/tempo    - Get/set tempo");
             System.out.println("  GET/PUT /api/volume   - Get/set volume");
             System.out.println("  GET/PUT /api/loop     - Get/set loop mode");
+            System.out.println("  GET/POST/PUT/DELETE /api/queue - Get/add to/configure/clear the playlist");
+            System.out.println("  POST /api/queue/play|stop|skip - Control the playlist");
+            System.out.println("  POST /api/analyze  - Check songs against the discovered devices");
+            System.out.println("  GET  /api/library  - Search songs in the library (?q=&maxPolyphony=&sort=&offset=&limit=)");
+            System.out.println("  GET  /api/library/status, POST /api/library/scan - Library scan status / rescan");
+            System.out.println("  GET/POST /api/sessions    - List/create playback sessions");
+            System.out.println("  GET/DELETE /api/sessions/{id} - Get/remove a session");
+            System.out.println("  ...  /api/sessions/{id}/play etc. - Control a session like the endpoints above");
             System.out.println("  GET  /api/network/status  - Get network status");
             System.out.println("  GET  /api/network/devices - Get discovered devices");
             System.out.println("  GET  /api/health   - Health check");
@@ -1,53 +1,86 @@
 package com.moppy.api;
 
+import com.moppy.core.analysis.SongAnalyzer;
+import com.moppy.core.analysis.SongReport;
+import com.moppy.core.device.DeviceDescriptor;
 import com.moppy.core.events.mapper.MapperCollection;
 import com.moppy.core.events.mapper.MIDIEventMapper;
+import com.moppy.core.events.mapper.MIDIScriptMapper;
 import com.moppy.core.events.postprocessor.MessagePostProcessor;
 import com.moppy.core.midi.MoppyMIDIReceiverSender;
 import com.moppy.core.midi.MoppyMIDISequencer;
+import com.moppy.core.midi.PlaylistQueue;
 import com.moppy.core.status.StatusBus;
 import com.moppy.core.status.StatusConsumer;
 import com.moppy.core.status.StatusUpdate;
+import com.moppy.core.comms.bridge.DeviceSubsetBridge;
 import com.moppy.core.comms.bridge.NetworkBridge;
 import lombok.Getter;
 
 import javax.sound.midi.MidiMessage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * One playback session: a sequencer with its own mappers, post-processor and (optionally) subset of
+ * devices, playing through a bridge shared with any other sessions.
+ */
 public class PlaybackService implements StatusConsumer {
 
     @Getter
     private final PlaybackState state = new PlaybackState();
 
-    private final StatusBus statusBus;
-    private final NetworkBridge networkBridge;
+    @Getter
+    private final SessionConfig config;
+
+    // Sequencer events stay within the session, so stopping one session doesn't affect the others
+    private final StatusBus statusBus = new StatusBus();
+    private final DeviceSubsetBridge<?> networkBridge;
     private MoppyMIDISequencer sequencer;
     private MoppyMIDIReceiverSender receiverSender;
+    private PlaylistQueue queue;
 
     private final AtomicBoolean isInitialized = new AtomicBoolean(false);
     private final AtomicReference<CompletableFuture<Void>> currentPlayback = new AtomicReference<>();
 
-    public PlaybackService(StatusBus statusBus, NetworkBridge networkBridge) {
-        this.statusBus = statusBus;
-        this.networkBridge = networkBridge;
+    /**
+     * @param networkBridge Bridge shared by all sessions
+     * @param config The session's devices and mapping; a session without devices plays to every device
+     * until {@link #setDevices} says otherwise
+     */
+    public PlaybackService(NetworkBridge<?> networkBridge, SessionConfig config) {
+        this.config = config;
+        this.networkBridge = new DeviceSubsetBridge<>(networkBridge, config.getDevices().isEmpty() ? null : config.getDevices());
         this.statusBus.registerConsumer(this);
     }
 
+    /**
+     * Changes which devices a session without its own devices (i.e. the default session) may play to.
+     *
+     * @param devices The devices, or null for every device
+     * @param resetDevices Those of the devices to reset when the session stops
+     */
+    void setDevices(Collection<Integer> devices, Collection<Integer> resetDevices) {
+        networkBridge.setDevices(devices, resetDevices);
+    }
+
+    public String getSessionId() {
+        return config.getId();
+    }
+
     public synchronized void loadSong(String filePath) throws Exception {
-        File midiFile = new File(filePath);
-        if (!midiFile.exists()) {
-            throw new IllegalArgumentException("MIDI file not found: " + filePath);
-        }
+        File midiFile = checkMidiFile(filePath);
 
-        if (!midiFile.getName().toLowerCase().endsWith(".mid") &&
-                !midiFile.getName().toLowerCase().endsWith(".midi")) {
-            throw new IllegalArgumentException("File must be a MIDI file (.mid or .midi)");
+        if (queue != null) {
+            queue.stop();
         }
-
         initializeSequencer();
 
         sequencer.loadSequence(midiFile);
@@ -68,6 +101,9 @@ public class PlaybackService implements StatusConsumer {
         }
 
         initializeSequencer();
+        if (queue != null && queue.isPlaying()) {
+            queue.stop();
+        }
 
         if (state.getPlaybackState() == PlaybackState.State.PAUSED) {
             sequencer.play();
@@ -94,6 +130,11 @@ public class PlaybackService implements StatusConsumer {
     }
 
     public synchronized void stop() {
+        if (queue != null && queue.isPlaying()) {
+            queue.stop();
+            state.setPosition(0);
+            state.setPlaybackState(sequencer != null && sequencer.isSequenceLoaded() ? PlaybackState.State.LOADED : PlaybackState.State.UNLOADED);
+        }
         if (sequencer != null) {
             sequencer.stop();
             state.setPosition(0);
@@ -113,8 +154,18 @@ public class PlaybackService implements StatusConsumer {
         }
     }
 
+    /**
+     * Sets the tempo of the song playing in BPM.  While the playlist plays, its songs are sped up or slowed
+     * down by as much as it takes the current song to open at this tempo.
+     */
     public synchronized void setTempo(float tempo) {
-        if (sequencer != null && tempo > 0) {
+        if (tempo <= 0) {
+            return;
+        }
+        if (queue != null && queue.isPlaying() && queue.getCurrentSongTempo() > 0) {
+            queue.setTempoFactor(tempo / queue.getCurrentSongTempo());
+            state.setTempo(tempo);
+        } else if (sequencer != null) {
             sequencer.setTempo(tempo);
             state.setTempo(tempo);
         }
@@ -137,24 +188,116 @@ public class PlaybackService implements StatusConsumer {
         state.setLoop(loop);
     }
 
-    private void initializeSequencer() throws Exception {
-        if (isInitialized.get()) {
-            return;
+    /**
+     * Adds a song to the end of the session's playlist.
+     */
+    public synchronized void enqueue(String filePath) {
+        getQueue().add(checkMidiFile(filePath));
+    }
+
+    /**
+     * Plays the playlist from a song, stopping the loaded song if it's playing.  Each song is prepared
+     * while the one before it plays, so they follow each other without a gap.
+     */
+    public synchronized void playQueue(int index) {
+        if (sequencer != null && sequencer.isPlaying()) {
+            sequencer.stop();
         }
+        getQueue().play(index);
+    }
 
-        // Set up event mapping
+    public synchronized PlaylistQueue getQueue() {
+        if (queue == null) {
+            // Mappers keep state (e.g. which drive each note is on), so every song gets its own
+            queue = new PlaylistQueue(networkBridge, sequence -> createMappers(), createPostProcessor());
+            queue.addListener(new PlaylistQueue.Listener() {
+                @Override
+                public void songStarted(int index, File file, long lengthMicros) {
+                    state.setFileName(file.getName());
+                    state.setFilePath(file.getPath());
+                    state.setDuration((int) TimeUnit.MICROSECONDS.toSeconds(lengthMicros));
+                    state.setPosition(0);
+                    state.setTempo((float) (queue.getCurrentSongTempo() * queue.getTempoFactor()));
+                    state.setPlaybackState(PlaybackState.State.PLAYING);
+                }
+
+                @Override
+                public void queueFinished() {
+                    state.setPosition(0);
+                    state.setPlaybackState(sequencer != null && sequencer.isSequenceLoaded() ? PlaybackState.State.LOADED : PlaybackState.State.UNLOADED);
+                }
+            });
+        }
+        return queue;
+    }
+
+    /**
+     * Checks how well songs would play in this session: with its mappers, on those of the devices that
+     * it may play to.
+     *
+     * @param devices Devices on the network
+     */
+    public List<SongReport> analyze(List<String> filePaths, Collection<DeviceDescriptor> devices) throws InterruptedException {
+        List<File> files = new ArrayList<>();
+        for (String filePath : filePaths) {
+            files.add(checkMidiFile(filePath));
+        }
+        List<DeviceDescriptor> sessionDevices = devices.stream()
+                .filter(device -> networkBridge.includes(device.getDeviceAddress()))
+                .toList();
+
+        // Script mappers take turns on one shared script context, so more threads wouldn't help
+        int parallelism = config.getDeviceScript() != null ? 1 : Runtime.getRuntime().availableProcessors();
+        return new SongAnalyzer(sessionDevices).analyzeAll(files, sequence -> createMappers(), parallelism);
+    }
+
+    private File checkMidiFile(String filePath) {
+        File midiFile = new File(filePath);
+        if (!midiFile.exists()) {
+            throw new IllegalArgumentException("MIDI file not found: " + filePath);
+        }
+
+        if (!midiFile.getName().toLowerCase().endsWith(".mid") &&
+                !midiFile.getName().toLowerCase().endsWith(".midi")) {
+            throw new IllegalArgumentException("File must be a MIDI file (.mid or .midi)");
+        }
+        return midiFile;
+    }
+
+    private MapperCollection<MidiMessage> createMappers() {
         MapperCollection<MidiMessage> mappers = new MapperCollection<>();
-        MIDIEventMapper defaultMapper = MIDIEventMapper.defaultMapper((byte) 1);
-        mappers.addMapper(defaultMapper);
+        if (config.getDeviceScript() != null) {
+            MIDIScriptMapper scriptMapper = new MIDIScriptMapper();
+            scriptMapper.setDeviceAddressScript(config.getDeviceScript());
+            mappers.addMapper(scriptMapper);
+        } else {
+            MIDIEventMapper defaultMapper = MIDIEventMapper.defaultMapper(getDeviceAddress());
+            mappers.addMapper(defaultMapper);
+        }
+        return mappers;
+    }
 
-        // Set up post-processor for volume control
-        MessagePostProcessor postProcessor = message -> {
+    /**
+     * Post-processor for volume control
+     */
+    private MessagePostProcessor createPostProcessor() {
+        return message -> {
             if (message.getMessageCommandByte() == com.moppy.core.comms.MoppyMessage.CommandByte.DEV_PLAYNOTE) {
                 byte[] bytes = message.getMessageBytes();
                 bytes[6] = (byte) Math.max(0, Math.min(255, bytes[6] * state.getVolume()));
             }
             return message;
         };
+    }
+
+    private void initializeSequencer() throws Exception {
+        if (isInitialized.get()) {
+            return;
+        }
+
+        // Set up event mapping
+        MapperCollection<MidiMessage> mappers = createMappers();
+        MessagePostProcessor postProcessor = createPostProcessor();
 
         try {
             // Create MIDI system components
@@ -169,6 +312,13 @@ public class PlaybackService implements StatusConsumer {
         }
     }
 
+    private byte getDeviceAddress() {
+        if (config.getDeviceAddress() != null) {
+            return config.getDeviceAddress().byteValue();
+        }
+        return config.getDevices().isEmpty() ? (byte) 1 : config.getDevices().get(0).byteValue();
+    }
+
     @Override
     public void receiveUpdate(StatusUpdate update) {
         switch (update.getType()) {
@@ -215,6 +365,11 @@ public class PlaybackService implements StatusConsumer {
     }
 
     public void updateState() {
+        PlaylistQueue playlist = queue;
+        if (playlist != null && playlist.isPlaying()) {
+            state.setPosition((int) TimeUnit.MICROSECONDS.toSeconds(playlist.getPositionMicros()));
+            return;
+        }
         if (sequencer == null)
             return;
 
@@ -223,6 +378,8 @@ public class PlaybackService implements StatusConsumer {
     }
 
     public synchronized void shutdown() throws IOException {
+        if (queue != null)
+            queue.close();
         if (sequencer != null)
             sequencer.close();
 
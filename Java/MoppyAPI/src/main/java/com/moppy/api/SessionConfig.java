@@ -0,0 +1,22 @@
+package com.moppy.api;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How a playback session maps songs to devices.  Sent as the body of POST /api/sessions.
+ */
+@Data
+public class SessionConfig {
+
+    private String id;
+    // Devices this session may play; required, except for the default session, which plays to every device
+    // no other session has
+    private List<Integer> devices = new ArrayList<>();
+    // Device to map all channels to; defaults to the first of the session's devices
+    private Integer deviceAddress;
+    // JavaScript expression choosing the device address per event instead (e.g. "c+1")
+    private String deviceScript;
+}
@@ -0,0 +1,177 @@
+package com.moppy.api;
+
+import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.device.DeviceDescriptor;
+import com.moppy.core.events.mapper.MIDIScriptMapper;
+import com.moppy.core.status.StatusConsumer;
+import com.moppy.core.status.StatusType;
+import com.moppy.core.status.StatusUpdate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * The playback sessions of one server, e.g. one per room, all sharing the server's bridges and discovery.
+ *
+ * The "default" session always exists and backs the original /api/play, /api/stop... endpoints.  It plays
+ * to device 1, which no other session may claim, and may reach every device no other session has claimed.
+ * Once other sessions exist its stops and resets become resets of the unclaimed devices that have been
+ * discovered (and device 1), so they don't silence the other sessions.  Every other session is given its
+ * own devices, which it can't share.
+ *
+ * Register the manager for status updates so the default session follows devices as they're discovered.
+ */
+public class SessionManager implements StatusConsumer {
+
+    public static final String DEFAULT_SESSION = "default";
+
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private static final int DEFAULT_SESSION_DEVICE = 1;
+
+    private final NetworkBridge<?> networkBridge;
+    private final Supplier<? extends Collection<DeviceDescriptor>> discoveredDevices;
+    private final Map<String, PlaybackService> sessions = new LinkedHashMap<>();
+
+    /**
+     * @param networkBridge Bridge shared by all sessions
+     * @param discoveredDevices The devices found on the network so far
+     */
+    public SessionManager(NetworkBridge<?> networkBridge, Supplier<? extends Collection<DeviceDescriptor>> discoveredDevices) {
+        this.networkBridge = networkBridge;
+        this.discoveredDevices = discoveredDevices;
+
+        SessionConfig defaultConfig = new SessionConfig();
+        defaultConfig.setId(DEFAULT_SESSION);
+        defaultConfig.setDeviceAddress(DEFAULT_SESSION_DEVICE);
+        sessions.put(DEFAULT_SESSION, new PlaybackService(networkBridge, defaultConfig));
+    }
+
+    /**
+     * @throws IllegalArgumentException If the config isn't valid
+     * @throws IllegalStateException If the id is taken, or another session (including the default session,
+     * for device 1) already has one of the devices
+     */
+    public synchronized PlaybackService createSession(SessionConfig config) {
+        if (config.getId() == null || !SESSION_ID.matcher(config.getId()).matches()) {
+            throw new IllegalArgumentException("Session id must be 1-64 letters, digits, '-' or '_'");
+        }
+        for (Integer address : config.getDevices()) {
+            if (address == null || address < 1 || address > 255) {
+                throw new IllegalArgumentException("Device addresses are 1 to 255");
+            }
+        }
+        if (config.getDeviceAddress() != null && (config.getDeviceAddress() < 1 || config.getDeviceAddress() > 255)) {
+            throw new IllegalArgumentException("Device addresses are 1 to 255");
+        }
+        if (config.getDevices().isEmpty()) {
+            throw new IllegalArgumentException("Sessions need at least one device");
+        }
+        // So deviceAddress is checked against the other sessions' devices below with the rest
+        if (config.getDeviceAddress() != null && !config.getDevices().contains(config.getDeviceAddress())) {
+            throw new IllegalArgumentException("deviceAddress must be one of the session's devices");
+        }
+        if (config.getDeviceScript() != null) {
+            try {
+                new MIDIScriptMapper().setDeviceAddressScript(config.getDeviceScript());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid deviceScript: " + e.getMessage());
+            }
+        }
+
+        if (sessions.containsKey(config.getId())) {
+            throw new IllegalStateException("Session already exists: " + config.getId());
+        }
+        if (config.getDevices().contains(DEFAULT_SESSION_DEVICE)) {
+            throw new IllegalStateException(String.format("Device %d belongs to session %s", DEFAULT_SESSION_DEVICE, DEFAULT_SESSION));
+        }
+        for (PlaybackService session : sessions.values()) {
+            for (Integer address : config.getDevices()) {
+                if (session.getConfig().getDevices().contains(address)) {
+                    throw new IllegalStateException(String.format("Device %d already belongs to session %s", address, session.getSessionId()));
+                }
+            }
+        }
+
+        PlaybackService session = new PlaybackService(networkBridge, config);
+        sessions.put(config.getId(), session);
+        updateDefaultSessionDevices();
+        return session;
+    }
+
+    /**
+     * Leaves the default session the devices no other session has claimed, resetting only those of them
+     * that are actually there (rather than a frame for each of the 254 possible addresses).
+     */
+    private void updateDefaultSessionDevices() {
+        Set<Integer> claimed = new HashSet<>();
+        sessions.values().forEach(session -> claimed.addAll(session.getConfig().getDevices()));
+        if (claimed.isEmpty()) {
+            getDefaultSession().setDevices(null, null);
+            return;
+        }
+        Set<Integer> resets = new HashSet<>();
+        resets.add(DEFAULT_SESSION_DEVICE);
+        discoveredDevices.get().forEach(device -> resets.add(device.getDeviceAddress() & 0xff));
+        resets.removeAll(claimed);
+        getDefaultSession().setDevices(
+                IntStream.rangeClosed(1, 255).filter(address -> !claimed.contains(address)).boxed().toList(), resets);
+    }
+
+    @Override
+    public synchronized void receiveUpdate(StatusUpdate update) {
+        if (update.getType() == StatusType.NET_DEVICES_CHANGED) {
+            updateDefaultSessionDevices();
+        }
+    }
+
+    /**
+     * @return The session, or null if there isn't one with that id
+     */
+    public synchronized PlaybackService getSession(String id) {
+        return sessions.get(id);
+    }
+
+    public synchronized PlaybackService getDefaultSession() {
+        return sessions.get(DEFAULT_SESSION);
+    }
+
+    public synchronized List<PlaybackService> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * Stops a session's playback (silencing its devices) and removes it.
+     *
+     * @return False if there was no such session
+     * @throws IllegalArgumentException For the default session, which can't be removed
+     */
+    public synchronized boolean removeSession(String id) throws IOException {
+        if (DEFAULT_SESSION.equals(id)) {
+            throw new IllegalArgumentException("The default session can't be removed");
+        }
+        PlaybackService session = sessions.remove(id);
+        if (session == null) {
+            return false;
+        }
+        session.stop();
+        session.shutdown();
+        updateDefaultSessionDevices();
+        return true;
+    }
+
+    public synchronized void shutdown() throws IOException {
+        for (PlaybackService session : sessions.values()) {
+            session.shutdown();
+        }
+    }
+}
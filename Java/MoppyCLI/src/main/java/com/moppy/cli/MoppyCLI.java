@@ -1,7 +1,13 @@
 package com.moppy.cli;
 
+import com.moppy.cli.commands.AnalyzeCommand;
 import com.moppy.cli.commands.PlayCommand;
 import com.moppy.cli.commands.DevicesCommand;
+import com.moppy.cli.commands.FollowCommand;
+import com.moppy.cli.commands.LeadCommand;
+import com.moppy.cli.commands.RenderCommand;
+import com.moppy.cli.commands.ReplayCommand;
+import com.moppy.cli.commands.ShmSendCommand;
 import com.moppy.cli.commands.TestCommand;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -15,7 +21,13 @@ import java.util.concurrent.Callable;
 @Command(name = "moppy", description = "Command-line interface for Moppy musical floppy drive controller", version = "MoppyCLI 2.0", mixinStandardHelpOptions = true, subcommands = {
         PlayCommand.class,
         DevicesCommand.class,
-        TestCommand.class
+        TestCommand.class,
+        ReplayCommand.class,
+        LeadCommand.class,
+        FollowCommand.class,
+        RenderCommand.class,
+        AnalyzeCommand.class,
+        ShmSendCommand.class
 })
 public class MoppyCLI implements Callable<Integer> {
 
@@ -29,7 +41,16 @@ public class MoppyCLI implements Callable<Integer> {
         // Set up logging
         System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "WARN");
 
-        int exitCode = new CommandLine(new MoppyCLI()).execute(args);
+        int exitCode = new CommandLine(new MoppyCLI())
+                .setExecutionExceptionHandler((ex, commandLine, parseResult) -> {
+                    if (ex instanceof IllegalArgumentException) {
+                        // Option values that are only checked once a command runs, e.g. a bad --network port
+                        System.err.println("Error: " + ex.getMessage());
+                        return 1;
+                    }
+                    throw ex;
+                })
+                .execute(args);
         System.exit(exitCode);
     }
 
@@ -44,6 +65,12 @@ public class MoppyCLI implements Callable<Integer> {
         System.out.println("  play      Play a MIDI file");
         System.out.println("  devices   List and manage network devices");
         System.out.println("  test      Test network connectivity");
+        System.out.println("  replay    Replay a recorded frame log");
+        System.out.println("  lead      Play a MIDI file across several hosts");
+        System.out.println("  follow    Play this host's devices for a leader");
+        System.out.println("  render    Render a MIDI file to a WAV of how the drives would sound");
+        System.out.println("  analyze   Check whether MIDI files will play well on the devices");
+        System.out.println("  shm-send  Send frames from another process's shared memory ring to the devices");
         System.out.println();
         System.out.println("Use 'moppy <command> --help' for more information on a command.");
 
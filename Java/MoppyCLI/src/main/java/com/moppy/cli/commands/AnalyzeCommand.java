@@ -0,0 +1,168 @@
+package com.moppy.cli.commands;
+
+import com.moppy.cli.network.CLINetworkManager;
+import com.moppy.core.analysis.SongAnalyzer;
+import com.moppy.core.analysis.SongReport;
+import com.moppy.core.device.DeviceDescriptor;
+import com.moppy.core.events.mapper.MIDIEventMapper;
+import com.moppy.core.events.mapper.MIDIScriptMapper;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.mapper.VoiceAllocatingMapper;
+import com.moppy.core.events.mapper.VoiceAllocator;
+import com.moppy.core.status.StatusBus;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import javax.sound.midi.MidiMessage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+/**
+ * Command to check before a show whether songs will play well on the devices there are
+ */
+@Command(name = "analyze", description = "Check whether MIDI files will play well on the devices: note range, drives needed, pitch bends and link bandwidth", mixinStandardHelpOptions = true)
+public class AnalyzeCommand implements Callable<Integer> {
+
+    @Parameters(index = "0..*", arity = "1..*", description = "MIDI files, or directories to analyse every MIDI file in")
+    private List<File> midiFiles;
+
+    @Option(names = { "-n", "--network" }, description = "Analyse against the devices discovered on this network instead of -d/-s (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)")
+    private String networkType;
+
+    @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
+    private String serialPort;
+
+    @Option(names = { "-t", "--timeout" }, description = "Longest to wait for devices in seconds (with --network)", defaultValue = "5")
+    private int timeout;
+
+    @Option(names = { "--expect-devices" }, split = ",", description = "Device addresses to wait for (comma separated), starting as soon as they've all answered")
+    private List<Integer> expectedDevices;
+
+    @Option(names = { "-d", "--device" }, description = "Device address to map all channels to", defaultValue = "1")
+    private int deviceAddress;
+
+    @Option(names = { "-s", "--sub-devices" }, description = "Number of drives on the device (without --network, the device is assumed to be on a serial port)", defaultValue = "8")
+    private int subDevices;
+
+    @Option(names = { "--device-script" }, description = "JavaScript expression choosing the device address per event instead (e.g. \"c+1\" for one device per channel)")
+    private String deviceScript;
+
+    @Option(names = { "--voices" }, description = "Spread notes from every channel across the device's drives, stealing a drive when all are busy (${COMPLETION-CANDIDATES})")
+    private VoiceAllocator.StealPolicy voicePolicy;
+
+    @Option(names = { "--threads" }, description = "Songs to analyse at once (0 for one per core; 1 with --device-script, whose scripts take turns)", defaultValue = "0")
+    private int threads;
+
+    @Option(names = { "-q", "--quiet" }, description = "Only print songs with warnings")
+    private boolean quiet;
+
+    @Override
+    public Integer call() throws Exception {
+        if (deviceScript != null && voicePolicy != null) {
+            System.err.println("Error: --device-script and --voices can't be used together");
+            return 1;
+        }
+        List<File> files = new ArrayList<>();
+        for (File file : midiFiles) {
+            if (file.isDirectory()) {
+                files.addAll(findMidiFiles(file.toPath()));
+            } else if (file.isFile()) {
+                files.add(file);
+            } else {
+                System.err.println("Error: No such file or directory: " + file);
+                return 1;
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Error: No MIDI files found");
+            return 1;
+        }
+
+        List<DeviceDescriptor> devices;
+        if (networkType != null) {
+            CLINetworkManager networkManager = new CLINetworkManager(new StatusBus(), networkType, serialPort);
+            try {
+                networkManager.start();
+                System.out.printf("Waiting up to %d seconds for device responses...%n", timeout);
+                devices = new ArrayList<>(networkManager.awaitDevices(expectedDevices, timeout * 1000L).get());
+            } finally {
+                networkManager.close();
+            }
+            if (devices.isEmpty()) {
+                System.err.println("Error: No devices discovered");
+                return 1;
+            }
+            for (DeviceDescriptor device : devices) {
+                System.out.printf("Device %d: drives %d-%d on %s%n", device.getDeviceAddress() & 0xFF,
+                        device.getMinSubAddress() & 0xFF, device.getMaxSubAddress() & 0xFF, device.getNetworkAddress());
+            }
+        } else {
+            devices = List.of(DeviceDescriptor.builder()
+                    .deviceAddress((byte) deviceAddress)
+                    .minSubAddress((byte) 1)
+                    .maxSubAddress((byte) subDevices)
+                    .build());
+        }
+
+        // Script mappers take turns on one shared script context, so more threads wouldn't help
+        int parallelism = deviceScript != null ? 1 : threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        SongAnalyzer analyzer = new SongAnalyzer(devices);
+        List<SongReport> reports = analyzer.analyzeAll(files, sequence -> createMappers(), parallelism);
+
+        int withWarnings = 0;
+        int failures = 0;
+        for (SongReport report : reports) {
+            if (report.getError() != null) {
+                failures++;
+            } else if (!report.isPlayable()) {
+                withWarnings++;
+            }
+            if (!quiet || !report.isPlayable()) {
+                System.out.print(report.describe());
+            }
+        }
+
+        if (reports.size() > 1) {
+            System.out.printf("Analysed %d files: %d should play well, %d with warnings, %d unreadable%n",
+                    reports.size(), reports.size() - withWarnings - failures, withWarnings, failures);
+        }
+        return withWarnings == 0 && failures == 0 ? 0 : 1;
+    }
+
+    private MapperCollection<MidiMessage> createMappers() {
+        MapperCollection<MidiMessage> mappers = new MapperCollection<>();
+        if (deviceScript != null) {
+            MIDIScriptMapper scriptMapper = new MIDIScriptMapper();
+            scriptMapper.setDeviceAddressScript(deviceScript);
+            mappers.addMapper(scriptMapper);
+        } else if (voicePolicy != null) {
+            VoiceAllocator voiceAllocator = new VoiceAllocator(voicePolicy);
+            voiceAllocator.setVoices((byte) deviceAddress, subDevices);
+            mappers.addMapper(new VoiceAllocatingMapper(voiceAllocator));
+        } else {
+            mappers.addMapper(MIDIEventMapper.defaultMapper((byte) deviceAddress));
+        }
+        return mappers;
+    }
+
+    private static List<File> findMidiFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return name.endsWith(".mid") || name.endsWith(".midi");
+                    })
+                    .sorted()
+                    .map(Path::toFile)
+                    .toList();
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.moppy.cli.commands;
 
 import com.moppy.cli.network.CLINetworkManager;
+import com.moppy.core.comms.LinkQuality;
 import com.moppy.core.device.DeviceDescriptor;
 import com.moppy.core.status.StatusBus;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -15,15 +17,21 @@ import java.util.concurrent.Callable;
 @Command(name = "devices", description = "List and manage Moppy devices on the network", mixinStandardHelpOptions = true)
 public class DevicesCommand implements Callable<Integer> {
 
-    @Option(names = { "-n", "--network" }, description = "Network type (udp, serial, all)", defaultValue = "all")
+    @Option(names = { "-n", "--network" }, description = "Network type (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)", defaultValue = "all")
     private String networkType;
 
     @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
     private String serialPort;
 
-    @Option(names = { "-t", "--timeout" }, description = "Discovery timeout in seconds", defaultValue = "10")
+    @Option(names = { "-t", "--timeout" }, description = "Longest to wait for devices in seconds (finishes sooner once no new devices have answered for a moment)", defaultValue = "10")
     private int timeout;
 
+    @Option(names = { "--expect-devices" }, split = ",", description = "Device addresses to wait for (comma separated), finishing as soon as they've all answered")
+    private List<Integer> expectedDevices;
+
+    @Option(names = { "--link-test" }, description = "Step serial ports up to their devices' preferred baud rate, then measure and print each port's throughput and latency")
+    private boolean linkTest;
+
     @Option(names = { "-v", "--verbose" }, description = "Verbose output")
     private boolean verbose;
 
@@ -41,11 +49,8 @@ public class DevicesCommand implements Callable<Integer> {
             networkManager.start();
 
             // Wait for device discovery
-            System.out.printf("Waiting %d seconds for device responses...%n", timeout);
-            Thread.sleep(timeout * 1000);
-
-            // Display discovered devices
-            List<DeviceDescriptor> devices = networkManager.getDiscoveredDevices();
+            System.out.printf("Waiting up to %d seconds for device responses...%n", timeout);
+            List<DeviceDescriptor> devices = new ArrayList<>(networkManager.awaitDevices(expectedDevices, timeout * 1000L).get());
 
             if (devices.isEmpty()) {
                 System.out.println("No devices discovered.");
@@ -75,6 +80,19 @@ public class DevicesCommand implements Callable<Integer> {
 
             System.out.println("└─────────┴──────────────────────┴─────────────────┘");
 
+            if (linkTest) {
+                System.out.println();
+                System.out.println("Serial links:");
+                networkManager.negotiateSerialBauds(0);
+                List<LinkQuality> links = networkManager.measureSerialLinks();
+                if (links.isEmpty()) {
+                    System.out.println("  No serial ports connected");
+                }
+                for (LinkQuality link : links) {
+                    System.out.println("  " + link.getDescription());
+                }
+            }
+
             if (verbose) {
                 System.out.println();
                 System.out.println("Detailed device information:");
@@ -85,6 +103,16 @@ public class DevicesCommand implements Callable<Integer> {
                             device.getMinSubAddress() & 0xFF,
                             device.getMaxSubAddress() & 0xFF,
                             (device.getMaxSubAddress() & 0xFF) - (device.getMinSubAddress() & 0xFF) + 1);
+                    System.out.printf("  Compact encoding: %s%n", device.supportsCompactEncoding() ? "yes" : "no");
+                    if (device.getMaxMessagesPerSecond() > 0) {
+                        System.out.printf("  Max message rate: %d/s%n", device.getMaxMessagesPerSecond());
+                    }
+                    if (device.getPreferredBaud() > 0) {
+                        System.out.printf("  Preferred baud: %d%n", device.getPreferredBaud());
+                    }
+                    if (device.getMaxBatchBytes() > 0) {
+                        System.out.printf("  Batching: up to %d bytes per datagram%n", device.getMaxBatchBytes());
+                    }
                     System.out.println();
                 }
             }
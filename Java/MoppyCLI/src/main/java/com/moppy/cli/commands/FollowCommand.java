@@ -0,0 +1,85 @@
+package com.moppy.cli.commands;
+
+import com.moppy.cli.network.CLINetworkManager;
+import com.moppy.core.distributed.PlaybackFollower;
+import com.moppy.core.distributed.TimelinePlayer;
+import com.moppy.core.status.StatusBus;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Command to play this host's share of a show driven by the lead command
+ */
+@Command(name = "follow", description = "Play this host's devices in sync with a host running 'lead'", mixinStandardHelpOptions = true)
+public class FollowCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "Leader address (host or host:port)")
+    private String leaderAddress;
+
+    @Option(names = { "--own" }, split = ",", description = "Device addresses played by this host (all by default)")
+    private List<Integer> ownedAddresses = new ArrayList<>();
+
+    @Option(names = { "--name" }, description = "Name shown in the leader's logs (defaults to the host name)")
+    private String name;
+
+    @Option(names = { "-n", "--network" }, description = "Network type (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)", defaultValue = "all")
+    private String networkType;
+
+    @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
+    private String serialPort;
+
+    @Option(names = { "--verbose" }, description = "Verbose output")
+    private boolean verbose;
+
+    @Override
+    public Integer call() throws Exception {
+        if (name == null) {
+            name = InetAddress.getLocalHost().getHostName();
+        }
+
+        StatusBus statusBus = new StatusBus();
+        CLINetworkManager networkManager = new CLINetworkManager(statusBus, networkType, serialPort);
+        TimelinePlayer player = new TimelinePlayer(networkManager.getPrimaryBridge(), ownedAddresses);
+        PlaybackFollower follower = new PlaybackFollower(leaderAddress, name, player);
+
+        try {
+            networkManager.start();
+            follower.connect();
+            System.out.printf("Following %s as %s%s%n", leaderAddress, name,
+                    ownedAddresses.isEmpty() ? "" : " (devices " + ownedAddresses + ")");
+            System.out.println("Press Ctrl+C to stop");
+
+            Runtime.getRuntime().addShutdownHook(new Thread(player::stop));
+
+            // Carry on until the leader goes away and we've finished what we were playing
+            while (follower.isConnected() || player.isPlaying()) {
+                Thread.sleep(500);
+                if (verbose && follower.isClockSynchronized()) {
+                    System.out.printf("\rClock offset %+.3f ms (round trip %d us), %d frames played   ",
+                            follower.getClockOffsetNanos() / 1e6, follower.getRoundTripMicros(), player.getFramesPlayed());
+                }
+            }
+
+            System.out.println();
+            System.out.printf("Played %d frames, lateness mean %d us / max %d us%n",
+                    player.getFramesPlayed(), player.getMeanLatenessMicros(), player.getMaxLatenessMicros());
+        } catch (Exception e) {
+            System.err.println("Error following leader: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+            return 1;
+        } finally {
+            follower.close();
+            networkManager.close();
+        }
+
+        return 0;
+    }
+}
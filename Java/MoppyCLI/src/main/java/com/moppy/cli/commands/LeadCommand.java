@@ -0,0 +1,137 @@
+package com.moppy.cli.commands;
+
+import com.moppy.cli.network.CLINetworkManager;
+import com.moppy.core.distributed.FrameTimeline;
+import com.moppy.core.distributed.PlaybackLeader;
+import com.moppy.core.distributed.TimelinePlayer;
+import com.moppy.core.events.mapper.MIDIEventMapper;
+import com.moppy.core.events.mapper.MIDIScriptMapper;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.postprocessor.MessagePostProcessor;
+import com.moppy.core.status.StatusBus;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command to drive synchronized playback on several hosts running the follow command
+ */
+@Command(name = "lead", description = "Play a MIDI file across several hosts running 'follow'", mixinStandardHelpOptions = true)
+public class LeadCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "MIDI file to play")
+    private File midiFile;
+
+    @Option(names = { "-l", "--listen" }, description = "Port to accept followers on", defaultValue = "30996")
+    private int listenPort;
+
+    @Option(names = { "-f", "--followers" }, description = "Number of followers to wait for before starting", defaultValue = "0")
+    private int expectedFollowers;
+
+    @Option(names = { "--own" }, split = ",", description = "Device addresses played by this host (none by default: only coordinate)")
+    private List<Integer> ownedAddresses = new ArrayList<>();
+
+    @Option(names = { "-n", "--network" }, description = "Network type for this host's own devices (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)", defaultValue = "all")
+    private String networkType;
+
+    @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
+    private String serialPort;
+
+    @Option(names = { "-d", "--device" }, description = "Device address to map all channels to", defaultValue = "1")
+    private int deviceAddress;
+
+    @Option(names = { "--device-script" }, description = "JavaScript expression choosing the device address per event instead (e.g. \"c+1\" for one device per channel)")
+    private String deviceScript;
+
+    @Option(names = { "--start-delay" }, description = "Milliseconds between issuing a command and every host acting on it", defaultValue = "500")
+    private long startDelayMillis;
+
+    @Option(names = { "--start-at" }, description = "Position to start from, in seconds", defaultValue = "0")
+    private double startSeconds;
+
+    @Option(names = { "--verbose" }, description = "Verbose output")
+    private boolean verbose;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!midiFile.exists()) {
+            System.err.println("Error: MIDI file not found: " + midiFile.getAbsolutePath());
+            return 1;
+        }
+
+        MapperCollection<MidiMessage> mappers = new MapperCollection<>();
+        if (deviceScript != null) {
+            MIDIScriptMapper scriptMapper = new MIDIScriptMapper();
+            scriptMapper.setDeviceAddressScript(deviceScript);
+            mappers.addMapper(scriptMapper);
+        } else {
+            mappers.addMapper(MIDIEventMapper.defaultMapper((byte) deviceAddress));
+        }
+        FrameTimeline timeline = FrameTimeline.render(MidiSystem.getSequence(midiFile), mappers, MessagePostProcessor.PASS_THROUGH);
+        System.out.printf("Mapped %s to %d frames (%.1f s)%n", midiFile.getName(), timeline.size(), timeline.getLengthMicros() / 1e6);
+
+        StatusBus statusBus = new StatusBus();
+        CLINetworkManager networkManager = null;
+        TimelinePlayer localPlayer = null;
+        PlaybackLeader leader = new PlaybackLeader(listenPort);
+
+        try {
+            if (!ownedAddresses.isEmpty()) {
+                networkManager = new CLINetworkManager(statusBus, networkType, serialPort);
+                networkManager.start();
+                localPlayer = new TimelinePlayer(networkManager.getPrimaryBridge(), ownedAddresses);
+                leader.setLocalPlayer(localPlayer);
+            }
+
+            leader.open();
+            leader.loadTimeline(timeline);
+            System.out.printf("Waiting for followers on port %d...%n", listenPort);
+            while (leader.getFollowers().size() < expectedFollowers) {
+                Thread.sleep(100);
+            }
+            if (verbose) {
+                System.out.println("Followers: " + leader.getFollowers());
+            }
+
+            long startPositionMicros = (long) (startSeconds * 1_000_000);
+            leader.start(startPositionMicros, startDelayMillis);
+            System.out.println("Playing: " + midiFile.getName());
+            System.out.println("Press Ctrl+C to stop");
+
+            PlaybackLeader stoppingLeader = leader;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stoppingLeader.stop(0)));
+
+            // Play until the last frame has been sent everywhere
+            long remainingMicros = timeline.getLengthMicros() - startPositionMicros;
+            Thread.sleep(startDelayMillis + TimeUnit.MICROSECONDS.toMillis(Math.max(0, remainingMicros)) + 1000);
+            leader.stop(0);
+            Thread.sleep(100); // Let the stop reach the followers
+
+            if (localPlayer != null) {
+                System.out.printf("Played %d local frames, lateness mean %d us / max %d us%n",
+                        localPlayer.getFramesPlayed(), localPlayer.getMeanLatenessMicros(), localPlayer.getMaxLatenessMicros());
+            }
+        } catch (Exception e) {
+            System.err.println("Error leading playback: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+            return 1;
+        } finally {
+            leader.close();
+            if (networkManager != null) {
+                networkManager.close();
+            }
+        }
+
+        return 0;
+    }
+}
@@ -3,33 +3,52 @@ package com.moppy.cli.commands;
 import com.moppy.cli.network.CLINetworkManager;
 import com.moppy.cli.player.CLIMIDIPlayer;
 import com.moppy.cli.util.ConsoleProgressBar;
+import com.moppy.core.comms.FrameLog;
+import com.moppy.core.comms.LinkQuality;
+import com.moppy.core.comms.bridge.CoalescingBridge;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.comms.bridge.RecordingBridge;
+import com.moppy.core.events.mapper.AutoChannelMapper;
 import com.moppy.core.events.mapper.MapperCollection;
 import com.moppy.core.events.mapper.MIDIEventMapper;
+import com.moppy.core.events.mapper.VoiceAllocatingMapper;
+import com.moppy.core.events.mapper.VoiceAllocator;
+import com.moppy.core.events.postprocessor.LookAheadPostProcessor;
 import com.moppy.core.events.postprocessor.MessagePostProcessor;
 import com.moppy.core.midi.MoppyMIDIReceiverSender;
 import com.moppy.core.midi.MoppyMIDISequencer;
+import com.moppy.core.midi.PlaylistQueue;
 import com.moppy.core.status.StatusBus;
+import com.moppy.core.status.StatusConsumer;
+import com.moppy.core.status.StatusType;
+import com.moppy.core.status.StatusUpdate;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Command to play MIDI files through Moppy devices
  */
-@Command(name = "play", description = "Play a MIDI file through Moppy devices", mixinStandardHelpOptions = true)
+@Command(name = "play", description = "Play MIDI files through Moppy devices", mixinStandardHelpOptions = true)
 public class PlayCommand implements Callable<Integer> {
 
-    @Parameters(index = "0", description = "MIDI file to play")
-    private File midiFile;
+    @Parameters(arity = "1..*", description = "MIDI file(s) to play; several are played back to back without a gap")
+    private List<File> midiFiles;
 
-    @Option(names = { "-n", "--network" }, description = "Network type (udp, serial, all)", defaultValue = "all")
+    @Option(names = { "-n", "--network" }, description = "Network type (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)", defaultValue = "all")
     private String networkType;
 
     @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
@@ -47,9 +66,45 @@ public class PlayCommand implements Callable<Integer> {
     @Option(names = { "-t", "--tempo" }, description = "Tempo multiplier (0.1-5.0)", defaultValue = "1.0")
     private double tempoMultiplier;
 
-    @Option(names = { "--loop" }, description = "Loop the MIDI file")
+    @Option(names = { "--expect-devices" }, split = ",", description = "Device addresses to wait for before playing (comma separated); by default playback starts once no new devices have answered for a moment")
+    private List<Integer> expectedDevices;
+
+    @Option(names = { "--discovery-timeout" }, description = "Longest to wait for devices before playing, in milliseconds", defaultValue = "1000")
+    private long discoveryTimeoutMillis;
+
+    @Option(names = { "--loop" }, description = "Loop the MIDI file (or the whole playlist)")
     private boolean loop;
 
+    @Option(names = { "--overlap" }, description = "With several files, start each one this many milliseconds before the last one ends", defaultValue = "0")
+    private long overlapMillis;
+
+    @Option(names = { "--look-ahead" }, description = "Send notes this many milliseconds early, scheduled on each device's clock (0 to disable)", defaultValue = "0")
+    private int lookAheadMillis;
+
+    @Option(names = { "--udp-redundancy" }, description = "Add sequence numbers to UDP frames to detect loss, and send note-offs and stops this many extra times (-1 to disable)", defaultValue = "-1")
+    private int udpRedundancy;
+
+    @Option(names = { "--serial-latency" }, description = "Pace serial ports to their baud rate, sending stops and note-offs first and shedding bends/note-ons that would wait longer than this many milliseconds (-1 to never shed)", defaultValue = "-1")
+    private int serialMaxLatencyMillis;
+
+    @Option(names = { "--serial-baud" }, description = "Highest baud rate to step serial ports up to (0 for the fastest their devices report, -1 to stay at 57600)", defaultValue = "0")
+    private int serialBaud;
+
+    @Option(names = { "--auto-tune" }, description = "Tune each link to the message rate and batching limits its devices report")
+    private boolean autoTune;
+
+    @Option(names = { "--coalesce" }, description = "Send at most one pitch bend per drive every this many milliseconds, and drop repeated note-ons/offs (-1 to disable)", defaultValue = "-1")
+    private int coalesceMillis;
+
+    @Option(names = { "--voices" }, description = "Spread notes from every channel across all discovered drives, stealing a drive when all are busy (${COMPLETION-CANDIDATES})")
+    private VoiceAllocator.StealPolicy voicePolicy;
+
+    @Option(names = { "--auto-map" }, description = "Split the drives of all discovered devices between the song's channels so each channel's biggest chord fits")
+    private boolean autoMap;
+
+    @Option(names = { "--record" }, description = "Record all network traffic to a frame log for later replay")
+    private File recordFile;
+
     @Option(names = { "--no-progress" }, description = "Disable progress bar")
     private boolean noProgress;
 
@@ -58,14 +113,16 @@ public class PlayCommand implements Callable<Integer> {
 
     @Override
     public Integer call() throws Exception {
-        if (!midiFile.exists()) {
-            System.err.println("Error: MIDI file not found: " + midiFile.getAbsolutePath());
-            return 1;
-        }
+        for (File midiFile : midiFiles) {
+            if (!midiFile.exists()) {
+                System.err.println("Error: MIDI file not found: " + midiFile.getAbsolutePath());
+                return 1;
+            }
 
-        if (!midiFile.getName().toLowerCase().endsWith(".mid") &&
-                !midiFile.getName().toLowerCase().endsWith(".midi")) {
-            System.err.println("Warning: File does not have .mid or .midi extension");
+            if (!midiFile.getName().toLowerCase().endsWith(".mid") &&
+                    !midiFile.getName().toLowerCase().endsWith(".midi")) {
+                System.err.println("Warning: " + midiFile.getName() + " does not have .mid or .midi extension");
+            }
         }
 
         try {
@@ -86,12 +143,39 @@ public class PlayCommand implements Callable<Integer> {
 
         // Initialize core components
         StatusBus statusBus = new StatusBus();
-        CLINetworkManager networkManager = new CLINetworkManager(statusBus, networkType, serialPort);
+        CLINetworkManager networkManager = new CLINetworkManager(statusBus, networkType, serialPort, udpRedundancy, serialMaxLatencyMillis, autoTune);
 
         // Set up event mapping
         MapperCollection<MidiMessage> mappers = new MapperCollection<>();
-        MIDIEventMapper defaultMapper = MIDIEventMapper.defaultMapper((byte) deviceAddress);
-        mappers.addMapper(defaultMapper);
+        VoiceAllocator voiceAllocator = null;
+        AutoChannelMapper autoMapper = null;
+        if (autoMap && voicePolicy != null) {
+            System.err.println("Error: --auto-map and --voices can't be used together");
+            return 1;
+        } else if (autoMap && midiFiles.size() == 1) {
+            // Plans are rebuilt when the sequence loads and whenever devices come or go (playlists map
+            // each song themselves)
+            autoMapper = new AutoChannelMapper(networkManager::getDiscoveredDevices);
+            mappers.addMapper(autoMapper);
+            statusBus.registerConsumer(autoMapper);
+        } else if (voicePolicy != null) {
+            // Start with the drives given on the command line, and switch to discovered devices once they show up
+            voiceAllocator = new VoiceAllocator(voicePolicy);
+            voiceAllocator.setVoices((byte) deviceAddress, subDevices);
+            mappers.addMapper(new VoiceAllocatingMapper(voiceAllocator));
+            VoiceAllocator allocator = voiceAllocator;
+            statusBus.registerConsumer(update -> {
+                if (update.getType() == StatusType.NET_DEVICES_CHANGED && !networkManager.getDiscoveredDevices().isEmpty()) {
+                    allocator.setDevices(networkManager.getDiscoveredDevices());
+                    if (verbose) {
+                        System.out.printf("Voice allocator now has %d drives%n", allocator.getVoiceCount());
+                    }
+                }
+            });
+        } else {
+            MIDIEventMapper defaultMapper = MIDIEventMapper.defaultMapper((byte) deviceAddress);
+            mappers.addMapper(defaultMapper);
+        }
 
         // Set up post-processor for velocity control
         MessagePostProcessor postProcessor = message -> {
@@ -102,85 +186,264 @@ public class PlayCommand implements Callable<Integer> {
             return message;
         };
 
-        // Create MIDI system components
-        MoppyMIDIReceiverSender receiverSender = new MoppyMIDIReceiverSender(mappers, postProcessor,
-                networkManager.getPrimaryBridge());
-        MoppyMIDISequencer sequencer = new MoppyMIDISequencer(statusBus, receiverSender);
-
-        // Initialize network
-        if (verbose) {
-            System.out.println("Starting network manager...");
+        // Optionally capture everything sent and received so the show can be replayed later
+        NetworkBridge<?> bridge = networkManager.getPrimaryBridge();
+        CoalescingBridge<?> coalescingBridge = null;
+        if (coalesceMillis >= 0) {
+            // Thin out bends and repeats before they queue up in front of slow (serial) links
+            coalescingBridge = new CoalescingBridge<>(bridge, coalesceMillis);
+            bridge = coalescingBridge;
+        }
+        FrameLog frameLog = null;
+        if (recordFile != null) {
+            frameLog = FrameLog.create(recordFile.toPath());
+            bridge = new RecordingBridge<>(bridge, frameLog);
+            if (verbose) {
+                System.out.println("Recording network traffic to: " + recordFile.getAbsolutePath());
+            }
+        }
+        if (lookAheadMillis > 0) {
+            // Devices that support clock sync get notes early and play them on schedule; the rest are held back as long
+            postProcessor = new LookAheadPostProcessor(postProcessor, networkManager.getClockSync(), lookAheadMillis, bridge);
         }
-        networkManager.start();
 
-        // Wait a moment for network initialization
-        Thread.sleep(1000);
+        ScheduledExecutorService reporter = null;
+        try {
+            if (verbose && coalescingBridge != null) {
+                CoalescingBridge<?> coalescer = coalescingBridge;
+                reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    return t;
+                });
+                reporter.scheduleAtFixedRate(() -> {
+                    if (coalescer.getBytesSavedPerSecond() > 0) {
+                        System.err.printf("Coalescing: saving %d bytes/s%n", coalescer.getBytesSavedPerSecond());
+                    }
+                }, 5, 5, TimeUnit.SECONDS);
+            }
 
-        // Load MIDI file
-        if (verbose) {
-            System.out.println("Loading MIDI file: " + midiFile.getName());
-        }
-        sequencer.loadSequence(midiFile);
+            // Create MIDI system components
+            MoppyMIDIReceiverSender receiverSender = new MoppyMIDIReceiverSender(mappers, postProcessor, bridge);
+            if (voiceAllocator != null) {
+                // Notes still sounding when the discovered devices change are stopped on the drives they were on
+                voiceAllocator.setStopSender(receiverSender::sendMoppyMessage);
+            } else if (autoMapper != null) {
+                autoMapper.setStopSender(receiverSender::sendMoppyMessage);
+            }
+            MoppyMIDISequencer sequencer = new MoppyMIDISequencer(statusBus, receiverSender);
 
-        // Set tempo
-        if (tempoMultiplier != 1.0) {
-            // Note: We can't get the current tempo, so we'll just set it based on the
-            // default
-            // The actual tempo will be updated when the sequence loads
+            // Initialize network
             if (verbose) {
-                System.out.printf("Tempo multiplier set to: %.2fx%n", tempoMultiplier);
+                System.out.println("Starting network manager...");
             }
-        }
+            networkManager.start();
 
-        // Create progress tracking
-        ConsoleProgressBar progressBar = null;
-        if (!noProgress) {
-            Duration totalDuration = Duration.ofSeconds(sequencer.getSecondsLength());
-            progressBar = new ConsoleProgressBar(totalDuration);
-        }
+            // Wait only as long as it takes the devices to answer
+            int found = networkManager.awaitDevices(expectedDevices, discoveryTimeoutMillis).get().size();
+            if (verbose) {
+                System.out.printf("Found %d device(s)%n", found);
+            }
+            if (serialBaud >= 0) {
+                for (LinkQuality link : networkManager.negotiateSerialBauds(serialBaud)) {
+                    if (verbose) {
+                        System.out.println("Serial link: " + link.getDescription());
+                    }
+                }
+            }
 
-        // Set up playback control
-        CountDownLatch playbackLatch = new CountDownLatch(1);
-        CLIMIDIPlayer player = new CLIMIDIPlayer(sequencer, progressBar, playbackLatch, loop, verbose);
-        statusBus.registerConsumer(player);
+            if (midiFiles.size() > 1) {
+                playPlaylist(networkManager, statusBus, bridge, postProcessor, voiceAllocator);
+                finish(networkManager, frameLog, coalescingBridge, voiceAllocator);
+                return 0;
+            }
+            File midiFile = midiFiles.get(0);
 
-        // Add tempo adjustment listener
-        if (tempoMultiplier != 1.0) {
-            statusBus.registerConsumer(update -> {
-                if (update.getType() == com.moppy.core.status.StatusType.SEQUENCE_TEMPO_CHANGE) {
-                    if (update.getData().isPresent()) {
-                        float currentTempo = (Float) update.getData().get();
-                        float adjustedTempo = (float) (currentTempo * tempoMultiplier);
-                        // Only set if different to avoid loops
-                        if (Math.abs(adjustedTempo - currentTempo) > 0.1) {
-                            sequencer.setTempo(adjustedTempo);
-                            if (verbose) {
-                                System.out.printf("Tempo adjusted: %.1f BPM -> %.1f BPM%n",
-                                        currentTempo, adjustedTempo);
+            // Load MIDI file
+            if (verbose) {
+                System.out.println("Loading MIDI file: " + midiFile.getName());
+            }
+            sequencer.loadSequence(midiFile);
+            if (verbose) {
+                networkManager.getLinkTuners().forEach(tuner -> System.out.println("Link tuning: " + tuner.getDescription()));
+            }
+            if (autoMapper != null) {
+                if (networkManager.getDiscoveredDevices().isEmpty()) {
+                    System.err.println("Warning: No devices discovered yet; channels will be mapped once devices respond");
+                }
+                if (verbose) {
+                    System.out.print(autoMapper.getPlanDescription());
+                }
+                if (autoMapper.getShortfall() > 0) {
+                    System.err.printf("Warning: %d more drives are needed to play every chord without stealing%n", autoMapper.getShortfall());
+                }
+            }
+
+            // Set tempo
+            if (tempoMultiplier != 1.0) {
+                // Note: We can't get the current tempo, so we'll just set it based on the
+                // default
+                // The actual tempo will be updated when the sequence loads
+                if (verbose) {
+                    System.out.printf("Tempo multiplier set to: %.2fx%n", tempoMultiplier);
+                }
+            }
+
+            // Create progress tracking
+            ConsoleProgressBar progressBar = null;
+            if (!noProgress) {
+                Duration totalDuration = Duration.ofSeconds(sequencer.getSecondsLength());
+                progressBar = new ConsoleProgressBar(totalDuration);
+            }
+
+            // Set up playback control
+            CountDownLatch playbackLatch = new CountDownLatch(1);
+            CLIMIDIPlayer player = new CLIMIDIPlayer(sequencer, progressBar, playbackLatch, loop, verbose);
+            statusBus.registerConsumer(player);
+
+            // Add tempo adjustment listener
+            if (tempoMultiplier != 1.0) {
+                statusBus.registerConsumer(update -> {
+                    if (update.getType() == com.moppy.core.status.StatusType.SEQUENCE_TEMPO_CHANGE) {
+                        if (update.getData().isPresent()) {
+                            float currentTempo = (Float) update.getData().get();
+                            float adjustedTempo = (float) (currentTempo * tempoMultiplier);
+                            // Only set if different to avoid loops
+                            if (Math.abs(adjustedTempo - currentTempo) > 0.1) {
+                                sequencer.setTempo(adjustedTempo);
+                                if (verbose) {
+                                    System.out.printf("Tempo adjusted: %.1f BPM -> %.1f BPM%n",
+                                            currentTempo, adjustedTempo);
+                                }
                             }
                         }
                     }
+                });
+            }
+
+            // Start playback
+            System.out.println("Playing: " + midiFile.getName());
+            if (verbose) {
+                System.out.printf("Duration: %d:%02d%n",
+                        sequencer.getSecondsLength() / 60,
+                        sequencer.getSecondsLength() % 60);
+                System.out.printf("Device: %d, Sub-devices: 1-%d%n", deviceAddress, subDevices);
+                System.out.printf("Velocity multiplier: %.1f%n", velocityMultiplier);
+                System.out.printf("Tempo multiplier: %.1f%n", tempoMultiplier);
+            }
+            System.out.println("Press Ctrl+C to stop");
+            System.out.println();
+
+            // Set up shutdown hook
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("\nStopping playback...");
+                sequencer.stop();
+                try {
+                    networkManager.close();
+                } catch (IOException e) {
+                    // Ignore
                 }
-            });
+                playbackLatch.countDown();
+            }));
+
+            sequencer.play();
+
+            // Wait for playback to complete or be interrupted
+            playbackLatch.await();
+
+            // Cleanup
+            sequencer.close();
+            finish(networkManager, frameLog, coalescingBridge, voiceAllocator);
+            return 0;
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+            // Whatever happened, keep what was recorded so far
+            if (frameLog != null) {
+                frameLog.close();
+            }
         }
+    }
 
-        // Start playback
-        System.out.println("Playing: " + midiFile.getName());
-        if (verbose) {
-            System.out.printf("Duration: %d:%02d%n",
-                    sequencer.getSecondsLength() / 60,
-                    sequencer.getSecondsLength() % 60);
-            System.out.printf("Device: %d, Sub-devices: 1-%d%n", deviceAddress, subDevices);
-            System.out.printf("Velocity multiplier: %.1f%n", velocityMultiplier);
-            System.out.printf("Tempo multiplier: %.1f%n", tempoMultiplier);
+    /**
+     * Plays all the files back to back, each one parsed and mapped while the one before it plays.  When
+     * auto-mapping, the next song is mapped again whenever devices come or go.
+     */
+    private void playPlaylist(CLINetworkManager networkManager, StatusBus statusBus, NetworkBridge<?> bridge,
+            MessagePostProcessor postProcessor, VoiceAllocator voiceAllocator) throws InterruptedException {
+        // Mappers keep state (e.g. which drive each note is on), so every song gets its own
+        Function<Sequence, MapperCollection<MidiMessage>> mapperFactory = sequence -> {
+            MapperCollection<MidiMessage> songMappers = new MapperCollection<>();
+            if (autoMap) {
+                AutoChannelMapper songMapper = new AutoChannelMapper(networkManager::getDiscoveredDevices);
+                songMapper.receiveUpdate(StatusUpdate.sequenceLoaded(sequence));
+                if (songMapper.getShortfall() > 0) {
+                    System.err.printf("Warning: %d more drives are needed to play every chord without stealing%n", songMapper.getShortfall());
+                }
+                songMappers.addMapper(songMapper);
+            } else if (voiceAllocator != null) {
+                songMappers.addMapper(new VoiceAllocatingMapper(voiceAllocator));
+            } else {
+                songMappers.addMapper(MIDIEventMapper.defaultMapper((byte) deviceAddress));
+            }
+            return songMappers;
+        };
+
+        PlaylistQueue queue = new PlaylistQueue(bridge, mapperFactory, postProcessor);
+        queue.addAll(midiFiles);
+        queue.setRepeat(loop);
+        queue.setOverlapMillis(overlapMillis);
+        queue.setTempoFactor(tempoMultiplier);
+        StatusConsumer remapper = update -> {
+            if (update.getType() == StatusType.NET_DEVICES_CHANGED) {
+                queue.remapPending();
+            }
+        };
+        if (autoMap) {
+            statusBus.registerConsumer(remapper);
         }
+
+        CountDownLatch playbackLatch = new CountDownLatch(1);
+        ConsoleProgressBar[] progressBar = new ConsoleProgressBar[1];
+        queue.addListener(new PlaylistQueue.Listener() {
+            @Override
+            public void songStarted(int index, File file, long lengthMicros) {
+                synchronized (progressBar) {
+                    if (progressBar[0] != null) {
+                        progressBar[0].finish();
+                    }
+                    System.out.printf("Playing %d/%d: %s%n", index + 1, midiFiles.size(), file.getName());
+                    progressBar[0] = noProgress ? null : new ConsoleProgressBar(Duration.ofNanos((long) (TimeUnit.MICROSECONDS.toNanos(lengthMicros) / tempoMultiplier)));
+                }
+            }
+
+            @Override
+            public void queueFinished() {
+                playbackLatch.countDown();
+            }
+        });
+
+        ScheduledExecutorService progressUpdater = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        progressUpdater.scheduleAtFixedRate(() -> {
+            synchronized (progressBar) {
+                if (progressBar[0] != null) {
+                    progressBar[0].update(Duration.ofNanos((long) (TimeUnit.MICROSECONDS.toNanos(queue.getPositionMicros()) / tempoMultiplier)));
+                }
+            }
+        }, 500, 500, TimeUnit.MILLISECONDS);
+
+        System.out.printf("Playlist of %d files%s%n", midiFiles.size(), overlapMillis > 0 ? String.format(", overlapping by %d ms", overlapMillis) : "");
         System.out.println("Press Ctrl+C to stop");
         System.out.println();
 
-        // Set up shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nStopping playback...");
-            sequencer.stop();
+            queue.stop();
             try {
                 networkManager.close();
             } catch (IOException e) {
@@ -189,19 +452,41 @@ public class PlayCommand implements Callable<Integer> {
             playbackLatch.countDown();
         }));
 
-        sequencer.play();
-
-        // Wait for playback to complete or be interrupted
+        queue.play(0);
         playbackLatch.await();
 
-        // Cleanup
-        sequencer.close();
+        progressUpdater.shutdownNow();
+        synchronized (progressBar) {
+            if (progressBar[0] != null) {
+                progressBar[0].finish();
+            }
+        }
+        queue.close();
+        statusBus.deregisterConsumer(remapper);
+        if (verbose && queue.getLateStarts() > 0) {
+            System.out.printf("%d songs weren't ready in time (up to %d ms late)%n", queue.getLateStarts(), queue.getMaxStartLatenessMicros() / 1000);
+        }
+    }
+
+    private void finish(CLINetworkManager networkManager, FrameLog frameLog, CoalescingBridge<?> coalescingBridge,
+            VoiceAllocator voiceAllocator) throws IOException {
         networkManager.close();
+        if (frameLog != null) {
+            System.out.printf("Recorded %d frames to %s%n", frameLog.getFrameCount(), recordFile.getName());
+        }
 
+        if (serialMaxLatencyMillis >= 0 && networkManager.getSerialOverruns() > 0) {
+            System.out.printf("Serial links overran: %d note-ons/bends shed%n", networkManager.getSerialOverruns());
+        }
+        if (coalescingBridge != null) {
+            System.out.printf("Coalescing saved %d bytes (%d messages); %d bytes sent%n",
+                    coalescingBridge.getBytesSaved(), coalescingBridge.getMessagesDropped(), coalescingBridge.getBytesSent());
+        }
+        if (verbose && voiceAllocator != null) {
+            System.out.printf("Voices stolen: %d%n", voiceAllocator.getStealCount());
+        }
         if (verbose) {
             System.out.println("Playback completed.");
         }
-
-        return 0;
     }
 }
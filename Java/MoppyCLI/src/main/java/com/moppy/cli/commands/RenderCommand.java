@@ -0,0 +1,126 @@
+package com.moppy.cli.commands;
+
+import com.moppy.core.distributed.FrameTimeline;
+import com.moppy.core.events.mapper.MIDIEventMapper;
+import com.moppy.core.events.mapper.MIDIScriptMapper;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.mapper.VoiceAllocatingMapper;
+import com.moppy.core.events.mapper.VoiceAllocator;
+import com.moppy.core.events.postprocessor.MessagePostProcessor;
+import com.moppy.core.render.FloppyRenderer;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command to render MIDI files to WAV through simulated floppy drives, without any devices
+ */
+@Command(name = "render", description = "Render MIDI files to WAV through simulated floppy drives, faster than real time", mixinStandardHelpOptions = true)
+public class RenderCommand implements Callable<Integer> {
+
+    @Parameters(index = "0..*", arity = "1..*", description = "MIDI files to render")
+    private List<File> midiFiles;
+
+    @Option(names = { "-o", "--output" }, description = "WAV file to write (one MIDI file), or directory to write <name>.wav files to (default: next to each MIDI file)")
+    private File output;
+
+    @Option(names = { "-d", "--device" }, description = "Device address to map all channels to", defaultValue = "1")
+    private int deviceAddress;
+
+    @Option(names = { "-s", "--sub-devices" }, description = "Number of drives on the device (for --voices)", defaultValue = "8")
+    private int subDevices;
+
+    @Option(names = { "--device-script" }, description = "JavaScript expression choosing the device address per event instead (e.g. \"c+1\" for one device per channel)")
+    private String deviceScript;
+
+    @Option(names = { "--voices" }, description = "Spread notes from every channel across the device's drives, stealing a drive when all are busy (${COMPLETION-CANDIDATES})")
+    private VoiceAllocator.StealPolicy voicePolicy;
+
+    @Option(names = { "--sample-rate" }, description = "Sample rate of the WAV files", defaultValue = "44100")
+    private int sampleRate;
+
+    @Option(names = { "--gain" }, description = "Level of the loudest moment of each song (1.0 is full scale)", defaultValue = "0.9")
+    private double gain;
+
+    @Option(names = { "--threads" }, description = "Threads to render drives on (0 for one per core)", defaultValue = "0")
+    private int threads;
+
+    @Option(names = { "--verbose" }, description = "Verbose output")
+    private boolean verbose;
+
+    @Override
+    public Integer call() throws Exception {
+        if (deviceScript != null && voicePolicy != null) {
+            System.err.println("Error: --device-script and --voices can't be used together");
+            return 1;
+        }
+        boolean outputIsDirectory = output != null && (midiFiles.size() > 1 || output.isDirectory());
+        if (outputIsDirectory && !output.isDirectory() && !output.mkdirs()) {
+            System.err.println("Error: Can't create output directory: " + output.getAbsolutePath());
+            return 1;
+        }
+
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        FloppyRenderer renderer = new FloppyRenderer(sampleRate, pool);
+        renderer.setGain(gain);
+
+        int failures = 0;
+        try {
+            for (File midiFile : midiFiles) {
+                File wavFile = outputIsDirectory ? new File(output, wavName(midiFile))
+                        : output != null ? output
+                        : new File(midiFile.getAbsoluteFile().getParentFile(), wavName(midiFile));
+                try {
+                    // Mappers keep state (e.g. which drive each note is on), so every song gets its own
+                    FrameTimeline timeline = FrameTimeline.render(MidiSystem.getSequence(midiFile), createMappers(), MessagePostProcessor.PASS_THROUGH);
+                    FloppyRenderer.RenderStats stats = renderer.render(timeline, wavFile);
+                    System.out.printf("%s -> %s: %s%n", midiFile.getName(), wavFile.getName(), stats);
+                } catch (Exception e) {
+                    failures++;
+                    System.err.printf("Error rendering %s: %s%n", midiFile.getName(), e.getMessage());
+                    if (verbose) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+
+        if (midiFiles.size() > 1) {
+            System.out.printf("Rendered %d of %d files%n", midiFiles.size() - failures, midiFiles.size());
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    private MapperCollection<MidiMessage> createMappers() {
+        MapperCollection<MidiMessage> mappers = new MapperCollection<>();
+        if (deviceScript != null) {
+            MIDIScriptMapper scriptMapper = new MIDIScriptMapper();
+            scriptMapper.setDeviceAddressScript(deviceScript);
+            mappers.addMapper(scriptMapper);
+        } else if (voicePolicy != null) {
+            VoiceAllocator voiceAllocator = new VoiceAllocator(voicePolicy);
+            voiceAllocator.setVoices((byte) deviceAddress, subDevices);
+            mappers.addMapper(new VoiceAllocatingMapper(voiceAllocator));
+        } else {
+            mappers.addMapper(MIDIEventMapper.defaultMapper((byte) deviceAddress));
+        }
+        return mappers;
+    }
+
+    private static String wavName(File midiFile) {
+        String name = midiFile.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".wav";
+    }
+}
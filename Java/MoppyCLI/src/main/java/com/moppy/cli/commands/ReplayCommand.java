@@ -0,0 +1,136 @@
+package com.moppy.cli.commands;
+
+import com.moppy.cli.network.CLINetworkManager;
+import com.moppy.core.comms.FrameLog;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.bridge.BridgeLoopback;
+import com.moppy.core.comms.bridge.ReplayBridge;
+import com.moppy.core.device.DeviceHost;
+import com.moppy.core.device.MoppyDevice;
+import com.moppy.core.status.StatusBus;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Command to replay a frame log recorded with "play --record"
+ */
+@Command(name = "replay", description = "Replay a recorded frame log through Moppy devices", mixinStandardHelpOptions = true)
+public class ReplayCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "Frame log to replay")
+    private File logFile;
+
+    @Option(names = { "-n", "--network" }, description = "Network type (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)", defaultValue = "all")
+    private String networkType;
+
+    @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
+    private String serialPort;
+
+    @Option(names = { "--fast" }, description = "Send frames as fast as possible instead of with their recorded timing")
+    private boolean fast;
+
+    @Option(names = { "--verbose" }, description = "Verbose output")
+    private boolean verbose;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!logFile.isFile()) {
+            System.err.println("Error: Frame log not found: " + logFile.getAbsolutePath());
+            return 1;
+        }
+
+        StatusBus statusBus = new StatusBus();
+        CLINetworkManager networkManager = new CLINetworkManager(statusBus, networkType, serialPort);
+        BridgeLoopback deviceBridge = null;
+
+        try {
+            if (verbose) {
+                System.out.println("Starting network manager...");
+            }
+            networkManager.start();
+
+            // Nothing real listens on the loopback network, so stand in for the recorded devices
+            DeviceHost deviceHost = null;
+            if ("loopback".equals(networkType)) {
+                deviceBridge = new BridgeLoopback();
+                deviceBridge.connect();
+                deviceHost = hostRecordedDevices(logFile.toPath(), deviceBridge);
+            }
+
+            ReplayBridge<?> replayBridge = new ReplayBridge<>(networkManager.getPrimaryBridge());
+            System.out.printf("Replaying: %s%s%n", logFile.getName(), fast ? " (as fast as possible)" : "");
+            ReplayBridge.ReplayStats stats = replayBridge.replay(logFile.toPath(), !fast);
+            System.out.println(stats);
+            if (deviceHost != null) {
+                System.out.printf("In-process devices received %d frames%n", deviceHost.getFramesDispatched());
+            }
+        } catch (Exception e) {
+            System.err.println("Error replaying frame log: " + e.getMessage());
+            if (verbose) {
+                e.printStackTrace();
+            }
+            return 1;
+        } finally {
+            if (deviceBridge != null) {
+                deviceBridge.close();
+            }
+            networkManager.close();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Hosts a do-nothing device for every device address the log sent to, covering the sub-addresses it used.
+     */
+    private DeviceHost hostRecordedDevices(Path log, BridgeLoopback bridge) throws IOException {
+        int[] minSub = new int[256];
+        int[] maxSub = new int[256];
+        Arrays.fill(minSub, -1);
+        try (FrameLog.Reader reader = FrameLog.open(log)) {
+            for (FrameLog.Frame frame : reader) {
+                byte[] bytes = frame.getFrameBytes();
+                if (frame.getDirection() != FrameLog.Direction.SENT || bytes.length < 3 || bytes[1] == MoppyMessage.SYSTEM_ADDRESS) {
+                    continue;
+                }
+                int address = bytes[1] & 0xff;
+                int sub = Math.max(bytes[2] & 0xff, 1);
+                minSub[address] = minSub[address] < 0 ? sub : Math.min(minSub[address], sub);
+                maxSub[address] = Math.max(maxSub[address], sub);
+            }
+        }
+
+        DeviceHost host = new DeviceHost(bridge);
+        int hosted = 0;
+        for (int address = 0; address < 256; address++) {
+            if (minSub[address] >= 0) {
+                host.addDevice(new ReplayDevice(), (byte) address, (byte) minSub[address], (byte) maxSub[address]);
+                hosted++;
+                if (verbose) {
+                    System.out.printf("Hosting device %d (drives %d-%d) in-process%n", address, minSub[address], maxSub[address]);
+                }
+            }
+        }
+        if (hosted == 0) {
+            System.err.println("Warning: The frame log doesn't send to any devices");
+        }
+        return host;
+    }
+
+    /**
+     * Receives replayed frames on the loopback network without playing them.
+     */
+    private static class ReplayDevice extends MoppyDevice {
+        @Override
+        public boolean matchesAddress(byte deviceAddress, byte subAddress) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.moppy.cli.commands;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.SharedMemoryRing;
+import com.moppy.core.comms.bridge.BridgeSerial;
+import com.moppy.core.comms.bridge.BridgeSharedMemory;
+import com.moppy.core.comms.bridge.BridgeUDP;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command that drains the rings written by a {@link BridgeSharedMemory} (e.g. "play --network shm:&lt;path&gt;")
+ * into a real serial or UDP bridge.  It only uses MoppyLib's comms classes, so it can run with a tiny heap
+ * and its timing isn't disturbed by whatever the main process (HTTP server, scripting, GUI) is doing.
+ *
+ * The drain loop spins briefly before parking, trading a little CPU for sub-millisecond pickup.
+ */
+@Command(name = "shm-send", description = "Send the frames another Moppy process writes to shared memory (--network shm:<path>) to the devices", mixinStandardHelpOptions = true)
+public class ShmSendCommand implements Callable<Integer> {
+
+    private static final int SPINS_BEFORE_PARK = 1000;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long WAIT_FOR_RING_MILLIS = 500;
+
+    @Parameters(index = "0", description = "Base path of the ring files, as given to shm:<path>")
+    private Path ringPath;
+
+    @Option(names = { "-n", "--network" }, description = "Where to send the frames (udp, serial)", defaultValue = "udp")
+    private String networkType;
+
+    @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
+    private String serialPort;
+
+    private volatile boolean running = true;
+
+    @Override
+    public Integer call() throws Exception {
+        NetworkBridge<?> bridge;
+        if ("serial".equals(networkType)) {
+            if (serialPort == null) {
+                System.err.println("Error: --port is required for the serial network");
+                return 1;
+            }
+            bridge = new BridgeSerial(serialPort);
+        } else if ("udp".equals(networkType)) {
+            bridge = new BridgeUDP();
+        } else {
+            System.err.println("Error: Unsupported network for shm-send: " + networkType);
+            return 1;
+        }
+        bridge.connect();
+
+        Thread senderThread = Thread.currentThread();
+        Thread shutdownHook = new Thread(() -> {
+            running = false;
+            try {
+                senderThread.join(1000);
+            } catch (InterruptedException ex) {
+                // Exiting anyway
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        senderThread.setPriority(Thread.MAX_PRIORITY);
+
+        System.out.printf("Draining %s into %s%n", ringPath, bridge.getNetworkIdentifier());
+        try {
+            drain(bridge);
+        } finally {
+            bridge.close();
+        }
+        return 0;
+    }
+
+    private void drain(NetworkBridge<?> bridge) throws IOException, InterruptedException {
+        // The main process creates the rings; it may not have started yet
+        Path txPath = BridgeSharedMemory.txPath(ringPath);
+        Path rxPath = BridgeSharedMemory.rxPath(ringPath);
+        while (running && !(Files.exists(txPath) && Files.exists(rxPath))) {
+            Thread.sleep(WAIT_FOR_RING_MILLIS);
+        }
+
+        try (SharedMemoryRing txRing = SharedMemoryRing.open(txPath);
+                SharedMemoryRing rxRing = SharedMemoryRing.open(rxPath)) {
+
+            // Replies from devices (pongs) go back to the main process; the bridge's listener is the only producer
+            bridge.registerMessageReceiver(message -> rxRing.offer(message));
+
+            int idleSpins = 0;
+            while (running) {
+                MoppyMessage message = txRing.poll();
+                if (message == null) {
+                    if (++idleSpins > SPINS_BEFORE_PARK) {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                    continue;
+                }
+                idleSpins = 0;
+                try {
+                    bridge.sendMessage(message);
+                } catch (IOException ex) {
+                    Logger.getLogger(ShmSendCommand.class.getName()).log(Level.WARNING, "Failed to send frame", ex);
+                }
+            }
+        }
+    }
+}
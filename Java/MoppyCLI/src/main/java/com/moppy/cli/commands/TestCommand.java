@@ -8,7 +8,9 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Command to test network connectivity and device communication
@@ -16,7 +18,7 @@ import java.util.concurrent.Callable;
 @Command(name = "test", description = "Test network connectivity and device communication", mixinStandardHelpOptions = true)
 public class TestCommand implements Callable<Integer> {
 
-    @Option(names = { "-n", "--network" }, description = "Network type (udp, serial, all)", defaultValue = "all")
+    @Option(names = { "-n", "--network" }, description = "Network type (udp, udp-unicast, serial, loopback, tcp:<host>:<port>, tcp-server[:<port>], shm:<path>, all)", defaultValue = "all")
     private String networkType;
 
     @Option(names = { "-p", "--port" }, description = "Serial port (for serial network)")
@@ -72,14 +74,13 @@ public class TestCommand implements Callable<Integer> {
         return 0;
     }
 
-    private void testNetworkPing(CLINetworkManager networkManager) throws IOException, InterruptedException {
+    private void testNetworkPing(CLINetworkManager networkManager) throws IOException, InterruptedException, ExecutionException {
         // Send ping and wait for response
         networkManager.getPrimaryBridge().sendMessage(MoppyMessage.SYS_PING);
         System.out.println("Ping sent, waiting for responses...");
 
-        Thread.sleep(2000); // Wait 2 seconds for pong responses
-
-        int deviceCount = networkManager.getDiscoveredDevices().size();
+        // Wait up to 2 seconds for the target device (moving on as soon as it answers)
+        int deviceCount = networkManager.awaitDevices(List.of(deviceAddress), 2000).get().size();
         if (deviceCount > 0) {
             System.out.printf("✓ Received responses from %d device(s)%n", deviceCount);
         } else {
@@ -1,222 +1,203 @@
 package com.moppy.cli.network;
 
-import com.moppy.core.comms.MoppyMessage;
-import com.moppy.core.comms.NetworkMessageConsumer;
-import com.moppy.core.comms.NetworkReceivedMessage;
+import com.moppy.core.comms.ClockSync;
+import com.moppy.core.comms.LinkQuality;
+import com.moppy.core.comms.NetworkManager;
 import com.moppy.core.comms.bridge.BridgeSerial;
-import com.moppy.core.comms.bridge.BridgeUDP;
-import com.moppy.core.comms.bridge.MultiBridge;
+import com.moppy.core.comms.bridge.LinkTuner;
 import com.moppy.core.comms.bridge.NetworkBridge;
 import com.moppy.core.device.DeviceDescriptor;
+import com.moppy.core.device.DeviceRegistry;
 import com.moppy.core.status.StatusBus;
-import com.moppy.core.status.StatusUpdate;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * CLI-specific network manager for managing Moppy device connections
+ * CLI-specific network manager for managing Moppy device connections.
+ *
+ * Bridges, their states, their link decorators and device discovery are handled by the shared
+ * {@link NetworkManager}; this class chooses which bridges to create, and how their links are decorated,
+ * from the command line.
  */
-public class CLINetworkManager implements NetworkMessageConsumer, Closeable {
+public class CLINetworkManager implements Closeable {
 
     private static final Logger logger = Logger.getLogger(CLINetworkManager.class.getName());
 
-    private final StatusBus statusBus;
-    private final MultiBridge multiBridge;
-    private final List<NetworkBridge> bridges;
-    private final ConcurrentHashMap<String, DeviceDescriptor> discoveredDevices;
-    private final ScheduledExecutorService scheduler;
-
-    private boolean started = false;
+    private final NetworkManager networkManager;
 
     public CLINetworkManager(StatusBus statusBus, String networkType, String serialPort) {
-        this.statusBus = statusBus;
-        this.multiBridge = new MultiBridge();
-        this.bridges = new ArrayList<>();
-        this.discoveredDevices = new ConcurrentHashMap<>();
-        this.scheduler = Executors.newScheduledThreadPool(2);
+        this(statusBus, networkType, serialPort, -1);
+    }
+
+    /**
+     * @param udpRedundancy If 0 or more, UDP frames carry sequence numbers once all the devices accept them
+     * (so loss can be reported on the StatusBus) and note-offs/stops are sent this many extra times.
+     * -1 to send plain frames.
+     */
+    public CLINetworkManager(StatusBus statusBus, String networkType, String serialPort, int udpRedundancy) {
+        this(statusBus, networkType, serialPort, udpRedundancy, -1);
+    }
 
-        multiBridge.registerMessageReceiver(this);
+    /**
+     * @param serialMaxLatencyMillis If 0 or more, serial ports are paced to their baud rate with system
+     * messages and note-offs sent ahead of note-ons and bends, which are shed once they'd wait longer than this.
+     * -1 to never shed (ports are then only paced when auto-tuning, and written to directly otherwise).
+     */
+    public CLINetworkManager(StatusBus statusBus, String networkType, String serialPort, int udpRedundancy, int serialMaxLatencyMillis) {
+        this(statusBus, networkType, serialPort, udpRedundancy, serialMaxLatencyMillis, false);
+    }
+
+    /**
+     * @param autoTune If true, each link is tuned to the capabilities its devices report in their pongs
+     * (message rate limits on serial ports, which are then always paced, and batching on UDP)
+     */
+    public CLINetworkManager(StatusBus statusBus, String networkType, String serialPort, int udpRedundancy, int serialMaxLatencyMillis,
+            boolean autoTune) {
+        // Devices drop out after 30 seconds of silence, long enough to ride out a busy link mid-song
+        this.networkManager = new NetworkManager(statusBus, 30000);
+        networkManager.setAutoConnect(true);
+        networkManager.setUdpRedundancy(udpRedundancy);
+        networkManager.setSerialMaxLatencyMillis(serialMaxLatencyMillis);
+        networkManager.setAutoTune(autoTune);
 
         initializeBridges(networkType, serialPort);
     }
 
     private void initializeBridges(String networkType, String serialPort) {
-        switch (networkType.toLowerCase()) {
-            case "udp":
-                initializeUDPBridge();
-                break;
-            case "serial":
-                initializeSerialBridge(serialPort);
-                break;
-            case "all":
-            default:
-                initializeUDPBridge();
-                initializeSerialBridges();
-                break;
-        }
-
-        // Add all bridges to the MultiBridge
-        for (NetworkBridge bridge : bridges) {
-            multiBridge.addBridge(bridge);
+        String lowerNetworkType = networkType.toLowerCase();
+        if (lowerNetworkType.startsWith("tcp:")) {
+            addBridge("tcp", networkType.substring("tcp:".length()));
+        } else if (lowerNetworkType.startsWith("shm:")) {
+            // Frames are written to a ring file drained by a separate shm-send process
+            addBridge("shm", networkType.substring("shm:".length()));
+        } else if (lowerNetworkType.equals("tcp-server") || lowerNetworkType.startsWith("tcp-server:")) {
+            addBridge("tcp-server", lowerNetworkType.equals("tcp-server") ? null : networkType.substring("tcp-server:".length()));
+        } else {
+            switch (lowerNetworkType) {
+                case "udp":
+                    addBridge("udp", null);
+                    break;
+                case "udp-unicast":
+                    addBridge("udp-unicast", null);
+                    break;
+                case "serial":
+                    initializeSerialBridge(serialPort);
+                    break;
+                case "loopback":
+                    addBridge("loopback", null);
+                    break;
+                case "all":
+                default:
+                    addBridge("udp", null);
+                    initializeSerialBridges();
+                    break;
+            }
         }
     }
 
-    private void initializeUDPBridge() {
+    private void addBridge(String type, String address) {
         try {
-            BridgeUDP udpBridge = new BridgeUDP();
-            bridges.add(udpBridge);
-            logger.info("UDP bridge initialized: " + udpBridge.getNetworkIdentifier());
-        } catch (UnknownHostException e) {
-            logger.log(Level.WARNING, "Failed to initialize UDP bridge", e);
+            networkManager.addBridge(type, address);
+        } catch (IllegalArgumentException e) {
+            throw e; // A mistyped --network option, e.g. a bad port; nothing else would connect either
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Failed to initialize %s bridge%s", type, address == null ? "" : " for: " + address), e);
         }
     }
 
     private void initializeSerialBridge(String specificPort) {
         if (specificPort != null && !specificPort.isEmpty()) {
-            try {
-                BridgeSerial serialBridge = new BridgeSerial(specificPort);
-                bridges.add(serialBridge);
-                logger.info("Serial bridge initialized: " + specificPort);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Failed to initialize serial bridge for port: " + specificPort, e);
-            }
+            addBridge("serial", specificPort);
         } else {
             initializeSerialBridges();
         }
     }
 
     private void initializeSerialBridges() {
-        List<String> availableSerials = BridgeSerial.getAvailableSerials();
-        for (String serial : availableSerials) {
-            try {
-                BridgeSerial serialBridge = new BridgeSerial(serial);
-                bridges.add(serialBridge);
-                logger.info("Serial bridge initialized: " + serial);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Failed to initialize serial bridge for: " + serial, e);
-            }
+        // Enumerated up front (rather than watched) so every port is connected by start()
+        for (String serial : BridgeSerial.getAvailableSerials()) {
+            addBridge("serial", serial);
         }
     }
 
-    public void start() throws IOException {
-        if (started) {
-            return;
-        }
+    /**
+     * Connects all bridges and starts device discovery.
+     */
+    public void start() {
+        networkManager.start();
+    }
 
-        // Connect all bridges
-        for (NetworkBridge bridge : bridges) {
-            try {
-                bridge.connect();
-                logger.info("Connected bridge: " + bridge.getNetworkIdentifier());
-            } catch (IOException e) {
-                logger.log(Level.WARNING, "Failed to connect bridge: " + bridge.getNetworkIdentifier(), e);
-            }
+    /**
+     * Waits for the devices a command needs to answer, instead of sleeping for a fixed time after {@link #start()}.
+     *
+     * @param expectedAddresses Device addresses that must all have answered, or empty to wait until no new
+     * devices have appeared for a moment
+     * @return Completes with the devices found once they're ready, or at the timeout with whatever answered
+     */
+    public CompletableFuture<Set<DeviceDescriptor>> awaitDevices(List<Integer> expectedAddresses, long timeoutMillis) {
+        if (expectedAddresses == null || expectedAddresses.isEmpty()) {
+            return networkManager.getDeviceRegistry().awaitDevices(null, DeviceRegistry.DEFAULT_QUIET_MILLIS, timeoutMillis);
         }
+        return networkManager.getDeviceRegistry().awaitDevices(devices -> expectedAddresses.stream().allMatch(address -> devices.stream()
+                .anyMatch(device -> (device.getDeviceAddress() & 0xff) == address)), 0, timeoutMillis);
+    }
 
-        // Start device discovery
-        startDeviceDiscovery();
+    /**
+     * @return The shared network manager underneath, e.g. for bridge states
+     */
+    public NetworkManager getNetworkManager() {
+        return networkManager;
+    }
 
-        started = true;
+    public NetworkBridge<?> getPrimaryBridge() {
+        return networkManager.getPrimaryBridge();
     }
 
-    private void startDeviceDiscovery() {
-        // Send ping every 5 seconds
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                multiBridge.sendMessage(MoppyMessage.SYS_PING);
-            } catch (IOException e) {
-                logger.log(Level.WARNING, "Failed to send ping", e);
-            }
-        }, 1, 5, TimeUnit.SECONDS);
+    /**
+     * @return Messages shed by all serial schedulers because their links couldn't keep up
+     */
+    public long getSerialOverruns() {
+        return networkManager.getSerialOverruns();
+    }
 
-        // Clean up stale devices every 30 seconds
-        scheduler.scheduleAtFixedRate(() -> {
-            long cutoffTime = System.currentTimeMillis() - 30000; // 30 seconds
-            discoveredDevices.entrySet().removeIf(entry -> {
-                // This is a simplified check - in a real implementation you'd track last seen
-                // time
-                return false; // For now, don't remove devices
-            });
-        }, 30, 30, TimeUnit.SECONDS);
+    /**
+     * @return Tuners for each link whose settings follow its devices' capabilities (empty if auto-tuning is off)
+     */
+    public List<LinkTuner> getLinkTuners() {
+        return networkManager.getLinkTuners();
     }
 
-    public NetworkBridge getPrimaryBridge() {
-        return multiBridge;
+    /**
+     * @see NetworkManager#negotiateSerialBauds(int)
+     */
+    public List<LinkQuality> negotiateSerialBauds(int maxBaud) throws InterruptedException {
+        return networkManager.negotiateSerialBauds(maxBaud);
     }
 
-    public List<DeviceDescriptor> getDiscoveredDevices() {
-        return new ArrayList<>(discoveredDevices.values());
+    /**
+     * @see NetworkManager#measureSerialLinks()
+     */
+    public List<LinkQuality> measureSerialLinks() throws InterruptedException {
+        return networkManager.measureSerialLinks();
     }
 
-    @Override
-    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
-        if (networkMessage.getMessageCommandByte() == MoppyMessage.CommandByte.SYS_PONG) {
-            handleDevicePong(networkMessage);
-        }
+    public ClockSync getClockSync() {
+        return networkManager.getClockSync();
     }
 
-    private void handleDevicePong(NetworkReceivedMessage message) {
-        try {
-            byte[] payload = message.getMessageCommandPayload();
-            if (payload.length >= 3) {
-                byte deviceAddress = payload[0];
-                byte minSubAddress = payload[1];
-                byte maxSubAddress = payload[2];
-
-                DeviceDescriptor device = DeviceDescriptor.builder()
-                        .networkAddress(message.getRemoteIdentifier())
-                        .deviceAddress(deviceAddress)
-                        .minSubAddress(minSubAddress)
-                        .maxSubAddress(maxSubAddress)
-                        .build();
-
-                String deviceKey = message.getRemoteIdentifier() + ":" + (deviceAddress & 0xFF);
-                DeviceDescriptor existing = discoveredDevices.put(deviceKey, device);
-
-                if (existing == null) {
-                    logger.info(String.format("Device discovered: %d on %s (sub-addresses: %d-%d)",
-                            deviceAddress & 0xFF, message.getRemoteIdentifier(),
-                            minSubAddress & 0xFF, maxSubAddress & 0xFF));
-
-                    // Notify status bus
-                    statusBus.receiveUpdate(StatusUpdate.NET_DEVICES_CHANGED);
-                }
-            }
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Error processing device pong", e);
-        }
+    public List<DeviceDescriptor> getDiscoveredDevices() {
+        return new ArrayList<>(networkManager.getRecentlySeenDevices());
     }
 
     @Override
     public void close() throws IOException {
-        if (scheduler != null && !scheduler.isShutdown()) {
-            scheduler.shutdown();
-            try {
-                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                    scheduler.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                scheduler.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }
-
-        for (NetworkBridge bridge : bridges) {
-            try {
-                bridge.close();
-            } catch (IOException e) {
-                logger.log(Level.WARNING, "Error closing bridge: " + bridge.getNetworkIdentifier(), e);
-            }
-        }
+        networkManager.close();
     }
 }
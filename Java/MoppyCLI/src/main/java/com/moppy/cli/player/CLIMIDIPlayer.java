@@ -50,6 +50,11 @@ public class CLIMIDIPlayer implements StatusConsumer {
             case SEQUENCE_END:
                 handleSequenceEnd();
                 break;
+            case NET_LINK_STATS:
+                if (verbose) {
+                    update.getData().ifPresent(stats -> System.err.println("Link: " + stats));
+                }
+                break;
             default:
                 if (verbose) {
                     System.err.println("Status: " + update.getType());
@@ -1,6 +1,7 @@
 package com.moppy.control;
 
 import com.moppy.control.gui.MainWindow;
+import com.moppy.core.comms.NetworkManager;
 import com.moppy.core.events.mapper.MapperCollection;
 import com.moppy.core.midi.MoppyMIDIReceiverSender;
 import com.moppy.core.midi.MoppyMIDISequencer;
@@ -38,7 +39,15 @@ public class MoppyControlGUI {
 
         // Create components
         final StatusBus statusBus = new StatusBus(); // Create StatusBus for local status updates
-        final NetworkManager netManager = new NetworkManager(statusBus); // Create NetworkManager for network connections
+        final NetworkManager netManager = new NetworkManager(statusBus, 7000); // Create NetworkManager for network connections (devices drop out after 7 seconds of silence)
+        netManager.setAutoTune(MoppyPreferences.getConfiguration().isAutoTuneLinks()); // Tune links to what their devices report (before adding bridges)
+        try {
+            netManager.addBridge("udp", null);
+        } catch (IOException ex) {
+            Logger.getLogger(MoppyControlGUI.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        // Serial ports are found (and kept up to date) in the background so startup doesn't wait on enumeration
+        netManager.watchSerialPorts();
         netManager.start();
         final MapperCollection mappers = new MapperCollection();
         final GUIControlledPostProcessor postProcessor = new GUIControlledPostProcessor();
@@ -56,7 +65,7 @@ public class MoppyControlGUI {
                 }
                 receiverSender.close();
                 try {
-                    netManager.getPrimaryBridge().close();
+                    netManager.close();
                 } catch (IOException ex) {
                     Logger.getLogger(MoppyControlGUI.class.getName()).log(Level.WARNING, null, ex);
                 }
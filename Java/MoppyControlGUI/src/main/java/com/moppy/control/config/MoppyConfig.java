@@ -20,6 +20,9 @@ public class MoppyConfig {
     private Dimension mainWindowSize = new Dimension(1024, 600);
     private int mainWindowDividerPosition = 300;
 
+    // Network
+    private boolean autoTuneLinks = false;
+
     // Mappers
     private List<MIDIScriptMapperConfig> mapperConfigs = new ArrayList<>();
 
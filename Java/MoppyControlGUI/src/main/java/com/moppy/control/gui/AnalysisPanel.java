@@ -0,0 +1,158 @@
+package com.moppy.control.gui;
+
+import com.moppy.core.analysis.SongAnalyzer;
+import com.moppy.core.analysis.SongReport;
+import com.moppy.core.comms.NetworkManager;
+import com.moppy.core.events.mapper.MapperCollection;
+import java.io.File;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.sound.midi.MidiMessage;
+import javax.swing.SwingUtilities;
+
+/**
+ * Checks the playlist against the discovered devices with the current mappers, without playing it.
+ */
+public class AnalysisPanel extends javax.swing.JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    private NetworkManager netManager;
+    private Supplier<List<File>> playlistSource = List::of;
+    private Supplier<MapperCollection<MidiMessage>> mapperSource = MapperCollection::new;
+
+    /**
+     * Creates new form AnalysisPanel
+     */
+    public AnalysisPanel() {
+        initComponents();
+    }
+
+    public void setNetworkManager(NetworkManager netManager) {
+        this.netManager = netManager;
+    }
+
+    /**
+     * @param playlistSource Supplies the songs to analyse
+     */
+    public void setPlaylistSource(Supplier<List<File>> playlistSource) {
+        this.playlistSource = playlistSource;
+    }
+
+    /**
+     * @param mapperSource Supplies new mappers configured as for playback (called on the event dispatch thread)
+     */
+    public void setMapperSource(Supplier<MapperCollection<MidiMessage>> mapperSource) {
+        this.mapperSource = mapperSource;
+    }
+
+    private void analyzePlaylist() {
+        List<File> files = playlistSource.get();
+        if (files.isEmpty()) {
+            statusLabel.setText("Add songs to the playlist to analyse them");
+            return;
+        }
+
+        // Mappers keep state, so every song gets its own.  They're all made here since the mapper
+        // configuration belongs to this thread; songs that can't be read just leave theirs unused.
+        Queue<MapperCollection<MidiMessage>> mapperCopies = new ConcurrentLinkedQueue<>();
+        files.forEach(file -> mapperCopies.add(mapperSource.get()));
+        SongAnalyzer analyzer = new SongAnalyzer(netManager != null ? netManager.getRecentlySeenDevices() : List.of());
+
+        analyzeButton.setEnabled(false);
+        statusLabel.setText(String.format("Analysing %d songs...", files.size()));
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                // Script mappers take turns on one shared script context, so more threads wouldn't help
+                return analyzer.analyzeAll(files, sequence -> mapperCopies.poll(), 1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(ex);
+            }
+        }).whenComplete((reports, ex) -> SwingUtilities.invokeLater(() -> {
+            analyzeButton.setEnabled(true);
+            if (ex != null) {
+                Logger.getLogger(AnalysisPanel.class.getName()).log(Level.WARNING, "Song analysis failed", ex);
+                statusLabel.setText("Analysis failed: " + ex.getMessage());
+                return;
+            }
+            showReports(reports);
+        }));
+    }
+
+    private void showReports(List<SongReport> reports) {
+        long playable = reports.stream().filter(SongReport::isPlayable).count();
+        long unreadable = reports.stream().filter(report -> report.getError() != null).count();
+        statusLabel.setText(String.format("%d of %d songs should play well on %s", playable, reports.size(),
+                reports.isEmpty() || reports.get(0).getAvailableDrives() == 0 ? "the devices found (none yet)"
+                        : reports.get(0).getAvailableDrives() + " drives")
+                + (unreadable > 0 ? String.format(" (%d unreadable)", unreadable) : ""));
+
+        // Songs that need attention first
+        reportTextArea.setText(reports.stream()
+                .sorted((a, b) -> Boolean.compare(a.isPlayable(), b.isPlayable()))
+                .map(SongReport::describe)
+                .collect(Collectors.joining("\n")));
+        reportTextArea.setCaretPosition(0);
+    }
+
+    /**
+     * This method is called from within the constructor to initialize the form. WARNING: Do NOT modify this code. The content of this method is always regenerated by the Form Editor.
+     */
+    @SuppressWarnings("unchecked")
+    // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
+    private void initComponents() {
+
+        controlsPanel = new javax.swing.JPanel();
+        analyzeButton = new javax.swing.JButton();
+        statusLabel = new javax.swing.JLabel();
+        reportScrollPane = new javax.swing.JScrollPane();
+        reportTextArea = new javax.swing.JTextArea();
+
+        setLayout(new java.awt.BorderLayout());
+
+        controlsPanel.setLayout(new java.awt.FlowLayout(java.awt.FlowLayout.LEFT));
+
+        analyzeButton.setText("Analyze Playlist");
+        analyzeButton.setToolTipText("Check whether the playlist's songs will play well on the discovered devices with the current mappers");
+        analyzeButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                analyzeButtonActionPerformed(evt);
+            }
+        });
+        controlsPanel.add(analyzeButton);
+
+        statusLabel.setText("Note range, drives needed, pitch bends and link bandwidth for each song in the playlist");
+        controlsPanel.add(statusLabel);
+
+        add(controlsPanel, java.awt.BorderLayout.PAGE_START);
+
+        reportTextArea.setEditable(false);
+        reportTextArea.setColumns(20);
+        reportTextArea.setFont(new java.awt.Font("Monospaced", 0, 12)); // NOI18N
+        reportTextArea.setRows(5);
+        reportScrollPane.setViewportView(reportTextArea);
+
+        add(reportScrollPane, java.awt.BorderLayout.CENTER);
+    }// </editor-fold>//GEN-END:initComponents
+
+    private void analyzeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_analyzeButtonActionPerformed
+        analyzePlaylist();
+    }//GEN-LAST:event_analyzeButtonActionPerformed
+
+
+    // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton analyzeButton;
+    private javax.swing.JPanel controlsPanel;
+    private javax.swing.JScrollPane reportScrollPane;
+    private javax.swing.JTextArea reportTextArea;
+    private javax.swing.JLabel statusLabel;
+    // End of variables declaration//GEN-END:variables
+}
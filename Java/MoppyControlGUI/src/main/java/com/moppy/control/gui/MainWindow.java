@@ -2,7 +2,7 @@ package com.moppy.control.gui;
 
 import com.moppy.control.GUIControlledPostProcessor;
 import com.moppy.control.MoppyPreferences;
-import com.moppy.control.NetworkManager;
+import com.moppy.core.comms.NetworkManager;
 import com.moppy.core.events.mapper.MapperCollection;
 import com.moppy.core.midi.MoppyMIDIReceiverSender;
 import com.moppy.core.midi.MoppyMIDISequencer;
@@ -54,10 +54,17 @@ public class MainWindow extends javax.swing.JFrame {
         networkPanel = new com.moppy.control.gui.netpanel.NetworkPanel();
         networkPanel.setNetworkManager(netManager);
         statusBus.registerConsumer(networkPanel);
+        bottomTabbedPane = new javax.swing.JTabbedPane();
         bottomPanel = new javax.swing.JScrollPane();
         mapperCollectionPanel = new com.moppy.control.gui.mapperpanel.MapperCollectionPanel();
+        mapperCollectionPanel.setReceiverSender(receiverSender);
+        mapperCollectionPanel.setNetworkManager(netManager);
         mapperCollectionPanel.initMapperCollectionPanel(mappers);
         statusBus.registerConsumer(mapperCollectionPanel);
+        analysisPanel = new com.moppy.control.gui.AnalysisPanel();
+        analysisPanel.setNetworkManager(netManager);
+        analysisPanel.setPlaylistSource(sequencerPanel::getPlaylistFiles);
+        analysisPanel.setMapperSource(mapperCollectionPanel::copyMappers);
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
         setTitle("Moppy Control");
@@ -99,7 +106,10 @@ public class MainWindow extends javax.swing.JFrame {
         bottomPanel.setMinimumSize(new java.awt.Dimension(23, 180));
         bottomPanel.setViewportView(mapperCollectionPanel);
 
-        jSplitPane1.setBottomComponent(bottomPanel);
+        bottomTabbedPane.addTab("Mappers", bottomPanel);
+        bottomTabbedPane.addTab("Song Analysis", analysisPanel);
+
+        jSplitPane1.setBottomComponent(bottomTabbedPane);
 
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
@@ -132,7 +142,9 @@ public class MainWindow extends javax.swing.JFrame {
 
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private com.moppy.control.gui.AnalysisPanel analysisPanel;
     private javax.swing.JScrollPane bottomPanel;
+    private javax.swing.JTabbedPane bottomTabbedPane;
     private javax.swing.JSplitPane jSplitPane1;
     private com.moppy.control.gui.mapperpanel.MapperCollectionPanel mapperCollectionPanel;
     private com.moppy.control.gui.netpanel.NetworkPanel networkPanel;
@@ -13,14 +13,19 @@ import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.DefaultListModel;
 import javax.swing.JFileChooser;
@@ -52,6 +57,10 @@ public class SequencerPanel extends JPanel implements StatusConsumer, ActionList
 
     private final DefaultListModel<File> playlistFilesModel = new DefaultListModel();
     private int loadedIndex = -1; // -1 Signifies that "nothing" is loaded, and a sequence must be loaded
+
+    // The next song in the playlist, read in the background so it can start as soon as the last one ends
+    private File preloadedFile = null;
+    private CompletableFuture<Sequence> preloadedSequence = null;
     
     /**
      * Creates new form SequencerPanel
@@ -105,11 +114,22 @@ public class SequencerPanel extends JPanel implements StatusConsumer, ActionList
         midiOutDevices.keySet().forEach((key) -> midiOutCB.addItem(key));
     }
     
+    public List<File> getPlaylistFiles() {
+        return Collections.list(playlistFilesModel.elements());
+    }
+
     private void loadSequence(int playlistIndex) {
         try {
-            midiSequencer.loadSequence(playlistFilesModel.get(playlistIndex));
+            File file = playlistFilesModel.get(playlistIndex);
+            Sequence sequence = takePreloadedSequence(file);
+            if (sequence != null) {
+                midiSequencer.loadSequence(sequence);
+            } else {
+                midiSequencer.loadSequence(file);
+            }
             playlistFilesList.setSelectedIndex(playlistIndex);
             loadedIndex = playlistIndex;
+            preloadSequence(playlistIndex + 1 < playlistFilesModel.size() ? playlistIndex + 1 : 0);
         } catch (IOException | InvalidMidiDataException ex) {
             Logger.getLogger(SequencerPanel.class.getName()).log(Level.WARNING, null, ex);
             if (playlistFilesModel.size() > playlistIndex+1) {
@@ -118,6 +138,43 @@ public class SequencerPanel extends JPanel implements StatusConsumer, ActionList
         }
     }
     
+    /**
+     * Starts reading a playlist file in the background, ready for {@link #loadSequence(int)}.
+     */
+    private void preloadSequence(int playlistIndex) {
+        if (playlistIndex >= playlistFilesModel.size()) {
+            return;
+        }
+        File file = playlistFilesModel.get(playlistIndex);
+        if (!file.equals(preloadedFile)) {
+            preloadedFile = file;
+            preloadedSequence = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return MidiSystem.getSequence(file);
+                } catch (IOException | InvalidMidiDataException ex) {
+                    throw new CompletionException(ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The file's sequence if it was preloaded (waiting for it to finish if needed), or null to read it now
+     */
+    private Sequence takePreloadedSequence(File file) {
+        if (!file.equals(preloadedFile)) {
+            return null;
+        }
+        CompletableFuture<Sequence> preloaded = preloadedSequence;
+        preloadedFile = null;
+        preloadedSequence = null;
+        try {
+            return preloaded.join();
+        } catch (CompletionException ex) {
+            return null; // Reading it again will report the problem
+        }
+    }
+
     /**
      * Advanced the loaded sequence to the next in the playlist (or wraps back to 0)
      */
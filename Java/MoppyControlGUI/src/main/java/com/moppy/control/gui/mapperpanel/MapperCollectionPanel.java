@@ -1,13 +1,17 @@
 package com.moppy.control.gui.mapperpanel;
 
 import com.moppy.control.MoppyPreferences;
+import com.moppy.core.comms.NetworkManager;
 import com.moppy.control.config.MoppyConfig.MIDIScriptMapperConfig;
+import com.moppy.core.device.DeviceDescriptor;
 import com.moppy.core.events.mapper.MIDIScriptMapper;
 import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.midi.MoppyMIDIReceiverSender;
 import com.moppy.core.status.StatusConsumer;
 import com.moppy.core.status.StatusUpdate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.sound.midi.MidiMessage;
@@ -18,6 +22,8 @@ import javax.sound.midi.MidiMessage;
 public class MapperCollectionPanel extends javax.swing.JPanel implements StatusConsumer {
 
     private MapperCollection<MidiMessage> mappers;
+    private NetworkManager netManager;
+    private MoppyMIDIReceiverSender receiverSender;
 
     /**
      * Creates new form MappersDisplayPanel
@@ -26,6 +32,21 @@ public class MapperCollectionPanel extends javax.swing.JPanel implements StatusC
         initComponents();
     }
 
+    /**
+     * Supplies the devices that each mapper's voice allocator spreads notes across.
+     */
+    public void setNetworkManager(NetworkManager netManager) {
+        this.netManager = netManager;
+        refreshVoiceAllocators();
+    }
+
+    /**
+     * Sends stops for notes left sounding when a voice allocator's devices change.
+     */
+    public void setReceiverSender(MoppyMIDIReceiverSender receiverSender) {
+        this.receiverSender = receiverSender;
+    }
+
     public void initMapperCollectionPanel(MapperCollection<MidiMessage> mappers) {
         this.mappers = mappers;
         loadMappersFromConfig(MoppyPreferences.getConfiguration().getMapperConfigs());
@@ -56,6 +77,12 @@ public class MapperCollectionPanel extends javax.swing.JPanel implements StatusC
 
     private void addNewMapper(MIDIScriptMapperConfig mapperConfig) {
         MIDIScriptMapper newMapper = new MIDIScriptMapper();
+        if (receiverSender != null) {
+            newMapper.getVoiceAllocator().setStopSender(receiverSender::sendMoppyMessage);
+        }
+        if (netManager != null) {
+            newMapper.getVoiceAllocator().setDevices(netManager.getRecentlySeenDevices());
+        }
         mappers.addMapper(newMapper);
         this.add(new MapperPanel(newMapper, mapperConfig, this));
         this.revalidate();
@@ -72,6 +99,38 @@ public class MapperCollectionPanel extends javax.swing.JPanel implements StatusC
         this.repaint();
     }
 
+    private void refreshVoiceAllocators() {
+        if (netManager == null || mappers == null) {
+            return;
+        }
+        Set<DeviceDescriptor> devices = netManager.getRecentlySeenDevices();
+        mappers.getMappers().stream()
+                .filter(m -> m instanceof MIDIScriptMapper)
+                .forEach(m -> ((MIDIScriptMapper)m).getVoiceAllocator().setDevices(devices));
+    }
+
+    /**
+     * @return New mappers with the same scripts as the ones being edited, for mapping songs without
+     * disturbing the state (e.g. which drive each note is on) of the mappers used for playback
+     */
+    public MapperCollection<MidiMessage> copyMappers() {
+        MapperCollection<MidiMessage> copies = new MapperCollection<>();
+        Set<DeviceDescriptor> devices = netManager != null ? netManager.getRecentlySeenDevices() : Set.of();
+        mappers.getMappers().stream()
+                .filter(m -> m instanceof MIDIScriptMapper)
+                .forEach(m -> {
+                    MIDIScriptMapper mapper = (MIDIScriptMapper)m;
+                    MIDIScriptMapper copy = new MIDIScriptMapper();
+                    copy.setConditionScript(mapper.getConditionScript());
+                    copy.setDeviceAddressScript(mapper.getDeviceAddressScript());
+                    copy.setSubAddressScript(mapper.getSubAddressScript());
+                    copy.setNoteScript(mapper.getNoteScript());
+                    copy.getVoiceAllocator().setDevices(devices);
+                    copies.addMapper(copy);
+                });
+        return copies;
+    }
+
     private void enableMapperEditing(boolean enable) {
         addMapperButton.setEnabled(enable);
         Arrays.stream(this.getComponents()).filter(c -> c instanceof MapperPanel)
@@ -110,6 +169,9 @@ public class MapperCollectionPanel extends javax.swing.JPanel implements StatusC
     @Override
     public void receiveUpdate(StatusUpdate update) {
         switch (update.getType()) {
+            case NET_DEVICES_CHANGED:
+                refreshVoiceAllocators();
+                break;
             case SEQUENCE_START:
                 enableMapperEditing(false);
                 saveMappersToConfig(); // Go ahead and proactively save the mappers when we start playing
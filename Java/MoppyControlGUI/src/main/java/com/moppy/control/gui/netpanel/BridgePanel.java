@@ -5,7 +5,7 @@
  */
 package com.moppy.control.gui.netpanel;
 
-import com.moppy.control.NetworkManager;
+import com.moppy.core.comms.NetworkManager;
 import com.moppy.core.comms.bridge.NetworkBridge;
 import java.io.IOException;
 import java.util.List;
@@ -5,7 +5,7 @@
  */
 package com.moppy.control.gui.netpanel;
 
-import com.moppy.control.NetworkManager;
+import com.moppy.core.comms.NetworkManager;
 import com.moppy.core.status.StatusConsumer;
 import com.moppy.core.status.StatusUpdate;
 
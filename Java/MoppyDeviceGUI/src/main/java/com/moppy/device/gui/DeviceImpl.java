@@ -5,72 +5,146 @@ import com.jsyn.Synthesizer;
 import com.jsyn.unitgen.LineOut;
 import com.jsyn.unitgen.Pan;
 import com.moppy.core.comms.MoppyMessageFactory;
-import com.moppy.core.comms.NetworkMessageConsumer;
-import com.moppy.core.comms.NetworkReceivedMessage;
 import com.moppy.core.comms.bridge.BridgeUDP;
 import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.device.DeviceHost;
+import com.moppy.core.device.FrameTimingMonitor;
 import com.moppy.core.device.MoppyDevice;
 import com.moppy.core.util.Notes;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Sample device implementation.
+ * Sample device implementation: a number of simulated floppy drives on one device address, played
+ * through the sound card (or silently, when only the network side matters).
+ *
+ * All the drives' voices are created up front in a single synthesizer, which runs with a short output
+ * latency so what's heard lines up with when frames arrive.  A {@link FrameTimingMonitor} watches the
+ * frames as they come in.
  */
-public class DeviceImpl extends MoppyDevice implements Closeable, NetworkMessageConsumer {
+public class DeviceImpl extends MoppyDevice implements Closeable {
 
-    private final byte deviceAddress = 0x01;
-    private final byte numberOfDevices = 0x08;
+    public static final byte DEFAULT_DEVICE_ADDRESS = 0x01;
+    public static final int DEFAULT_NUMBER_OF_DRIVES = 8;
 
-    NetworkBridge network;
+    private static final double OUTPUT_LATENCY_SECONDS = 0.02;
+    private static final double MAX_TOTAL_AMPLITUDE = 0.8;
 
-    private final SimFloppyDrive[] simDrives = new SimFloppyDrive[8];
-    Synthesizer synth = JSyn.createSynthesizer();
-    LineOut lout = new LineOut();
+    private final byte deviceAddress;
+    private final byte numberOfDevices;
 
-    public DeviceImpl() throws UnknownHostException {
-        network = new BridgeUDP();
-        network.registerMessageReceiver(this);
+    NetworkBridge network;
+    private final DeviceHost host;
+    private final FrameTimingMonitor timingMonitor;
 
-        synth.add(lout);
+    private final SimFloppyDrive[] simDrives;
+    private final Synthesizer synth;
+    private final LineOut lout;
 
-        Pan pan = new Pan();
-        pan.pan.set(0.0);
-        pan.output.connect(0,lout.input,0);
-        pan.output.connect(1,lout.input,1);
+    public DeviceImpl() throws UnknownHostException {
+        this(new BridgeUDP(), DEFAULT_DEVICE_ADDRESS, DEFAULT_NUMBER_OF_DRIVES, true);
+    }
 
-        for (int d=0;d<8;d++){
-            SimFloppyDrive sd = new SimFloppyDrive();
-            simDrives[d] = sd;
-            synth.add(sd.so);
-            sd.so.output.connect(pan.input);
+    /**
+     * @param network Bridge to receive frames on and reply to pings through
+     * @param numberOfDrives Drives on the device, at sub-addresses 1 to numberOfDrives (at most 255)
+     * @param audio False to only track what the drives would play, e.g. with no sound card
+     */
+    public DeviceImpl(NetworkBridge network, byte deviceAddress, int numberOfDrives, boolean audio) {
+        if (numberOfDrives < 1 || numberOfDrives > 255) {
+            throw new IllegalArgumentException("A device has 1 to 255 drives");
+        }
+        this.network = network;
+        this.deviceAddress = deviceAddress;
+        this.numberOfDevices = (byte)numberOfDrives;
+
+        // The monitor goes first so arrival times don't include the time the device spends handling frames
+        timingMonitor = new FrameTimingMonitor(deviceAddress, this::deviceMicros);
+        network.registerMessageReceiver(timingMonitor);
+        host = new DeviceHost(network);
+        host.addDevice(this, deviceAddress, (byte)1, numberOfDevices);
+
+        if (audio) {
+            synth = JSyn.createSynthesizer();
+            lout = new LineOut();
+            synth.add(lout);
+
+            Pan pan = new Pan();
+            pan.pan.set(0.0);
+            pan.output.connect(0,lout.input,0);
+            pan.output.connect(1,lout.input,1);
+
+            // Keep the mix out of clipping however many drives there are
+            double amplitude = Math.min(SimFloppyDrive.DEFAULT_AMPLITUDE, MAX_TOTAL_AMPLITUDE / numberOfDrives);
+            simDrives = new SimFloppyDrive[numberOfDrives];
+            for (int d=0;d<numberOfDrives;d++){
+                SimFloppyDrive sd = new SimFloppyDrive(amplitude);
+                simDrives[d] = sd;
+                synth.add(sd.so);
+                sd.so.output.connect(pan.input);
+            }
+        } else {
+            synth = null;
+            lout = null;
+            simDrives = new SimFloppyDrive[0];
         }
     }
 
     public void connect() throws IOException {
         network.connect();
-        synth.start();
-        lout.start();
+        if (synth != null) {
+            synth.getAudioDeviceManager().setSuggestedOutputLatency(OUTPUT_LATENCY_SECONDS);
+            synth.start();
+            lout.start();
+        }
     }
 
     @Override
     public void close() throws IOException {
+        host.close();
+        shutdownScheduler();
+        network.deregisterMessageReceiver(timingMonitor);
         network.close();
-        lout.stop();
-        synth.stop();
+        if (synth != null) {
+            lout.stop();
+            synth.stop();
+        }
+    }
+
+    public byte getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public int getNumberOfDrives() {
+        return numberOfDevices & 0xff;
+    }
+
+    public FrameTimingMonitor getTimingMonitor() {
+        return timingMonitor;
+    }
+
+    public DeviceHost getHost() {
+        return host;
     }
 
     @Override
     public boolean matchesAddress(byte deviceAddress, byte subAddress) {
-        return deviceAddress == this.deviceAddress && subAddress <= this.numberOfDevices;
+        return deviceAddress == this.deviceAddress && (subAddress & 0xff) <= (this.numberOfDevices & 0xff);
     }
 
     @Override
-    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
-        this.handleMessage(networkMessage);
+    protected byte[] capabilities() {
+        // BridgeUDP splits batched datagrams back into frames, so we can take as many as fit in a packet
+        return MoppyMessageFactory.capabilitiesExtension(0, 0, 256);
+    }
+
+    @Override
+    protected boolean acceptsSequenceTrailer() {
+        return true; // The host reads each frame by its length byte
     }
 
     // System handlers
@@ -78,7 +152,7 @@ public class DeviceImpl extends MoppyDevice implements Closeable, NetworkMessage
     @Override
     public void gotSystemPing() {
         try {
-            network.sendMessage(MoppyMessageFactory.systemPong(deviceAddress, (byte)1, numberOfDevices));
+            network.sendMessage(pongMessage(deviceAddress, (byte)1, numberOfDevices));
         } catch (IOException ex) {
             Logger.getLogger(DeviceImpl.class.getName()).log(Level.WARNING, null, ex);
         }
@@ -93,12 +167,13 @@ public class DeviceImpl extends MoppyDevice implements Closeable, NetworkMessage
 
     @Override
     public void devicePlayNote(byte deviceAddress, byte subAddress, byte noteNumber) {
-        simDrives[subAddress - 1].playFrequency(Notes.FREQUENCIES[noteNumber]);
+        double frequency = Notes.FREQUENCIES[noteNumber & 0x7f];
+        forDrives(subAddress, drive -> drive.playFrequency(frequency));
     }
 
     @Override
     public void deviceStopNote(byte deviceAddress, byte subAddress, byte noteNumber) {
-        simDrives[subAddress - 1].stopFrequency();
+        forDrives(subAddress, SimFloppyDrive::stopFrequency);
     }
 
     @Override
@@ -107,8 +182,22 @@ public class DeviceImpl extends MoppyDevice implements Closeable, NetworkMessage
     }
 
     private void resetDrives() {
-        for (int d=0;d<8;d++){
-            simDrives[d].resetDrive();
+        for (SimFloppyDrive drive : simDrives) {
+            drive.resetDrive();
+        }
+    }
+
+    /**
+     * Runs an action on the drive at a sub-address, or on every drive for sub-address 0.
+     */
+    private void forDrives(byte subAddress, Consumer<SimFloppyDrive> action) {
+        int sub = subAddress & 0xff;
+        if (sub == 0) {
+            for (SimFloppyDrive drive : simDrives) {
+                action.accept(drive);
+            }
+        } else if (sub <= simDrives.length) {
+            action.accept(simDrives[sub - 1]);
         }
     }
 
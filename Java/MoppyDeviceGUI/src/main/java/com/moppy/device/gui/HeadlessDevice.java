@@ -0,0 +1,82 @@
+package com.moppy.device.gui;
+
+import com.moppy.core.comms.bridge.BridgeUDP;
+import com.moppy.core.device.FrameTimingMonitor;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulated device without the window, printing how frames are arriving every few seconds.  Useful
+ * on stage to keep an eye on the network from a device's point of view, and as a device to test against.
+ *
+ * Usage: MoppyDeviceGUI --headless [--address N] [--drives N] [--no-audio] [--report SECONDS]
+ */
+public class HeadlessDevice {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        byte deviceAddress = DeviceImpl.DEFAULT_DEVICE_ADDRESS;
+        int numberOfDrives = DeviceImpl.DEFAULT_NUMBER_OF_DRIVES;
+        boolean audio = true;
+        long reportSeconds = 5;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--headless":
+                        break;
+                    case "--address":
+                        int address = Integer.parseInt(args[++i]);
+                        if (address < 1 || address > 255) {
+                            throw new IllegalArgumentException("Device addresses are 1 to 255");
+                        }
+                        deviceAddress = (byte)address;
+                        break;
+                    case "--drives":
+                        numberOfDrives = Integer.parseInt(args[++i]);
+                        break;
+                    case "--no-audio":
+                        audio = false;
+                        break;
+                    case "--report":
+                        reportSeconds = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+            System.err.println("Error: " + (ex instanceof ArrayIndexOutOfBoundsException ? "Missing value for " + args[args.length - 1] : ex.getMessage()));
+            System.err.println("Usage: MoppyDeviceGUI --headless [--address N] [--drives N] [--no-audio] [--report SECONDS]");
+            System.exit(1);
+            return;
+        }
+
+        DeviceImpl device = new DeviceImpl(new BridgeUDP(), deviceAddress, numberOfDrives, audio);
+        device.connect();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                device.close();
+            } catch (IOException ex) {
+                // Exiting anyway
+            }
+        }));
+        System.out.printf("Device %d with %d drives listening%s%n", deviceAddress & 0xff, numberOfDrives, audio ? "" : " (no audio)");
+
+        long lastDispatched = 0;
+        long lastUnmatched = 0;
+        while (true) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(Math.max(1, reportSeconds)));
+            FrameTimingMonitor.Snapshot window = device.getTimingMonitor().snapshotAndReset();
+            long dispatched = device.getHost().getFramesDispatched();
+            long unmatched = device.getHost().getFramesUnmatched();
+            System.out.printf("[%s] %s, %d handled, %d not for this device%n",
+                    LocalTime.now().format(TIME_FORMAT), window, dispatched - lastDispatched, unmatched - lastUnmatched);
+            lastDispatched = dispatched;
+            lastUnmatched = unmatched;
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package com.moppy.device.gui;
 
+import java.util.Arrays;
 import javafx.application.Application;
 import static javafx.application.Application.launch;
 import javafx.event.ActionEvent;
@@ -33,10 +34,14 @@ public class MoppyDeviceGUI extends Application {
     }
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments; --headless runs the device without a window (see {@link HeadlessDevice})
      */
-    public static void main(String[] args) {
-        launch(args);
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--headless")) {
+            HeadlessDevice.main(args);
+        } else {
+            launch(args);
+        }
     }
     
 }
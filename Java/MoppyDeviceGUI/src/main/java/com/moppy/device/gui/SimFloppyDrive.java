@@ -12,14 +12,22 @@ import com.jsyn.unitgen.SquareOscillator;
  * A simulated FloppyDrive for testing purposes
  */
 public class SimFloppyDrive {
+    public static final double DEFAULT_AMPLITUDE = 0.05;
+
     public SquareOscillator so = new SquareOscillator();
+    private final double amplitude;
     
     public SimFloppyDrive(){
+        this(DEFAULT_AMPLITUDE);
+    }
+    
+    public SimFloppyDrive(double amplitude){
+        this.amplitude = amplitude;
         so.noteOff();
     }
     
     public void playFrequency(double frequency){
-        so.noteOn(frequency, 0.05);
+        so.noteOn(frequency, amplitude);
     }
     
     public void stopFrequency(){
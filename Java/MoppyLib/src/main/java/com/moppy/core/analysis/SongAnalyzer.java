@@ -0,0 +1,385 @@
+package com.moppy.core.analysis;
+
+import com.moppy.core.comms.CompactEncoder;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.bridge.BridgeSerial;
+import com.moppy.core.device.DeviceDescriptor;
+import com.moppy.core.distributed.FrameTimeline;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.mapper.PolyphonyCounter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Checks before a show whether songs will play well on the devices there are: notes the drives can't
+ * play, more notes at once than drives, notes mapped to drives that aren't there, heavy pitch bending,
+ * and links that can't carry the song's traffic.
+ *
+ * Each song is mapped with the mappers it would be played with, in a single pass over its events and
+ * without keeping the mapped frames.  Every bridge gets every frame (see MultiBridge), so each link is
+ * charged for the whole song, in the compact encoding if all its devices take it.  Links named like
+ * serial ports (no "type:" prefix) are limited to their devices' preferred baud, or the default.
+ *
+ * An analyzer can be shared between threads; see {@link #analyzeAll} for analysing many songs at once.
+ */
+public class SongAnalyzer {
+
+    // The same range as ConditionScripts.ONLY_SUPPORTED_NOTES
+    public static final int LOWEST_SUPPORTED_NOTE = 23;
+    public static final int HIGHEST_SUPPORTED_NOTE = 66;
+
+    // Beyond this, bends are worth thinning out (e.g. with CoalescingBridge) on slow links
+    public static final int HEAVY_BENDS_PER_SECOND = 100;
+
+    private static final long WINDOW_MICROS = 1_000_000;
+    // Devices not known to be on any network (e.g. listed by hand) are assumed to be on a serial port
+    private static final String UNKNOWN_LINK = "serial (estimated at default baud)";
+
+    /**
+     * A link the song will be sent over, and what it can carry.
+     */
+    private static class Link {
+        final String bridge;
+        final boolean compact;
+        final int capacityBytesPerSecond;
+        final int maxMessagesPerSecond;
+
+        Link(String bridge, boolean compact, int capacityBytesPerSecond, int maxMessagesPerSecond) {
+            this.bridge = bridge;
+            this.compact = compact;
+            this.capacityBytesPerSecond = capacityBytesPerSecond;
+            this.maxMessagesPerSecond = maxMessagesPerSecond;
+        }
+    }
+
+    private final boolean[] drives = new boolean[256 * 256]; // Indexed by [device address][sub-address]
+    private final int availableDrives;
+    private final List<Link> links = new ArrayList<>();
+
+    /**
+     * @param devices Devices the songs will be played on, e.g. the ones discovered on the network (with no
+     * devices, the song's traffic is still estimated for a serial link)
+     */
+    public SongAnalyzer(Collection<DeviceDescriptor> devices) {
+        int driveCount = 0;
+        Map<String, List<DeviceDescriptor>> devicesByBridge = new LinkedHashMap<>();
+        for (DeviceDescriptor device : devices) {
+            int address = device.getDeviceAddress() & 0xff;
+            for (int sub = device.getMinSubAddress() & 0xff; sub <= (device.getMaxSubAddress() & 0xff); sub++) {
+                if (!drives[address * 256 + sub]) {
+                    drives[address * 256 + sub] = true;
+                    driveCount++;
+                }
+            }
+            devicesByBridge.computeIfAbsent(bridgeOf(device), bridge -> new ArrayList<>()).add(device);
+        }
+        availableDrives = driveCount;
+
+        devicesByBridge.forEach((bridge, bridgeDevices) -> {
+            boolean compact = bridgeDevices.stream().allMatch(DeviceDescriptor::supportsCompactEncoding);
+            int baud = bridgeDevices.stream().mapToInt(DeviceDescriptor::getPreferredBaud).filter(b -> b > 0).min().orElse(BridgeSerial.DEFAULT_BAUD);
+            int maxMessages = bridgeDevices.stream().mapToInt(DeviceDescriptor::getMaxMessagesPerSecond).filter(m -> m > 0).min().orElse(0);
+            links.add(new Link(bridge, compact, isSerialPort(bridge) ? baud / 10 : 0, maxMessages));
+        });
+        if (links.isEmpty()) {
+            links.add(new Link(UNKNOWN_LINK, false, BridgeSerial.DEFAULT_BAUD / 10, 0));
+        }
+    }
+
+    public int getAvailableDrives() {
+        return availableDrives;
+    }
+
+    /**
+     * @param mappers The mappers the song will be played with (stateful mappers should be fresh)
+     */
+    public SongReport analyze(String name, Sequence sequence, MapperCollection<MidiMessage> mappers) {
+        Pass pass = new Pass(new SongReport(name), mappers);
+        FrameTimeline.forEachEvent(sequence, pass);
+        return pass.finish();
+    }
+
+    /**
+     * Reads and analyses a file, reporting rather than throwing if it can't be read.
+     *
+     * @param mapperFactory Creates the mappers for the song
+     */
+    public SongReport analyze(File file, Function<Sequence, MapperCollection<MidiMessage>> mapperFactory) {
+        try {
+            Sequence sequence = MidiSystem.getSequence(file);
+            return analyze(file.getName(), sequence, mapperFactory.apply(sequence));
+        } catch (IOException | InvalidMidiDataException | RuntimeException ex) {
+            SongReport report = new SongReport(file.getName());
+            report.error = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+            return report;
+        }
+    }
+
+    /**
+     * Analyses many songs in parallel on a fork/join pool of its own.
+     *
+     * @param mapperFactory Creates the mappers for each song; called from several threads at once
+     * @param parallelism Songs to analyse at once (script mappers take turns on one shared script context,
+     * so they gain nothing from more than 1)
+     * @return A report for each file, in the same order
+     */
+    public List<SongReport> analyzeAll(List<File> files, Function<Sequence, MapperCollection<MidiMessage>> mapperFactory,
+            int parallelism) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .map(file -> analyze(file, mapperFactory))
+                    .toList()).get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Analysis failed", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return The bridge part of a network address from DeviceRegistry ("bridge - remote")
+     */
+    private static String bridgeOf(DeviceDescriptor device) {
+        String networkAddress = device.getNetworkAddress() == null ? "" : device.getNetworkAddress();
+        int separator = networkAddress.indexOf(" - ");
+        String bridge = separator >= 0 ? networkAddress.substring(0, separator) : networkAddress;
+        return bridge.isEmpty() ? UNKNOWN_LINK : bridge;
+    }
+
+    /**
+     * Serial bridges are named after their port (/dev/ttyUSB0, COM3); the others have a "type:" or "host:port" name.
+     */
+    private static boolean isSerialPort(String bridge) {
+        return !bridge.isEmpty() && !bridge.contains(":");
+    }
+
+    /**
+     * The state of one song's analysis.
+     */
+    private class Pass implements FrameTimeline.EventVisitor {
+        private final SongReport report;
+        private final MapperCollection<MidiMessage> mappers;
+
+        // The song's notes
+        private final PolyphonyCounter polyphony = new PolyphonyCounter();
+
+        // The drives' notes
+        private final short[] driveNotes = new short[256 * 256];
+        private final boolean[] driveUsed = new boolean[256 * 256];
+        private int drivesSounding = 0;
+
+        private final RateWindow bends = new RateWindow();
+        private final CompactEncoder[] encoders = new CompactEncoder[links.size()];
+        private final RateWindow[] linkBytes = new RateWindow[links.size()];
+        private final RateWindow[] linkMessages = new RateWindow[links.size()];
+
+        Pass(SongReport report, MapperCollection<MidiMessage> mappers) {
+            this.report = report;
+            this.mappers = mappers;
+            Arrays.fill(driveNotes, (short) -1);
+            for (int i = 0; i < links.size(); i++) {
+                encoders[i] = links.get(i).compact ? new CompactEncoder() : null;
+                linkBytes[i] = new RateWindow();
+                linkMessages[i] = new RateWindow();
+            }
+        }
+
+        @Override
+        public void visit(long micros, MidiMessage message) {
+            report.durationMicros = micros;
+            if (message instanceof ShortMessage) {
+                songNote((ShortMessage) message);
+            }
+            for (MoppyMessage moppyMessage : mappers.mapEvent(message)) {
+                frame(micros, moppyMessage);
+            }
+        }
+
+        private void songNote(ShortMessage message) {
+            boolean noteOn = message.getCommand() == ShortMessage.NOTE_ON && message.getData2() > 0;
+            boolean noteOff = message.getCommand() == ShortMessage.NOTE_OFF
+                    || (message.getCommand() == ShortMessage.NOTE_ON && message.getData2() == 0);
+            int note = message.getData1();
+            if (noteOn) {
+                report.noteCount++;
+                if (note < LOWEST_SUPPORTED_NOTE || note > HIGHEST_SUPPORTED_NOTE) {
+                    report.unsupportedNotes++;
+                }
+                report.lowestNote = report.lowestNote < 0 ? note : Math.min(report.lowestNote, note);
+                report.highestNote = Math.max(report.highestNote, note);
+                polyphony.noteOn(message.getChannel(), note);
+                report.peakPolyphony = polyphony.getPeak();
+            } else if (noteOff) {
+                polyphony.noteOff(message.getChannel(), note);
+            }
+        }
+
+        private void frame(long micros, MoppyMessage message) {
+            byte[] bytes = message.getMessageBytes();
+            for (int i = 0; i < encoders.length; i++) {
+                int length = encoders[i] != null ? encoders[i].encode(message).length : 4 + (bytes[3] & 0xff);
+                linkBytes[i].add(micros, length);
+                linkMessages[i].add(micros, 1);
+            }
+
+            int address = bytes[1] & 0xff;
+            byte command = bytes[4];
+            if (address == (MoppyMessage.SYSTEM_ADDRESS & 0xff)) {
+                if (command == MoppyMessage.CommandByte.SYS_RESET || command == MoppyMessage.CommandByte.SYS_STOP) {
+                    silence(0, 256 * 256);
+                }
+                return;
+            }
+            int sub = bytes[2] & 0xff;
+            int drive = address * 256 + sub;
+            if (command == MoppyMessage.CommandByte.DEV_PLAYNOTE) {
+                report.mappedNotes++;
+                if (!drives[drive]) {
+                    report.notesToMissingDrives++;
+                }
+                if (!driveUsed[drive]) {
+                    driveUsed[drive] = true;
+                    report.drivesUsed++;
+                }
+                short note = bytes[5];
+                if (driveNotes[drive] < 0) {
+                    report.peakDrivesSounding = Math.max(report.peakDrivesSounding, ++drivesSounding);
+                } else if (driveNotes[drive] != note) {
+                    report.driveCollisions++;
+                }
+                driveNotes[drive] = note;
+            } else if (command == MoppyMessage.CommandByte.DEV_STOPNOTE) {
+                if (driveNotes[drive] >= 0 && driveNotes[drive] == bytes[5]) {
+                    driveNotes[drive] = -1;
+                    drivesSounding--;
+                }
+            } else if (command == MoppyMessage.CommandByte.DEV_BENDPITCH) {
+                report.bendCount++;
+                bends.add(micros, 1);
+            } else if (command == MoppyMessage.CommandByte.DEV_RESET) {
+                if (sub == 0) {
+                    silence(address * 256, address * 256 + 256);
+                } else {
+                    silence(drive, drive + 1);
+                }
+            }
+        }
+
+        private void silence(int fromDrive, int toDrive) {
+            for (int drive = fromDrive; drive < toDrive; drive++) {
+                if (driveNotes[drive] >= 0) {
+                    driveNotes[drive] = -1;
+                    drivesSounding--;
+                }
+            }
+        }
+
+        SongReport finish() {
+            report.availableDrives = availableDrives;
+            report.peakBendsPerSecond = bends.peak;
+            for (int i = 0; i < links.size(); i++) {
+                Link link = links.get(i);
+                SongReport.LinkLoad load = new SongReport.LinkLoad(link.bridge, link.compact, link.capacityBytesPerSecond, link.maxMessagesPerSecond);
+                load.totalBytes = linkBytes[i].total;
+                load.peakBytesPerSecond = linkBytes[i].peak;
+                load.peakMessagesPerSecond = linkMessages[i].peak;
+                report.links.add(load);
+            }
+            addWarnings();
+            return report;
+        }
+
+        private void addWarnings() {
+            List<String> warnings = report.warnings;
+            if (report.unsupportedNotes > 0) {
+                warnings.add(String.format("%d of %d notes are outside the drives' range (%d-%d)",
+                        report.unsupportedNotes, report.noteCount, LOWEST_SUPPORTED_NOTE, HIGHEST_SUPPORTED_NOTE));
+            }
+            if (availableDrives == 0) {
+                warnings.add("No devices have been found to play on");
+            } else if (report.peakPolyphony > availableDrives) {
+                warnings.add(String.format("Up to %d notes play at once, but there are only %d drives", report.peakPolyphony, availableDrives));
+            }
+            if (report.getUnmappedNotes() > 0) {
+                warnings.add(String.format("%d notes aren't mapped to any drive", report.getUnmappedNotes()));
+            }
+            if (report.notesToMissingDrives > 0 && availableDrives > 0) {
+                warnings.add(String.format("%d notes are mapped to drives that aren't there", report.notesToMissingDrives));
+            }
+            if (report.driveCollisions > 0) {
+                warnings.add(String.format("%d notes cut off another note on the same drive", report.driveCollisions));
+            }
+            if (report.peakBendsPerSecond > HEAVY_BENDS_PER_SECOND) {
+                warnings.add(String.format("Heavy pitch bending (%d bends/s at peak)", report.peakBendsPerSecond));
+            }
+            for (SongReport.LinkLoad link : report.links) {
+                if (link.getCapacityBytesPerSecond() > 0 && link.getPeakBytesPerSecond() > link.getCapacityBytesPerSecond()) {
+                    warnings.add(String.format("%s needs up to %d bytes/s but carries %d", link.getBridge(),
+                            link.getPeakBytesPerSecond(), link.getCapacityBytesPerSecond()));
+                }
+                if (link.getMaxMessagesPerSecond() > 0 && link.getPeakMessagesPerSecond() > link.getMaxMessagesPerSecond()) {
+                    warnings.add(String.format("%s needs up to %d messages/s but its devices take %d", link.getBridge(),
+                            link.getPeakMessagesPerSecond(), link.getMaxMessagesPerSecond()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Totals amounts and tracks the most in any one-second window.
+     */
+    private static class RateWindow {
+        private long[] times = new long[64];
+        private int[] amounts = new int[64];
+        private int head = 0; // Oldest entry
+        private int count = 0;
+        private int sum = 0;
+        long total = 0;
+        int peak = 0;
+
+        void add(long micros, int amount) {
+            while (count > 0 && times[head] <= micros - WINDOW_MICROS) {
+                sum -= amounts[head];
+                head = (head + 1) % times.length;
+                count--;
+            }
+            if (count == times.length) {
+                grow();
+            }
+            int tail = (head + count) % times.length;
+            times[tail] = micros;
+            amounts[tail] = amount;
+            count++;
+            sum += amount;
+            total += amount;
+            peak = Math.max(peak, sum);
+        }
+
+        private void grow() {
+            long[] newTimes = new long[times.length * 2];
+            int[] newAmounts = new int[amounts.length * 2];
+            for (int i = 0; i < count; i++) {
+                newTimes[i] = times[(head + i) % times.length];
+                newAmounts[i] = amounts[(head + i) % amounts.length];
+            }
+            times = newTimes;
+            amounts = newAmounts;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.moppy.core.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How well a song will play on a set of devices with a mapper configuration, from {@link SongAnalyzer}.
+ */
+public class SongReport {
+
+    /**
+     * Traffic the song puts on one network link.
+     */
+    public static class LinkLoad {
+        private final String bridge;
+        private final boolean compact;
+        private final int capacityBytesPerSecond;
+        private final int maxMessagesPerSecond;
+        long totalBytes;
+        int peakBytesPerSecond;
+        int peakMessagesPerSecond;
+
+        LinkLoad(String bridge, boolean compact, int capacityBytesPerSecond, int maxMessagesPerSecond) {
+            this.bridge = bridge;
+            this.compact = compact;
+            this.capacityBytesPerSecond = capacityBytesPerSecond;
+            this.maxMessagesPerSecond = maxMessagesPerSecond;
+        }
+
+        public String getBridge() {
+            return bridge;
+        }
+
+        /**
+         * @return Whether the link's devices take the compact encoding
+         */
+        public boolean isCompact() {
+            return compact;
+        }
+
+        /**
+         * @return Bytes per second the link can carry (0 for links that aren't limited, like UDP)
+         */
+        public int getCapacityBytesPerSecond() {
+            return capacityBytesPerSecond;
+        }
+
+        /**
+         * @return Fewest messages per second any of the link's devices can take (0 for no limit)
+         */
+        public int getMaxMessagesPerSecond() {
+            return maxMessagesPerSecond;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return Most bytes sent in any one second of the song
+         */
+        public int getPeakBytesPerSecond() {
+            return peakBytesPerSecond;
+        }
+
+        public int getPeakMessagesPerSecond() {
+            return peakMessagesPerSecond;
+        }
+
+        /**
+         * @return Peak bytes per second as a fraction of the link's capacity (0 if it isn't limited)
+         */
+        public double getUtilization() {
+            return capacityBytesPerSecond > 0 ? (double) peakBytesPerSecond / capacityBytesPerSecond : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d bytes, peak %d bytes/s%s, %d messages/s%s%s", bridge, totalBytes, peakBytesPerSecond,
+                    capacityBytesPerSecond > 0 ? String.format(" (%.0f%% of %d)", getUtilization() * 100, capacityBytesPerSecond) : "",
+                    peakMessagesPerSecond, maxMessagesPerSecond > 0 ? String.format(" (limit %d)", maxMessagesPerSecond) : "",
+                    compact ? ", compact" : "");
+        }
+    }
+
+    private final String name;
+    String error;
+
+    long durationMicros;
+
+    // Notes in the song
+    int noteCount;
+    int unsupportedNotes;
+    int lowestNote = -1;
+    int highestNote = -1;
+    int peakPolyphony;
+
+    // Notes as mapped to drives
+    int mappedNotes;
+    int notesToMissingDrives;
+    int driveCollisions;
+    int availableDrives;
+    int drivesUsed;
+    int peakDrivesSounding;
+
+    int bendCount;
+    int peakBendsPerSecond;
+
+    final List<LinkLoad> links = new ArrayList<>();
+    final List<String> warnings = new ArrayList<>();
+
+    SongReport(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Why the song couldn't be analysed, or null if it was
+     */
+    public String getError() {
+        return error;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    /**
+     * @return Notes outside the range floppy drives play well ({@link SongAnalyzer#LOWEST_SUPPORTED_NOTE} to
+     * {@link SongAnalyzer#HIGHEST_SUPPORTED_NOTE})
+     */
+    public int getUnsupportedNotes() {
+        return unsupportedNotes;
+    }
+
+    public int getLowestNote() {
+        return lowestNote;
+    }
+
+    public int getHighestNote() {
+        return highestNote;
+    }
+
+    /**
+     * @return Most notes sounding at once in the song
+     */
+    public int getPeakPolyphony() {
+        return peakPolyphony;
+    }
+
+    /**
+     * @return Notes the mappers sent to a drive
+     */
+    public int getMappedNotes() {
+        return mappedNotes;
+    }
+
+    /**
+     * @return Notes the mappers didn't send anywhere
+     */
+    public int getUnmappedNotes() {
+        return Math.max(0, noteCount - mappedNotes);
+    }
+
+    /**
+     * @return Notes sent to a device or drive that isn't in the device list
+     */
+    public int getNotesToMissingDrives() {
+        return notesToMissingDrives;
+    }
+
+    /**
+     * @return Notes sent to a drive that was still playing a different note, cutting it off
+     */
+    public int getDriveCollisions() {
+        return driveCollisions;
+    }
+
+    public int getAvailableDrives() {
+        return availableDrives;
+    }
+
+    /**
+     * @return Different drives the song's notes were sent to
+     */
+    public int getDrivesUsed() {
+        return drivesUsed;
+    }
+
+    public int getPeakDrivesSounding() {
+        return peakDrivesSounding;
+    }
+
+    public int getBendCount() {
+        return bendCount;
+    }
+
+    public double getAverageBendsPerSecond() {
+        return durationMicros > 0 ? bendCount * 1_000_000.0 / durationMicros : 0;
+    }
+
+    /**
+     * @return Most pitch bends sent in any one second of the song
+     */
+    public int getPeakBendsPerSecond() {
+        return peakBendsPerSecond;
+    }
+
+    public List<LinkLoad> getLinks() {
+        return links;
+    }
+
+    /**
+     * @return Problems likely to be heard, in plain words (empty if the song should play well)
+     */
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    public boolean isPlayable() {
+        return error == null && warnings.isEmpty();
+    }
+
+    /**
+     * @return The report over several lines, for printing
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append('\n');
+        if (error != null) {
+            sb.append("  Couldn't analyse: ").append(error).append('\n');
+            return sb.toString();
+        }
+        long seconds = durationMicros / 1_000_000;
+        sb.append(String.format("  Length: %d:%02d, %d notes (%d-%d), %d at once at most%n", seconds / 60, seconds % 60,
+                noteCount, lowestNote, highestNote, peakPolyphony));
+        sb.append(String.format("  Drives: %d used of %d available, %d sounding at once at most%n", drivesUsed, availableDrives, peakDrivesSounding));
+        sb.append(String.format("  Pitch bends: %d (%.1f/s on average, %d/s at peak)%n", bendCount, getAverageBendsPerSecond(), peakBendsPerSecond));
+        for (LinkLoad link : links) {
+            sb.append("  Link ").append(link).append('\n');
+        }
+        if (warnings.isEmpty()) {
+            sb.append("  Should play well\n");
+        }
+        for (String warning : warnings) {
+            sb.append("  Warning: ").append(warning).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return error != null ? name + ": " + error : String.format("%s: %d warnings", name, warnings.size());
+    }
+}
@@ -0,0 +1,128 @@
+package com.moppy.core.comms;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the clock offset between this host and each device using an NTP-style exchange
+ * over SYS_PING / SYS_PONG.
+ *
+ * Register an instance to receive network messages and send the pings from {@link #createPing()}
+ * instead of {@link MoppyMessage#SYS_PING}.  Devices that answer with a clock synchronization block
+ * (see {@link MoppyMessage.PongExtension#CLOCK_SYNC}) can then be sent messages scheduled on their own clock.
+ */
+public class ClockSync implements NetworkMessageConsumer {
+
+    /**
+     * Number of recent samples kept per device.  The sample with the lowest round trip time
+     * is the one least disturbed by queuing, so that's the one used for the offset.
+     */
+    private static final int SAMPLE_WINDOW = 8;
+
+    private final ConcurrentHashMap<Byte, DeviceClock> deviceClocks = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the host clock in microseconds on the same wrapping 32-bit scale used on the wire.
+     */
+    public static int hostMicros() {
+        return (int)TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+
+    public MoppyMessage createPing() {
+        return MoppyMessageFactory.systemPing(hostMicros());
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
+        if (!networkMessage.isSystemMessage() || networkMessage.getMessageCommandByte() != MoppyMessage.CommandByte.SYS_PONG) {
+            return;
+        }
+        int receivedMicros = hostMicros();
+        byte[] payload = networkMessage.getMessageCommandPayload();
+
+        // Walk the extension blocks after [deviceAddress][minSubAddress][maxSubAddress]
+        int pos = 3;
+        while (pos + 2 <= payload.length) {
+            byte tag = payload[pos];
+            int length = payload[pos + 1] & 0xff;
+            if (pos + 2 + length > payload.length) {
+                break; // Truncated block
+            }
+            if (tag == MoppyMessage.PongExtension.CLOCK_SYNC && length >= 12) {
+                int pingSent = MoppyMessageFactory.getInt(payload, pos + 2);
+                int deviceReceived = MoppyMessageFactory.getInt(payload, pos + 6);
+                int deviceSent = MoppyMessageFactory.getInt(payload, pos + 10);
+                deviceClocks.computeIfAbsent(payload[0], address -> new DeviceClock())
+                        .addSample(pingSent, deviceReceived, deviceSent, receivedMicros);
+            }
+            pos += 2 + length;
+        }
+    }
+
+    /**
+     * @return true if at least one clock synchronization sample has been received from the device
+     */
+    public boolean isSynchronized(byte deviceAddress) {
+        return deviceClocks.containsKey(deviceAddress);
+    }
+
+    /**
+     * Converts a time on the host clock into the equivalent time on the device's clock.
+     */
+    public int toDeviceMicros(byte deviceAddress, int hostMicros) {
+        DeviceClock clock = deviceClocks.get(deviceAddress);
+        return clock == null ? hostMicros : hostMicros + clock.getOffsetMicros();
+    }
+
+    /**
+     * @return Round trip time in microseconds of the sample currently used for the device, or -1 if unknown
+     */
+    public int getRoundTripMicros(byte deviceAddress) {
+        DeviceClock clock = deviceClocks.get(deviceAddress);
+        return clock == null ? -1 : clock.getRoundTripMicros();
+    }
+
+    public void forgetDevice(byte deviceAddress) {
+        deviceClocks.remove(deviceAddress);
+    }
+
+    private static class DeviceClock {
+        private final int[] offsets = new int[SAMPLE_WINDOW];
+        private final int[] roundTrips = new int[SAMPLE_WINDOW];
+        private int sampleCount = 0;
+        private int nextSample = 0;
+        private volatile int bestOffset;
+        private volatile int bestRoundTrip;
+
+        synchronized void addSample(int t0, int t1, int t2, int t3) {
+            // All differences are wrap-safe since they're taken between nearby 32-bit values
+            int roundTrip = (t3 - t0) - (t2 - t1);
+            int offset = (int)(((long)(t1 - t0) + (long)(t2 - t3)) / 2);
+            if (roundTrip < 0) {
+                return; // Nonsense sample (e.g. a stale pong from before a device restart)
+            }
+
+            offsets[nextSample] = offset;
+            roundTrips[nextSample] = roundTrip;
+            nextSample = (nextSample + 1) % SAMPLE_WINDOW;
+            sampleCount = Math.min(sampleCount + 1, SAMPLE_WINDOW);
+
+            int best = 0;
+            for (int i = 1; i < sampleCount; i++) {
+                if (roundTrips[i] < roundTrips[best]) {
+                    best = i;
+                }
+            }
+            bestOffset = offsets[best];
+            bestRoundTrip = roundTrips[best];
+        }
+
+        int getOffsetMicros() {
+            return bestOffset;
+        }
+
+        int getRoundTripMicros() {
+            return bestRoundTrip;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.moppy.core.comms;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Turns a byte stream (e.g. from a serial port) back into MoppyMessage frames.  Understands both normal
+ * frames and the compact encoding produced by {@link CompactEncoder}, so it can be used on any byte
+ * stream link whether or not the sender compacts its messages.
+ */
+public class CompactDecoder {
+
+    private static final int NONE = -1;
+
+    private final Consumer<byte[]> frameConsumer;
+
+    // Normal frame being read (frameLength is 0 when we're not inside one)
+    private final byte[] frame = new byte[259];
+    private int framePosition = 0;
+    private int frameLength = 0;
+
+    // Compact state
+    private int currentDevice = NONE;
+    private int runningStatus = NONE;
+    private boolean selectingDevice = false;
+    private final int[] operands = new int[2];
+    private int operandCount = 0;
+
+    /**
+     * @param frameConsumer Receives each decoded frame as the bytes of a normal MoppyMessage
+     */
+    public CompactDecoder(Consumer<byte[]> frameConsumer) {
+        this.frameConsumer = frameConsumer;
+    }
+
+    public void decode(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            decode(bytes[i] & 0xff);
+        }
+    }
+
+    public void decode(int b) {
+        if (frameLength > 0) {
+            readFrameByte(b);
+        } else if (b >= 0x80) {
+            readStatusByte(b);
+        } else if (selectingDevice) {
+            currentDevice = b;
+            selectingDevice = false;
+        } else if (b == (MoppyMessage.START_BYTE & 0xff) && operandCount == 0) {
+            // Commands never start with a start byte, so this is a frame even if noise left a running status
+            runningStatus = NONE;
+            frame[0] = MoppyMessage.START_BYTE;
+            framePosition = 1;
+            frameLength = 4; // Until we've read the body size
+        } else if (runningStatus != NONE) {
+            operands[operandCount++] = b;
+            if (operandCount == operandsFor(runningStatus)) {
+                operandCount = 0;
+                emitCompact();
+            }
+        }
+        // Anything else is noise (or we joined mid-stream); wait for the next status byte or frame
+    }
+
+    private void readFrameByte(int b) {
+        frame[framePosition++] = (byte)b;
+        if (framePosition == 4) {
+            frameLength = 4 + b;
+        }
+        if (framePosition == frameLength) {
+            if (frameLength > 4) {
+                frameConsumer.accept(Arrays.copyOf(frame, frameLength));
+            }
+            framePosition = 0;
+            frameLength = 0;
+        }
+    }
+
+    private void readStatusByte(int b) {
+        operandCount = 0;
+        selectingDevice = false;
+        switch (b & 0xf0) {
+            case CompactEncoder.NOTE_OFF:
+            case CompactEncoder.NOTE_ON:
+            case CompactEncoder.PITCH_BEND:
+                runningStatus = b;
+                break;
+            default:
+                runningStatus = NONE;
+                selectingDevice = b == CompactEncoder.SELECT_DEVICE;
+                break;
+        }
+    }
+
+    private static int operandsFor(int status) {
+        return (status & 0xf0) == CompactEncoder.NOTE_OFF ? 1 : 2;
+    }
+
+    private void emitCompact() {
+        if (currentDevice == NONE) {
+            return; // Joined mid-stream and haven't seen a device selected yet
+        }
+        byte device = (byte)currentDevice;
+        byte subAddress = (byte)(runningStatus & 0x0f);
+        switch (runningStatus & 0xf0) {
+            case CompactEncoder.NOTE_OFF:
+                frameConsumer.accept(MoppyMessageFactory.deviceStopNote(device, subAddress, (byte)operands[0]).getMessageBytes());
+                break;
+            case CompactEncoder.NOTE_ON:
+                frameConsumer.accept(MoppyMessageFactory.devicePlayNote(device, subAddress, (byte)operands[0], (byte)operands[1]).getMessageBytes());
+                break;
+            case CompactEncoder.PITCH_BEND:
+                short bend = (short)(((operands[1] << 7) | operands[0]) - 0x2000);
+                frameConsumer.accept(MoppyMessageFactory.devicePitchBend(device, subAddress, bend).getMessageBytes());
+                break;
+        }
+    }
+
+    /**
+     * Forgets any partial frame and compact state (e.g. after reconnecting).
+     */
+    public void reset() {
+        framePosition = 0;
+        frameLength = 0;
+        currentDevice = NONE;
+        runningStatus = NONE;
+        selectingDevice = false;
+        operandCount = 0;
+    }
+}
@@ -0,0 +1,112 @@
+package com.moppy.core.comms;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes MoppyMessages into the compact byte-stream format for links to devices that advertise
+ * {@link MoppyMessage.DeviceFeature#COMPACT_ENCODING}.  Decoded by {@link CompactDecoder}.
+ *
+ * The format borrows MIDI's trick of marking command bytes with the high bit, so data bytes are 7 bits:
+ * <pre>
+ * 0xF0 [device]             Select the device address for the following commands
+ * 0x8s [note]               Note off on sub-address s (0-15)
+ * 0x9s [note] [velocity]    Note on on sub-address s
+ * 0xEs [lsb] [msb]          Pitch bend on sub-address s (14 bits, 0x2000 is no bend)
+ * 0xF7                      End running status
+ * 0x4d ...                  A normal MoppyMessage frame (only when there's no running status)
+ * </pre>
+ * After a note or bend command, further data bytes repeat the same command (running status), so a run
+ * of note-offs on one drive costs a single byte each.  Anything that doesn't fit (system messages,
+ * device resets, scheduled messages, addresses or values out of range) is sent as a normal frame.
+ *
+ * A command's first data byte is never 0x4d (such notes and bends are sent as normal frames too), so
+ * between commands a start byte always begins a frame and decoders can resync on it after noise.
+ */
+public class CompactEncoder {
+
+    public static final int SELECT_DEVICE = 0xf0;
+    public static final int END_RUNNING_STATUS = 0xf7;
+    public static final int NOTE_OFF = 0x80;
+    public static final int NOTE_ON = 0x90;
+    public static final int PITCH_BEND = 0xe0;
+
+    private static final int NONE = -1;
+
+    private int currentDevice = NONE;
+    private int runningStatus = NONE;
+
+    /**
+     * Forgets the decoder's state (e.g. after reconnecting), so the next command selects its device again.
+     */
+    public synchronized void reset() {
+        currentDevice = NONE;
+        runningStatus = NONE;
+    }
+
+    public synchronized byte[] encode(MoppyMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+        byte[] bytes = message.getMessageBytes();
+        int status = compactStatus(bytes);
+
+        if (status == NONE) {
+            if (runningStatus != NONE) {
+                out.write(END_RUNNING_STATUS);
+                runningStatus = NONE;
+            }
+            out.write(bytes, 0, Math.min(bytes.length, 4 + (bytes[3] & 0xff)));
+            return out.toByteArray();
+        }
+
+        int device = bytes[1] & 0xff;
+        if (device != currentDevice) {
+            out.write(SELECT_DEVICE);
+            out.write(device);
+            currentDevice = device;
+            runningStatus = NONE;
+        }
+        if (status != runningStatus) {
+            out.write(status);
+            runningStatus = status;
+        }
+        switch (status & 0xf0) {
+            case NOTE_OFF:
+                out.write(bytes[5]);
+                break;
+            case NOTE_ON:
+                out.write(bytes[5]);
+                out.write(bytes[6]);
+                break;
+            case PITCH_BEND:
+                int bend = (short)(((bytes[5] & 0xff) << 8) | (bytes[6] & 0xff)) + 0x2000;
+                out.write(bend & 0x7f);
+                out.write(bend >> 7);
+                break;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The compact status byte for the message, or NONE if it has to be sent as a normal frame
+     */
+    private static int compactStatus(byte[] bytes) {
+        int device = bytes[1] & 0xff;
+        int subAddress = bytes[2] & 0xff;
+        if (device == 0 || device > 0x7f || subAddress > 0x0f) {
+            return NONE;
+        }
+        byte command = bytes[4];
+        if (command == MoppyMessage.CommandByte.DEV_STOPNOTE && bytes[3] == 2 && bytes[5] >= 0
+                && bytes[5] != MoppyMessage.START_BYTE) {
+            return NOTE_OFF | subAddress;
+        } else if (command == MoppyMessage.CommandByte.DEV_PLAYNOTE && bytes[3] == 3 && bytes[5] >= 0 && bytes[6] >= 0
+                && bytes[5] != MoppyMessage.START_BYTE) {
+            return NOTE_ON | subAddress;
+        } else if (command == MoppyMessage.CommandByte.DEV_BENDPITCH && bytes[3] == 3) {
+            int bend = (short)(((bytes[5] & 0xff) << 8) | (bytes[6] & 0xff));
+            if (bend >= -0x2000 && bend < 0x2000 && ((bend + 0x2000) & 0x7f) != MoppyMessage.START_BYTE) {
+                return PITCH_BEND | subAddress;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,212 @@
+package com.moppy.core.comms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only binary log of MoppyMessage frames backed by a memory-mapped file.
+ *
+ * Layout: a 16 byte header (magic, version, reserved) followed by records of
+ * [8 byte timestamp in nanoseconds since the log was opened][1 byte direction][2 byte length][frame bytes].
+ * The file is grown in zero-filled chunks, so a direction byte of 0 marks the end of the log.  This keeps
+ * a log readable even if the process died before {@link #close()} could truncate it.
+ */
+public class FrameLog implements Closeable {
+
+    private static final long MAGIC = 0x4d4f5050594c4f47L; // "MOPPYLOG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 11;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    public enum Direction {
+        SENT((byte)1),
+        RECEIVED((byte)2);
+
+        private final byte code;
+
+        private Direction(byte code) {
+            this.code = code;
+        }
+
+        static Direction fromCode(byte code) {
+            for (Direction d : values()) {
+                if (d.code == code) {
+                    return d;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A single frame read back from a FrameLog.
+     */
+    public static class Frame {
+        private final long timestampNanos;
+        private final Direction direction;
+        private final byte[] frameBytes;
+
+        private Frame(long timestampNanos, Direction direction, byte[] frameBytes) {
+            this.timestampNanos = timestampNanos;
+            this.direction = direction;
+            this.frameBytes = frameBytes;
+        }
+
+        /**
+         * @return Nanoseconds between opening the log and this frame being recorded
+         */
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public byte[] getFrameBytes() {
+            return frameBytes;
+        }
+
+        public MoppyMessage toMessage() {
+            return MoppyMessageFactory.fromBytes(frameBytes);
+        }
+    }
+
+    private final FileChannel channel;
+    private final long startNanos = System.nanoTime();
+    private MappedByteBuffer buffer;
+    private long bufferOffset;
+    private long frameCount = 0;
+
+    private FrameLog(FileChannel channel) throws IOException {
+        this.channel = channel;
+        mapChunk(0);
+        buffer.putLong(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(0); // Reserved
+    }
+
+    /**
+     * Creates (or truncates) a log file and opens it for appending.
+     */
+    public static FrameLog create(Path logFile) throws IOException {
+        return new FrameLog(FileChannel.open(logFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Opens an existing log for reading.
+     */
+    public static Reader open(Path logFile) throws IOException {
+        return new Reader(logFile);
+    }
+
+    private void mapChunk(long offset) throws IOException {
+        bufferOffset = offset;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, CHUNK_SIZE);
+    }
+
+    /**
+     * Appends a message to the log, stamped with the current time.
+     */
+    public void append(Direction direction, MoppyMessage message) throws IOException {
+        byte[] bytes = message.getMessageBytes();
+        // Received buffers may be longer than the actual frame, so only log what the header describes
+        int frameLength = Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+        append(direction, bytes, frameLength);
+    }
+
+    public synchronized void append(Direction direction, byte[] frameBytes, int frameLength) throws IOException {
+        long timestamp = System.nanoTime() - startNanos;
+        if (buffer.remaining() < RECORD_HEADER_SIZE + frameLength) {
+            mapChunk(bufferOffset + buffer.position());
+        }
+        buffer.putLong(timestamp);
+        buffer.put(direction.code);
+        buffer.putShort((short)frameLength);
+        buffer.put(frameBytes, 0, frameLength);
+        frameCount++;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        long length = bufferOffset + buffer.position();
+        buffer.force();
+        try {
+            channel.truncate(length);
+        } catch (IOException ex) {
+            // Some platforms refuse to truncate mapped files; the zero-filled tail still marks the end of the log
+            Logger.getLogger(FrameLog.class.getName()).log(Level.FINE, "Could not truncate frame log", ex);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Iterates over the frames stored in a log file in the order they were recorded.
+     */
+    public static class Reader implements Iterator<Frame>, Iterable<Frame>, Closeable {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Reader(Path logFile) throws IOException {
+            channel = FileChannel.open(logFile, StandardOpenOption.READ);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getLong() != MAGIC) {
+                channel.close();
+                throw new IOException(String.format("%s is not a Moppy frame log", logFile));
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                channel.close();
+                throw new IOException(String.format("Unsupported frame log version %s", version));
+            }
+            buffer.getInt(); // Reserved
+        }
+
+        @Override
+        public boolean hasNext() {
+            return buffer.remaining() >= RECORD_HEADER_SIZE
+                    && Direction.fromCode(buffer.get(buffer.position() + 8)) != null;
+        }
+
+        @Override
+        public Frame next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long timestamp = buffer.getLong();
+            Direction direction = Direction.fromCode(buffer.get());
+            byte[] frameBytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(frameBytes);
+            return new Frame(timestamp, direction, frameBytes);
+        }
+
+        @Override
+        public Iterator<Frame> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.moppy.core.comms;
+
+/**
+ * Result of measuring a link with a run of pings: how many were answered, how long the answers took,
+ * and how many bytes a second the link carried while pings were sent back-to-back.
+ */
+public class LinkQuality {
+
+    private final String linkIdentifier;
+    private final int baudRate;
+    private final int pingsSent;
+    private final int pingsAnswered;
+    private final long minRoundTripMicros;
+    private final long averageRoundTripMicros;
+    private final long maxRoundTripMicros;
+    private final long bytesPerSecond;
+
+    public LinkQuality(String linkIdentifier, int baudRate, int pingsSent, int pingsAnswered,
+            long minRoundTripMicros, long averageRoundTripMicros, long maxRoundTripMicros, long bytesPerSecond) {
+        this.linkIdentifier = linkIdentifier;
+        this.baudRate = baudRate;
+        this.pingsSent = pingsSent;
+        this.pingsAnswered = pingsAnswered;
+        this.minRoundTripMicros = minRoundTripMicros;
+        this.averageRoundTripMicros = averageRoundTripMicros;
+        this.maxRoundTripMicros = maxRoundTripMicros;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public String getLinkIdentifier() {
+        return linkIdentifier;
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    public int getPingsSent() {
+        return pingsSent;
+    }
+
+    public int getPingsAnswered() {
+        return pingsAnswered;
+    }
+
+    /**
+     * @return Fraction of pings that went unanswered (0 to 1)
+     */
+    public double getLossRate() {
+        return pingsSent == 0 ? 0 : (pingsSent - pingsAnswered) / (double)pingsSent;
+    }
+
+    /**
+     * Round trip times are -1 if no pings were answered.
+     */
+    public long getMinRoundTripMicros() {
+        return minRoundTripMicros;
+    }
+
+    public long getAverageRoundTripMicros() {
+        return averageRoundTripMicros;
+    }
+
+    public long getMaxRoundTripMicros() {
+        return maxRoundTripMicros;
+    }
+
+    /**
+     * @return Bytes a second (both directions) the link carried while saturated with pings
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public String getDescription() {
+        if (pingsAnswered == 0) {
+            return String.format("%s @ %d baud: no response to %d pings", linkIdentifier, baudRate, pingsSent);
+        }
+        return String.format("%s @ %d baud: %d bytes/s, rtt %.2f/%.2f/%.2f ms (min/avg/max), %d/%d pings lost",
+                linkIdentifier, baudRate, bytesPerSecond,
+                minRoundTripMicros / 1000.0, averageRoundTripMicros / 1000.0, maxRoundTripMicros / 1000.0,
+                pingsSent - pingsAnswered, pingsSent);
+    }
+}
@@ -0,0 +1,99 @@
+package com.moppy.core.comms;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how well frames are getting across a lossy link.
+ */
+public class LinkStats {
+
+    private final String linkIdentifier;
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong redundantCopiesSent = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong framesLost = new AtomicLong();
+    private final AtomicLong framesReordered = new AtomicLong();
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+    private final AtomicLong unsequencedReceived = new AtomicLong();
+
+    public LinkStats(String linkIdentifier) {
+        this.linkIdentifier = linkIdentifier;
+    }
+
+    /**
+     * @return Network identifier of the link these counters describe
+     */
+    public String getLinkIdentifier() {
+        return linkIdentifier;
+    }
+
+    public void frameSent(int redundantCopies) {
+        framesSent.incrementAndGet();
+        redundantCopiesSent.addAndGet(redundantCopies);
+    }
+
+    public void frameReceived() {
+        framesReceived.incrementAndGet();
+    }
+
+    public void framesLost(int count) {
+        framesLost.addAndGet(count);
+    }
+
+    /**
+     * A frame previously counted as lost arrived late.
+     */
+    public void frameReordered() {
+        framesReordered.incrementAndGet();
+        framesLost.decrementAndGet();
+    }
+
+    public void duplicateDropped() {
+        duplicatesDropped.incrementAndGet();
+    }
+
+    public void unsequencedReceived() {
+        unsequencedReceived.incrementAndGet();
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getRedundantCopiesSent() {
+        return redundantCopiesSent.get();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    /**
+     * @return Frames that never arrived (gaps in the sequence that were not filled by late frames)
+     */
+    public long getFramesLost() {
+        return framesLost.get();
+    }
+
+    public long getFramesReordered() {
+        return framesReordered.get();
+    }
+
+    public long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+
+    /**
+     * @return Frames received from senders that don't use sequence numbers
+     */
+    public long getUnsequencedReceived() {
+        return unsequencedReceived.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: sent %d (+%d redundant), received %d, lost %d, reordered %d, duplicates %d, unsequenced %d",
+                linkIdentifier, getFramesSent(), getRedundantCopiesSent(), getFramesReceived(), getFramesLost(),
+                getFramesReordered(), getDuplicatesDropped(), getUnsequencedReceived());
+    }
+}
@@ -35,6 +35,7 @@ public class MoppyMessage {
     public static class CommandByte {
         public static byte SYS_PING = (byte)0x80;
         public static byte SYS_PONG = (byte)0x81;
+        public static byte SYS_SET_BAUD = (byte)0x83;
         public static byte SYS_RESET = (byte)0xff;
         public static byte SYS_START = (byte)0xfa;
         public static byte SYS_STOP = (byte)0xfc;
@@ -43,6 +44,44 @@ public class MoppyMessage {
         public static byte DEV_PLAYNOTE = 0x09;
         public static byte DEV_STOPNOTE = 0x08;
         public static byte DEV_BENDPITCH = 0x0e;
+        public static byte DEV_SCHEDULED = 0x20;
+    }
+
+    /**
+     * Tags for the optional extension blocks that may follow the device address and sub-address
+     * range in a pong.  Each block is [tag][length][length bytes of data], so hosts can skip blocks
+     * they don't understand and old 4-byte pongs simply carry no blocks.
+     */
+    public static class PongExtension {
+        /**
+         * Clock synchronization: [ping host time][device receive time][device send time], each a
+         * 4-byte big-endian microsecond counter.
+         */
+        public static byte CLOCK_SYNC = 0x01;
+        /**
+         * Optional features the device understands: a single byte of {@link DeviceFeature} flags.
+         */
+        public static byte FEATURES = 0x02;
+        /**
+         * Link limits the host should respect: [max messages per second:2][preferred baud:4][max batch bytes:2],
+         * big-endian, with 0 meaning no limit / no preference / no batching.
+         */
+        public static byte CAPABILITIES = 0x03;
+    }
+
+    /**
+     * Flags for the {@link PongExtension#FEATURES} pong block.
+     */
+    public static class DeviceFeature {
+        /**
+         * The device decodes the compact byte-stream encoding (see {@link CompactEncoder}).
+         */
+        public static byte COMPACT_ENCODING = 0x01;
+        /**
+         * The device reads datagrams by their length byte and ignores anything after the frame, so a
+         * {@link com.moppy.core.comms.bridge.SequencedBridge} trailer can be appended.
+         */
+        public static byte SEQUENCE_TRAILER = 0x02;
     }
 
     /**
@@ -83,6 +122,30 @@ public class MoppyMessage {
         return getMessageBody()[0];
     }
 
+    /**
+     * Finds an extension block in a pong.
+     * @return The block's data, or null if this isn't a pong or it has no block with that tag
+     */
+    public byte[] getPongExtension(byte tag) {
+        if (!isSystemMessage() || getMessageCommandByte() != CommandByte.SYS_PONG) {
+            return null;
+        }
+        byte[] payload = getMessageCommandPayload();
+        // Blocks follow [deviceAddress][minSubAddress][maxSubAddress]
+        int pos = 3;
+        while (pos + 2 <= payload.length) {
+            int length = payload[pos + 1] & 0xff;
+            if (pos + 2 + length > payload.length) {
+                return null; // Truncated block
+            }
+            if (payload[pos] == tag) {
+                return Arrays.copyOfRange(payload, pos + 2, pos + 2 + length);
+            }
+            pos += 2 + length;
+        }
+        return null;
+    }
+
     /**
      * Returns just the variable command payload at the end of the message (may be zero-length!)
      */
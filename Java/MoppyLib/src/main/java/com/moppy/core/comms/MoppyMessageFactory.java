@@ -13,6 +13,74 @@ public class MoppyMessageFactory {
         return new MoppyMessage(new byte[]{START_BYTE, SYSTEM_ADDRESS, 0x00, 0x04, SYS_PONG, deviceAddress, minSubAddress, maxSubAddress});
     }
 
+    /**
+     * Ping carrying the host's send time so devices can echo it back for clock synchronization.
+     * Devices that don't support synchronization ignore the payload and respond with a normal pong.
+     */
+    public static MoppyMessage systemPing(int hostMicros) {
+        byte[] bytes = new byte[]{START_BYTE, SYSTEM_ADDRESS, 0x00, 0x05, SYS_PING, 0, 0, 0, 0};
+        putInt(bytes, 5, hostMicros);
+        return new MoppyMessage(bytes);
+    }
+
+    /**
+     * Asks serial devices to switch to a new baud rate.  Devices that can switch do so once the message
+     * has been received, and go back to their previous rate unless a valid frame arrives at the new one
+     * within a second.  Devices that can't simply ignore it.
+     */
+    public static MoppyMessage systemSetBaud(int baudRate) {
+        byte[] bytes = new byte[]{START_BYTE, SYSTEM_ADDRESS, 0x00, 0x05, SYS_SET_BAUD, 0, 0, 0, 0};
+        putInt(bytes, 5, baudRate);
+        return new MoppyMessage(bytes);
+    }
+
+    /**
+     * Pong with a clock synchronization extension block answering a timestamped ping.
+     * @param pingHostMicros Host timestamp carried by the ping being answered
+     * @param receivedMicros Device clock when the ping was received
+     * @param sentMicros Device clock when this pong was sent
+     */
+    public static MoppyMessage systemPong(byte deviceAddress, byte minSubAddress, byte maxSubAddress,
+            int pingHostMicros, int receivedMicros, int sentMicros) {
+        byte[] bytes = new byte[]{START_BYTE, SYSTEM_ADDRESS, 0x00, 0x12, SYS_PONG, deviceAddress, minSubAddress, maxSubAddress,
+            MoppyMessage.PongExtension.CLOCK_SYNC, 0x0c, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        putInt(bytes, 10, pingHostMicros);
+        putInt(bytes, 14, receivedMicros);
+        putInt(bytes, 18, sentMicros);
+        return new MoppyMessage(bytes);
+    }
+
+    /**
+     * Appends an extension block ([tag][length][data]) to a pong.
+     */
+    public static MoppyMessage withPongExtension(MoppyMessage pong, byte tag, byte... data) {
+        byte[] bytes = pong.getMessageBytes();
+        int frameLength = 4 + (bytes[3] & 0xff);
+        byte[] extended = new byte[frameLength + 2 + data.length];
+        System.arraycopy(bytes, 0, extended, 0, frameLength);
+        extended[3] = (byte)(frameLength - 4 + 2 + data.length);
+        extended[frameLength] = tag;
+        extended[frameLength + 1] = (byte)data.length;
+        System.arraycopy(data, 0, extended, frameLength + 2, data.length);
+        return new MoppyMessage(extended);
+    }
+
+    /**
+     * Data for a {@link MoppyMessage.PongExtension#CAPABILITIES} pong block.
+     * @param maxMessagesPerSecond Most messages per second the device can handle (0 for no limit)
+     * @param preferredBaud Fastest baud rate the device can run its serial port at (0 for no preference)
+     * @param maxBatchBytes Largest datagram of back-to-back frames the device can parse (0 if it only takes one frame per datagram)
+     */
+    public static byte[] capabilitiesExtension(int maxMessagesPerSecond, int preferredBaud, int maxBatchBytes) {
+        byte[] data = new byte[8];
+        data[0] = (byte)(maxMessagesPerSecond >> 8);
+        data[1] = (byte)maxMessagesPerSecond;
+        putInt(data, 2, preferredBaud);
+        data[6] = (byte)(maxBatchBytes >> 8);
+        data[7] = (byte)maxBatchBytes;
+        return data;
+    }
+
     // Device messages
     public static MoppyMessage deviceReset(byte deviceAddress) {
         return new MoppyMessage(new byte[]{START_BYTE, deviceAddress, 0x00, 0x01, DEV_RESET});
@@ -31,6 +99,41 @@ public class MoppyMessageFactory {
             (byte)((bendAmount >> 8) & 0xff), (byte)(bendAmount & 0xff)});
     }
 
+    /**
+     * Wraps a device message so the device holds it until its own clock reaches the given time.
+     * @param deviceMicros Time (on the target device's microsecond clock) to act on the message
+     * @param message Device message to schedule
+     */
+    public static MoppyMessage deviceScheduled(int deviceMicros, MoppyMessage message) {
+        byte[] body = message.getMessageBody();
+        byte[] bytes = new byte[9 + body.length];
+        bytes[0] = START_BYTE;
+        bytes[1] = message.getDeviceAddress();
+        bytes[2] = message.getSubAddress();
+        bytes[3] = (byte)(5 + body.length);
+        bytes[4] = DEV_SCHEDULED;
+        putInt(bytes, 5, deviceMicros);
+        System.arraycopy(body, 0, bytes, 9, body.length);
+        return new MoppyMessage(bytes);
+    }
+
+    /**
+     * Reads a 4-byte big-endian integer (as used for timestamps on the wire).
+     */
+    public static int getInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24)
+                | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8)
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte)(value >> 24);
+        bytes[offset + 1] = (byte)(value >> 16);
+        bytes[offset + 2] = (byte)(value >> 8);
+        bytes[offset + 3] = (byte)value;
+    }
+
     /**
      * This method is not a recommended way to create well-structured MoppyMessages, but is available
      * primarily for NetworkBridges to take advantage of.
@@ -0,0 +1,655 @@
+package com.moppy.core.comms;
+
+import com.moppy.core.comms.bridge.BatchingBridge;
+import com.moppy.core.comms.bridge.BaudNegotiator;
+import com.moppy.core.comms.bridge.BridgeFactory;
+import com.moppy.core.comms.bridge.BridgeLoopback;
+import com.moppy.core.comms.bridge.BridgeSerial;
+import com.moppy.core.comms.bridge.BridgeSharedMemory;
+import com.moppy.core.comms.bridge.BridgeState;
+import com.moppy.core.comms.bridge.BridgeTCP;
+import com.moppy.core.comms.bridge.BridgeTCPServer;
+import com.moppy.core.comms.bridge.BridgeUDP;
+import com.moppy.core.comms.bridge.LinkTuner;
+import com.moppy.core.comms.bridge.MultiBridge;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.comms.bridge.PrioritySchedulingBridge;
+import com.moppy.core.comms.bridge.SequencedBridge;
+import com.moppy.core.comms.bridge.SerialPortWatcher;
+import com.moppy.core.device.DeviceDescriptor;
+import com.moppy.core.device.DeviceRegistry;
+import com.moppy.core.status.StatusBus;
+import com.moppy.core.status.StatusUpdate;
+import com.moppy.core.util.SharedScheduler;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Manages connecting, disconnecting, and status for a front-end's network connection(s), and keeps track
+ * of the devices on them.
+ *
+ * Bridges are created by type ("udp", "serial", "tcp"...) through {@link BridgeFactory}s, which a
+ * front-end can replace to wrap bridges in its own decorators.  Each bridge moves through the states of
+ * {@link BridgeState}; every change is announced on the StatusBus as NET_STATUS_CHANGED.
+ *
+ * UDP and serial bridges are wrapped in the link decorators chosen with {@link #setUdpRedundancy(int)},
+ * {@link #setSerialMaxLatencyMillis(int)} and {@link #setAutoTune(boolean)} (sequencing, serial
+ * scheduling, batching and auto-tuning), and every serial port gets a {@link BaudNegotiator}.
+ *
+ * All of the manager's background work (pinging, device expiry, serial port watching, and checking
+ * connected bridges are still connected) runs on the {@link SharedScheduler}.
+ */
+public class NetworkManager implements SerialPortWatcher.Listener, Closeable {
+
+    public static final long DEFAULT_DEVICE_TIMEOUT_MILLIS = 10000;
+    private static final long HEALTH_CHECK_MILLIS = 1000;
+
+    private static final Logger logger = Logger.getLogger(NetworkManager.class.getName());
+
+    /**
+     * StatusBus for updating local components about network changes.
+     */
+    private final StatusBus statusBus;
+
+    private final MultiBridge multiBridge = new MultiBridge();
+    private final ClockSync clockSync = new ClockSync();
+    private final DeviceRegistry deviceRegistry;
+    private final Map<String, BridgeFactory> bridgeFactories = new ConcurrentHashMap<>();
+    private final Map<String, ManagedBridge> bridges = new ConcurrentHashMap<>();
+    // How bridges were last connected, so one that goes away and comes back (e.g. a replugged serial port)
+    // is reconnected the same way.  Forgotten when a bridge is closed on purpose.
+    private final Map<String, Object> connectionOptions = new ConcurrentHashMap<>();
+    // Link decorators of the UDP and serial bridges, by bridge identifier
+    private final Map<String, SequencedBridge<?>> sequencedBridges = new ConcurrentHashMap<>();
+    private final Map<String, PrioritySchedulingBridge<?>> scheduledBridges = new ConcurrentHashMap<>();
+    private final Map<String, LinkTuner> linkTuners = new ConcurrentHashMap<>();
+    private final Map<String, BaudNegotiator> baudNegotiators = new ConcurrentHashMap<>();
+
+    private SerialPortWatcher serialPortWatcher = null;
+    private ScheduledFuture<?> healthCheck = null;
+    private ScheduledFuture<?> linkStatsReporter = null;
+    private volatile boolean autoConnect = false;
+    private volatile int udpRedundancy = -1;
+    private volatile int serialMaxLatencyMillis = -1;
+    private volatile boolean autoTune = false;
+    private volatile boolean started = false;
+
+    public NetworkManager(StatusBus statusBus) {
+        this(statusBus, DEFAULT_DEVICE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param deviceTimeoutMillis How long a device can go without answering pings before it's forgotten
+     */
+    public NetworkManager(StatusBus statusBus, long deviceTimeoutMillis) {
+        this.statusBus = statusBus;
+        deviceRegistry = new DeviceRegistry(multiBridge, clockSync, statusBus, deviceTimeoutMillis);
+        multiBridge.registerMessageReceiver(deviceRegistry); // Register to receive network messages to look for pongs
+        multiBridge.registerMessageReceiver(clockSync);
+
+        bridgeFactories.put("udp", address -> new BridgeUDP(BridgeUDP.Mode.MULTICAST));
+        bridgeFactories.put("udp-unicast", address -> new BridgeUDP(BridgeUDP.Mode.UNICAST));
+        bridgeFactories.put("serial", BridgeSerial::new);
+        bridgeFactories.put("tcp", BridgeTCP::new);
+        bridgeFactories.put("tcp-server", address -> address == null ? new BridgeTCPServer() : new BridgeTCPServer(BridgeTCP.parsePort(address)));
+        bridgeFactories.put("shm", BridgeSharedMemory::new);
+        bridgeFactories.put("loopback", address -> address == null ? new BridgeLoopback() : new BridgeLoopback(address));
+    }
+
+    /**
+     * Sets (or replaces) how bridges of a type are created.
+     */
+    public void registerBridgeFactory(String type, BridgeFactory factory) {
+        bridgeFactories.put(type, factory);
+    }
+
+    /**
+     * If true, bridges are connected as soon as they're added once the manager has started (and all
+     * bridges added before then are connected by {@link #start()}).  Otherwise they wait for
+     * {@link #connectBridge(String, Object)}, unless they were connected before and have come back.
+     */
+    public void setAutoConnect(boolean autoConnect) {
+        this.autoConnect = autoConnect;
+    }
+
+    /**
+     * @param udpRedundancy If 0 or more, UDP frames carry sequence numbers once all the devices accept them
+     * (so loss can be reported on the StatusBus) and note-offs/stops are sent this many extra times.
+     * -1 (the default) to send plain frames.  Applies to UDP bridges added afterwards.
+     */
+    public void setUdpRedundancy(int udpRedundancy) {
+        this.udpRedundancy = udpRedundancy;
+    }
+
+    /**
+     * @param serialMaxLatencyMillis If 0 or more, serial ports are paced to their baud rate with system
+     * messages and note-offs sent ahead of note-ons and bends, which are shed once they'd wait longer than this.
+     * -1 (the default) to never shed (ports are then only paced when auto-tuning, and written to directly
+     * otherwise).  Applies to serial bridges added afterwards.
+     */
+    public void setSerialMaxLatencyMillis(int serialMaxLatencyMillis) {
+        this.serialMaxLatencyMillis = serialMaxLatencyMillis;
+    }
+
+    /**
+     * @param autoTune If true, each link is tuned to the capabilities its devices report in their pongs
+     * (message rate limits on serial ports, which are then always paced, and batching on UDP).  Off by
+     * default.  Applies to bridges added afterwards.
+     */
+    public void setAutoTune(boolean autoTune) {
+        this.autoTune = autoTune;
+    }
+
+    /**
+     * Wraps a UDP or serial bridge in its link decorators (others are used as they are).
+     */
+    private NetworkBridge<?> decorate(NetworkBridge<?> bridge) {
+        if (bridge instanceof BridgeUDP) {
+            return wrapUDPBridge((BridgeUDP) bridge);
+        } else if (bridge instanceof BridgeSerial) {
+            return wrapSerialBridge((BridgeSerial) bridge);
+        }
+        return bridge;
+    }
+
+    private NetworkBridge<?> wrapUDPBridge(BridgeUDP udpBridge) {
+        if (udpRedundancy >= 0) {
+            SequencedBridge<Object> sequencedBridge = new SequencedBridge<>(udpBridge, udpRedundancy);
+            sequencedBridge.setStatusConsumer(statusBus);
+            sequencedBridges.put(udpBridge.getNetworkIdentifier(), sequencedBridge);
+            return sequencedBridge;
+        } else if (autoTune) {
+            // Sequenced frames each carry their own header, so only plain frames are batched
+            BatchingBridge<Object> batchingBridge = new BatchingBridge<>(udpBridge);
+            linkTuners.put(udpBridge.getNetworkIdentifier(), new LinkTuner(batchingBridge, null, batchingBridge));
+            return batchingBridge;
+        }
+        return udpBridge;
+    }
+
+    private NetworkBridge<?> wrapSerialBridge(BridgeSerial serialBridge) {
+        String bridgeIdentifier = serialBridge.getNetworkIdentifier();
+        baudNegotiators.put(bridgeIdentifier, new BaudNegotiator(serialBridge));
+        if (serialMaxLatencyMillis >= 0 || autoTune) {
+            // When only tuning, pace the port to the devices' rate limits without shedding anything
+            PrioritySchedulingBridge<Integer> scheduledBridge = PrioritySchedulingBridge.forSerial(serialBridge,
+                    serialMaxLatencyMillis >= 0 ? serialMaxLatencyMillis : Integer.MAX_VALUE);
+            scheduledBridges.put(bridgeIdentifier, scheduledBridge);
+            if (autoTune) {
+                linkTuners.put(bridgeIdentifier, new LinkTuner(scheduledBridge, scheduledBridge, null));
+            }
+            return scheduledBridge;
+        }
+        return serialBridge;
+    }
+
+    private void forgetLinkDecorators(String bridgeIdentifier) {
+        sequencedBridges.remove(bridgeIdentifier);
+        scheduledBridges.remove(bridgeIdentifier);
+        linkTuners.remove(bridgeIdentifier);
+        BaudNegotiator negotiator = baudNegotiators.remove(bridgeIdentifier);
+        if (negotiator != null) {
+            negotiator.close();
+        }
+    }
+
+    /**
+     * Creates a bridge with the factory for {@code type} and adds it.
+     *
+     * @return The new bridge's identifier
+     */
+    public String addBridge(String type, String address) throws IOException {
+        BridgeFactory factory = bridgeFactories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException("Unknown bridge type: " + type);
+        }
+        NetworkBridge<?> bridge = factory.createBridge(address);
+        addNetworkBridge(bridge);
+        return bridge.getNetworkIdentifier();
+    }
+
+    /**
+     * Adds a bridge created elsewhere, e.g. one that can't be discovered automatically.  UDP and serial
+     * bridges are wrapped in their link decorators.
+     */
+    public void addNetworkBridge(NetworkBridge<?> bridge) {
+        String bridgeIdentifier = bridge.getNetworkIdentifier();
+        synchronized (bridges) {
+            // Checked before decorating, as the decorators are kept by identifier and some start threads
+            if (bridges.containsKey(bridgeIdentifier)) {
+                logger.log(Level.WARNING, "Bridge {0} was already added", bridgeIdentifier);
+                return;
+            }
+            bridges.put(bridgeIdentifier, new ManagedBridge(bridge, decorate(bridge)));
+        }
+        logger.info("Bridge added: " + bridgeIdentifier);
+        statusBus.receiveUpdate(StatusUpdate.bridgeAdded(bridgeIdentifier));
+        statusBus.receiveUpdate(StatusUpdate.NET_STATUS_CHANGED);
+
+        Object connectionOption = connectionOptions.get(bridgeIdentifier);
+        if (connectionOption != null || (started && autoConnect)) {
+            try {
+                connectBridge(bridgeIdentifier, connectionOption);
+            } catch (IOException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Failed to auto-connect bridge: " + bridgeIdentifier, ex);
+            }
+        }
+    }
+
+    /**
+     * Closes and forgets a bridge that has gone away (e.g. its serial port was unplugged).  If it was
+     * connected it will be reconnected the same way if it's added again.
+     */
+    public void removeBridge(String bridgeIdentifier) {
+        ManagedBridge managed = bridges.remove(bridgeIdentifier);
+        if (managed == null) {
+            return;
+        }
+        synchronized (managed) {
+            if (managed.state == BridgeState.CONNECTED || managed.state == BridgeState.DEGRADED) {
+                multiBridge.removeBridge(managed.bridge);
+                try {
+                    managed.bridge.close();
+                } catch (IOException ex) {
+                    // Expected, the device has gone
+                }
+            }
+            transition(managed, BridgeState.CLOSED);
+        }
+        forgetLinkDecorators(bridgeIdentifier);
+        logger.info("Bridge removed: " + bridgeIdentifier);
+        statusBus.receiveUpdate(StatusUpdate.bridgeRemoved(bridgeIdentifier));
+    }
+
+    /**
+     * Starts watching for serial ports, adding a "serial" bridge for each port found and removing it
+     * again if the port goes away.  Returns immediately; ports are found in the background.
+     */
+    public synchronized void watchSerialPorts() {
+        if (serialPortWatcher == null) {
+            serialPortWatcher = new SerialPortWatcher(this);
+            serialPortWatcher.start();
+        }
+    }
+
+    @Override
+    public void serialPortAdded(String portName) {
+        try {
+            addBridge("serial", portName);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to add serial bridge for " + portName, ex);
+        }
+    }
+
+    @Override
+    public void serialPortRemoved(String portName) {
+        removeBridge(portName);
+    }
+
+    /**
+     * Starts device discovery, and connects all bridges if auto-connecting.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        if (autoConnect) {
+            for (Map.Entry<String, ManagedBridge> entry : bridges.entrySet()) {
+                if (entry.getValue().state == BridgeState.DISCOVERED) {
+                    try {
+                        connectBridge(entry.getKey(), null);
+                    } catch (IOException | RuntimeException ex) {
+                        logger.log(Level.WARNING, "Failed to auto-connect bridge: " + entry.getKey(), ex);
+                    }
+                }
+            }
+        }
+
+        deviceRegistry.start();
+        healthCheck = SharedScheduler.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_MILLIS, HEALTH_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Report link loss every 5 seconds
+        if (udpRedundancy >= 0) {
+            linkStatsReporter = SharedScheduler.scheduleAtFixedRate(() -> {
+                for (SequencedBridge<?> sequencedBridge : sequencedBridges.values()) {
+                    statusBus.receiveUpdate(StatusUpdate.linkStats(sequencedBridge.getLinkStats()));
+                }
+            }, 5, 5, TimeUnit.SECONDS);
+        }
+        logger.info("Network manager started with " + bridges.size() + " bridges");
+    }
+
+    public void connectBridge(String bridgeIdentifier, Object connectionOption) throws IOException {
+        ManagedBridge managed = bridges.get(bridgeIdentifier);
+        if (managed == null) {
+            throw new IllegalArgumentException("Unknown bridge identifier: " + bridgeIdentifier);
+        }
+
+        synchronized (managed) {
+            if (managed.state == BridgeState.CONNECTED || managed.state == BridgeState.DEGRADED) {
+                return;
+            }
+            BridgeState previous = managed.state;
+            transition(managed, BridgeState.CONNECTING);
+            try {
+                if (connectionOption != null) {
+                    @SuppressWarnings("unchecked")
+                    NetworkBridge<Object> objectBridge = (NetworkBridge<Object>) managed.bridge;
+                    objectBridge.connect(connectionOption);
+                } else {
+                    managed.bridge.connect();
+                }
+            } catch (IOException | RuntimeException ex) {
+                transition(managed, previous);
+                throw ex;
+            }
+            multiBridge.addBridge(managed.bridge);
+            Object currentOption = managed.bridge.currentConnectionOption();
+            if (currentOption != null) {
+                connectionOptions.put(bridgeIdentifier, currentOption);
+            }
+            transition(managed, BridgeState.CONNECTED);
+        }
+        deviceRegistry.rediscover(); // Look for devices on the new bridge quickly
+        logger.info("Connected bridge: " + bridgeIdentifier);
+    }
+
+    public void closeBridge(String bridgeIdentifier) throws IOException {
+        connectionOptions.remove(bridgeIdentifier); // Closed on purpose, so don't reconnect it
+        ManagedBridge managed = bridges.get(bridgeIdentifier);
+        if (managed == null) {
+            return; // Bridge doesn't exist, nothing to close
+        }
+
+        synchronized (managed) {
+            if (managed.state != BridgeState.CONNECTED && managed.state != BridgeState.DEGRADED) {
+                return; // Never connected (or already closed), so there's nothing to close
+            }
+            multiBridge.removeBridge(managed.bridge);
+            try {
+                managed.bridge.close();
+            } finally {
+                transition(managed, BridgeState.CLOSED);
+            }
+        }
+        logger.info("Disconnected bridge: " + bridgeIdentifier);
+    }
+
+    /**
+     * Moves connected bridges that have lost their connection to DEGRADED, and back again once they recover.
+     */
+    private void checkHealth() {
+        // Devices the registry has forgotten no longer limit their links
+        if (!linkTuners.isEmpty()) {
+            Set<DeviceDescriptor> alive = deviceRegistry.getDevices();
+            linkTuners.values().forEach(linkTuner -> linkTuner.retainDevices(alive));
+        }
+        for (ManagedBridge managed : bridges.values()) {
+            synchronized (managed) {
+                if (managed.state != BridgeState.CONNECTED && managed.state != BridgeState.DEGRADED) {
+                    continue;
+                }
+                boolean connected;
+                try {
+                    connected = managed.bridge.isConnected();
+                } catch (RuntimeException ex) {
+                    continue;
+                }
+                if (managed.state == BridgeState.CONNECTED && !connected) {
+                    logger.log(Level.WARNING, "Bridge {0} lost its connection", managed.bridge.getNetworkIdentifier());
+                    transition(managed, BridgeState.DEGRADED);
+                } else if (managed.state == BridgeState.DEGRADED && connected) {
+                    logger.log(Level.INFO, "Bridge {0} recovered", managed.bridge.getNetworkIdentifier());
+                    transition(managed, BridgeState.CONNECTED);
+                }
+            }
+        }
+    }
+
+    private void transition(ManagedBridge managed, BridgeState state) {
+        if (managed.state != state) {
+            managed.state = state;
+            statusBus.receiveUpdate(StatusUpdate.NET_STATUS_CHANGED);
+        }
+    }
+
+    /**
+     * Stops discovery and closes all bridges.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (serialPortWatcher != null) {
+            serialPortWatcher.close();
+            serialPortWatcher = null;
+        }
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+            healthCheck = null;
+        }
+        if (linkStatsReporter != null) {
+            linkStatsReporter.cancel(false);
+            linkStatsReporter = null;
+        }
+        baudNegotiators.values().forEach(BaudNegotiator::close);
+        deviceRegistry.close();
+
+        for (Map.Entry<String, ManagedBridge> entry : bridges.entrySet()) {
+            BridgeState state = entry.getValue().state;
+            if (state == BridgeState.CONNECTED || state == BridgeState.DEGRADED) {
+                try {
+                    closeBridge(entry.getKey());
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Error closing bridge: " + entry.getKey(), ex);
+                }
+            }
+        }
+
+        started = false;
+        logger.info("Network manager stopped");
+    }
+
+    /**
+     * For the purposes of being able to send or register to receive messages, returns
+     * the primary NetworkBridge being managed.
+     */
+    public NetworkBridge<?> getPrimaryBridge() {
+        return multiBridge;
+    }
+
+    /**
+     * Returns the clock offsets of devices that answered timestamped pings.
+     */
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
+    /**
+     * @return Messages shed by all serial schedulers because their links couldn't keep up
+     */
+    public long getSerialOverruns() {
+        return scheduledBridges.values().stream().mapToLong(PrioritySchedulingBridge::getOverruns).sum();
+    }
+
+    /**
+     * @return Tuners for each link whose settings follow its devices' capabilities (empty if auto-tuning is off)
+     */
+    public List<LinkTuner> getLinkTuners() {
+        return List.copyOf(linkTuners.values());
+    }
+
+    /**
+     * Steps each connected serial port up towards the fastest baud rate all of its devices report
+     * supporting, then keeps watching the faster ports and drops them back to their original rate if
+     * they become unreliable.  Ports with any device that doesn't report a preferred baud (and so may
+     * not understand being asked to change rate) are left alone.  Call once devices have been discovered.
+     *
+     * @param maxBaud Highest rate to try (0 for whatever the devices prefer)
+     * @return Measured quality of each serial port that was stepped up, at the rate it ended up at
+     */
+    public List<LinkQuality> negotiateSerialBauds(int maxBaud) throws InterruptedException {
+        List<LinkQuality> results = new ArrayList<>();
+        for (BaudNegotiator negotiator : baudNegotiators.values()) {
+            if (!negotiator.getSerialBridge().isConnected()) {
+                continue;
+            }
+            int preferred = negotiator.getPreferredBaud();
+            int target = maxBaud > 0 ? Math.min(preferred, maxBaud) : preferred;
+            if (target <= negotiator.getSerialBridge().currentConnectionOption()) {
+                continue;
+            }
+            try {
+                results.add(negotiator.negotiate(target));
+                negotiator.startMonitoring(1000);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to negotiate baud rate on " + negotiator.getSerialBridge().getNetworkIdentifier(), e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return Measured latency and throughput of each connected serial port at its current rate
+     */
+    public List<LinkQuality> measureSerialLinks() throws InterruptedException {
+        List<LinkQuality> results = new ArrayList<>();
+        for (BaudNegotiator negotiator : baudNegotiators.values()) {
+            if (negotiator.getSerialBridge().isConnected()) {
+                try {
+                    results.add(negotiator.measure(16));
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to measure " + negotiator.getSerialBridge().getNetworkIdentifier(), e);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a Map of unique network bridge identifiers and the network bridge
+     */
+    public Map<String, NetworkBridge<?>> getAvailableNetworkBridges() {
+        Map<String, NetworkBridge<?>> available = new LinkedHashMap<>();
+        bridges.forEach((bridgeIdentifier, managed) -> available.put(bridgeIdentifier, managed.bridge));
+        return available;
+    }
+
+    /**
+     * @return The state of a bridge, or null if there's no such bridge
+     */
+    public BridgeState getBridgeState(String bridgeIdentifier) {
+        ManagedBridge managed = bridges.get(bridgeIdentifier);
+        return managed == null ? null : managed.state;
+    }
+
+    public Map<String, BridgeState> getBridgeStates() {
+        Map<String, BridgeState> states = new LinkedHashMap<>();
+        bridges.forEach((bridgeIdentifier, managed) -> states.put(bridgeIdentifier, managed.state));
+        return states;
+    }
+
+    public int getConnectedBridgeCount() {
+        return (int) bridges.values().stream().filter(managed -> managed.state == BridgeState.CONNECTED).count();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Returns a Set of DeviceDescriptors for devices for who we recently received a pong.
+     */
+    public Set<DeviceDescriptor> getRecentlySeenDevices() {
+        return deviceRegistry.getDevices();
+    }
+
+    public int getDiscoveredDeviceCount() {
+        return deviceRegistry.size();
+    }
+
+    /**
+     * Waits for discovery: completes as soon as at least {@code expectedCount} devices have answered (or,
+     * if 0, once no new devices have answered for a moment), or at the timeout with whatever was found.
+     */
+    public CompletableFuture<Set<DeviceDescriptor>> awaitDevices(int expectedCount, long timeoutMillis) {
+        return deviceRegistry.awaitDevices(expectedCount, timeoutMillis);
+    }
+
+    /**
+     * Returns the smoothed ping round trip time to a device in microseconds, or -1 if unknown.
+     */
+    public long getRoundTripMicros(DeviceDescriptor device) {
+        return deviceRegistry.getRoundTripMicros(device);
+    }
+
+    /**
+     * Get the smoothed ping round trip (in microseconds, -1 if unknown) for each recently seen device,
+     * keyed by "networkAddress:deviceAddress"
+     */
+    public Map<String, Long> getDeviceRoundTrips() {
+        Map<String, Long> roundTrips = new HashMap<>();
+        deviceRegistry.getRoundTrips().forEach((device, micros) ->
+                roundTrips.put(device.getNetworkAddress() + ":" + (device.getDeviceAddress() & 0xff), micros));
+        return roundTrips;
+    }
+
+    /**
+     * Returns per-destination send latency for every UDP bridge, keyed by bridge identifier
+     */
+    public Map<String, Map<String, BridgeUDP.DestinationStats>> getUdpDestinationStats() {
+        Map<String, Map<String, BridgeUDP.DestinationStats>> stats = new HashMap<>();
+        bridges.forEach((bridgeIdentifier, managed) -> {
+            if (managed.rawBridge instanceof BridgeUDP) {
+                stats.put(bridgeIdentifier, ((BridgeUDP) managed.rawBridge).getDestinationStats());
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Get the most recent ping round trip (in microseconds, -1 if unknown) for each TCP connection,
+     * keyed by bridge identifier and then by remote address
+     */
+    public Map<String, Map<String, Long>> getTcpRoundTrips() {
+        Map<String, Map<String, Long>> roundTrips = new HashMap<>();
+        bridges.forEach((bridgeIdentifier, managed) -> {
+            if (managed.rawBridge instanceof BridgeTCP) {
+                roundTrips.put(bridgeIdentifier, Map.of(bridgeIdentifier, ((BridgeTCP) managed.rawBridge).getRoundTripMicros()));
+            } else if (managed.rawBridge instanceof BridgeTCPServer) {
+                roundTrips.put(bridgeIdentifier, ((BridgeTCPServer) managed.rawBridge).getConnectionRoundTripMicros());
+            }
+        });
+        return roundTrips;
+    }
+
+    private static class ManagedBridge {
+        // As added, for the link statistics only it has
+        final NetworkBridge<?> rawBridge;
+        // The raw bridge in its link decorators, which everything is sent through
+        final NetworkBridge<?> bridge;
+        // Only changed while holding the ManagedBridge's lock
+        volatile BridgeState state = BridgeState.DISCOVERED;
+
+        ManagedBridge(NetworkBridge<?> rawBridge, NetworkBridge<?> bridge) {
+            this.rawBridge = rawBridge;
+            this.bridge = bridge;
+        }
+    }
+}
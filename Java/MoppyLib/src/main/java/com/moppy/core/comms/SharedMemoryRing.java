@@ -0,0 +1,203 @@
+package com.moppy.core.comms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single-producer / single-consumer ring of MoppyMessage frames in a memory-mapped file, for handing
+ * frames between two processes on the same machine without either one blocking the other.
+ *
+ * Layout: a header of three 64 byte lines (so the two indexes never share a cache line) followed by the
+ * data area.  Line 0 holds the magic, capacity and a generation counter; line 1 the producer's write
+ * position; line 2 the consumer's read position.  Positions only ever increase and are published with
+ * release/acquire ordering.  Records are [2 byte length][frame]; a length of 0xffff means "skip to the
+ * start of the data area".
+ *
+ * If the ring is full the producer drops the frame rather than waiting, since a late note is no better
+ * than a missing one.
+ */
+public class SharedMemoryRing implements Closeable {
+
+    private static final long MAGIC = 0x4d4f505059524e47L; // "MOPPYRNG"
+    private static final int LINE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int GENERATION_OFFSET = 16;
+    private static final int WRITE_OFFSET = LINE;
+    private static final int READ_OFFSET = 2 * LINE;
+    private static final int DATA_OFFSET = 3 * LINE;
+    private static final int RECORD_HEADER = 2;
+    private static final int WRAP_MARKER = 0xffff;
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private long generation;
+    private long localPosition = -1; // Write position for a producer, read position for a consumer (-1 until first use)
+    private long droppedFrames = 0;
+
+    private SharedMemoryRing(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.generation = (long)LONGS.getAcquire(buffer, GENERATION_OFFSET);
+    }
+
+    /**
+     * Creates a ring (or resets an existing one in place, so a consumer that already has it mapped
+     * notices the new generation and starts again from the beginning).
+     *
+     * @param capacity Size of the data area; must be a power of two
+     */
+    public static SharedMemoryRing create(Path file, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+        buffer.order(ByteOrder.nativeOrder());
+
+        boolean existing = buffer.getLong(0) == MAGIC && buffer.getInt(CAPACITY_OFFSET) == capacity;
+        long generation = existing ? (long)LONGS.getAcquire(buffer, GENERATION_OFFSET) + 1 : 1;
+        LONGS.setRelease(buffer, WRITE_OFFSET, 0L);
+        LONGS.setRelease(buffer, READ_OFFSET, 0L);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putLong(0, MAGIC);
+        LONGS.setRelease(buffer, GENERATION_OFFSET, generation);
+
+        SharedMemoryRing ring = new SharedMemoryRing(channel, buffer, capacity);
+        ring.localPosition = 0;
+        return ring;
+    }
+
+    /**
+     * Opens a ring created by another process.
+     */
+    public static SharedMemoryRing open(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new IOException(String.format("Ring file %s does not exist", file));
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA_OFFSET);
+        header.order(ByteOrder.nativeOrder());
+        if (header.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException(String.format("%s is not a Moppy ring file", file));
+        }
+        int capacity = header.getInt(CAPACITY_OFFSET);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+        return new SharedMemoryRing(channel, buffer, capacity);
+    }
+
+    /**
+     * Producer side: appends a frame.
+     *
+     * @return false if there wasn't room and the frame was dropped
+     */
+    public boolean offer(MoppyMessage message) {
+        byte[] bytes = message.getMessageBytes();
+        int frameLength = Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+        int recordLength = RECORD_HEADER + frameLength;
+
+        if (checkGeneration() || localPosition < 0) {
+            localPosition = (long)LONGS.getAcquire(buffer, WRITE_OFFSET);
+        }
+        long write = localPosition;
+        long read = (long)LONGS.getAcquire(buffer, READ_OFFSET);
+        int offset = (int)(write & mask);
+        int untilEnd = capacity - offset;
+        int skip = untilEnd < recordLength ? untilEnd : 0;
+
+        if (capacity - (write - read) < skip + recordLength) {
+            droppedFrames++;
+            return false;
+        }
+
+        if (skip > 0) {
+            if (untilEnd >= RECORD_HEADER) {
+                buffer.putShort(DATA_OFFSET + offset, (short)WRAP_MARKER);
+            }
+            write += skip;
+            offset = 0;
+        }
+        buffer.putShort(DATA_OFFSET + offset, (short)frameLength);
+        buffer.put(DATA_OFFSET + offset + RECORD_HEADER, bytes, 0, frameLength);
+        localPosition = write + recordLength;
+        LONGS.setRelease(buffer, WRITE_OFFSET, localPosition);
+        return true;
+    }
+
+    /**
+     * Consumer side: takes the next frame, if any.
+     *
+     * @return The next frame, or null if the ring is empty
+     */
+    public MoppyMessage poll() {
+        if (checkGeneration() || localPosition < 0) {
+            localPosition = (long)LONGS.getAcquire(buffer, READ_OFFSET);
+        }
+
+        long write = (long)LONGS.getAcquire(buffer, WRITE_OFFSET);
+        while (localPosition < write) {
+            int offset = (int)(localPosition & mask);
+            int untilEnd = capacity - offset;
+            int length = untilEnd < RECORD_HEADER ? WRAP_MARKER : buffer.getShort(DATA_OFFSET + offset) & 0xffff;
+            if (length == WRAP_MARKER) {
+                localPosition += untilEnd;
+                continue;
+            }
+
+            if (length < 4 || RECORD_HEADER + length > untilEnd) {
+                // Corrupt record; give up on what's buffered rather than misreading it
+                localPosition = write;
+                break;
+            }
+
+            byte[] frame = new byte[length];
+            buffer.get(DATA_OFFSET + offset + RECORD_HEADER, frame);
+            localPosition += RECORD_HEADER + length;
+            LONGS.setRelease(buffer, READ_OFFSET, localPosition);
+            return MoppyMessageFactory.fromBytes(frame);
+        }
+        LONGS.setRelease(buffer, READ_OFFSET, localPosition);
+        return null;
+    }
+
+    /**
+     * @return true if the ring was re-created since we last looked, in which case both positions restarted at 0
+     */
+    private boolean checkGeneration() {
+        long currentGeneration = (long)LONGS.getAcquire(buffer, GENERATION_OFFSET);
+        if (currentGeneration != generation) {
+            generation = currentGeneration;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Frames the producer dropped because the consumer had fallen behind
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
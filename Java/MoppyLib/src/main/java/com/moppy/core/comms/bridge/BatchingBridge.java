@@ -0,0 +1,147 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Packs back-to-back frames for the same device into a single datagram, for devices that report (in
+ * their pong capabilities) that they can parse more than one frame per datagram.  A chord then costs
+ * one packet instead of one per note.
+ *
+ * Frames are held for at most {@link #BATCH_WINDOW_MICROS} before being sent.  System messages are never
+ * batched.  Batching is off (every frame is passed straight through) until {@link #setMaxBatchBytes} is
+ * given a size.
+ */
+public class BatchingBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    public static final long BATCH_WINDOW_MICROS = 500;
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "BatchingBridge flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(64);
+    private byte batchDevice;
+    private int batchFrames = 0;
+    private long batchGeneration = 0;
+    private volatile int maxBatchBytes = 0;
+    private long datagramsSaved = 0;
+
+    public BatchingBridge(NetworkBridge<CONNOPTION> delegate) {
+        this.delegate = delegate;
+        delegate.registerMessageReceiver(this);
+    }
+
+    /**
+     * @param maxBatchBytes Largest datagram to build, or 0 to send every frame on its own
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * @return How many datagrams were avoided by batching
+     */
+    public synchronized long getDatagramsSaved() {
+        return datagramsSaved;
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public synchronized void sendMessage(MoppyMessage messageToSend) throws IOException {
+        byte[] bytes = messageToSend.getMessageBytes();
+        int frameLength = Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+        int limit = maxBatchBytes;
+
+        if (limit <= 0 || messageToSend.isSystemMessage() || frameLength > limit) {
+            flush();
+            delegate.sendMessage(messageToSend);
+            return;
+        }
+        if (batchFrames > 0 && (batchDevice != messageToSend.getDeviceAddress() || batch.size() + frameLength > limit)) {
+            flush();
+        }
+        if (batchFrames == 0) {
+            batchDevice = messageToSend.getDeviceAddress();
+            long generation = batchGeneration;
+            flusher.schedule(() -> flushIfStill(generation), BATCH_WINDOW_MICROS, TimeUnit.MICROSECONDS);
+        }
+        batch.write(bytes, 0, frameLength);
+        batchFrames++;
+    }
+
+    private synchronized void flushIfStill(long generation) {
+        if (generation == batchGeneration) {
+            try {
+                flush();
+            } catch (IOException ex) {
+                Logger.getLogger(BatchingBridge.class.getName()).log(Level.WARNING, "Failed to send batch", ex);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (batchFrames == 0) {
+            return;
+        }
+        byte[] datagram = batch.toByteArray();
+        datagramsSaved += batchFrames - 1;
+        batch.reset();
+        batchFrames = 0;
+        batchGeneration++;
+        delegate.sendMessage(MoppyMessageFactory.fromBytes(datagram));
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            flush();
+        }
+        flusher.shutdownNow();
+        delegate.close();
+    }
+}
@@ -0,0 +1,353 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.ClockSync;
+import com.moppy.core.comms.LinkQuality;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.NetworkMessageConsumer;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import com.moppy.core.device.DeviceDescriptor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Steps a serial link up to a faster baud rate using {@link MoppyMessage.CommandByte#SYS_SET_BAUD}, and
+ * back down again if the link gets unreliable.
+ *
+ * Each step asks the devices to switch, switches the port, then measures the link with pings.  Devices
+ * only keep a new rate if a valid frame arrives at it within {@link #CONFIRM_WINDOW_MILLIS}, and go back to
+ * their power-on rate after {@link #IDLE_REVERT_MILLIS} without any valid frames, so a failed step (or a
+ * device that missed the message) always ends up somewhere the host can find it again.
+ *
+ * Only links where every device reports a preferred baud in its capabilities are stepped up, since firmware
+ * must not report one unless it handles SYS_SET_BAUD.  While the link is being switched or measured, everything
+ * else sent to the port (including the device registry's pings) is held and sent once it's done.
+ */
+public class BaudNegotiator implements NetworkMessageConsumer, Closeable {
+
+    /**
+     * Devices go back to their previous rate unless a valid frame arrives within this long of switching.
+     */
+    public static final long CONFIRM_WINDOW_MILLIS = 1000;
+    /**
+     * Devices running at a negotiated rate go back to their power-on rate after this long without a valid frame.
+     */
+    public static final long IDLE_REVERT_MILLIS = 10000;
+
+    private static final int MEASURE_PINGS = 8;
+    private static final int MAX_LOST_PINGS = 1;
+    private static final long PING_TIMEOUT_MILLIS = 200;
+    private static final long SETTLE_MILLIS = 20;
+
+    // Monitoring: fall back once this many of the recent pings were lost or too slow
+    private static final int MONITOR_WINDOW = 8;
+    private static final int MONITOR_MAX_BAD = 3;
+    private static final long MONITOR_MAX_ROUND_TRIP_MICROS = 250_000;
+
+    private final BridgeSerial serial;
+    private final LinkedBlockingQueue<long[]> pongs = new LinkedBlockingQueue<>(); // [received nanos, bytes]
+    private volatile boolean collecting = false;
+    // Preferred baud each device address on the port reported (0 if it didn't report one)
+    private final Map<Byte, Integer> preferredBauds = new ConcurrentHashMap<>();
+
+    private int baseBaud;
+    private int negotiatedBaud = 0; // 0 while at the base rate
+    private final ArrayDeque<Boolean> recentPingsBad = new ArrayDeque<>();
+    private long monitorPingNanos = 0;
+    private final AtomicLong monitorPongNanos = new AtomicLong();
+    private ScheduledExecutorService monitor = null;
+    private volatile long fallbacks = 0;
+
+    public BaudNegotiator(BridgeSerial serial) {
+        this.serial = serial;
+        this.baseBaud = BridgeSerial.DEFAULT_BAUD;
+        serial.registerMessageReceiver(this);
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
+        // Called on the serial listener thread, so this mustn't wait on anything measure() holds
+        if (networkMessage.isSystemMessage() && networkMessage.getMessageCommandByte() == MoppyMessage.CommandByte.SYS_PONG) {
+            long now = System.nanoTime();
+            if (networkMessage.getMessageCommandPayload().length >= 3) {
+                DeviceDescriptor device = DeviceDescriptor.fromPong(networkMessage, serial.getNetworkIdentifier());
+                preferredBauds.put(device.getDeviceAddress(), device.getPreferredBaud());
+            }
+            monitorPongNanos.compareAndSet(0, now);
+            if (collecting) {
+                pongs.add(new long[]{now, networkMessage.getMessageBytes().length});
+            }
+        }
+    }
+
+    /**
+     * @return The fastest rate every device heard on the port supports, or 0 if any of them (or all, because
+     * none have answered yet) didn't report one and so can't be asked to change rate
+     */
+    public int getPreferredBaud() {
+        if (preferredBauds.isEmpty() || preferredBauds.containsValue(0)) {
+            return 0;
+        }
+        return preferredBauds.values().stream().mapToInt(Integer::intValue).min().orElse(0);
+    }
+
+    /**
+     * Steps the link up through the supported rates towards the target, stopping at the first rate that
+     * fails.  Rates above the target aren't tried; a target that isn't one of the standard rates is tried last.
+     *
+     * @return Quality of the link at the rate it ended up at
+     */
+    public synchronized LinkQuality negotiate(int targetBaud) throws IOException, InterruptedException {
+        int current = serial.currentConnectionOption();
+        if (!isNegotiated()) {
+            baseBaud = current; // Whatever the port was opened at is where the devices will fall back to
+        }
+        List<Integer> steps = new ArrayList<>();
+        for (int baud : serial.getConnectionOptions()) {
+            if (baud > current && baud < targetBaud) {
+                steps.add(baud);
+            }
+        }
+        if (targetBaud > current) {
+            steps.add(targetBaud);
+        }
+
+        serial.holdMessages();
+        try {
+            LinkQuality quality = null;
+            for (int baud : steps) {
+                LinkQuality stepped = trySwitch(serial.currentConnectionOption(), baud);
+                if (stepped == null) {
+                    break;
+                }
+                quality = stepped;
+                negotiatedBaud = stepped.getBaudRate();
+                Logger.getLogger(BaudNegotiator.class.getName()).log(Level.INFO, "Stepped up {0}", quality.getDescription());
+            }
+            recentPingsBad.clear();
+            return quality != null ? quality : measureHolding(MEASURE_PINGS);
+        } finally {
+            serial.releaseHeldMessages();
+        }
+    }
+
+    /**
+     * @return Quality of the new rate, or null if it didn't work (in which case we're back at the previous rate)
+     */
+    private LinkQuality trySwitch(int previous, int baud) throws IOException, InterruptedException {
+        serial.sendWhileHolding(MoppyMessageFactory.systemSetBaud(baud));
+        drain(previous);
+        serial.setBaudRate(baud);
+        LinkQuality quality = measureHolding(MEASURE_PINGS);
+        if (quality.getPingsSent() - quality.getPingsAnswered() <= MAX_LOST_PINGS) {
+            return quality;
+        }
+
+        Logger.getLogger(BaudNegotiator.class.getName()).log(Level.INFO, "Rejected {0}", quality.getDescription());
+        // The devices may have heard us and stayed, so ask them to go back before we do
+        serial.sendWhileHolding(MoppyMessageFactory.systemSetBaud(previous));
+        drain(baud);
+        serial.setBaudRate(previous);
+        if (!awaitPong(CONFIRM_WINDOW_MILLIS + PING_TIMEOUT_MILLIS) && previous != baseBaud) {
+            // Lost them entirely; wait for them to give up and go back to their power-on rate
+            serial.setBaudRate(baseBaud);
+            negotiatedBaud = 0;
+            awaitPong(IDLE_REVERT_MILLIS + CONFIRM_WINDOW_MILLIS);
+        }
+        return null;
+    }
+
+    /**
+     * Waits for a frame just written at the given rate to leave the port before the rate changes.
+     */
+    private static void drain(int baud) throws InterruptedException {
+        Thread.sleep(SETTLE_MILLIS + 10 * 9 * 1000 / Math.max(1, baud));
+    }
+
+    /**
+     * Pings until a pong arrives (which also confirms the rate to the devices) or the timeout passes.
+     */
+    private boolean awaitPong(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        pongs.clear();
+        collecting = true;
+        try {
+            while (System.nanoTime() < deadline) {
+                serial.sendWhileHolding(MoppyMessageFactory.systemPing(ClockSync.hostMicros()));
+                if (pongs.poll(PING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) != null) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            collecting = false;
+        }
+    }
+
+    /**
+     * Measures round trip times with one ping at a time, then throughput with a burst of back-to-back pings.
+     * Gives up early if the first two pings go unanswered.
+     */
+    public synchronized LinkQuality measure(int pings) throws IOException, InterruptedException {
+        serial.holdMessages();
+        try {
+            return measureHolding(pings);
+        } finally {
+            serial.releaseHeldMessages();
+        }
+    }
+
+    private LinkQuality measureHolding(int pings) throws IOException, InterruptedException {
+        collecting = true;
+        try {
+            int answered = 0;
+            long minMicros = Long.MAX_VALUE;
+            long maxMicros = 0;
+            long totalMicros = 0;
+            for (int i = 0; i < pings; i++) {
+                pongs.clear();
+                long sentNanos = System.nanoTime();
+                serial.sendWhileHolding(MoppyMessageFactory.systemPing(ClockSync.hostMicros()));
+                long[] pong = pongs.poll(PING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (pong != null) {
+                    long micros = TimeUnit.NANOSECONDS.toMicros(pong[0] - sentNanos);
+                    minMicros = Math.min(minMicros, micros);
+                    maxMicros = Math.max(maxMicros, micros);
+                    totalMicros += micros;
+                    answered++;
+                } else if (i == 1 && answered == 0) {
+                    // Nothing's listening (or it can't hear us at this rate); don't wait out the rest
+                    return new LinkQuality(serial.getNetworkIdentifier(), serial.currentConnectionOption(), 2, 0, -1, -1, -1, 0);
+                }
+            }
+
+            pongs.clear();
+            long startNanos = System.nanoTime();
+            long lastNanos = startNanos;
+            long bytes = 0;
+            for (int i = 0; i < pings; i++) {
+                MoppyMessage ping = MoppyMessageFactory.systemPing(ClockSync.hostMicros());
+                serial.sendWhileHolding(ping);
+                bytes += ping.getMessageBytes().length;
+            }
+            int burstAnswers = 0;
+            long[] pong;
+            while ((pong = pongs.poll(PING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                lastNanos = pong[0];
+                bytes += pong[1];
+                burstAnswers++;
+            }
+
+            return new LinkQuality(serial.getNetworkIdentifier(), serial.currentConnectionOption(), pings * 2,
+                    answered + Math.min(burstAnswers, pings), // Several devices on a port each answer every ping
+                    answered > 0 ? minMicros : -1,
+                    answered > 0 ? totalMicros / answered : -1,
+                    answered > 0 ? maxMicros : -1,
+                    lastNanos > startNanos ? bytes * TimeUnit.SECONDS.toNanos(1) / (lastNanos - startNanos) : 0);
+        } finally {
+            collecting = false;
+        }
+    }
+
+    /**
+     * @return true if the link is running above the rate it was opened at
+     */
+    public boolean isNegotiated() {
+        return negotiatedBaud != 0 && serial.currentConnectionOption() == negotiatedBaud;
+    }
+
+    /**
+     * Starts pinging the link while it's above its base rate, dropping back to the base rate if pings
+     * start going unanswered or taking too long.
+     */
+    public synchronized void startMonitoring(long intervalMillis) {
+        if (monitor == null) {
+            monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Link monitor for " + serial.getNetworkIdentifier());
+                t.setDaemon(true);
+                return t;
+            });
+            monitor.scheduleAtFixedRate(this::checkLink, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void checkLink() {
+        if (!isNegotiated() || !serial.isConnected()) {
+            recentPingsBad.clear();
+            monitorPingNanos = 0;
+            return;
+        }
+        try {
+            if (monitorPingNanos != 0) {
+                long pongNanos = monitorPongNanos.get();
+                recentPingsBad.addLast(pongNanos == 0
+                        || TimeUnit.NANOSECONDS.toMicros(pongNanos - monitorPingNanos) > MONITOR_MAX_ROUND_TRIP_MICROS);
+                if (recentPingsBad.size() > MONITOR_WINDOW) {
+                    recentPingsBad.removeFirst();
+                }
+                if (recentPingsBad.stream().filter(bad -> bad).count() >= MONITOR_MAX_BAD) {
+                    fallBack();
+                    return;
+                }
+            }
+            monitorPongNanos.set(0);
+            monitorPingNanos = System.nanoTime();
+            serial.sendMessage(MoppyMessageFactory.systemPing(ClockSync.hostMicros()));
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(BaudNegotiator.class.getName()).log(Level.WARNING, "Failed to check serial link", ex);
+        }
+    }
+
+    private void fallBack() throws IOException, InterruptedException {
+        int from = serial.currentConnectionOption();
+        Logger.getLogger(BaudNegotiator.class.getName()).log(Level.WARNING, "Link {0} is unreliable at {1} baud, falling back to {2}",
+                new Object[]{serial.getNetworkIdentifier(), Integer.toString(from), Integer.toString(baseBaud)});
+        // Devices that miss this go back on their own once they stop hearing valid frames.  Anything sent
+        // meanwhile waits for the new rate rather than being written while the devices are switching.
+        serial.holdMessages();
+        try {
+            serial.sendWhileHolding(MoppyMessageFactory.systemSetBaud(baseBaud));
+            drain(from);
+            serial.setBaudRate(baseBaud);
+            negotiatedBaud = 0;
+            recentPingsBad.clear();
+            monitorPingNanos = 0;
+            fallbacks++;
+            awaitPong(CONFIRM_WINDOW_MILLIS); // Confirms the rate, or the devices would switch back again
+        } finally {
+            serial.releaseHeldMessages();
+        }
+    }
+
+    /**
+     * @return Number of times the monitor has dropped the link back to its base rate
+     */
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    public BridgeSerial getSerialBridge() {
+        return serial;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+            monitor = null;
+        }
+        serial.deregisterMessageReceiver(this);
+    }
+}
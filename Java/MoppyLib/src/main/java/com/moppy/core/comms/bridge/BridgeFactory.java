@@ -0,0 +1,18 @@
+package com.moppy.core.comms.bridge;
+
+import java.io.IOException;
+
+/**
+ * Creates bridges of one type for {@link com.moppy.core.comms.NetworkManager}.  Registering a factory
+ * for an existing type replaces it, which is how a front-end wraps the bridges it's given (e.g. in a
+ * {@link PrioritySchedulingBridge}) without the manager needing to know.
+ */
+@FunctionalInterface
+public interface BridgeFactory {
+
+    /**
+     * @param address What to connect to, in whatever form the type uses (a serial port name, "host:port",
+     * a ring file path...), or null for the type's default
+     */
+    NetworkBridge<?> createBridge(String address) throws IOException;
+}
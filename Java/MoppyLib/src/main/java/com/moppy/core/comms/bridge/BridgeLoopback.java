@@ -0,0 +1,100 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process network bridge for MoppyMessages.
+ *
+ * Every connected BridgeLoopback with the same group name receives every message sent
+ * by any of them (including the sender, just like a multicast group with loopback enabled).
+ * Messages are delivered synchronously on the sending thread, which makes this bridge useful
+ * for hosting simulated devices in the same JVM as the controller for testing and benchmarking.
+ */
+public class BridgeLoopback extends NetworkBridge<Object> {
+
+    public static final String DEFAULT_GROUP = "loopback";
+
+    private static final Map<String, Set<BridgeLoopback>> GROUPS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    private final String groupName;
+    private final String localIdentifier = String.format("loopback-%s", NEXT_ID.getAndIncrement());
+    private volatile boolean connected = false;
+
+    public BridgeLoopback() {
+        this(DEFAULT_GROUP);
+    }
+
+    public BridgeLoopback(String groupName) {
+        this.groupName = groupName;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        GROUPS.computeIfAbsent(groupName, name -> new CopyOnWriteArraySet<>()).add(this);
+        connected = true;
+    }
+
+    @Override
+    public void connect(Object connectionOption) throws IOException {
+        connect(); // Ignore argument since we have no options
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        if (!connected) {
+            return; // We're not connected-- just silently fail like BridgeUDP.
+        }
+
+        Set<BridgeLoopback> members = GROUPS.getOrDefault(groupName, Collections.emptySet());
+        for (BridgeLoopback member : members) {
+            member.acceptNetworkMessage(MoppyMessageFactory.networkReceivedFromBytes(
+                    messageToSend.getMessageBytes(),
+                    BridgeLoopback.class.getName(),
+                    member.getNetworkIdentifier(),
+                    localIdentifier));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sendMessage(MoppyMessage.SYS_STOP); // Send a stop message before closing to prevent sticking
+        } finally {
+            connected = false;
+            Set<BridgeLoopback> members = GROUPS.get(groupName);
+            if (members != null) {
+                members.remove(this);
+            }
+        }
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return String.format("loopback:%s", groupName);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public List<Object> getConnectionOptions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Object currentConnectionOption() {
+        return null;
+    }
+}
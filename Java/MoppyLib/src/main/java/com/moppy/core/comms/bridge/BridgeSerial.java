@@ -2,29 +2,52 @@ package com.moppy.core.comms.bridge;
 
 import com.fazecast.jSerialComm.SerialPort;
 import com.fazecast.jSerialComm.SerialPortTimeoutException;
+import com.moppy.core.comms.CompactDecoder;
+import com.moppy.core.comms.CompactEncoder;
 import com.moppy.core.comms.MoppyMessage;
 import com.moppy.core.comms.MoppyMessageFactory;
 import com.moppy.core.comms.NetworkMessageConsumer;
+import com.moppy.core.comms.NetworkReceivedMessage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 /**
  * A Serial connection for Moppy devices.
+ *
+ * If the pongs of every device on the port advertise {@link MoppyMessage.DeviceFeature#COMPACT_ENCODING},
+ * messages are sent using the {@link CompactEncoder} format from then on (unless that's been disallowed).
  */
 public class BridgeSerial extends NetworkBridge<Integer> {
 
-    private final static List<Integer> SUPPORTED_BAUDS = Arrays.asList(9600,14400,19200,28800,38400,57600,115200);
+    public final static int DEFAULT_BAUD = 57600;
+    // Anything above 115200 needs a board with a fast USB-serial link (e.g. ESP32, Teensy); any other
+    // rate the port driver accepts can still be passed to connect() or setBaudRate()
+    public final static List<Integer> SUPPORTED_BAUDS = List.of(9600,14400,19200,28800,38400,57600,115200,
+            230400,250000,460800,500000,921600,1000000,2000000);
     private final SerialPort serialPort;
+    private final CompactEncoder compactEncoder = new CompactEncoder();
+    private volatile boolean compactEncoding = false;
+    private volatile boolean compactEncodingAllowed = true;
+    // Whether each device address seen on this port can decode the compact encoding
+    private final Map<Byte, Boolean> compactSupport = new ConcurrentHashMap<>();
+    private volatile long bytesWritten = 0;
+    // Messages sent while a BaudNegotiator has the link to itself, written once it's done (null when not holding)
+    private final Object holdLock = new Object();
+    private List<MoppyMessage> heldMessages = null;
     private Thread listenerThread = null;
+    private SerialListener listener = null;
 
     public BridgeSerial(String serialPortName) {
         serialPort = SerialPort.getCommPort(serialPortName);
-        serialPort.setBaudRate(57600);
+        serialPort.setBaudRate(DEFAULT_BAUD);
     }
 
     public static List<String> getAvailableSerials() {
@@ -36,6 +59,9 @@ public class BridgeSerial extends NetworkBridge<Integer> {
     @Override
     public void connect(Integer newBaudRate) throws IOException {
         serialPort.setBaudRate(newBaudRate);
+        compactEncoding = false; // Wait for the devices to tell us again
+        compactSupport.clear();
+        compactEncoder.reset();
         if (!serialPort.openPort()) {
             throw new IOException("Failed to open serialPort!");
         }
@@ -46,23 +72,142 @@ public class BridgeSerial extends NetworkBridge<Integer> {
         serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 3200, 0);
 
         // Create and start listener thread
-        SerialListener listener = new SerialListener(serialPort, this);
+        listener = new SerialListener(serialPort, this);
         listenerThread = new Thread(listener);
         listenerThread.start();
     }
     
     @Override
     public void connect() throws IOException {
-        connect(57600);
+        connect(DEFAULT_BAUD);
+    }
+
+    /**
+     * Changes the baud rate of the open port without closing it (see {@link BaudNegotiator} for getting
+     * the devices to change with it).  Any partially read frame or compact encoding state is discarded.
+     */
+    public void setBaudRate(int newBaudRate) {
+        synchronized (compactEncoder) {
+            serialPort.setBaudRate(newBaudRate);
+            compactEncoder.reset();
+        }
+        SerialListener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.resetDecoder = true;
+        }
     }
 
     @Override
     public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        synchronized (holdLock) {
+            if (heldMessages != null) {
+                heldMessages.add(messageToSend);
+                return;
+            }
+            write(messageToSend);
+        }
+    }
+
+    /**
+     * Holds everything sent through {@link #sendMessage} (including the device registry's pings) until
+     * {@link #releaseHeldMessages()}, so only {@link #sendWhileHolding} reaches the port in the meantime.
+     */
+    void holdMessages() {
+        synchronized (holdLock) {
+            if (heldMessages == null) {
+                heldMessages = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Writes the messages held since {@link #holdMessages()} in the order they were sent, and stops holding.
+     */
+    void releaseHeldMessages() {
+        synchronized (holdLock) {
+            List<MoppyMessage> held = heldMessages;
+            heldMessages = null;
+            if (held != null) {
+                for (MoppyMessage message : held) {
+                    write(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a message straight to the port even while other messages are being held.
+     */
+    void sendWhileHolding(MoppyMessage messageToSend) {
+        write(messageToSend);
+    }
+
+    private void write(MoppyMessage messageToSend) {
         if (serialPort.isOpen()) {
-            serialPort.writeBytes(messageToSend.getMessageBytes(), messageToSend.getMessageBytes().length);
+            if (compactEncoding) {
+                // Encoder state has to match the order bytes hit the wire
+                synchronized (compactEncoder) {
+                    byte[] bytes = compactEncoder.encode(messageToSend);
+                    serialPort.writeBytes(bytes, bytes.length);
+                    bytesWritten += bytes.length;
+                }
+            } else {
+                synchronized (compactEncoder) { // Keeps writes from straddling a baud rate change
+                    serialPort.writeBytes(messageToSend.getMessageBytes(), messageToSend.getMessageBytes().length);
+                    bytesWritten += messageToSend.getMessageBytes().length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Watches pongs for the devices' compact encoding flags before passing messages on.
+     */
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage messageReceived) {
+        if (messageReceived.isSystemMessage() && messageReceived.getMessageCommandByte() == MoppyMessage.CommandByte.SYS_PONG) {
+            byte[] features = messageReceived.getPongExtension(MoppyMessage.PongExtension.FEATURES);
+            compactSupport.put(messageReceived.getMessageCommandPayload()[0], features != null && features.length > 0
+                    && (features[0] & MoppyMessage.DeviceFeature.COMPACT_ENCODING) != 0);
+            // Every device on the port sees every byte, so they all have to understand the encoding
+            boolean supported = !compactSupport.containsValue(false);
+            if (supported && compactEncodingAllowed && !compactEncoding) {
+                synchronized (compactEncoder) {
+                    compactEncoder.reset();
+                    compactEncoding = true;
+                }
+                Logger.getLogger(BridgeSerial.class.getName()).log(Level.INFO, "Using compact encoding on {0}", getNetworkIdentifier());
+            } else if (!supported && compactEncoding) {
+                compactEncoding = false; // e.g. a device was reflashed with older firmware, or one without support was added
+            }
+        }
+        super.acceptNetworkMessage(messageReceived);
+    }
+
+    /**
+     * Allows (the default) or prevents switching to compact encoding when the device supports it.
+     */
+    public void setCompactEncodingAllowed(boolean allowed) {
+        compactEncodingAllowed = allowed;
+        if (!allowed) {
+            compactEncoding = false;
         }
     }
 
+    /**
+     * @return Total bytes written to the port, for throughput measurements
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return true if messages are currently being sent in the compact encoding
+     */
+    public boolean isCompactEncoding() {
+        return compactEncoding;
+    }
+
     @Override
     public void close() throws IOException {
         try {
@@ -72,6 +217,7 @@ public class BridgeSerial extends NetworkBridge<Integer> {
             // Stop and cleanup listener thread
             listenerThread.interrupt();
             listenerThread = null;
+            listener = null;
         }
     }
 
@@ -103,6 +249,8 @@ public class BridgeSerial extends NetworkBridge<Integer> {
 
         private final SerialPort serialPort;
         private final NetworkMessageConsumer messageConsumer;
+        // Set when the baud rate changes, since anything half-read at the old rate is garbage
+        private volatile boolean resetDecoder = false;
 
         public SerialListener(SerialPort serialPort, NetworkMessageConsumer messageConsumer) {
             this.serialPort = serialPort;
@@ -112,32 +260,30 @@ public class BridgeSerial extends NetworkBridge<Integer> {
         @Override
         public void run() {
 
-            // MoppyMessages can't be longer than 259 bytes (SOM, DEVADDR, SUBADDR, LEN, [0-255 body bytes])
-            // Longer messages will be truncated, but we don't care about them anyway
+            // Devices may send normal frames or (to a simulated device) compact encoded ones
+            CompactDecoder decoder = new CompactDecoder(frame -> {
+                try {
+                    messageConsumer.acceptNetworkMessage(MoppyMessageFactory.networkReceivedFromBytes(
+                        frame,
+                        BridgeSerial.class.getName(),
+                        serialPort.getSystemPortName(),
+                        "Serial Device")); // Serial ports don't really have a remote address
+                } catch (IllegalArgumentException ex) {
+                    Logger.getLogger(BridgeSerial.class.getName()).log(Level.WARNING, "Exception reading network message", ex);
+                }
+            });
             byte[] buffer = new byte[259];
-            buffer[0] = MoppyMessage.START_BYTE; // We'll be eating the start byte below, so make sure it's here
-            int totalMessageLength;
 
             try (InputStream serialIn = serialPort.getInputStream()) {
                 while (serialPort.isOpen() && !Thread.interrupted()) {
                     try {
-                        // Keep reading until we get a START_BYTE
-                        if (serialIn.read() == MoppyMessage.START_BYTE) {
-                            buffer[1] = (byte)serialIn.read(); // Get Address
-                            buffer[2] = (byte)serialIn.read(); // Get Sub-Address
-                            buffer[3] = (byte)serialIn.read(); // Get body size
-                            serialIn.read(buffer, 4, buffer[3]); // Read body into buffer
-                            totalMessageLength = 4 + buffer[3];
-
-                            try {
-                                messageConsumer.acceptNetworkMessage(MoppyMessageFactory.networkReceivedFromBytes(
-                                    Arrays.copyOf(buffer, totalMessageLength),
-                                    BridgeSerial.class.getName(),
-                                    serialPort.getSystemPortName(),
-                                    "Serial Device")); // Serial ports don't really have a remote address
-                            } catch (IllegalArgumentException ex) {
-                                Logger.getLogger(BridgeSerial.class.getName()).log(Level.WARNING, "Exception reading network message", ex);
-                            }
+                        int bytesRead = serialIn.read(buffer);
+                        if (resetDecoder) {
+                            resetDecoder = false;
+                            decoder.reset();
+                        }
+                        if (bytesRead > 0) {
+                            decoder.decode(buffer, 0, bytesRead);
                         }
                     } catch (SerialPortTimeoutException ex) {
                         // This is fine, we're not always expecting data right away
@@ -0,0 +1,160 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.SharedMemoryRing;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands frames to a separate sender process (the CLI's "shm-send" command) through a pair of memory-mapped
+ * rings, so the actual serial/UDP writes happen in a small JVM that isn't affected by this process's GC pauses.
+ *
+ * "&lt;path&gt;.tx" carries frames to the sender; "&lt;path&gt;.rx" carries frames the sender's
+ * devices replied with (e.g. pongs) back to this bridge's receivers.
+ */
+public class BridgeSharedMemory extends NetworkBridge<Object> {
+
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Path ringPath;
+    private final int capacity;
+    private SharedMemoryRing txRing;
+    private SharedMemoryRing rxRing;
+    private Thread receiverThread = null;
+    private volatile boolean connected = false;
+
+    public BridgeSharedMemory(String ringPath) {
+        this(ringPath, SharedMemoryRing.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param ringPath Base path of the ring files (".tx" and ".rx" are appended)
+     * @param capacity Size of each ring in bytes; must be a power of two
+     */
+    public BridgeSharedMemory(String ringPath, int capacity) {
+        this.ringPath = Paths.get(ringPath);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The ring carrying frames to the sender process
+     */
+    public static Path txPath(Path ringPath) {
+        return ringPath.resolveSibling(ringPath.getFileName() + ".tx");
+    }
+
+    /**
+     * @return The ring carrying the sender's devices' replies back
+     */
+    public static Path rxPath(Path ringPath) {
+        return ringPath.resolveSibling(ringPath.getFileName() + ".rx");
+    }
+
+    @Override
+    public void connect() throws IOException {
+        txRing = SharedMemoryRing.create(txPath(ringPath), capacity);
+        try {
+            rxRing = SharedMemoryRing.create(rxPath(ringPath), capacity);
+        } catch (IOException ex) {
+            txRing.close();
+            txRing = null;
+            throw ex;
+        }
+        connected = true;
+
+        receiverThread = new Thread(this::receive, "BridgeSharedMemory-rx");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+    }
+
+    @Override
+    public void connect(Object connectionOption) throws IOException {
+        connect(); // Ignore argument since we have no options
+    }
+
+    private void receive() {
+        while (connected) {
+            MoppyMessage message = rxRing.poll();
+            if (message == null) {
+                // Replies are only pongs, so there's no need to spin
+                LockSupport.parkNanos(POLL_NANOS);
+                continue;
+            }
+            acceptNetworkMessage(MoppyMessageFactory.networkReceivedFromBytes(
+                    message.getMessageBytes(),
+                    BridgeSharedMemory.class.getName(),
+                    getNetworkIdentifier(),
+                    ringPath.toString()));
+        }
+    }
+
+    @Override
+    public synchronized void sendMessage(MoppyMessage messageToSend) throws IOException {
+        if (!connected) {
+            return; // We're not connected-- just silently fail.
+        }
+        if (!txRing.offer(messageToSend)) {
+            Logger.getLogger(BridgeSharedMemory.class.getName()).log(Level.FINE,
+                    "Sender isn't keeping up; dropped frame ({0} dropped so far)", txRing.getDroppedFrames());
+        }
+    }
+
+    /**
+     * @return Frames dropped because the sender process wasn't draining the ring fast enough (or isn't running)
+     */
+    public synchronized long getDroppedFrames() {
+        return txRing == null ? 0 : txRing.getDroppedFrames();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sendMessage(MoppyMessage.SYS_STOP); // Send a stop message before closing to prevent sticking
+        } finally {
+            connected = false;
+            if (receiverThread != null) {
+                try {
+                    receiverThread.join(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                receiverThread = null;
+            }
+            // Either ring may be missing if connect() failed part way, or was never called
+            if (txRing != null) {
+                txRing.close();
+            }
+            if (rxRing != null) {
+                rxRing.close();
+            }
+        }
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return String.format("shm:%s", ringPath);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public List<Object> getConnectionOptions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Object currentConnectionOption() {
+        return null;
+    }
+}
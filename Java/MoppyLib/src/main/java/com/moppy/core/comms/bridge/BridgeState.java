@@ -0,0 +1,15 @@
+package com.moppy.core.comms.bridge;
+
+/**
+ * Lifecycle of a bridge managed by {@link com.moppy.core.comms.NetworkManager}.
+ *
+ * DISCOVERED -> CONNECTING -> CONNECTED <-> DEGRADED -> CLOSED, and CLOSED bridges can be connected again.
+ * A failed connection attempt goes back to the state it started from.
+ */
+public enum BridgeState {
+    DISCOVERED, // Known (e.g. a serial port was found), but not connected
+    CONNECTING,
+    CONNECTED,
+    DEGRADED, // Was connected, but reports it isn't any more (e.g. a TCP link that's reconnecting)
+    CLOSED // Closed on purpose, or the port went away
+}
@@ -0,0 +1,215 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TCP-based network bridge for MoppyMessages, for reaching devices or hosts that multicast can't
+ * (e.g. a rig on the other side of a router).  Connects to a {@link BridgeTCPServer} or anything else
+ * that speaks the serial framing over TCP (such as a serial-to-network adapter).
+ *
+ * If the connection drops, it's re-established in the background with exponential backoff.  Messages
+ * sent while disconnected are discarded, just as BridgeUDP does with an unreachable network.
+ */
+public class BridgeTCP extends NetworkBridge<Object> {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long MIN_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final long STOP_FLUSH_MILLIS = 50;
+
+    private final String host;
+    private final int port;
+    private Selector selector;
+    private Thread ioThread = null;
+    private volatile boolean running = false;
+    private volatile TCPConnection connection = null;
+
+    /**
+     * @param hostAndPort Remote address as "host:port"
+     */
+    public BridgeTCP(String hostAndPort) {
+        int separator = hostAndPort.lastIndexOf(':');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Expected host:port but got " + hostAndPort);
+        }
+        this.host = hostAndPort.substring(0, separator);
+        this.port = parsePort(hostAndPort.substring(separator + 1));
+    }
+
+    /**
+     * @throws IllegalArgumentException If the text isn't a TCP port number
+     */
+    public static int parsePort(String port) {
+        try {
+            int parsed = Integer.parseInt(port.trim());
+            if (parsed >= 1 && parsed <= 65535) {
+                return parsed;
+            }
+        } catch (NumberFormatException ex) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(String.format("Expected a TCP port from 1 to 65535 but got \"%s\"", port));
+    }
+
+    @Override
+    public void connect() throws IOException {
+        selector = Selector.open();
+        // Connect synchronously the first time so that a bad address is reported to the caller
+        try {
+            connection = openConnection();
+        } catch (IOException ex) {
+            selector.close();
+            throw ex;
+        }
+
+        running = true;
+        ioThread = new Thread(this::runIO, "BridgeTCP-" + getNetworkIdentifier());
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public void connect(Object connectionOption) throws IOException {
+        connect(); // The remote address is fixed at construction, like a serial port name
+    }
+
+    private TCPConnection openConnection() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            return new TCPConnection(channel, selector);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void runIO() {
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        while (running) {
+            TCPConnection current = connection;
+            try {
+                if (current == null) {
+                    Thread.sleep(backoffMillis);
+                    try {
+                        connection = openConnection();
+                        backoffMillis = MIN_BACKOFF_MILLIS;
+                        Logger.getLogger(BridgeTCP.class.getName()).log(Level.INFO, "Reconnected to {0}", getNetworkIdentifier());
+                    } catch (IOException ex) {
+                        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                    }
+                    continue;
+                }
+
+                selector.select();
+                selector.selectedKeys().clear();
+                if (!current.service(this, BridgeTCP.class.getName())) {
+                    dropConnection(current, null);
+                }
+            } catch (InterruptedException | ClosedSelectorException ex) {
+                return;
+            } catch (IOException ex) {
+                dropConnection(current, ex);
+            }
+        }
+    }
+
+    private void dropConnection(TCPConnection dropped, IOException cause) {
+        if (dropped != null) {
+            dropped.close();
+        }
+        connection = null;
+        if (running) {
+            Logger.getLogger(BridgeTCP.class.getName()).log(Level.WARNING,
+                    String.format("Lost connection to %s; reconnecting", getNetworkIdentifier()), cause);
+        }
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        TCPConnection current = connection;
+        if (current == null) {
+            return; // We're not connected-- just silently fail.
+        }
+        current.enqueue(messageToSend);
+        selector.wakeup();
+    }
+
+    /**
+     * @return Most recent ping round trip to the remote end in microseconds, or -1 if unknown
+     */
+    public long getRoundTripMicros() {
+        TCPConnection current = connection;
+        return current == null ? -1 : current.getRoundTripMicros();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sendMessage(MoppyMessage.SYS_STOP); // Send a stop message before closing to prevent sticking
+            if (ioThread != null) {
+                ioThread.join(STOP_FLUSH_MILLIS); // Give the IO thread a moment to write it out
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            if (ioThread != null) {
+                ioThread.interrupt();
+                try {
+                    ioThread.join(CONNECT_TIMEOUT_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                ioThread = null;
+            }
+            TCPConnection current = connection;
+            connection = null;
+            if (current != null) {
+                current.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return String.format("tcp:%s:%s", host, port);
+    }
+
+    /**
+     * @return true while the bridge is connected or trying to reconnect
+     */
+    @Override
+    public boolean isConnected() {
+        return running;
+    }
+
+    /**
+     * @return true if the TCP connection is currently established
+     */
+    public boolean isLinkUp() {
+        return connection != null;
+    }
+
+    @Override
+    public List<Object> getConnectionOptions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Object currentConnectionOption() {
+        return null;
+    }
+}
@@ -0,0 +1,204 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts TCP connections from {@link BridgeTCP}s (other Moppy hosts, or devices that speak the serial
+ * framing over TCP).  Messages sent through this bridge go to every connected peer, and messages
+ * from any peer are received as though they came from a single network.  Messages from a peer are also
+ * relayed to every other peer, so hosts and devices connected to the same server reach each other just
+ * as they would on a multicast group.
+ */
+public class BridgeTCPServer extends NetworkBridge<Object> {
+
+    public static final int DEFAULT_PORT = 30995;
+
+    private final int port;
+    private Selector selector;
+    private volatile ServerSocketChannel serverChannel;
+    private Thread ioThread = null;
+    private final List<TCPConnection> connections = new CopyOnWriteArrayList<>();
+
+    public BridgeTCPServer() {
+        this(DEFAULT_PORT);
+    }
+
+    public BridgeTCPServer(int port) {
+        this.port = port;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            serverChannel.close();
+            selector.close();
+            serverChannel = null;
+            throw ex;
+        }
+
+        ioThread = new Thread(this::runIO, "BridgeTCPServer-" + port);
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public void connect(Object connectionOption) throws IOException {
+        connect(); // Ignore argument since we have no options
+    }
+
+    private void runIO() {
+        try {
+            while (serverChannel != null && serverChannel.isOpen()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                // Service every peer, since sendMessage only wakes the selector rather than selecting a key
+                for (TCPConnection connection : connections) {
+                    try {
+                        if (!connection.service(this, BridgeTCPServer.class.getName())) {
+                            disconnect(connection, null);
+                        }
+                    } catch (IOException ex) {
+                        disconnect(connection, ex);
+                    } catch (CancelledKeyException ex) {
+                        disconnect(connection, null); // Closed while it was being serviced
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            if (serverChannel != null) {
+                Logger.getLogger(BridgeTCPServer.class.getName()).log(Level.WARNING, "TCP server stopped", ex);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        TCPConnection connection = new TCPConnection(channel, selector);
+        connections.add(connection);
+        Logger.getLogger(BridgeTCPServer.class.getName()).log(Level.INFO, "Accepted connection from {0}", connection.getRemoteIdentifier());
+    }
+
+    private void disconnect(TCPConnection connection, IOException cause) {
+        connections.remove(connection);
+        connection.close();
+        Logger.getLogger(BridgeTCPServer.class.getName()).log(Level.INFO,
+                String.format("Connection from %s closed", connection.getRemoteIdentifier()), cause);
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        if (connections.isEmpty()) {
+            return;
+        }
+        for (TCPConnection connection : connections) {
+            connection.enqueue(messageToSend);
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Relays a frame received from one peer to the others (on the IO thread) before passing it on.
+     */
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage messageReceived) {
+        boolean relayed = false;
+        for (TCPConnection connection : connections) {
+            if (!connection.getRemoteIdentifier().equals(messageReceived.getRemoteIdentifier())) {
+                connection.enqueue(messageReceived);
+                relayed = true;
+            }
+        }
+        if (relayed) {
+            selector.wakeup(); // Peers already serviced this time round get their frames on the next pass
+        }
+        super.acceptNetworkMessage(messageReceived);
+    }
+
+    /**
+     * @return Most recent ping round trip in microseconds for each connected peer (-1 if unknown), keyed by remote address
+     */
+    public Map<String, Long> getConnectionRoundTripMicros() {
+        Map<String, Long> roundTrips = new HashMap<>();
+        for (TCPConnection connection : connections) {
+            roundTrips.put(connection.getRemoteIdentifier(), connection.getRoundTripMicros());
+        }
+        return roundTrips;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sendMessage(MoppyMessage.SYS_STOP); // Send a stop message before closing to prevent sticking
+            if (ioThread != null) {
+                ioThread.join(50); // Give the IO thread a moment to write it out
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ServerSocketChannel closing = serverChannel;
+            serverChannel = null;
+            for (TCPConnection connection : connections) {
+                connection.close();
+            }
+            connections.clear();
+            if (closing != null) {
+                closing.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+            ioThread = null;
+        }
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return String.format("tcp-server:%s", port);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return serverChannel != null && serverChannel.isOpen();
+    }
+
+    @Override
+    public List<Object> getConnectionOptions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Object currentConnectionOption() {
+        return null;
+    }
+}
@@ -14,8 +14,16 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,16 +33,43 @@ import java.util.logging.Logger;
  * This bridge will utilize multicast addresses to simplify communication
  * to multiple Moppy devices on a Network.  Ideally this should be an effectively zero-conf
  * bridge and work out of the box on any normal network.
+ *
+ * In {@link Mode#UNICAST} mode, device messages are instead sent directly to the host that
+ * answered pings for that device address (many Wi-Fi access points send multicast at the basic
+ * rate, which adds a lot of latency).  System messages, and messages for devices that haven't
+ * answered a ping yet (or have stopped answering them), still go to the multicast group.
  */
 public class BridgeUDP extends NetworkBridge<Object> {
 
+    public enum Mode {
+        MULTICAST,
+        UNICAST
+    }
+
     private static final int MOPPY_PORT = 30994;
+    // Pings a device can miss before its host is forgotten (e.g. it moved to another address)
+    private static final int MAX_MISSED_PINGS = 3;
     private InetAddress groupAddress;
     private MulticastSocket socket;
     private Thread listenerThread = null;
+    private volatile Mode mode;
+
+    // Host that owns each device address, learned from pongs (indexed by unsigned device address)
+    private final AtomicReferenceArray<InetAddress> deviceHosts = new AtomicReferenceArray<>(256);
+    private final AtomicIntegerArray pingsSincePong = new AtomicIntegerArray(256);
+    private final ConcurrentHashMap<InetAddress, DestinationStats> destinationStats = new ConcurrentHashMap<>();
+    private final PingRoundTrips pingRoundTrips = new PingRoundTrips();
 
     public BridgeUDP() throws UnknownHostException {
+        this(Mode.MULTICAST);
+    }
+
+    /**
+     * @param defaultMode Mode used when connecting without an explicit connection option
+     */
+    public BridgeUDP(Mode defaultMode) throws UnknownHostException {
         groupAddress = InetAddress.getByName("239.2.2.7");
+        mode = defaultMode;
     }
 
     @Override
@@ -52,7 +87,10 @@ public class BridgeUDP extends NetworkBridge<Object> {
     
     @Override
     public void connect(Object connectionOption) throws IOException {
-        connect(); // Ignore argument since we have no options
+        if (connectionOption instanceof Mode) {
+            mode = (Mode)connectionOption;
+        }
+        connect();
     }
 
     @Override
@@ -62,11 +100,37 @@ public class BridgeUDP extends NetworkBridge<Object> {
             return; // We're not connected-- just silently fail.
         }
 
+        InetAddress destination = null;
+        if (mode == Mode.UNICAST && !messageToSend.isSystemMessage()) {
+            destination = deviceHosts.get(messageToSend.getDeviceAddress() & 0xff);
+        }
+        if (destination == null) {
+            destination = groupAddress;
+        }
+
         DatagramPacket dgp = new DatagramPacket(messageToSend.getMessageBytes(),
             messageToSend.getMessageBytes().length,
-            groupAddress,
+            destination,
             MOPPY_PORT);
+        long sendStart = System.nanoTime();
         socket.send(dgp);
+        long sendEnd = System.nanoTime();
+
+        pingRoundTrips.frameSent(messageToSend.getMessageBytes());
+        if (messageToSend.isSystemMessage() && messageToSend.getMessageBytes()[4] == MoppyMessage.CommandByte.SYS_PING) {
+            expireDeviceHosts();
+        }
+        destinationStats.computeIfAbsent(destination, address -> new DestinationStats()).recordSend(sendEnd - sendStart);
+    }
+
+    /**
+     * Returns send statistics for each destination this bridge has sent to, keyed by host address
+     * (the multicast group is included as its own destination).
+     */
+    public Map<String, DestinationStats> getDestinationStats() {
+        Map<String, DestinationStats> stats = new HashMap<>();
+        destinationStats.forEach((address, destStats) -> stats.put(address.getHostAddress(), destStats));
+        return stats;
     }
 
     @Override
@@ -96,12 +160,71 @@ public class BridgeUDP extends NetworkBridge<Object> {
 
     @Override
     public List<Object> getConnectionOptions() {
-        return Collections.EMPTY_LIST;
+        return Arrays.asList((Object[])Mode.values());
     }
 
     @Override
     public Object currentConnectionOption() {
-        return null;
+        return mode;
+    }
+
+    /**
+     * Latency figures for one destination.  Send time is how long the socket took to accept a
+     * datagram; round trip is measured from a multicast ping to the pong from that host answering it.
+     */
+    public static class DestinationStats {
+        private long sendCount = 0;
+        private long totalSendNanos = 0;
+        private long maxSendNanos = 0;
+        private volatile long lastRoundTripNanos = -1;
+
+        private synchronized void recordSend(long sendNanos) {
+            sendCount++;
+            totalSendNanos += sendNanos;
+            maxSendNanos = Math.max(maxSendNanos, sendNanos);
+        }
+
+        public synchronized long getSendCount() {
+            return sendCount;
+        }
+
+        public synchronized long getMeanSendMicros() {
+            return sendCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalSendNanos / sendCount);
+        }
+
+        public synchronized long getMaxSendMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxSendNanos);
+        }
+
+        /**
+         * @return Most recent ping round trip to this host in microseconds, or -1 if unknown
+         */
+        public long getLastRoundTripMicros() {
+            return lastRoundTripNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(lastRoundTripNanos);
+        }
+    }
+
+    private void learnDeviceHost(byte[] pong, InetAddress host) {
+        byte deviceAddress = pong[5];
+        deviceHosts.set(deviceAddress & 0xff, host);
+        pingsSincePong.set(deviceAddress & 0xff, 0);
+        long roundTripNanos = pingRoundTrips.pongReceived(pong);
+        if (roundTripNanos >= 0) {
+            destinationStats.computeIfAbsent(host, address -> new DestinationStats()).lastRoundTripNanos = roundTripNanos;
+        }
+    }
+
+    /**
+     * Counts a ping against every known device host, forgetting those that haven't answered the last
+     * few so their messages go back to the multicast group.
+     */
+    private void expireDeviceHosts() {
+        for (int address = 0; address < deviceHosts.length(); address++) {
+            if (deviceHosts.get(address) != null && pingsSincePong.incrementAndGet(address) > MAX_MISSED_PINGS) {
+                deviceHosts.set(address, null);
+                pingsSincePong.set(address, 0);
+            }
+        }
     }
 
     private class UDPListener implements Runnable {
@@ -117,23 +240,33 @@ public class BridgeUDP extends NetworkBridge<Object> {
         @Override
         public void run() {
 
-            // MoppyMessages can't be longer than 259 bytes (SOM, DEVADDR, SUBADDR, LEN, [0-255 body bytes])
+            // MoppyMessages can't be longer than 259 bytes (SOM, DEVADDR, SUBADDR, LEN, [0-255 body bytes]),
+            // plus room for a SequencedBridge trailer.
             // Longer messages will be truncated, but we don't care about them anyway
-            DatagramPacket bufferPacket = new DatagramPacket(new byte[259], 259);
+            DatagramPacket bufferPacket = new DatagramPacket(new byte[262], 262);
             byte[] packetData;
 
             while (!socket.isClosed() && !Thread.interrupted()) {
                 try {
                     socket.receive(bufferPacket);
-                    packetData = bufferPacket.getData();
-
-                    if (packetData.length > 0 && packetData[0] == MoppyMessage.START_BYTE) {
-                        NetworkReceivedMessage receivedMessage = MoppyMessageFactory.networkReceivedFromBytes(
-                                packetData,
-                                BridgeUDP.class.getName(),
-                                getNetworkIdentifier(),
-                                bufferPacket.getAddress().getHostAddress());
-                        messageConsumer.acceptNetworkMessage(receivedMessage);
+                    // Copy out just this datagram; the buffer is reused and may hold bytes from longer packets
+                    packetData = Arrays.copyOf(bufferPacket.getData(), bufferPacket.getLength());
+
+                    if (packetData.length >= 4 && packetData[0] == MoppyMessage.START_BYTE) {
+                        if (bufferPacket.getLength() >= 6
+                                && packetData[1] == MoppyMessage.SYSTEM_ADDRESS
+                                && packetData[4] == MoppyMessage.CommandByte.SYS_PONG) {
+                            learnDeviceHost(packetData, bufferPacket.getAddress());
+                        }
+
+                        for (byte[] frame : splitBatch(packetData)) {
+                            NetworkReceivedMessage receivedMessage = MoppyMessageFactory.networkReceivedFromBytes(
+                                    frame,
+                                    BridgeUDP.class.getName(),
+                                    getNetworkIdentifier(),
+                                    bufferPacket.getAddress().getHostAddress());
+                            messageConsumer.acceptNetworkMessage(receivedMessage);
+                        }
                     }
 
                     //TODO: send status update with DeviceDescriptor for pong??
@@ -144,5 +277,25 @@ public class BridgeUDP extends NetworkBridge<Object> {
             }
         }
 
+        /**
+         * Splits a datagram made entirely of back-to-back frames (see {@link BatchingBridge}) into those
+         * frames.  Anything else (a single frame, possibly with a trailer) is passed on whole.
+         */
+        private List<byte[]> splitBatch(byte[] packet) {
+            List<byte[]> frames = new ArrayList<>();
+            int offset = 0;
+            while (offset + 4 <= packet.length && packet[offset] == MoppyMessage.START_BYTE) {
+                int end = offset + 4 + (packet[offset + 3] & 0xff);
+                if (end > packet.length) {
+                    break;
+                }
+                frames.add(Arrays.copyOfRange(packet, offset, end));
+                offset = end;
+            }
+            if (offset != packet.length || frames.size() < 2) {
+                return Collections.singletonList(packet);
+            }
+            return frames;
+        }
     }
 }
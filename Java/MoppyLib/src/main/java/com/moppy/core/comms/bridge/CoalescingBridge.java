@@ -0,0 +1,265 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cuts redundant traffic before it reaches a slow bridge (e.g. a 57600 baud BridgeSerial).
+ *
+ * - Pitch bends are throttled per drive: the first bend in a window goes out at once, and any later
+ *   ones in the same window are replaced by the newest, which is sent when the window ends.  Bends
+ *   that wouldn't change the drive's pitch are dropped.
+ * - Note-ons for a note a drive is already playing, and note-offs for a drive known to be idle, are dropped.
+ * - Stops and resets are never held back, and discard any bends still waiting for the drives they silence.
+ *
+ * Messages that are sent always keep their original order; a waiting bend is flushed before the next
+ * note-on for its drive.
+ */
+public class CoalescingBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private static final int UNKNOWN = -1;
+    private static final int IDLE = -2;
+    private static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private final long windowNanos;
+    private final Map<Integer, DriveState> drives = new HashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "CoalescingBridge flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long messagesDropped = 0;
+    private long rateIntervalStart = System.nanoTime();
+    private long rateIntervalSavedBytes = 0;
+    private long savedBytesPerSecond = 0;
+
+    /**
+     * @param delegate Bridge to send the remaining messages through
+     * @param windowMillis Pitch bends for a drive are sent at most once per window (0 only drops repeats)
+     */
+    public CoalescingBridge(NetworkBridge<CONNOPTION> delegate, int windowMillis) {
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        delegate.registerMessageReceiver(this);
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public synchronized void sendMessage(MoppyMessage messageToSend) throws IOException {
+        byte[] bytes = messageToSend.getMessageBytes();
+        bytesIn += frameLength(bytes);
+
+        if (messageToSend.isSystemMessage()) {
+            byte command = bytes[4];
+            if (command == MoppyMessage.CommandByte.SYS_STOP || command == MoppyMessage.CommandByte.SYS_RESET) {
+                forgetDrives(-1); // Everything is silent (and unbent) again
+            }
+            forward(messageToSend);
+            return;
+        }
+
+        byte command = bytes[4];
+        if (command == MoppyMessage.CommandByte.DEV_RESET) {
+            forgetDrives(bytes[1] & 0xff);
+            forward(messageToSend);
+            return;
+        }
+
+        DriveState drive = drives.computeIfAbsent(driveKey(bytes[1], bytes[2]), k -> new DriveState());
+        if (command == MoppyMessage.CommandByte.DEV_PLAYNOTE) {
+            if (drive.note == bytes[5]) {
+                dropped(bytes);
+                return;
+            }
+            flushPendingBend(drive);
+            drive.note = bytes[5];
+            forward(messageToSend);
+        } else if (command == MoppyMessage.CommandByte.DEV_STOPNOTE) {
+            if (drive.pendingBend != null) {
+                dropped(drive.pendingBend.getMessageBytes()); // Would bend a note that's about to stop
+                drive.pendingBend = null;
+            }
+            if (drive.note == IDLE) {
+                dropped(bytes);
+                return;
+            }
+            drive.note = IDLE;
+            forward(messageToSend);
+        } else if (command == MoppyMessage.CommandByte.DEV_BENDPITCH) {
+            sendPitchBend(drive, messageToSend);
+        } else {
+            // e.g. scheduled messages; we can't tell when they'll take effect, so stop assuming anything about the drive
+            flushPendingBend(drive);
+            drive.note = UNKNOWN;
+            drive.bend = null;
+            forward(messageToSend);
+        }
+    }
+
+    /**
+     * Discards what we know about the drives of a device (or every device if -1), along with their waiting bends.
+     */
+    private void forgetDrives(int deviceAddress) {
+        drives.entrySet().removeIf(e -> {
+            if (deviceAddress >= 0 && (e.getKey() >> 8) != deviceAddress) {
+                return false;
+            }
+            if (e.getValue().pendingBend != null) {
+                dropped(e.getValue().pendingBend.getMessageBytes());
+                e.getValue().pendingBend = null;
+            }
+            return true;
+        });
+    }
+
+    private void sendPitchBend(DriveState drive, MoppyMessage bend) throws IOException {
+        short amount = (short)(((bend.getMessageBytes()[5] & 0xff) << 8) | (bend.getMessageBytes()[6] & 0xff));
+        long now = System.nanoTime();
+
+        if (drive.pendingBend != null) {
+            dropped(drive.pendingBend.getMessageBytes());
+            drive.pendingBend = null;
+        }
+        if (drive.bend != null && drive.bend == amount) {
+            dropped(bend.getMessageBytes());
+            return;
+        }
+        if (now - drive.lastBendNanos >= windowNanos) {
+            drive.bend = amount;
+            drive.lastBendNanos = now;
+            forward(bend);
+            return;
+        }
+
+        // Hold the bend until the window ends, replacing it with any newer one in the meantime
+        drive.pendingBend = bend;
+        if (!drive.flushScheduled) {
+            drive.flushScheduled = true;
+            flusher.schedule(() -> flushLater(drive), drive.lastBendNanos + windowNanos - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void flushLater(DriveState drive) {
+        drive.flushScheduled = false;
+        try {
+            flushPendingBend(drive);
+        } catch (IOException ex) {
+            Logger.getLogger(CoalescingBridge.class.getName()).log(Level.WARNING, "Failed to send coalesced pitch bend", ex);
+        }
+    }
+
+    private void flushPendingBend(DriveState drive) throws IOException {
+        if (drive.pendingBend == null) {
+            return;
+        }
+        MoppyMessage bend = drive.pendingBend;
+        drive.pendingBend = null;
+        drive.bend = (short)(((bend.getMessageBytes()[5] & 0xff) << 8) | (bend.getMessageBytes()[6] & 0xff));
+        drive.lastBendNanos = System.nanoTime();
+        forward(bend);
+    }
+
+    private void forward(MoppyMessage message) throws IOException {
+        bytesOut += frameLength(message.getMessageBytes());
+        updateRate(0);
+        delegate.sendMessage(message);
+    }
+
+    private void dropped(byte[] bytes) {
+        messagesDropped++;
+        updateRate(frameLength(bytes));
+    }
+
+    private void updateRate(int savedBytes) {
+        long now = System.nanoTime();
+        if (now - rateIntervalStart >= RATE_INTERVAL_NANOS) {
+            savedBytesPerSecond = rateIntervalSavedBytes * RATE_INTERVAL_NANOS / (now - rateIntervalStart);
+            rateIntervalStart = now;
+            rateIntervalSavedBytes = 0;
+        }
+        rateIntervalSavedBytes += savedBytes;
+    }
+
+    private static int frameLength(byte[] bytes) {
+        return Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+    }
+
+    private static int driveKey(byte deviceAddress, byte subAddress) {
+        return ((deviceAddress & 0xff) << 8) | (subAddress & 0xff);
+    }
+
+    /**
+     * @return Bytes kept off the link during the last full second (0 once traffic stops)
+     */
+    public synchronized long getBytesSavedPerSecond() {
+        updateRate(0);
+        return System.nanoTime() - rateIntervalStart >= 2 * RATE_INTERVAL_NANOS ? 0 : savedBytesPerSecond;
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesIn - bytesOut;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesOut;
+    }
+
+    public synchronized long getMessagesDropped() {
+        return messagesDropped;
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        delegate.close();
+    }
+
+    private static class DriveState {
+        int note = UNKNOWN;
+        Short bend = null; // Last bend sent, or null if unknown
+        long lastBendNanos = Long.MIN_VALUE / 2;
+        MoppyMessage pendingBend = null;
+        boolean flushScheduled = false;
+    }
+}
@@ -0,0 +1,136 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Confines what's sent through a shared bridge to a subset of devices, so several players (e.g. one
+ * per room) can use the same network without disturbing each other's devices.
+ *
+ * - Device messages for addresses outside the subset are dropped.
+ * - System stops and resets would silence every device on the network, so they become a reset of each
+ *   device in the subset instead (or of just the ones given to reset, for a large subset most of whose
+ *   addresses are empty).  System starts are dropped.
+ * - Pings and other system messages are passed through.
+ *
+ * The subset can be changed while messages are being sent (e.g. as other players claim devices).  A
+ * bridge for every device passes everything through.
+ *
+ * The subset doesn't own the shared bridge: closing it leaves the bridge open.
+ */
+public class DeviceSubsetBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private volatile Subset subset;
+
+    /**
+     * @param delegate Shared bridge to send messages through
+     * @param deviceAddresses Devices messages may go to, or null for every device
+     */
+    public DeviceSubsetBridge(NetworkBridge<CONNOPTION> delegate, Collection<Integer> deviceAddresses) {
+        this.delegate = delegate;
+        setDevices(deviceAddresses);
+    }
+
+    /**
+     * Changes which devices messages may go to.
+     *
+     * @param deviceAddresses The devices, or null for every device
+     */
+    public void setDevices(Collection<Integer> deviceAddresses) {
+        setDevices(deviceAddresses, deviceAddresses);
+    }
+
+    /**
+     * Changes which devices messages may go to, and which of them are reset in place of a system stop or
+     * reset.
+     *
+     * @param deviceAddresses The devices, or null for every device
+     * @param resetAddresses The devices to reset (ignored for every device, as stops then pass through)
+     */
+    public void setDevices(Collection<Integer> deviceAddresses, Collection<Integer> resetAddresses) {
+        subset = deviceAddresses == null ? null : new Subset(deviceAddresses, resetAddresses);
+    }
+
+    /**
+     * @return True if messages may go to the device
+     */
+    public boolean includes(int deviceAddress) {
+        Subset current = subset;
+        return current == null || current.deviceAddresses[deviceAddress & 0xff];
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        Subset current = subset;
+        if (current == null) {
+            delegate.sendMessage(messageToSend);
+            return;
+        }
+        byte[] bytes = messageToSend.getMessageBytes();
+        if (messageToSend.isSystemMessage()) {
+            byte command = bytes[4];
+            if (command == MoppyMessage.CommandByte.SYS_STOP || command == MoppyMessage.CommandByte.SYS_RESET) {
+                for (MoppyMessage reset : current.deviceResets) {
+                    delegate.sendMessage(reset);
+                }
+            } else if (command != MoppyMessage.CommandByte.SYS_START) {
+                delegate.sendMessage(messageToSend);
+            }
+        } else if (current.deviceAddresses[bytes[1] & 0xff]) {
+            delegate.sendMessage(messageToSend);
+        }
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The delegate is shared, so it's left open
+    }
+
+    private static class Subset {
+        final boolean[] deviceAddresses = new boolean[256];
+        final MoppyMessage[] deviceResets;
+
+        Subset(Collection<Integer> deviceAddresses, Collection<Integer> resetAddresses) {
+            deviceAddresses.forEach(address -> this.deviceAddresses[address & 0xff] = true);
+            deviceResets = resetAddresses.stream()
+                    .distinct()
+                    .filter(address -> this.deviceAddresses[address & 0xff])
+                    .map(address -> MoppyMessageFactory.deviceReset(address.byteValue()))
+                    .toArray(MoppyMessage[]::new);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.NetworkMessageConsumer;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import com.moppy.core.device.DeviceDescriptor;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tunes the bridges of a single link to the capabilities its devices report in their pongs, so each
+ * port doesn't have to be configured by hand.
+ *
+ * Every device on a link hears the same traffic, so the link is tuned for its most limited device:
+ * - The message rate is capped at the lowest max messages per second any device reports.
+ * - Frames are only batched if every device can parse batches, and no larger than the smallest of them allows.
+ * - The preferred baud is the lowest any device reports, or none if any device doesn't report one (see
+ *   {@link BaudNegotiator}, which the tuner leaves the actual switching to).
+ *
+ * Compact encoding on serial links is chosen by {@link BridgeSerial} itself from the same pongs.
+ *
+ * Devices are described as the {@link com.moppy.core.device.DeviceRegistry} describes them, so the
+ * registry's devices can be passed to {@link #retainDevices} to forget the ones that have gone away.
+ */
+public class LinkTuner implements NetworkMessageConsumer {
+
+    private final String linkName;
+    private final PrioritySchedulingBridge<?> scheduler;
+    private final BatchingBridge<?> batcher;
+    private final Map<String, DeviceDescriptor> devices = new ConcurrentHashMap<>();
+
+    private volatile int maxMessagesPerSecond = 0;
+    private volatile int maxBatchBytes = 0;
+    private volatile int preferredBaud = 0;
+
+    /**
+     * @param link The topmost bridge of the link, which pongs will be received from
+     * @param scheduler Scheduler to rate limit, or null if the link isn't scheduled
+     * @param batcher Batcher to size, or null if the link can't batch
+     */
+    public LinkTuner(NetworkBridge<?> link, PrioritySchedulingBridge<?> scheduler, BatchingBridge<?> batcher) {
+        this.linkName = link.getNetworkIdentifier();
+        this.scheduler = scheduler;
+        this.batcher = batcher;
+        link.registerMessageReceiver(this);
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
+        if (!networkMessage.isSystemMessage()
+                || networkMessage.getMessageCommandByte() != MoppyMessage.CommandByte.SYS_PONG
+                || networkMessage.getMessageCommandPayload().length < 3) {
+            return;
+        }
+        DeviceDescriptor device = DeviceDescriptor.fromPong(networkMessage,
+                String.format("%s - %s", networkMessage.getNetworkIdentifier(), networkMessage.getRemoteIdentifier()));
+        if (!device.equals(devices.put(keyOf(device), device))) {
+            retune();
+        }
+    }
+
+    /**
+     * Forgets devices that have left the link, so they no longer limit the others.
+     *
+     * @param aliveDevices Every device still on the network (on any link)
+     */
+    public void retainDevices(Collection<DeviceDescriptor> aliveDevices) {
+        Set<String> alive = aliveDevices.stream().map(LinkTuner::keyOf).collect(Collectors.toSet());
+        if (devices.keySet().retainAll(alive)) {
+            retune();
+        }
+    }
+
+    private static String keyOf(DeviceDescriptor device) {
+        return device.getNetworkAddress() + ":" + (device.getDeviceAddress() & 0xff);
+    }
+
+    private synchronized void retune() {
+        int rate = 0;
+        int batch = Integer.MAX_VALUE;
+        int baud = Integer.MAX_VALUE;
+        for (DeviceDescriptor device : devices.values()) {
+            rate = lowestLimit(rate, device.getMaxMessagesPerSecond());
+            batch = Math.min(batch, device.getMaxBatchBytes());
+            baud = Math.min(baud, device.getPreferredBaud());
+        }
+        batch = devices.isEmpty() ? 0 : batch;
+        baud = devices.isEmpty() ? 0 : baud;
+
+        if (rate != maxMessagesPerSecond || batch != maxBatchBytes || baud != preferredBaud) {
+            maxMessagesPerSecond = rate;
+            maxBatchBytes = batch;
+            preferredBaud = baud;
+            if (scheduler != null) {
+                scheduler.setMaxMessagesPerSecond(rate);
+            }
+            if (batcher != null) {
+                batcher.setMaxBatchBytes(batch);
+            }
+            Logger.getLogger(LinkTuner.class.getName()).log(Level.INFO, "Tuned {0}: {1}", new Object[]{linkName, getDescription()});
+        }
+    }
+
+    /**
+     * @return The smaller of two limits, where 0 means no limit
+     */
+    private static int lowestLimit(int a, int b) {
+        if (a == 0 || b == 0) {
+            return Math.max(a, b);
+        }
+        return Math.min(a, b);
+    }
+
+    /**
+     * @return Messages per second the link is limited to, or 0 for no limit
+     */
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    /**
+     * @return Largest batch every device on the link accepts, or 0 if frames can't be batched
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * @return Fastest baud rate every device on the link supports, or 0 if any device didn't report one
+     */
+    public int getPreferredBaud() {
+        return preferredBaud;
+    }
+
+    public String getDescription() {
+        return String.format("%d device(s), %s msgs/s, %s, preferred baud %s",
+                devices.size(),
+                maxMessagesPerSecond > 0 ? Integer.toString(maxMessagesPerSecond) : "unlimited",
+                maxBatchBytes > 0 ? "batches up to " + maxBatchBytes + " bytes" : "no batching",
+                preferredBaud > 0 ? Integer.toString(preferredBaud) : "not reported");
+    }
+}
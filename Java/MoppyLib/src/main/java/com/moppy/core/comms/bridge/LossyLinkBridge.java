@@ -0,0 +1,125 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simulates an unreliable link (e.g. busy Wi-Fi) by randomly dropping, duplicating and reordering
+ * frames sent through another bridge.  Wrap a {@link BridgeLoopback} with this and a
+ * {@link SequencedBridge} around that to measure how loss detection and redundancy behave:
+ * <pre>new SequencedBridge&lt;&gt;(new LossyLinkBridge&lt;&gt;(new BridgeLoopback(), 0.05, 0.02, 0.01, seed), 2)</pre>
+ *
+ * Received frames are passed through untouched.
+ */
+public class LossyLinkBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private final double dropProbability;
+    private final double reorderProbability;
+    private final double duplicateProbability;
+    private final Random random;
+
+    private MoppyMessage heldBack = null;
+    private long framesDropped = 0;
+    private long framesReordered = 0;
+    private long framesDuplicated = 0;
+
+    /**
+     * @param delegate Bridge to actually deliver frames
+     * @param dropProbability Chance of a frame being discarded
+     * @param reorderProbability Chance of a frame being held back and sent after the next one
+     * @param duplicateProbability Chance of a frame being delivered twice
+     * @param seed Random seed, so that a run can be repeated exactly
+     */
+    public LossyLinkBridge(NetworkBridge<CONNOPTION> delegate, double dropProbability,
+            double reorderProbability, double duplicateProbability, long seed) {
+        this.delegate = delegate;
+        this.dropProbability = dropProbability;
+        this.reorderProbability = reorderProbability;
+        this.duplicateProbability = duplicateProbability;
+        this.random = new Random(seed);
+        delegate.registerMessageReceiver(this);
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public synchronized void sendMessage(MoppyMessage messageToSend) throws IOException {
+        if (random.nextDouble() < dropProbability) {
+            framesDropped++;
+            return;
+        }
+
+        if (heldBack == null && random.nextDouble() < reorderProbability) {
+            heldBack = messageToSend;
+            framesReordered++;
+            return;
+        }
+
+        deliver(messageToSend);
+        if (heldBack != null) {
+            MoppyMessage late = heldBack;
+            heldBack = null;
+            deliver(late);
+        }
+    }
+
+    private void deliver(MoppyMessage message) throws IOException {
+        delegate.sendMessage(message);
+        if (random.nextDouble() < duplicateProbability) {
+            framesDuplicated++;
+            delegate.sendMessage(message);
+        }
+    }
+
+    public synchronized long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public synchronized long getFramesReordered() {
+        return framesReordered;
+    }
+
+    public synchronized long getFramesDuplicated() {
+        return framesDuplicated;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (heldBack != null) {
+            delegate.sendMessage(heldBack);
+            heldBack = null;
+        }
+        delegate.close();
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+}
@@ -9,9 +9,9 @@ import com.moppy.core.comms.MoppyMessage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -24,7 +24,8 @@ import java.util.stream.Collectors;
  */
 public class MultiBridge extends NetworkBridge<Object> {
 
-    private Set<NetworkBridge> bridges = new HashSet<>();
+    // Bridges come and go (e.g. USB serial ports) while messages are being sent
+    private final Set<NetworkBridge> bridges = new CopyOnWriteArraySet<>();
 
     /**
      * Adds a network bridge that will send/receive messages as part of the MultiBridge group.
@@ -0,0 +1,56 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.ClockSync;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ping round trips on a link, matching each pong to the ping it answers.
+ *
+ * Pongs with a clock synchronization block echo the time their ping was sent, so they're matched
+ * exactly.  Other pongs are assumed to answer the latest ping, but only when the device answered the
+ * ping before that one too; otherwise the pong may be a late answer to an older ping, and is skipped.
+ */
+class PingRoundTrips {
+
+    private long pingsSent = 0;
+    private long lastPingSentNanos = 0;
+    // The ping each device address last answered, as a count of pings sent
+    private final Map<Byte, Long> lastPingAnswered = new HashMap<>();
+
+    /**
+     * Call as a frame is sent; anything other than a ping is ignored.
+     */
+    synchronized void frameSent(byte[] frame) {
+        if (frame.length >= 5 && frame[1] == MoppyMessage.SYSTEM_ADDRESS && frame[4] == MoppyMessage.CommandByte.SYS_PING) {
+            pingsSent++;
+            lastPingSentNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The round trip in nanoseconds of the ping a pong answers, or -1 if the frame isn't a pong or
+     * can't be matched
+     */
+    long pongReceived(byte[] frame) {
+        if (frame.length < 6 || frame[1] != MoppyMessage.SYSTEM_ADDRESS || frame[4] != MoppyMessage.CommandByte.SYS_PONG) {
+            return -1;
+        }
+        long receivedNanos = System.nanoTime();
+        int receivedMicros = ClockSync.hostMicros();
+
+        byte[] clockSync = MoppyMessageFactory.fromBytes(frame).getPongExtension(MoppyMessage.PongExtension.CLOCK_SYNC);
+        synchronized (this) {
+            Long previous = lastPingAnswered.put(frame[5], pingsSent);
+            if (clockSync != null && clockSync.length >= 4) {
+                int pingSentMicros = MoppyMessageFactory.getInt(clockSync, 0);
+                return TimeUnit.MICROSECONDS.toNanos(receivedMicros - pingSentMicros); // Wrap-safe difference
+            }
+            boolean answeredPrevious = previous != null && previous == pingsSent - 1;
+            return pingsSent > 0 && answeredPrevious ? receivedNanos - lastPingSentNanos : -1;
+        }
+    }
+}
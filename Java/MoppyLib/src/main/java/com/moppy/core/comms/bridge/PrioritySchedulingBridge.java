@@ -0,0 +1,349 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Paces messages onto a link with a known byte budget (e.g. a serial port, which moves baud/10 bytes a
+ * second), sending the most important waiting message first.
+ *
+ * Priorities, highest first: system messages and device resets, note-offs, note-ons, then pitch bends
+ * and anything else.  Priority only reorders messages for different drives: a message that would overtake
+ * one still queued for the same drive waits behind it instead, so a note-off never beats its note-on to
+ * the device.  System stops and resets, and device resets, do go ahead of everything, so the note-ons and
+ * bends still queued for the devices they silence are dropped rather than played after them.  The link is modelled as a clock that advances by each frame's transmit time, and
+ * a frame is only handed to the underlying bridge once the link has (nearly) caught up, so waiting
+ * messages stay here where they can be reordered instead of in the driver's FIFO buffer.
+ *
+ * When the backlog would take longer than the latency budget to send, queued pitch bends and then
+ * note-ons are shed (oldest first) and counted as overruns.  System messages and note-offs are never shed.
+ */
+public class PrioritySchedulingBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private static final int PRIORITY_SYSTEM = 0;
+    private static final int PRIORITY_NOTE_OFF = 1;
+    private static final int PRIORITY_NOTE_ON = 2;
+    private static final int PRIORITY_BEND = 3;
+    private static final int PRIORITIES = 4;
+
+    // How far ahead of the modelled link we're willing to hand bytes to the driver
+    private static final long SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private final IntSupplier bytesPerSecond;
+    private final long maxLatencyNanos;
+
+    private final Object lock = new Object();
+    private final List<ArrayDeque<MoppyMessage>> queues = new ArrayList<>(PRIORITIES);
+    // Messages queued for each drive (device address << 8 | sub-address) in each queue
+    private final Map<Integer, int[]> queuedPerDrive = new HashMap<>();
+    private int queuedBytes = 0;
+    private int queuedMessages = 0;
+    private long minMessageIntervalNanos = 0;
+    private long linkFreeAtNanos = 0;
+    private long overruns = 0;
+    private long bytesSent = 0;
+    private Thread senderThread = null;
+
+    /**
+     * @param delegate Bridge that writes to the link
+     * @param bytesPerSecond Current capacity of the link
+     * @param maxLatencyMillis Longest a message may wait before lower-priority traffic is shed
+     */
+    public PrioritySchedulingBridge(NetworkBridge<CONNOPTION> delegate, IntSupplier bytesPerSecond, int maxLatencyMillis) {
+        this.delegate = delegate;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        for (int i = 0; i < PRIORITIES; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        delegate.registerMessageReceiver(this);
+        startSender();
+    }
+
+    /**
+     * Schedules a serial bridge at its current baud rate (10 bits on the wire per byte).
+     */
+    public static PrioritySchedulingBridge<Integer> forSerial(BridgeSerial serial, int maxLatencyMillis) {
+        return new PrioritySchedulingBridge<>(serial, () -> serial.currentConnectionOption() / 10, maxLatencyMillis);
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+        startSender();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+        startSender();
+    }
+
+    private synchronized void startSender() {
+        if (senderThread == null) {
+            senderThread = new Thread(this::sendQueued, "Scheduler for " + delegate.getNetworkIdentifier());
+            senderThread.setDaemon(true);
+            senderThread.setPriority(Thread.MAX_PRIORITY);
+            senderThread.start();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        int priority = priorityOf(messageToSend);
+        synchronized (lock) {
+            if (priority == PRIORITY_SYSTEM) {
+                dropSilencedBy(messageToSend);
+            } else {
+                int[] driveQueued = queuedPerDrive.computeIfAbsent(driveOf(messageToSend), drive -> new int[PRIORITIES]);
+                for (int lower = PRIORITIES - 1; lower > priority; lower--) {
+                    if (driveQueued[lower] > 0) {
+                        priority = lower; // Wait behind the drive's earlier messages
+                        break;
+                    }
+                }
+                driveQueued[priority]++;
+            }
+            queues.get(priority).addLast(messageToSend);
+            queuedBytes += frameLength(messageToSend);
+            queuedMessages++;
+            shedIfOverBudget();
+            lock.notifyAll();
+        }
+    }
+
+    private static int priorityOf(MoppyMessage message) {
+        if (message.isSystemMessage()) {
+            return PRIORITY_SYSTEM;
+        }
+        byte command = message.getMessageBytes()[4];
+        if (command == MoppyMessage.CommandByte.DEV_RESET) {
+            return PRIORITY_SYSTEM;
+        } else if (command == MoppyMessage.CommandByte.DEV_STOPNOTE) {
+            return PRIORITY_NOTE_OFF;
+        } else if (command == MoppyMessage.CommandByte.DEV_PLAYNOTE) {
+            return PRIORITY_NOTE_ON;
+        }
+        return PRIORITY_BEND;
+    }
+
+    private static int driveOf(MoppyMessage message) {
+        byte[] bytes = message.getMessageBytes();
+        return (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff);
+    }
+
+    /**
+     * Drops the least important queued traffic until the backlog fits in the latency budget.  Note-offs
+     * waiting behind their drive's earlier messages are skipped over.
+     */
+    private void shedIfOverBudget() {
+        long now = System.nanoTime();
+        int priority = PRIORITY_BEND;
+        Iterator<MoppyMessage> queued = queues.get(priority).iterator();
+        while (backlogNanos(now) > maxLatencyNanos && priority >= PRIORITY_NOTE_ON) {
+            if (!queued.hasNext()) {
+                priority--;
+                queued = queues.get(priority).iterator();
+                continue;
+            }
+            MoppyMessage shed = queued.next();
+            if (priorityOf(shed) < PRIORITY_NOTE_ON) {
+                continue;
+            }
+            queued.remove();
+            dequeued(shed, priority);
+            overruns++;
+        }
+    }
+
+    /**
+     * Drops the queued note-ons and bends a stop or reset would silence, as they'd otherwise play after it.
+     */
+    private void dropSilencedBy(MoppyMessage message) {
+        byte command = message.getMessageBytes()[4];
+        int deviceAddress;
+        if (message.isSystemMessage()) {
+            if (command != MoppyMessage.CommandByte.SYS_STOP && command != MoppyMessage.CommandByte.SYS_RESET) {
+                return;
+            }
+            deviceAddress = -1;
+        } else {
+            deviceAddress = message.getDeviceAddress() & 0xff;
+        }
+        for (int priority = PRIORITY_NOTE_ON; priority < PRIORITIES; priority++) {
+            Iterator<MoppyMessage> queued = queues.get(priority).iterator();
+            while (queued.hasNext()) {
+                MoppyMessage waiting = queued.next();
+                if (priorityOf(waiting) >= PRIORITY_NOTE_ON
+                        && (deviceAddress < 0 || (waiting.getDeviceAddress() & 0xff) == deviceAddress)) {
+                    queued.remove();
+                    dequeued(waiting, priority);
+                }
+            }
+        }
+    }
+
+    private void dequeued(MoppyMessage message, int priority) {
+        queuedBytes -= frameLength(message);
+        queuedMessages--;
+        if (priority != PRIORITY_SYSTEM) {
+            int drive = driveOf(message);
+            int[] driveQueued = queuedPerDrive.get(drive);
+            driveQueued[priority]--;
+            if (driveQueued[PRIORITY_NOTE_OFF] + driveQueued[PRIORITY_NOTE_ON] + driveQueued[PRIORITY_BEND] == 0) {
+                queuedPerDrive.remove(drive);
+            }
+        }
+    }
+
+    private long backlogNanos(long now) {
+        return Math.max(0, linkFreeAtNanos - now)
+                + Math.max(transmitNanos(queuedBytes), queuedMessages * minMessageIntervalNanos);
+    }
+
+    private long transmitNanos(int bytes) {
+        return bytes * TimeUnit.SECONDS.toNanos(1) / Math.max(1, bytesPerSecond.getAsInt());
+    }
+
+    /**
+     * Additionally limits how many messages a second are sent, for devices that can't keep up with
+     * their link (0 for no limit).
+     */
+    public void setMaxMessagesPerSecond(int maxMessagesPerSecond) {
+        synchronized (lock) {
+            minMessageIntervalNanos = maxMessagesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxMessagesPerSecond : 0;
+        }
+    }
+
+    private void sendQueued() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                MoppyMessage next = null;
+                synchronized (lock) {
+                    long now = System.nanoTime();
+                    if (queuedBytes == 0) {
+                        lock.wait();
+                        continue;
+                    }
+                    long waitNanos = linkFreeAtNanos - SLACK_NANOS - now;
+                    if (waitNanos > 0) {
+                        // Let higher-priority messages arrive while the link is still busy
+                        TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+                        continue;
+                    }
+                    int priority = 0;
+                    while ((next = queues.get(priority).pollFirst()) == null) {
+                        priority++;
+                    }
+                    dequeued(next, priority);
+                    int length = frameLength(next);
+                    linkFreeAtNanos = Math.max(linkFreeAtNanos, now) + Math.max(transmitNanos(length), minMessageIntervalNanos);
+                    bytesSent += length;
+                }
+                try {
+                    delegate.sendMessage(next);
+                } catch (IOException ex) {
+                    Logger.getLogger(PrioritySchedulingBridge.class.getName()).log(Level.WARNING, "Failed to send scheduled message", ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Closing
+        }
+    }
+
+    private static int frameLength(MoppyMessage message) {
+        byte[] bytes = message.getMessageBytes();
+        return Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+    }
+
+    /**
+     * @return Number of messages shed because the link couldn't keep up
+     */
+    public long getOverruns() {
+        synchronized (lock) {
+            return overruns;
+        }
+    }
+
+    public long getBytesSent() {
+        synchronized (lock) {
+            return bytesSent;
+        }
+    }
+
+    /**
+     * @return How long a message queued now would wait before reaching the link
+     */
+    public long getBacklogMicros() {
+        synchronized (lock) {
+            return TimeUnit.NANOSECONDS.toMicros(backlogNanos(System.nanoTime()));
+        }
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (senderThread != null) {
+                senderThread.interrupt();
+                senderThread = null;
+            }
+        }
+        try {
+            // Don't leave drives sounding because their stops were still queued
+            MoppyMessage waiting;
+            while ((waiting = pollUnsheddable()) != null) {
+                delegate.sendMessage(waiting);
+            }
+        } finally {
+            delegate.close();
+        }
+    }
+
+    private MoppyMessage pollUnsheddable() {
+        synchronized (lock) {
+            for (int priority = 0; priority < PRIORITIES; priority++) {
+                Iterator<MoppyMessage> queued = queues.get(priority).iterator();
+                while (queued.hasNext()) {
+                    MoppyMessage waiting = queued.next();
+                    if (priorityOf(waiting) < PRIORITY_NOTE_ON) {
+                        queued.remove();
+                        dequeued(waiting, priority);
+                        return waiting;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
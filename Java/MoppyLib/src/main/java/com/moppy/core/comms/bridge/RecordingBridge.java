@@ -0,0 +1,84 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.FrameLog;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decorates another NetworkBridge, appending every frame sent or received through it
+ * to a {@link FrameLog} so a show can later be replayed with a {@link ReplayBridge}.
+ *
+ * The log is owned by the caller and is not closed along with the bridge.
+ */
+public class RecordingBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private final FrameLog log;
+
+    public RecordingBridge(NetworkBridge<CONNOPTION> delegate, FrameLog log) {
+        this.delegate = delegate;
+        this.log = log;
+        delegate.registerMessageReceiver(this);
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        delegate.sendMessage(messageToSend);
+        try {
+            log.append(FrameLog.Direction.SENT, messageToSend);
+        } catch (IOException ex) {
+            // Losing a recorded frame shouldn't stop the show
+            Logger.getLogger(RecordingBridge.class.getName()).log(Level.WARNING, "Failed to record sent frame", ex);
+        }
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage messageReceived) {
+        try {
+            log.append(FrameLog.Direction.RECEIVED, messageReceived);
+        } catch (IOException ex) {
+            // Losing a recorded frame shouldn't stop the message from being delivered
+            Logger.getLogger(RecordingBridge.class.getName()).log(Level.WARNING, "Failed to record received frame", ex);
+        }
+        super.acceptNetworkMessage(messageReceived);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+}
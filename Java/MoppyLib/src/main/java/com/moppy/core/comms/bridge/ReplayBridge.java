@@ -0,0 +1,171 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.FrameLog;
+import com.moppy.core.comms.MoppyMessage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Re-emits the frames sent during a recording (see {@link RecordingBridge}) to another
+ * NetworkBridge, either with their original timing or as fast as possible.
+ *
+ * Messages received by the target bridge are passed through to this bridge's receivers, and
+ * messages sent directly to this bridge are forwarded to the target as normal.
+ */
+public class ReplayBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private final NetworkBridge<CONNOPTION> target;
+
+    public ReplayBridge(NetworkBridge<CONNOPTION> target) {
+        this.target = target;
+        target.registerMessageReceiver(this);
+    }
+
+    /**
+     * Sends every recorded outgoing frame in the log to the target bridge.  Blocks until the replay is complete.
+     *
+     * @param logFile Log created by a RecordingBridge
+     * @param realTime If true, frames are spaced out with their recorded timing; otherwise they're sent back-to-back
+     * @return Timing statistics for the replay, useful for comparing builds
+     */
+    public ReplayStats replay(Path logFile, boolean realTime) throws IOException {
+        ReplayStats stats = new ReplayStats();
+        long firstFrameNanos = -1;
+        long startNanos = System.nanoTime();
+
+        try (FrameLog.Reader reader = FrameLog.open(logFile)) {
+            for (FrameLog.Frame frame : reader) {
+                if (frame.getDirection() != FrameLog.Direction.SENT) {
+                    continue; // Received frames were responses from the original devices
+                }
+                if (firstFrameNanos < 0) {
+                    firstFrameNanos = frame.getTimestampNanos();
+                }
+
+                long lateness = 0;
+                if (realTime) {
+                    long dueNanos = startNanos + (frame.getTimestampNanos() - firstFrameNanos);
+                    long waitNanos;
+                    while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                        if (Thread.interrupted()) {
+                            throw new IOException("Replay interrupted");
+                        }
+                    }
+                    lateness = -waitNanos;
+                }
+
+                target.sendMessage(frame.toMessage());
+                stats.recordFrame(lateness, frame.getTimestampNanos() - firstFrameNanos);
+            }
+        }
+
+        stats.elapsedNanos = System.nanoTime() - startNanos;
+        return stats;
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        target.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        target.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return target.isConnected();
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        target.sendMessage(messageToSend);
+    }
+
+    @Override
+    public void close() throws IOException {
+        target.close();
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return target.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return target.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return target.currentConnectionOption();
+    }
+
+    /**
+     * Timing results of a single replay.
+     */
+    public static class ReplayStats {
+        private long frameCount = 0;
+        private long recordedNanos = 0;
+        private long elapsedNanos = 0;
+        private long totalLatenessNanos = 0;
+        private long maxLatenessNanos = 0;
+
+        private void recordFrame(long latenessNanos, long recordedOffsetNanos) {
+            frameCount++;
+            recordedNanos = recordedOffsetNanos;
+            totalLatenessNanos += latenessNanos;
+            maxLatenessNanos = Math.max(maxLatenessNanos, latenessNanos);
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * @return Time between the first and last frame in the original recording
+         */
+        public long getRecordedNanos() {
+            return recordedNanos;
+        }
+
+        /**
+         * @return Wall-clock time the replay took
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getMaxLatenessNanos() {
+            return maxLatenessNanos;
+        }
+
+        public long getMeanLatenessNanos() {
+            return frameCount == 0 ? 0 : totalLatenessNanos / frameCount;
+        }
+
+        /**
+         * @return Frames sent per second of wall-clock time
+         */
+        public double getFramesPerSecond() {
+            return elapsedNanos == 0 ? 0 : frameCount * (double)TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames in %.3f s (recorded %.3f s, %.0f frames/s), lateness mean %d us / max %d us",
+                    frameCount,
+                    elapsedNanos / 1e9,
+                    recordedNanos / 1e9,
+                    getFramesPerSecond(),
+                    TimeUnit.NANOSECONDS.toMicros(getMeanLatenessNanos()),
+                    TimeUnit.NANOSECONDS.toMicros(maxLatenessNanos));
+        }
+    }
+}
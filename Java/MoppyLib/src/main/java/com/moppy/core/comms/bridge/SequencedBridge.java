@@ -0,0 +1,242 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.LinkStats;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import com.moppy.core.status.StatusConsumer;
+import com.moppy.core.status.StatusUpdate;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds sequence numbers to frames sent over a datagram bridge (e.g. BridgeUDP) and detects lost,
+ * reordered and duplicated frames on the receiving side.
+ *
+ * The sequence number is appended after the frame as a 3 byte trailer ([0x53][sequence:2]).  Devices
+ * that check a datagram's length against its length byte (like the Arduino firmware) drop frames with
+ * a trailer, so frames are only sequenced once every device that has answered a ping on the link
+ * advertises {@link MoppyMessage.DeviceFeature#SEQUENCE_TRAILER}.  Until then frames are sent unchanged.
+ *
+ * Note-offs and system stops can additionally be sent several times; when sequenced they carry the
+ * same sequence number, so a SequencedBridge on the receiving end drops the extra copies (devices
+ * without one just stop the same note twice).
+ *
+ * Only use this with bridges that deliver each datagram whole; serial links don't preserve trailing bytes.
+ */
+public class SequencedBridge<CONNOPTION> extends NetworkBridge<CONNOPTION> {
+
+    private static final byte TRAILER_MARKER = 0x53; // 'S'
+    private static final int TRAILER_LENGTH = 3;
+    private static final int WINDOW_SIZE = 64;
+    private static final long STATUS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final NetworkBridge<CONNOPTION> delegate;
+    private final int redundantCopies;
+    private final LinkStats linkStats;
+    private final Map<String, ReceiveWindow> receiveWindows = new HashMap<>();
+    // Whether each device address seen on this link accepts the trailer
+    private final Map<Byte, Boolean> trailerSupport = new ConcurrentHashMap<>();
+    private volatile boolean sequencing = false;
+    private int nextSequence = 0;
+
+    private StatusConsumer statusConsumer = null;
+    private long lastStatusNanos = 0;
+
+    /**
+     * @param delegate Datagram bridge to carry sequenced frames
+     * @param redundantCopies Extra copies to send of each note-off and system stop (0 for none)
+     */
+    public SequencedBridge(NetworkBridge<CONNOPTION> delegate, int redundantCopies) {
+        this.delegate = delegate;
+        this.redundantCopies = redundantCopies;
+        this.linkStats = new LinkStats(delegate.getNetworkIdentifier());
+        delegate.registerMessageReceiver(this);
+    }
+
+    /**
+     * Sets a consumer (e.g. a StatusBus) to be sent link statistics, at most once a second, whenever
+     * loss, reordering or duplication is detected.
+     */
+    public void setStatusConsumer(StatusConsumer statusConsumer) {
+        this.statusConsumer = statusConsumer;
+    }
+
+    public LinkStats getLinkStats() {
+        return linkStats;
+    }
+
+    @Override
+    public void connect(CONNOPTION connectionOption) throws IOException {
+        delegate.connect(connectionOption);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    /**
+     * @return true once every device on the link has said it accepts the trailer
+     */
+    public boolean isSequencing() {
+        return sequencing;
+    }
+
+    @Override
+    public void sendMessage(MoppyMessage messageToSend) throws IOException {
+        int copies = isWorthRepeating(messageToSend) ? redundantCopies : 0;
+
+        // Sent while holding the lock so frames leave in sequence number order
+        synchronized (this) {
+            MoppyMessage toSend = messageToSend;
+            if (sequencing) {
+                byte[] frame = messageToSend.getMessageBytes();
+                int frameLength = Math.min(frame.length, 4 + (frame[3] & 0xff));
+                byte[] packet = new byte[frameLength + TRAILER_LENGTH];
+                System.arraycopy(frame, 0, packet, 0, frameLength);
+
+                int sequence = nextSequence;
+                nextSequence = (nextSequence + 1) & 0xffff;
+                packet[frameLength] = TRAILER_MARKER;
+                packet[frameLength + 1] = (byte)(sequence >> 8);
+                packet[frameLength + 2] = (byte)sequence;
+                toSend = MoppyMessageFactory.fromBytes(packet);
+            }
+
+            for (int i = 0; i <= copies; i++) {
+                delegate.sendMessage(toSend);
+            }
+        }
+        linkStats.frameSent(copies);
+    }
+
+    /**
+     * A lost note-off leaves a drive sounding and a lost stop leaves everything sounding; both are
+     * harmless to receive twice.
+     */
+    private static boolean isWorthRepeating(MoppyMessage message) {
+        byte command = message.getMessageBytes()[4];
+        if (message.isSystemMessage()) {
+            return command == MoppyMessage.CommandByte.SYS_STOP || command == MoppyMessage.CommandByte.SYS_RESET;
+        }
+        return command == MoppyMessage.CommandByte.DEV_STOPNOTE || command == MoppyMessage.CommandByte.DEV_RESET;
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage messageReceived) {
+        if (messageReceived.isSystemMessage() && messageReceived.getMessageCommandByte() == MoppyMessage.CommandByte.SYS_PONG) {
+            byte[] features = messageReceived.getPongExtension(MoppyMessage.PongExtension.FEATURES);
+            trailerSupport.put(messageReceived.getMessageCommandPayload()[0], features != null && features.length > 0
+                    && (features[0] & MoppyMessage.DeviceFeature.SEQUENCE_TRAILER) != 0);
+            // Every device on the link may see every datagram, so they all have to accept the trailer
+            sequencing = !trailerSupport.containsValue(false);
+        }
+
+        byte[] packet = messageReceived.getMessageBytes();
+        int frameLength = 4 + (packet[3] & 0xff);
+
+        if (packet.length != frameLength + TRAILER_LENGTH || packet[frameLength] != TRAILER_MARKER) {
+            linkStats.unsequencedReceived();
+            super.acceptNetworkMessage(messageReceived);
+            return;
+        }
+
+        int sequence = ((packet[frameLength + 1] & 0xff) << 8) | (packet[frameLength + 2] & 0xff);
+        boolean deliver;
+        synchronized (receiveWindows) {
+            deliver = receiveWindows.computeIfAbsent(messageReceived.getRemoteIdentifier(), id -> new ReceiveWindow())
+                    .accept(sequence);
+        }
+
+        if (deliver) {
+            linkStats.frameReceived();
+            byte[] frame = new byte[frameLength];
+            System.arraycopy(packet, 0, frame, 0, frameLength);
+            super.acceptNetworkMessage(MoppyMessageFactory.networkReceivedFromBytes(frame,
+                    messageReceived.getNetworkType(),
+                    messageReceived.getNetworkIdentifier(),
+                    messageReceived.getRemoteIdentifier()));
+        }
+    }
+
+    private void anomalyDetected() {
+        StatusConsumer consumer = statusConsumer;
+        long now = System.nanoTime();
+        if (consumer != null && now - lastStatusNanos > STATUS_INTERVAL_NANOS) {
+            lastStatusNanos = now;
+            consumer.receiveUpdate(StatusUpdate.linkStats(linkStats));
+        }
+    }
+
+    /**
+     * Sliding window over the last WINDOW_SIZE sequence numbers from one sender.
+     */
+    private class ReceiveWindow {
+        private int highest = -1;
+        private long seen = 0; // Bit n set if (highest - n) has been received
+
+        boolean accept(int sequence) {
+            if (highest < 0) {
+                highest = sequence;
+                seen = 1;
+                return true;
+            }
+
+            int diff = (short)(sequence - highest); // Wrap-safe 16-bit difference
+            if (diff > 0) {
+                if (diff > 1) {
+                    linkStats.framesLost(diff - 1);
+                    anomalyDetected();
+                }
+                seen = diff >= WINDOW_SIZE ? 1 : (seen << diff) | 1;
+                highest = sequence;
+                return true;
+            }
+
+            int age = -diff;
+            if (age >= WINDOW_SIZE || (seen & (1L << age)) != 0) {
+                // Already seen (a redundant copy), or too old to tell
+                linkStats.duplicateDropped();
+                if (age >= WINDOW_SIZE) {
+                    anomalyDetected();
+                }
+                return false;
+            }
+
+            seen |= 1L << age;
+            linkStats.frameReordered();
+            anomalyDetected();
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public String getNetworkIdentifier() {
+        return delegate.getNetworkIdentifier();
+    }
+
+    @Override
+    public List<CONNOPTION> getConnectionOptions() {
+        return delegate.getConnectionOptions();
+    }
+
+    @Override
+    public CONNOPTION currentConnectionOption() {
+        return delegate.currentConnectionOption();
+    }
+}
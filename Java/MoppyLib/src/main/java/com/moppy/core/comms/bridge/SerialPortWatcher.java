@@ -0,0 +1,112 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.util.SharedScheduler;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches for serial ports coming and going (e.g. USB devices being plugged in) by enumerating the
+ * ports on an interval and telling a listener what changed.
+ *
+ * Enumerating ports goes through native code and can take a while on some systems, so it's always done
+ * in the background on the {@link SharedScheduler}, including the first scan after {@link #start()}.
+ */
+public class SerialPortWatcher implements Closeable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 2000;
+
+    public interface Listener {
+        void serialPortAdded(String portName);
+
+        void serialPortRemoved(String portName);
+    }
+
+    private final Listener listener;
+    private final Supplier<List<String>> enumerator;
+    private final long intervalMillis;
+
+    private volatile Set<String> knownPorts = Collections.emptySet();
+    private ScheduledFuture<?> scanner = null;
+
+    public SerialPortWatcher(Listener listener) {
+        this(listener, BridgeSerial::getAvailableSerials, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param enumerator Lists the ports currently present
+     */
+    public SerialPortWatcher(Listener listener, Supplier<List<String>> enumerator, long intervalMillis) {
+        this.listener = listener;
+        this.enumerator = enumerator;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts watching.  Returns immediately; ports already present are reported as added by the first scan.
+     */
+    public synchronized void start() {
+        if (scanner == null) {
+            scanner = SharedScheduler.scheduleWithFixedDelay(this::scan, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scan() {
+        Set<String> current;
+        try {
+            current = new LinkedHashSet<>(enumerator.get());
+        } catch (RuntimeException | LinkageError ex) {
+            // Keep the ports we know about rather than reporting them all removed
+            Logger.getLogger(SerialPortWatcher.class.getName()).log(Level.WARNING, "Failed to enumerate serial ports", ex);
+            return;
+        }
+
+        Set<String> previous = knownPorts;
+        knownPorts = Collections.unmodifiableSet(current);
+        for (String port : previous) {
+            if (!current.contains(port)) {
+                notify(port, false);
+            }
+        }
+        for (String port : current) {
+            if (!previous.contains(port)) {
+                notify(port, true);
+            }
+        }
+    }
+
+    private void notify(String port, boolean added) {
+        // A misbehaving listener mustn't stop the watcher (scheduled tasks die silently on exceptions)
+        try {
+            if (added) {
+                listener.serialPortAdded(port);
+            } else {
+                listener.serialPortRemoved(port);
+            }
+        } catch (RuntimeException ex) {
+            Logger.getLogger(SerialPortWatcher.class.getName()).log(Level.WARNING, "Failed to handle serial port change for " + port, ex);
+        }
+    }
+
+    /**
+     * @return Ports found by the most recent scan (empty until the first scan finishes)
+     */
+    public Set<String> getKnownPorts() {
+        return knownPorts;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scanner != null) {
+            scanner.cancel(false);
+            scanner = null;
+        }
+    }
+}
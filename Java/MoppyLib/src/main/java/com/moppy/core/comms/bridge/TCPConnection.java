@@ -0,0 +1,176 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One non-blocking TCP stream carrying MoppyMessages, shared by {@link BridgeTCP} and {@link BridgeTCPServer}.
+ *
+ * Frames are written back-to-back exactly as they are on a serial link; each frame's length byte
+ * delimits it, and the reader resynchronizes on the next start byte if it ever sees garbage.
+ * Frames queued between two selector wake-ups are written with a single gathering write.  If the peer
+ * stops reading, at most {@link #MAX_QUEUED_FRAMES} frames wait for it and later ones are dropped.
+ */
+class TCPConnection {
+
+    private static final int MAX_BATCH = 64;
+    // A few seconds of dense playback
+    private static final int MAX_QUEUED_FRAMES = 4096;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String remoteIdentifier;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+
+    private final PingRoundTrips pingRoundTrips = new PingRoundTrips();
+    private volatile long lastRoundTripNanos = -1;
+    private boolean overflowing = false; // Guarded by writeQueue
+
+    TCPConnection(SocketChannel channel, Selector selector) throws IOException {
+        this.channel = channel;
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        InetSocketAddress remote = (InetSocketAddress)channel.getRemoteAddress();
+        this.remoteIdentifier = String.format("%s:%s", remote.getAddress().getHostAddress(), remote.getPort());
+    }
+
+    String getRemoteIdentifier() {
+        return remoteIdentifier;
+    }
+
+    /**
+     * @return Most recent ping round trip in microseconds, or -1 if no pong has been received
+     */
+    long getRoundTripMicros() {
+        return lastRoundTripNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(lastRoundTripNanos);
+    }
+
+    /**
+     * Queues a frame to be written by the selector thread.  The caller must wake the selector.
+     */
+    void enqueue(MoppyMessage message) {
+        byte[] bytes = message.getMessageBytes();
+        int frameLength = Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+        ByteBuffer frame = ByteBuffer.allocate(frameLength);
+        frame.put(bytes, 0, frameLength).flip();
+
+        synchronized (writeQueue) {
+            if (writeQueue.size() >= MAX_QUEUED_FRAMES) {
+                if (!overflowing) {
+                    overflowing = true;
+                    Logger.getLogger(TCPConnection.class.getName()).log(Level.WARNING,
+                            "{0} isn''t keeping up; dropping frames", remoteIdentifier);
+                }
+                return;
+            }
+            writeQueue.add(frame);
+        }
+        pingRoundTrips.frameSent(bytes);
+    }
+
+    /**
+     * Called on the selector thread after a wake-up; writes whatever is queued and reads whatever is available.
+     *
+     * @return false if the remote end closed the connection
+     */
+    boolean service(NetworkBridge<?> bridge, String networkType) throws IOException {
+        if (key.isValid() && key.isReadable() && !read(bridge, networkType)) {
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    private void flush() throws IOException {
+        synchronized (writeQueue) {
+            while (!writeQueue.isEmpty()) {
+                int count = 0;
+                long batchBytes = 0;
+                for (ByteBuffer frame : writeQueue) {
+                    batch[count++] = frame;
+                    batchBytes += frame.remaining();
+                    if (count == MAX_BATCH) {
+                        break;
+                    }
+                }
+                long written = channel.write(batch, 0, count);
+                while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                    writeQueue.poll();
+                }
+                if (written < batchBytes) {
+                    break; // Socket buffer is full; wait for OP_WRITE
+                }
+            }
+            if (writeQueue.isEmpty()) {
+                overflowing = false;
+            }
+            key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private boolean read(NetworkBridge<?> bridge, String networkType) throws IOException {
+        int bytesRead = channel.read(readBuffer);
+        if (bytesRead < 0) {
+            return false;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            int start = readBuffer.position();
+            if (readBuffer.get(start) != MoppyMessage.START_BYTE) {
+                readBuffer.get(); // Skip until the next start byte
+                continue;
+            }
+            if (readBuffer.remaining() < 4) {
+                break;
+            }
+            int frameLength = 4 + (readBuffer.get(start + 3) & 0xff);
+            if (readBuffer.remaining() < frameLength) {
+                break;
+            }
+            byte[] frame = new byte[frameLength];
+            readBuffer.get(frame);
+            receiveFrame(frame, bridge, networkType);
+        }
+        readBuffer.compact();
+        return true;
+    }
+
+    private void receiveFrame(byte[] frame, NetworkBridge<?> bridge, String networkType) {
+        long roundTripNanos = pingRoundTrips.pongReceived(frame);
+        if (roundTripNanos >= 0) {
+            lastRoundTripNanos = roundTripNanos;
+        }
+
+        NetworkReceivedMessage receivedMessage = MoppyMessageFactory.networkReceivedFromBytes(
+                frame,
+                networkType,
+                bridge.getNetworkIdentifier(),
+                remoteIdentifier);
+        bridge.acceptNetworkMessage(receivedMessage);
+    }
+
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Nothing useful to do; the connection is going away either way
+        }
+    }
+}
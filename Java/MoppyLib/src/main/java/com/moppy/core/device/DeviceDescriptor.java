@@ -1,5 +1,7 @@
 package com.moppy.core.device;
 
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 
@@ -14,6 +16,41 @@ public class DeviceDescriptor {
     private byte minSubAddress;
     private byte maxSubAddress;
 
+    // Optional capabilities from pong extension blocks (0 when the device doesn't report them).  They
+    // aren't part of the device's identity, so a device is still the same one if they change.
+    @EqualsAndHashCode.Exclude
+    private byte features;
+    @EqualsAndHashCode.Exclude
+    private int maxMessagesPerSecond;
+    @EqualsAndHashCode.Exclude
+    private int preferredBaud;
+    @EqualsAndHashCode.Exclude
+    private int maxBatchBytes;
+
+    /**
+     * Builds a descriptor from a pong, including any features and capabilities the device reports.
+     */
+    public static DeviceDescriptor fromPong(MoppyMessage pong, String networkAddress) {
+        byte[] payload = pong.getMessageCommandPayload();
+        DeviceDescriptorBuilder builder = DeviceDescriptor.builder()
+                .networkAddress(networkAddress)
+                .deviceAddress(payload[0])
+                .minSubAddress(payload[1])
+                .maxSubAddress(payload[2]);
+
+        byte[] features = pong.getPongExtension(MoppyMessage.PongExtension.FEATURES);
+        if (features != null && features.length >= 1) {
+            builder.features(features[0]);
+        }
+        byte[] capabilities = pong.getPongExtension(MoppyMessage.PongExtension.CAPABILITIES);
+        if (capabilities != null && capabilities.length >= 8) {
+            builder.maxMessagesPerSecond(((capabilities[0] & 0xff) << 8) | (capabilities[1] & 0xff))
+                    .preferredBaud(MoppyMessageFactory.getInt(capabilities, 2))
+                    .maxBatchBytes(((capabilities[6] & 0xff) << 8) | (capabilities[7] & 0xff));
+        }
+        return builder.build();
+    }
+
     public String getNetworkAddress() {
         return networkAddress;
     }
@@ -46,6 +83,51 @@ public class DeviceDescriptor {
         this.maxSubAddress = maxSubAddress;
     }
 
+    /**
+     * @return {@link MoppyMessage.DeviceFeature} flags
+     */
+    public byte getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(byte features) {
+        this.features = features;
+    }
 
+    public boolean supportsCompactEncoding() {
+        return (features & MoppyMessage.DeviceFeature.COMPACT_ENCODING) != 0;
+    }
+
+    /**
+     * @return Most messages per second the device can handle, or 0 if it didn't say
+     */
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
 
+    public void setMaxMessagesPerSecond(int maxMessagesPerSecond) {
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+    }
+
+    /**
+     * @return Fastest serial baud rate the device supports, or 0 if it didn't say
+     */
+    public int getPreferredBaud() {
+        return preferredBaud;
+    }
+
+    public void setPreferredBaud(int preferredBaud) {
+        this.preferredBaud = preferredBaud;
+    }
+
+    /**
+     * @return Largest datagram of back-to-back frames the device accepts, or 0 if it needs one frame per datagram
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
 }
@@ -0,0 +1,141 @@
+package com.moppy.core.device;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.NetworkMessageConsumer;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts many {@link MoppyDevice}s on one bridge, e.g. to simulate a full network of devices for a load test.
+ *
+ * Registering each device with the bridge would have every device look at every frame.  Instead the host
+ * receives each frame once, looks its device address up in a table, checks the sub-address against the
+ * range the device was added with, and hands the frame straight to the device's handlers, reading it in
+ * place.  Dispatching a frame allocates nothing.  System frames (pings, resets, stops) go to every device.
+ *
+ * Devices send their replies (e.g. pongs) on {@link #getNetwork()}.
+ */
+public class DeviceHost implements NetworkMessageConsumer, Closeable {
+
+    private final NetworkBridge<?> network;
+    private final AtomicReferenceArray<HostedDevice> devicesByAddress = new AtomicReferenceArray<>(256);
+    // Every hosted device, for system frames; replaced rather than modified when devices come and go
+    private volatile MoppyDevice[] allDevices = new MoppyDevice[0];
+
+    private final LongAdder framesDispatched = new LongAdder();
+    private final LongAdder framesUnmatched = new LongAdder();
+
+    /**
+     * @param network Bridge to receive frames from (the host registers itself) and for devices to reply on
+     */
+    public DeviceHost(NetworkBridge<?> network) {
+        this.network = network;
+        network.registerMessageReceiver(this);
+    }
+
+    /**
+     * Adds a device listening on a device address, replacing any device already there.
+     *
+     * @param minSubAddress Lowest sub-address the device has (sub-address 0 addresses all of them)
+     */
+    public synchronized void addDevice(MoppyDevice device, byte deviceAddress, byte minSubAddress, byte maxSubAddress) {
+        if (deviceAddress == MoppyMessage.SYSTEM_ADDRESS) {
+            throw new IllegalArgumentException("Devices can't use the system address");
+        }
+        HostedDevice previous = devicesByAddress.getAndSet(deviceAddress & 0xff,
+                new HostedDevice(device, minSubAddress & 0xff, maxSubAddress & 0xff));
+        if (previous != null) {
+            removeFromAll(previous.device);
+        }
+        MoppyDevice[] devices = Arrays.copyOf(allDevices, allDevices.length + 1);
+        devices[devices.length - 1] = device;
+        allDevices = devices;
+    }
+
+    public synchronized void removeDevice(byte deviceAddress) {
+        HostedDevice previous = devicesByAddress.getAndSet(deviceAddress & 0xff, null);
+        if (previous != null) {
+            removeFromAll(previous.device);
+        }
+    }
+
+    private void removeFromAll(MoppyDevice device) {
+        allDevices = Arrays.stream(allDevices).filter(d -> d != device).toArray(MoppyDevice[]::new);
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
+        handleFrame(networkMessage.getMessageBytes());
+    }
+
+    /**
+     * Dispatches a single frame (e.g. one decoded from a byte stream) to the device(s) it's for.
+     */
+    public void handleFrame(byte[] frame) {
+        if (!MoppyDevice.isWholeFrame(frame)) {
+            return; // No command byte, or truncated
+        }
+        if (frame[1] == MoppyMessage.SYSTEM_ADDRESS) {
+            for (MoppyDevice device : allDevices) {
+                device.handleSystemFrame(frame);
+            }
+            framesDispatched.increment();
+            return;
+        }
+
+        HostedDevice hosted = devicesByAddress.get(frame[1] & 0xff);
+        int subAddress = frame[2] & 0xff;
+        if (hosted != null && (subAddress == 0 || (subAddress >= hosted.minSubAddress && subAddress <= hosted.maxSubAddress))) {
+            hosted.device.handleDeviceFrame(frame);
+            framesDispatched.increment();
+        } else {
+            framesUnmatched.increment();
+        }
+    }
+
+    public NetworkBridge<?> getNetwork() {
+        return network;
+    }
+
+    public int getDeviceCount() {
+        return allDevices.length;
+    }
+
+    /**
+     * @return Frames handed to at least one device
+     */
+    public long getFramesDispatched() {
+        return framesDispatched.sum();
+    }
+
+    /**
+     * @return Frames for device or sub-addresses nobody here is listening on
+     */
+    public long getFramesUnmatched() {
+        return framesUnmatched.sum();
+    }
+
+    /**
+     * Stops receiving frames.  Doesn't close the bridge, which the host was given rather than created.
+     */
+    @Override
+    public void close() {
+        network.deregisterMessageReceiver(this);
+    }
+
+    private static class HostedDevice {
+        final MoppyDevice device;
+        final int minSubAddress;
+        final int maxSubAddress;
+
+        HostedDevice(MoppyDevice device, int minSubAddress, int maxSubAddress) {
+            this.device = device;
+            this.minSubAddress = minSubAddress;
+            this.maxSubAddress = maxSubAddress;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.moppy.core.device;
+
+import com.moppy.core.comms.ClockSync;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.NetworkMessageConsumer;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.status.StatusBus;
+import com.moppy.core.status.StatusUpdate;
+import com.moppy.core.util.SharedScheduler;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of which devices are alive by pinging the network and listening for pongs.
+ *
+ * Devices are indexed by a small link number (one per bridge and remote address) and their device
+ * address, so handling a pong from a known device is an array lookup that allocates nothing unless the
+ * device's description changed.  Expiry uses a hashed timing wheel: each device sits in the slot for the
+ * next time it needs looking at, and only the devices in the current slot are visited each tick.
+ *
+ * Pings are sent quickly while devices are still appearing, slowly once things are stable, and straight
+ * away when a device misses a pong it should have sent.
+ *
+ * Rather than sleeping for a while after starting and hoping everything has answered, use
+ * {@link #awaitDevices(Predicate, long, long)} to find out as soon as the expected devices have.
+ */
+public class DeviceRegistry implements NetworkMessageConsumer, Closeable {
+
+    public static final long DISCOVERY_PING_MILLIS = 250;
+    public static final long STABLE_PING_MILLIS = 3000;
+    /**
+     * How long pings stay fast after starting (or after a new device or bridge appears)
+     */
+    public static final long DISCOVERY_MILLIS = 3000;
+    /**
+     * How long without a new device before discovery is considered finished; long enough for a device that
+     * missed one ping to answer the next
+     */
+    public static final long DEFAULT_QUIET_MILLIS = DISCOVERY_PING_MILLIS * 2;
+
+    private static final long TICK_MILLIS = 50;
+    private static final int WHEEL_SLOTS = 256; // Must be a power of two; covers 12.8 seconds
+    private static final long SUSPECT_TICKS = (STABLE_PING_MILLIS + 500) / TICK_MILLIS;
+
+    private final NetworkBridge<?> bridgeToPing;
+    private final ClockSync clockSync;
+    private final StatusBus statusBus;
+    private final long expireTicks;
+    private final long startNanos = System.nanoTime();
+
+    // Link numbers by network identifier, then remote identifier
+    private final Map<String, Map<String, Integer>> linkNumbers = new HashMap<>();
+    private Entry[][] entries = new Entry[0][];
+    private final Map<DeviceDescriptor, Entry> entriesByDescriptor = new HashMap<>();
+    private volatile Set<DeviceDescriptor> devices = Collections.emptySet();
+
+    private final List<ArrayList<Entry>> wheel = new ArrayList<>(WHEEL_SLOTS);
+    private ArrayList<Entry> spareSlot = new ArrayList<>();
+    private long currentTick = 0;
+
+    private long nextPingNanos = 0;
+    private long lastPingNanos = 0;
+    private long discoveryUntilNanos;
+    private boolean pingNow = false;
+    private long lastNewDeviceNanos = 0;
+    private final List<DiscoveryWait> discoveryWaits = new ArrayList<>();
+    private ScheduledFuture<?> ticker = null;
+
+    /**
+     * @param bridgeToPing Bridge to send pings on
+     * @param clockSync Creates the (timestamped) pings
+     * @param statusBus Told whenever the set of devices changes
+     * @param timeoutMillis How long a device can go without answering before it's forgotten
+     */
+    public DeviceRegistry(NetworkBridge<?> bridgeToPing, ClockSync clockSync, StatusBus statusBus, long timeoutMillis) {
+        this.bridgeToPing = bridgeToPing;
+        this.clockSync = clockSync;
+        this.statusBus = statusBus;
+        this.expireTicks = Math.max(SUSPECT_TICKS + 1, timeoutMillis / TICK_MILLIS);
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        discoveryUntilNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(DISCOVERY_MILLIS);
+    }
+
+    public synchronized void start() {
+        if (ticker == null) {
+            ticker = SharedScheduler.scheduleAtFixedRate(this::tick, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Goes back to pinging quickly for a while, e.g. because a bridge was just connected.
+     */
+    public synchronized void rediscover() {
+        long now = System.nanoTime();
+        discoveryUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(DISCOVERY_MILLIS);
+        nextPingNanos = Math.min(nextPingNanos, now);
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
+        byte[] bytes = networkMessage.getMessageBytes();
+        if (bytes[1] != MoppyMessage.SYSTEM_ADDRESS || bytes[4] != MoppyMessage.CommandByte.SYS_PONG || frameLength(bytes) < 8) {
+            return;
+        }
+        long nowNanos = System.nanoTime();
+        int nowMicros = ClockSync.hostMicros();
+        boolean changed;
+        List<DiscoveryWait> ready = null;
+        synchronized (this) {
+            changed = pongReceived(networkMessage, bytes, nowNanos, nowMicros);
+            if (changed && !discoveryWaits.isEmpty()) {
+                ready = readyDiscoveryWaits(nowNanos);
+            }
+        }
+        if (changed) {
+            statusBus.receiveUpdate(StatusUpdate.NET_DEVICES_CHANGED);
+        }
+        complete(ready);
+    }
+
+    private boolean pongReceived(NetworkReceivedMessage networkMessage, byte[] bytes, long nowNanos, int nowMicros) {
+        int link = linkNumber(networkMessage.getNetworkIdentifier(), networkMessage.getRemoteIdentifier());
+        int deviceAddress = bytes[5] & 0xff;
+        Entry entry = entries[link][deviceAddress];
+        boolean changed = false;
+
+        if (entry == null) {
+            entry = new Entry();
+            entries[link][deviceAddress] = entry;
+            schedule(entry, ticksAt(nowNanos) + SUSPECT_TICKS);
+            // Others may still be answering; keep pinging quickly for a bit
+            discoveryUntilNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(DISCOVERY_MILLIS);
+            lastNewDeviceNanos = nowNanos;
+            changed = true;
+        }
+        if (entry.signature == null || !sameSignature(entry.signature, bytes)) {
+            if (entry.descriptor != null) {
+                entriesByDescriptor.remove(entry.descriptor);
+            }
+            entry.signature = signature(bytes);
+            entry.descriptor = DeviceDescriptor.fromPong(networkMessage,
+                    String.format("%s - %s", networkMessage.getNetworkIdentifier(), networkMessage.getRemoteIdentifier()));
+            entriesByDescriptor.put(entry.descriptor, entry);
+            Logger.getLogger(DeviceRegistry.class.getName()).log(Level.INFO, "Found device {0} on {1} (sub-addresses {2}-{3})",
+                    new Object[]{deviceAddress, entry.descriptor.getNetworkAddress(),
+                        entry.descriptor.getMinSubAddress() & 0xff, entry.descriptor.getMaxSubAddress() & 0xff});
+            changed = true;
+        }
+        entry.lastSeenTick = ticksAt(nowNanos);
+        entry.suspect = false;
+        updateRoundTrip(entry, bytes, nowNanos, nowMicros);
+
+        if (changed) {
+            devices = Collections.unmodifiableSet(new LinkedHashSet<>(entriesByDescriptor.keySet()));
+        }
+        return changed;
+    }
+
+    private int linkNumber(String networkIdentifier, String remoteIdentifier) {
+        Map<String, Integer> remotes = linkNumbers.computeIfAbsent(networkIdentifier, k -> new HashMap<>());
+        Integer link = remotes.get(remoteIdentifier);
+        if (link == null) {
+            link = entries.length;
+            remotes.put(remoteIdentifier, link);
+            entries = Arrays.copyOf(entries, link + 1);
+            entries[link] = new Entry[256];
+        }
+        return link;
+    }
+
+    private void updateRoundTrip(Entry entry, byte[] bytes, long nowNanos, int nowMicros) {
+        long roundTripMicros = -1;
+        int end = frameLength(bytes);
+        // Walk the extension blocks after [deviceAddress][minSubAddress][maxSubAddress] for a clock sync echo
+        for (int pos = 8; pos + 2 <= end; pos += 2 + (bytes[pos + 1] & 0xff)) {
+            if (bytes[pos] == MoppyMessage.PongExtension.CLOCK_SYNC && (bytes[pos + 1] & 0xff) >= 12 && pos + 14 <= end) {
+                int pingSent = MoppyMessageFactory.getInt(bytes, pos + 2);
+                int deviceHeld = MoppyMessageFactory.getInt(bytes, pos + 10) - MoppyMessageFactory.getInt(bytes, pos + 6);
+                roundTripMicros = (nowMicros - pingSent) - deviceHeld;
+                break;
+            }
+        }
+        if (roundTripMicros < 0 && lastPingNanos != 0) {
+            // No echo; assume it's answering the most recent ping
+            roundTripMicros = TimeUnit.NANOSECONDS.toMicros(nowNanos - lastPingNanos);
+        }
+        if (roundTripMicros >= 0) {
+            entry.roundTripMicros = roundTripMicros;
+            entry.smoothedRoundTripMicros = entry.smoothedRoundTripMicros < 0
+                    ? roundTripMicros
+                    : entry.smoothedRoundTripMicros + (roundTripMicros - entry.smoothedRoundTripMicros) / 8;
+        }
+    }
+
+    private void tick() {
+        boolean changed = false;
+        boolean ping;
+        List<DiscoveryWait> ready = null;
+        try {
+            synchronized (this) {
+                long nowNanos = System.nanoTime();
+                long targetTick = ticksAt(nowNanos);
+                while (currentTick < targetTick) {
+                    currentTick++;
+                    changed |= processSlot((int)(currentTick & (WHEEL_SLOTS - 1)));
+                }
+                if (changed) {
+                    devices = Collections.unmodifiableSet(new LinkedHashSet<>(entriesByDescriptor.keySet()));
+                }
+                if (!discoveryWaits.isEmpty()) {
+                    ready = readyDiscoveryWaits(nowNanos);
+                }
+                ping = pingNow || nowNanos >= nextPingNanos;
+                if (ping) {
+                    pingNow = false;
+                    lastPingNanos = nowNanos;
+                    nextPingNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(
+                            nowNanos < discoveryUntilNanos ? DISCOVERY_PING_MILLIS : STABLE_PING_MILLIS);
+                }
+            }
+            if (changed) {
+                statusBus.receiveUpdate(StatusUpdate.NET_DEVICES_CHANGED);
+            }
+            complete(ready);
+            if (ping) {
+                bridgeToPing.sendMessage(clockSync.createPing());
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Carry on; whatever's wrong will hopefully resolve itself, and an exception would stop the ticker
+            Logger.getLogger(DeviceRegistry.class.getName()).log(Level.WARNING, "Failed to ping devices", ex);
+        }
+    }
+
+    /**
+     * Looks at every device due in a wheel slot: forgets those that have expired, pings for those that
+     * have just missed a pong, and puts the rest back in the slot for when they're next due.
+     */
+    private boolean processSlot(int slot) {
+        ArrayList<Entry> due = wheel.set(slot, spareSlot);
+        boolean changed = false;
+        for (Entry entry : due) {
+            if (entry.lastSeenTick + expireTicks <= currentTick) {
+                remove(entry);
+                changed = true;
+            } else if (entry.lastSeenTick + SUSPECT_TICKS <= currentTick) {
+                if (!entry.suspect) {
+                    entry.suspect = true;
+                    pingNow = true;
+                }
+                schedule(entry, entry.lastSeenTick + expireTicks);
+            } else {
+                schedule(entry, entry.lastSeenTick + SUSPECT_TICKS);
+            }
+        }
+        due.clear();
+        spareSlot = due;
+        return changed;
+    }
+
+    /**
+     * Waits for discovery to reach the point a caller needs, without sleeping any longer than that.
+     * The returned future completes with the devices seen so far at the first of:
+     * - {@code ready} accepting them
+     * - {@code quietMillis} passing without a new device appearing, once at least one has
+     * - the timeout
+     *
+     * It never completes exceptionally, so check whether the devices it's given are the ones wanted.
+     *
+     * @param ready Test for the expected set of devices, or null to rely on quiescence alone
+     * @param quietMillis How long without a new device means nothing else is coming, or 0 to never assume that
+     */
+    public CompletableFuture<Set<DeviceDescriptor>> awaitDevices(Predicate<Set<DeviceDescriptor>> ready, long quietMillis, long timeoutMillis) {
+        long nowNanos = System.nanoTime();
+        DiscoveryWait wait = new DiscoveryWait(ready, TimeUnit.MILLISECONDS.toNanos(quietMillis),
+                nowNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        synchronized (this) {
+            if (!wait.isReady(devices, lastNewDeviceNanos, nowNanos)) {
+                discoveryWaits.add(wait);
+                return wait.future;
+            }
+        }
+        wait.future.complete(devices);
+        return wait.future;
+    }
+
+    /**
+     * Waits until at least {@code expectedCount} devices have answered, or (if 0) until discovery goes quiet.
+     */
+    public CompletableFuture<Set<DeviceDescriptor>> awaitDevices(int expectedCount, long timeoutMillis) {
+        return expectedCount > 0
+                ? awaitDevices(found -> found.size() >= expectedCount, 0, timeoutMillis)
+                : awaitDevices(null, DEFAULT_QUIET_MILLIS, timeoutMillis);
+    }
+
+    private List<DiscoveryWait> readyDiscoveryWaits(long nowNanos) {
+        List<DiscoveryWait> ready = null;
+        for (int i = discoveryWaits.size() - 1; i >= 0; i--) {
+            if (discoveryWaits.get(i).isReady(devices, lastNewDeviceNanos, nowNanos)) {
+                if (ready == null) {
+                    ready = new ArrayList<>();
+                }
+                ready.add(discoveryWaits.remove(i));
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Completes waits outside the lock, since whatever's waiting may well call straight back in.
+     */
+    private void complete(List<DiscoveryWait> ready) {
+        if (ready != null) {
+            Set<DeviceDescriptor> found = devices;
+            ready.forEach(wait -> wait.future.complete(found));
+        }
+    }
+
+    private void schedule(Entry entry, long dueTick) {
+        // Anything more than a revolution away is looked at early and rescheduled then
+        long tick = Math.max(currentTick + 1, Math.min(dueTick, currentTick + WHEEL_SLOTS));
+        wheel.get((int)(tick & (WHEEL_SLOTS - 1))).add(entry);
+    }
+
+    private void remove(Entry entry) {
+        Logger.getLogger(DeviceRegistry.class.getName()).log(Level.FINE, "Lost device {0} on {1}",
+                new Object[]{entry.descriptor.getDeviceAddress() & 0xff, entry.descriptor.getNetworkAddress()});
+        entriesByDescriptor.remove(entry.descriptor);
+        for (Entry[] linkEntries : entries) {
+            int address = entry.descriptor.getDeviceAddress() & 0xff;
+            if (linkEntries[address] == entry) {
+                linkEntries[address] = null;
+                return;
+            }
+        }
+    }
+
+    private long ticksAt(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos - startNanos) / TICK_MILLIS;
+    }
+
+    private static int frameLength(byte[] bytes) {
+        return Math.min(bytes.length, 4 + (bytes[3] & 0xff));
+    }
+
+    /**
+     * The parts of a pong that describe the device: its payload without clock sync blocks (which change every time).
+     */
+    private static byte[] signature(byte[] bytes) {
+        byte[] signature = new byte[frameLength(bytes)];
+        int length = 0;
+        for (int pos = 5; pos < frameLength(bytes); ) {
+            int blockLength = pos < 8 ? 1 : 2 + (bytes[pos + 1 < frameLength(bytes) ? pos + 1 : pos] & 0xff);
+            blockLength = Math.min(blockLength, frameLength(bytes) - pos);
+            if (pos < 8 || bytes[pos] != MoppyMessage.PongExtension.CLOCK_SYNC) {
+                System.arraycopy(bytes, pos, signature, length, blockLength);
+                length += blockLength;
+            }
+            pos += blockLength;
+        }
+        return Arrays.copyOf(signature, length);
+    }
+
+    private static boolean sameSignature(byte[] signature, byte[] bytes) {
+        int matched = 0;
+        int end = frameLength(bytes);
+        for (int pos = 5; pos < end; ) {
+            int blockLength = pos < 8 ? 1 : 2 + (bytes[pos + 1 < end ? pos + 1 : pos] & 0xff);
+            blockLength = Math.min(blockLength, end - pos);
+            if (pos < 8 || bytes[pos] != MoppyMessage.PongExtension.CLOCK_SYNC) {
+                if (matched + blockLength > signature.length) {
+                    return false;
+                }
+                for (int i = 0; i < blockLength; i++) {
+                    if (signature[matched++] != bytes[pos + i]) {
+                        return false;
+                    }
+                }
+            }
+            pos += blockLength;
+        }
+        return matched == signature.length;
+    }
+
+    /**
+     * @return Devices that have answered recently.  The set is replaced, not modified, when devices come
+     * and go, so it's safe to iterate.
+     */
+    public Set<DeviceDescriptor> getDevices() {
+        return devices;
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * @return Smoothed ping round trip time to the device in microseconds, or -1 if unknown
+     */
+    public synchronized long getRoundTripMicros(DeviceDescriptor device) {
+        Entry entry = entriesByDescriptor.get(device);
+        return entry == null ? -1 : entry.smoothedRoundTripMicros;
+    }
+
+    /**
+     * @return Smoothed round trip time of every device, in microseconds (-1 if unknown)
+     */
+    public synchronized Map<DeviceDescriptor, Long> getRoundTrips() {
+        Map<DeviceDescriptor, Long> roundTrips = new HashMap<>();
+        entriesByDescriptor.forEach((device, entry) -> roundTrips.put(device, entry.smoothedRoundTripMicros));
+        return roundTrips;
+    }
+
+    @Override
+    public void close() {
+        List<DiscoveryWait> waiting;
+        synchronized (this) {
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            waiting = new ArrayList<>(discoveryWaits);
+            discoveryWaits.clear();
+        }
+        // Nothing more is coming, so nobody should be left waiting for the timeout
+        complete(waiting);
+    }
+
+    private static class Entry {
+        DeviceDescriptor descriptor;
+        byte[] signature;
+        long lastSeenTick;
+        boolean suspect = false;
+        long roundTripMicros = -1;
+        long smoothedRoundTripMicros = -1;
+    }
+
+    private static class DiscoveryWait {
+        final Predicate<Set<DeviceDescriptor>> ready;
+        final long quietNanos;
+        final long deadlineNanos;
+        final CompletableFuture<Set<DeviceDescriptor>> future = new CompletableFuture<>();
+
+        DiscoveryWait(Predicate<Set<DeviceDescriptor>> ready, long quietNanos, long deadlineNanos) {
+            this.ready = ready;
+            this.quietNanos = quietNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        boolean isReady(Set<DeviceDescriptor> devices, long lastNewDeviceNanos, long nowNanos) {
+            return (ready != null && ready.test(devices))
+                    || (quietNanos > 0 && lastNewDeviceNanos != 0 && nowNanos - lastNewDeviceNanos >= quietNanos)
+                    || nowNanos - deadlineNanos >= 0;
+        }
+    }
+}
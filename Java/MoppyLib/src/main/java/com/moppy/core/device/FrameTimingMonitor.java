@@ -0,0 +1,225 @@
+package com.moppy.core.device;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.NetworkMessageConsumer;
+import com.moppy.core.comms.NetworkReceivedMessage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Watches when frames for one device arrive compared to when they were meant to, so a device (e.g. a
+ * simulated one on stage) can report how healthy the network looks from its end.
+ *
+ * Two kinds of frame say when they were meant to arrive: scheduled frames carry the device-clock time
+ * they should play at, and timestamped pings carry the host's clock.  For each kind the change in transit
+ * time between successive frames is the jitter the network added, smoothed as in RFC 3550.  Scheduled
+ * frames also show how much of the look-ahead was left when they arrived, and are late if none was.
+ *
+ * Register the monitor with the bridge before the device so arrival times don't include handling time.
+ * Counters cover the window since the last {@link #snapshotAndReset()}; jitter carries across windows.
+ */
+public class FrameTimingMonitor implements NetworkMessageConsumer {
+
+    private final byte deviceAddress;
+    private final IntSupplier deviceMicros;
+
+    private long framesReceived = 0;
+    private int lastArrivalMicros;
+    private boolean anyArrival = false;
+    private int maxGapMicros = 0;
+
+    private long scheduledFrames = 0;
+    private long lateFrames = 0;
+    private int maxLatenessMicros = 0;
+    private int minMarginMicros = Integer.MAX_VALUE;
+    private long totalMarginMicros = 0;
+    private final JitterEstimate scheduledJitter = new JitterEstimate();
+
+    private long timestampedPings = 0;
+    private final JitterEstimate pingJitter = new JitterEstimate();
+
+    /**
+     * @param deviceAddress Device whose frames to watch (system frames are watched too)
+     */
+    public FrameTimingMonitor(byte deviceAddress) {
+        this(deviceAddress, () -> (int)TimeUnit.NANOSECONDS.toMicros(System.nanoTime()));
+    }
+
+    /**
+     * @param deviceMicros The device's clock, which scheduled frames' target times are on (see
+     * {@link MoppyDevice#deviceMicros()})
+     */
+    public FrameTimingMonitor(byte deviceAddress, IntSupplier deviceMicros) {
+        this.deviceAddress = deviceAddress;
+        this.deviceMicros = deviceMicros;
+    }
+
+    @Override
+    public void acceptNetworkMessage(NetworkReceivedMessage networkMessage) {
+        frameArrived(networkMessage.getMessageBytes());
+    }
+
+    /**
+     * Records the arrival of a frame now, for devices that aren't fed through a bridge.
+     */
+    public synchronized void frameArrived(byte[] frame) {
+        if (frame.length < 5 || (frame[1] != deviceAddress && frame[1] != MoppyMessage.SYSTEM_ADDRESS)) {
+            return;
+        }
+        int now = deviceMicros.getAsInt();
+
+        framesReceived++;
+        if (anyArrival) {
+            maxGapMicros = Math.max(maxGapMicros, now - lastArrivalMicros);
+        }
+        lastArrivalMicros = now;
+        anyArrival = true;
+
+        if (frame[1] == MoppyMessage.SYSTEM_ADDRESS) {
+            // Timestamped pings have a body of the command byte plus the host's micros
+            if (frame[4] == (byte)0x80 && (frame[3] & 0xff) >= 5 && frame.length >= 9) {
+                timestampedPings++;
+                pingJitter.transit(now - MoppyMessageFactory.getInt(frame, 5));
+            }
+        } else if (frame[4] == 0x20 && frame.length >= 9) {
+            int marginMicros = MoppyMessageFactory.getInt(frame, 5) - now; // Wrap-safe difference
+            scheduledFrames++;
+            if (marginMicros < 0) {
+                lateFrames++;
+                maxLatenessMicros = Math.max(maxLatenessMicros, -marginMicros);
+            }
+            minMarginMicros = Math.min(minMarginMicros, marginMicros);
+            totalMarginMicros += marginMicros;
+            scheduledJitter.transit(-marginMicros);
+        }
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * @return The window so far, starting a new one
+     */
+    public synchronized Snapshot snapshotAndReset() {
+        Snapshot snapshot = new Snapshot(this);
+        framesReceived = 0;
+        maxGapMicros = 0;
+        scheduledFrames = 0;
+        lateFrames = 0;
+        maxLatenessMicros = 0;
+        minMarginMicros = Integer.MAX_VALUE;
+        totalMarginMicros = 0;
+        timestampedPings = 0;
+        return snapshot;
+    }
+
+    /**
+     * RFC 3550 interarrival jitter: the mean change in transit time between successive frames.  Transit
+     * times only need a consistent offset, not a synchronized clock.
+     */
+    private static class JitterEstimate {
+        private boolean hasTransit = false;
+        private int lastTransitMicros;
+        private double jitterMicros = 0;
+
+        void transit(int transitMicros) {
+            if (hasTransit) {
+                jitterMicros += (Math.abs(transitMicros - lastTransitMicros) - jitterMicros) / 16;
+            }
+            lastTransitMicros = transitMicros;
+            hasTransit = true;
+        }
+    }
+
+    public static class Snapshot {
+        private final long framesReceived;
+        private final int maxGapMicros;
+        private final long scheduledFrames;
+        private final long lateFrames;
+        private final int maxLatenessMicros;
+        private final int minMarginMicros;
+        private final long meanMarginMicros;
+        private final int scheduledJitterMicros;
+        private final long timestampedPings;
+        private final int pingJitterMicros;
+
+        private Snapshot(FrameTimingMonitor monitor) {
+            framesReceived = monitor.framesReceived;
+            maxGapMicros = monitor.maxGapMicros;
+            scheduledFrames = monitor.scheduledFrames;
+            lateFrames = monitor.lateFrames;
+            maxLatenessMicros = monitor.maxLatenessMicros;
+            minMarginMicros = monitor.scheduledFrames == 0 ? 0 : monitor.minMarginMicros;
+            meanMarginMicros = monitor.scheduledFrames == 0 ? 0 : monitor.totalMarginMicros / monitor.scheduledFrames;
+            scheduledJitterMicros = (int)monitor.scheduledJitter.jitterMicros;
+            timestampedPings = monitor.timestampedPings;
+            pingJitterMicros = (int)monitor.pingJitter.jitterMicros;
+        }
+
+        public long getFramesReceived() {
+            return framesReceived;
+        }
+
+        /**
+         * @return Longest time between two frames arriving
+         */
+        public int getMaxGapMicros() {
+            return maxGapMicros;
+        }
+
+        public long getScheduledFrames() {
+            return scheduledFrames;
+        }
+
+        /**
+         * @return Scheduled frames that arrived after their target time
+         */
+        public long getLateFrames() {
+            return lateFrames;
+        }
+
+        public int getMaxLatenessMicros() {
+            return maxLatenessMicros;
+        }
+
+        /**
+         * @return Least time a scheduled frame had to spare when it arrived (negative if one was late)
+         */
+        public int getMinMarginMicros() {
+            return minMarginMicros;
+        }
+
+        public long getMeanMarginMicros() {
+            return meanMarginMicros;
+        }
+
+        public int getScheduledJitterMicros() {
+            return scheduledJitterMicros;
+        }
+
+        public long getTimestampedPings() {
+            return timestampedPings;
+        }
+
+        public int getPingJitterMicros() {
+            return pingJitterMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames (max gap %.1f ms), %d scheduled (%d late, max %.1f ms; margin min %.1f / mean %.1f ms, jitter %.2f ms), %d pings (jitter %.2f ms)",
+                    framesReceived,
+                    maxGapMicros / 1000.0,
+                    scheduledFrames,
+                    lateFrames,
+                    maxLatenessMicros / 1000.0,
+                    minMarginMicros / 1000.0,
+                    meanMarginMicros / 1000.0,
+                    scheduledJitterMicros / 1000.0,
+                    timestampedPings,
+                    pingJitterMicros / 1000.0);
+        }
+    }
+}
@@ -5,13 +5,30 @@
  */
 package com.moppy.core.device;
 
+import com.moppy.core.comms.CompactDecoder;
 import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Convenience class to automatically parse MoppyMessages into Java method calls
  */
 public abstract class MoppyDevice {
 
+    // Clock synchronization details from the most recent timestamped ping (see pongMessage)
+    private boolean lastPingTimestamped = false;
+    private int lastPingHostMicros;
+    private int lastPingReceivedMicros;
+
+    // Holds scheduled messages until they're due; created on first use
+    private static final long SCHEDULER_IDLE_SECONDS = 10;
+    private ScheduledThreadPoolExecutor scheduler;
+
+    // For devices fed a raw byte stream (e.g. a simulated serial device)
+    private final CompactDecoder streamDecoder = new CompactDecoder(this::handleFrame);
+
     /**
      * Returns true if this device is listening for the specified address.
      *
@@ -23,39 +40,214 @@ public abstract class MoppyDevice {
     public abstract boolean matchesAddress(byte deviceAddress, byte subAddress);
 
     public void handleMessage(MoppyMessage incommingMessage) {
-        if (incommingMessage.isSystemMessage()) {
-            switch (incommingMessage.getMessageCommandByte()) {
-                case (byte)0x80:
-                    gotSystemPing();
-                    break;
-                case (byte)0x82:
-                    systemReset();
-                    break;
-            }
-        } else if (matchesAddress(incommingMessage.getDeviceAddress(), incommingMessage.getSubAddress())){
-            switch (incommingMessage.getMessageCommandByte()) {
-                case 0x00:
-                    deviceReset(incommingMessage.getDeviceAddress(), incommingMessage.getSubAddress());
-                    break;
-                case 0x09:
-                    devicePlayNote(incommingMessage.getDeviceAddress(),
-                            incommingMessage.getSubAddress(),
-                            incommingMessage.getMessageCommandPayload()[0]);
-                    break;
-                case 0x08:
-                    deviceStopNote(incommingMessage.getDeviceAddress(),
-                            incommingMessage.getSubAddress(),
-                            incommingMessage.getMessageCommandPayload()[0]);
-                    break;
-                case 0x0e:
-                    deviceBendPitch(incommingMessage.getDeviceAddress(), incommingMessage.getSubAddress(),
-                            (short)((incommingMessage.getMessageCommandPayload()[0] << 8) | incommingMessage.getMessageCommandPayload()[1]));
-                    break;
-            }
+        handleFrame(incommingMessage.getMessageBytes());
+    }
+
+    /**
+     * Handles a whole frame, reading it in place.
+     */
+    void handleFrame(byte[] frame) {
+        if (!isWholeFrame(frame)) {
+            return;
+        }
+        if (frame[1] == MoppyMessage.SYSTEM_ADDRESS) {
+            handleSystemFrame(frame);
+        } else if (matchesAddress(frame[1], frame[2])) {
+            handleDeviceFrame(frame);
         }
         // Else this message wasn't for us
     }
 
+    /**
+     * @return True if the frame has a command byte and is as long as its header says
+     */
+    static boolean isWholeFrame(byte[] frame) {
+        return frame.length >= 5 && frame.length >= 4 + (frame[3] & 0xff) && frame[3] != 0;
+    }
+
+    /**
+     * Handles a frame sent to the system address.  {@link DeviceHost} calls this directly for each device
+     * it hosts, so nothing here may allocate (or change the frame).  The frame must be whole (see
+     * {@link #isWholeFrame}).
+     */
+    void handleSystemFrame(byte[] frame) {
+        switch (frame[4]) {
+            case (byte)0x80:
+                lastPingTimestamped = (frame[3] & 0xff) >= 5; // Command byte plus a 4 byte host timestamp
+                if (lastPingTimestamped) {
+                    lastPingReceivedMicros = deviceMicros();
+                    lastPingHostMicros = MoppyMessageFactory.getInt(frame, 5);
+                }
+                gotSystemPing();
+                break;
+            case (byte)0x82:
+                systemReset();
+                break;
+            case (byte)0xfc:
+            case (byte)0xff:
+                clearScheduledMessages(); // Anything still queued would play after the stop
+                break;
+        }
+    }
+
+    /**
+     * Handles a frame already known to be for this device.  {@link DeviceHost} calls this directly once
+     * it has matched the address, so nothing here may allocate (except to hold a scheduled message).  The
+     * frame must be whole (see {@link #isWholeFrame}); commands without all of their payload are ignored.
+     */
+    void handleDeviceFrame(byte[] frame) {
+        byte deviceAddress = frame[1];
+        byte subAddress = frame[2];
+        int payloadLength = (frame[3] & 0xff) - 1;
+        switch (frame[4]) {
+            case 0x00:
+                clearScheduledMessages();
+                deviceReset(deviceAddress, subAddress);
+                break;
+            case 0x09:
+                if (payloadLength >= 1) {
+                    devicePlayNote(deviceAddress, subAddress, frame[5]);
+                }
+                break;
+            case 0x08:
+                if (payloadLength >= 1) {
+                    deviceStopNote(deviceAddress, subAddress, frame[5]);
+                }
+                break;
+            case 0x0e:
+                if (payloadLength >= 2) {
+                    deviceBendPitch(deviceAddress, subAddress, (short)((frame[5] << 8) | (frame[6] & 0xff)));
+                }
+                break;
+            case 0x20:
+                scheduleFrame(frame);
+                break;
+        }
+    }
+
+    /**
+     * Handles bytes read from a stream link such as serial, which may carry normal frames or (if
+     * {@link #acceptsCompactEncoding()}) the compact encoding.  Frames may be split across calls.
+     */
+    public synchronized void handleBytes(byte[] bytes, int offset, int length) {
+        streamDecoder.decode(bytes, offset, length);
+    }
+
+    /**
+     * Override to return true if this device's messages arrive through {@link #handleBytes}, so pongs
+     * tell the host it can send the compact encoding.
+     */
+    protected boolean acceptsCompactEncoding() {
+        return false;
+    }
+
+    /**
+     * Override to return true if this device's network ignores bytes after a frame's length (as
+     * {@link DeviceHost} does), so pongs tell the host it can append sequence number trailers.
+     */
+    protected boolean acceptsSequenceTrailer() {
+        return false;
+    }
+
+    /**
+     * Override to report limits the host should tune this device's link to, as built by
+     * {@link MoppyMessageFactory#capabilitiesExtension}.  Returns null (nothing to report) by default.
+     */
+    protected byte[] capabilities() {
+        return null;
+    }
+
+    ////
+    // Scheduling and clock synchronization
+    ////
+
+    /**
+     * Returns the device's clock in microseconds.  Only differences between values are meaningful, and
+     * the value wraps around just like Arduino's micros().
+     */
+    protected int deviceMicros() {
+        return (int)TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+    }
+
+    /**
+     * Builds the pong to send in response to the most recent ping.  If that ping carried a host timestamp
+     * the pong includes the clock synchronization block so the host can work out this device's clock offset,
+     * followed by a features block if the device accepts the compact encoding or sequence trailers and a capabilities block
+     * if it has any.
+     */
+    protected MoppyMessage pongMessage(byte deviceAddress, byte minSubAddress, byte maxSubAddress) {
+        MoppyMessage pong = lastPingTimestamped
+                ? MoppyMessageFactory.systemPong(deviceAddress, minSubAddress, maxSubAddress,
+                        lastPingHostMicros, lastPingReceivedMicros, deviceMicros())
+                : MoppyMessageFactory.systemPong(deviceAddress, minSubAddress, maxSubAddress);
+        byte features = (byte)((acceptsCompactEncoding() ? MoppyMessage.DeviceFeature.COMPACT_ENCODING : 0)
+                | (acceptsSequenceTrailer() ? MoppyMessage.DeviceFeature.SEQUENCE_TRAILER : 0));
+        if (features != 0) {
+            pong = MoppyMessageFactory.withPongExtension(pong, MoppyMessage.PongExtension.FEATURES, features);
+        }
+        byte[] capabilities = capabilities();
+        if (capabilities != null) {
+            pong = MoppyMessageFactory.withPongExtension(pong, MoppyMessage.PongExtension.CAPABILITIES, capabilities);
+        }
+        return pong;
+    }
+
+    /**
+     * Unwraps a DEV_SCHEDULED frame and handles the inner message once deviceMicros() reaches its
+     * target time (or immediately if it's already late).
+     */
+    private void scheduleFrame(byte[] frame) {
+        // Body is [DEV_SCHEDULED][target micros (4)][inner command byte][inner payload...]
+        int bodyLength = frame[3] & 0xff;
+        if (bodyLength < 6 || frame.length < 4 + bodyLength) {
+            return; // No inner command, or truncated
+        }
+        int targetMicros = MoppyMessageFactory.getInt(frame, 5);
+
+        byte[] innerFrame = new byte[bodyLength - 1];
+        innerFrame[0] = MoppyMessage.START_BYTE;
+        innerFrame[1] = frame[1];
+        innerFrame[2] = frame[2];
+        innerFrame[3] = (byte)(bodyLength - 5);
+        System.arraycopy(frame, 9, innerFrame, 4, bodyLength - 5);
+
+        int delayMicros = targetMicros - deviceMicros(); // Wrap-safe difference
+        if (delayMicros <= 0) {
+            handleDeviceFrame(innerFrame);
+        } else {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = (ScheduledThreadPoolExecutor)Executors.newScheduledThreadPool(1, r -> {
+                        Thread t = new Thread(r, "MoppyDevice-scheduler");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    // Don't keep a thread around for devices that have stopped getting scheduled messages
+                    scheduler.setKeepAliveTime(SCHEDULER_IDLE_SECONDS, TimeUnit.SECONDS);
+                    scheduler.allowCoreThreadTimeOut(true);
+                }
+                scheduler.schedule(() -> handleDeviceFrame(innerFrame), delayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+    }
+
+    private synchronized void clearScheduledMessages() {
+        if (scheduler != null) {
+            scheduler.getQueue().clear();
+        }
+    }
+
+    /**
+     * Drops any scheduled messages and stops the scheduler.  Call when the device is closed; a later
+     * scheduled message starts a new one.
+     */
+    protected synchronized void shutdownScheduler() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
     ////
     // System Message Handlers
     ////
@@ -0,0 +1,159 @@
+package com.moppy.core.distributed;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.postprocessor.MessagePostProcessor;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * A song already mapped to MoppyMessages, with each frame stamped with its offset from the start
+ * of the song.  Because mapping happens once up front, every host that plays a timeline sends
+ * exactly the same frames regardless of its own mapper configuration.
+ */
+public class FrameTimeline {
+
+    private static final int META_TEMPO = 0x51;
+    private static final long DEFAULT_MICROS_PER_QUARTER = 500_000; // 120 BPM
+
+    private final long[] timesMicros;
+    private final byte[][] frames;
+
+    private FrameTimeline(long[] timesMicros, byte[][] frames) {
+        this.timesMicros = timesMicros;
+        this.frames = frames;
+    }
+
+    /**
+     * Maps every event in a sequence, in time order, honouring tempo changes.
+     */
+    public static FrameTimeline render(Sequence sequence, MapperCollection<MidiMessage> mappers,
+            MessagePostProcessor postProcessor) {
+        List<Long> times = new ArrayList<>();
+        List<byte[]> frameList = new ArrayList<>();
+        forEachEvent(sequence, (micros, midiMessage) -> {
+            for (MoppyMessage message : mappers.mapEvent(midiMessage)) {
+                MoppyMessage processed = postProcessor.postProcess(message);
+                if (processed == null) {
+                    continue;
+                }
+                byte[] bytes = processed.getMessageBytes();
+                times.add(micros);
+                frameList.add(Arrays.copyOf(bytes, Math.min(bytes.length, 4 + (bytes[3] & 0xff))));
+            }
+        });
+
+        long[] timesArray = new long[times.size()];
+        for (int i = 0; i < timesArray.length; i++) {
+            timesArray[i] = times.get(i);
+        }
+        return new FrameTimeline(timesArray, frameList.toArray(new byte[0][]));
+    }
+
+    /**
+     * Receives the events of a sequence with their offsets from the start of the song.
+     */
+    public interface EventVisitor {
+        void visit(long micros, MidiMessage message);
+    }
+
+    /**
+     * Calls the visitor with every event in a sequence except meta events, in time order, honouring
+     * tempo changes.
+     */
+    public static void forEachEvent(Sequence sequence, EventVisitor visitor) {
+        List<MidiEvent> events = new ArrayList<>();
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                events.add(track.get(i));
+            }
+        }
+        events.sort(Comparator.comparingLong(MidiEvent::getTick)); // Stable, so track order is kept within a tick
+
+        boolean ppq = sequence.getDivisionType() == Sequence.PPQ;
+        double ticksPerSecond = ppq ? 0 : sequence.getDivisionType() * sequence.getResolution();
+        long microsPerQuarter = DEFAULT_MICROS_PER_QUARTER;
+        long lastTick = 0;
+        double micros = 0;
+
+        for (MidiEvent event : events) {
+            long ticks = event.getTick() - lastTick;
+            micros += ppq ? (double)ticks * microsPerQuarter / sequence.getResolution() : ticks * 1_000_000 / ticksPerSecond;
+            lastTick = event.getTick();
+
+            if (event.getMessage() instanceof MetaMessage) {
+                MetaMessage meta = (MetaMessage)event.getMessage();
+                if (meta.getType() == META_TEMPO && meta.getData().length == 3) {
+                    byte[] data = meta.getData();
+                    microsPerQuarter = ((data[0] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[2] & 0xff);
+                }
+                continue;
+            }
+            visitor.visit((long)micros, event.getMessage());
+        }
+    }
+
+    public int size() {
+        return frames.length;
+    }
+
+    public long getTimeMicros(int index) {
+        return timesMicros[index];
+    }
+
+    public byte[] getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * @return Time of the last frame
+     */
+    public long getLengthMicros() {
+        return timesMicros.length == 0 ? 0 : timesMicros[timesMicros.length - 1];
+    }
+
+    /**
+     * @return Index of the first frame at or after the given position (size() if there are none)
+     */
+    public int indexAt(long positionMicros) {
+        int index = Arrays.binarySearch(timesMicros, positionMicros);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && timesMicros[index - 1] == positionMicros) {
+            index--; // binarySearch doesn't promise the first of several equal times
+        }
+        return index;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(frames.length);
+        for (int i = 0; i < frames.length; i++) {
+            out.writeLong(timesMicros[i]);
+            out.writeShort(frames[i].length);
+            out.write(frames[i]);
+        }
+    }
+
+    public static FrameTimeline readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        long[] times = new long[count];
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            times[i] = in.readLong();
+            frames[i] = new byte[in.readUnsignedShort()];
+            in.readFully(frames[i]);
+        }
+        return new FrameTimeline(times, frames);
+    }
+}
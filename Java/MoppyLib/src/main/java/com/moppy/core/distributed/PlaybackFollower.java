@@ -0,0 +1,225 @@
+package com.moppy.core.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connects to a {@link PlaybackLeader}, keeps this host's clock synchronized with it, and plays the
+ * leader's timeline through a local {@link TimelinePlayer} at the instants the leader chooses.
+ *
+ * The clock offset is estimated NTP-style: of the last few request/reply exchanges, the one with the
+ * shortest round trip is trusted, on the assumption that its delay was split evenly in each direction.
+ */
+public class PlaybackFollower implements Closeable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int SAMPLE_COUNT = 8;
+    private static final long INITIAL_SYNC_INTERVAL_MILLIS = 50;
+    private static final long SYNC_INTERVAL_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final TimelinePlayer player;
+
+    private Socket socket;
+    private DataOutputStream out;
+    private Thread readerThread;
+    private Thread syncThread;
+
+    // Recent clock samples (leader minus follower nanos, and the round trip they were measured over)
+    private final long[] sampleOffsets = new long[SAMPLE_COUNT];
+    private final long[] sampleRoundTrips = new long[SAMPLE_COUNT];
+    private int sampleCount = 0;
+    private int nextSample = 0;
+    // Start/stop commands received before the clock was synchronized, in the order they arrived
+    private final Queue<Runnable> pendingCommands = new ArrayDeque<>();
+
+    /**
+     * @param hostAndPort Leader address as "host:port"
+     * @param name Name to identify this follower in the leader's logs
+     * @param player Player for the devices attached to this host
+     */
+    public PlaybackFollower(String hostAndPort, String name, TimelinePlayer player) {
+        int separator = hostAndPort.lastIndexOf(':');
+        if (separator < 1) {
+            this.host = hostAndPort;
+            this.port = PlaybackLeader.DEFAULT_PORT;
+        } else {
+            this.host = hostAndPort.substring(0, separator);
+            this.port = Integer.parseInt(hostAndPort.substring(separator + 1));
+        }
+        this.name = name;
+        this.player = player;
+    }
+
+    public void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        synchronized (out) {
+            out.writeByte(PlaybackProtocol.HELLO);
+            out.writeInt(PlaybackProtocol.VERSION);
+            out.writeUTF(name);
+            out.flush();
+        }
+
+        readerThread = new Thread(this::readCommands, "PlaybackFollower-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        syncThread = new Thread(this::syncClock, "PlaybackFollower-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    public boolean isConnected() {
+        return socket != null && !socket.isClosed();
+    }
+
+    public synchronized boolean isClockSynchronized() {
+        return sampleCount > 0;
+    }
+
+    /**
+     * @return Leader clock minus local clock, in nanoseconds
+     */
+    public synchronized long getClockOffsetNanos() {
+        return sampleOffsets[bestSample()];
+    }
+
+    /**
+     * @return Round trip of the sample the clock offset is based on, in microseconds (-1 if not yet synchronized)
+     */
+    public synchronized long getRoundTripMicros() {
+        return sampleCount == 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(sampleRoundTrips[bestSample()]);
+    }
+
+    private int bestSample() {
+        int best = 0;
+        for (int i = 1; i < sampleCount; i++) {
+            if (sampleRoundTrips[i] < sampleRoundTrips[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private synchronized void addSample(long requestNanos, long leaderNanos, long replyNanos) {
+        long roundTrip = replyNanos - requestNanos;
+        sampleOffsets[nextSample] = leaderNanos - (requestNanos + roundTrip / 2);
+        sampleRoundTrips[nextSample] = roundTrip;
+        nextSample = (nextSample + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+        while (!pendingCommands.isEmpty()) {
+            pendingCommands.poll().run();
+        }
+    }
+
+    private long toLocalNanos(long leaderNanos) {
+        return leaderNanos - getClockOffsetNanos();
+    }
+
+    private void syncClock() {
+        try {
+            for (int i = 0; isConnected(); i++) {
+                synchronized (out) {
+                    out.writeByte(PlaybackProtocol.TIME_REQUEST);
+                    out.writeLong(System.nanoTime());
+                    out.flush();
+                }
+                Thread.sleep(i < SAMPLE_COUNT ? INITIAL_SYNC_INTERVAL_MILLIS : SYNC_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            // Closing
+        } catch (IOException ex) {
+            if (isConnected()) {
+                Logger.getLogger(PlaybackFollower.class.getName()).log(Level.WARNING, "Clock sync failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Runs a start/stop command now if the clock is synchronized, otherwise once the first sample arrives
+     * (the leader may send commands as soon as we say hello).  Held commands run in the order they
+     * arrived, so e.g. a stop sent after a start still stops it.
+     */
+    private synchronized void runCommand(Runnable command) {
+        if (sampleCount > 0) {
+            command.run();
+        } else {
+            pendingCommands.add(command);
+        }
+    }
+
+    private void readCommands() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case PlaybackProtocol.TIME_REPLY:
+                        long requestNanos = in.readLong();
+                        long leaderNanos = in.readLong();
+                        addSample(requestNanos, leaderNanos, System.nanoTime());
+                        break;
+                    case PlaybackProtocol.TIMELINE:
+                        FrameTimeline timeline = FrameTimeline.readFrom(in);
+                        player.setTimeline(timeline);
+                        Logger.getLogger(PlaybackFollower.class.getName()).log(Level.INFO, "Received timeline with {0} frames", timeline.size());
+                        break;
+                    case PlaybackProtocol.START:
+                        long startNanos = in.readLong();
+                        long positionMicros = in.readLong();
+                        runCommand(() -> player.start(toLocalNanos(startNanos), positionMicros));
+                        break;
+                    case PlaybackProtocol.STOP:
+                        long stopNanos = in.readLong();
+                        runCommand(() -> player.stopAt(toLocalNanos(stopNanos)));
+                        break;
+                    default:
+                        throw new IOException("Unexpected message type " + type);
+                }
+            }
+        } catch (EOFException | SocketException ex) {
+            // Keep playing what we have; a network blip shouldn't stop the show
+            Logger.getLogger(PlaybackFollower.class.getName()).log(Level.WARNING, "Disconnected from leader {0}:{1}", new Object[]{host, port});
+        } catch (IOException ex) {
+            Logger.getLogger(PlaybackFollower.class.getName()).log(Level.WARNING, "Error reading from leader", ex);
+        } finally {
+            closeSocket();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            // Already closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSocket();
+        if (syncThread != null) {
+            syncThread.interrupt();
+        }
+        player.stop();
+    }
+}
@@ -0,0 +1,269 @@
+package com.moppy.core.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives synchronized playback across several hosts.  Followers ({@link PlaybackFollower}) connect over
+ * TCP, synchronize their clocks to this host's, and receive the {@link FrameTimeline} to play.  Start,
+ * seek and stop commands name an instant slightly in the future so every host acts at the same moment.
+ *
+ * The leader can also play its own share of the timeline through a local {@link TimelinePlayer}.
+ */
+public class PlaybackLeader implements Closeable {
+
+    public static final int DEFAULT_PORT = 30996;
+
+    private final int port;
+    private final List<FollowerSession> followers = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private TimelinePlayer localPlayer = null;
+
+    private FrameTimeline timeline = null;
+    private boolean playing = false;
+    private long playStartNanos;
+    private long playPositionMicros;
+
+    public PlaybackLeader() {
+        this(DEFAULT_PORT);
+    }
+
+    public PlaybackLeader(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts listening for followers.
+     */
+    public void open() throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptThread = new Thread(this::acceptFollowers, "PlaybackLeader-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Sets a player for the devices attached to this host (may be null).
+     */
+    public synchronized void setLocalPlayer(TimelinePlayer localPlayer) {
+        this.localPlayer = localPlayer;
+    }
+
+    /**
+     * Sends a timeline to all followers (and to any that join later), stopping current playback.
+     */
+    public synchronized void loadTimeline(FrameTimeline timeline) {
+        this.timeline = timeline;
+        playing = false;
+        if (localPlayer != null) {
+            localPlayer.setTimeline(timeline);
+        }
+        followers.forEach(follower -> follower.sendTimeline(timeline));
+    }
+
+    /**
+     * Starts (or seeks) playback on every host.
+     *
+     * @param positionMicros Position in the timeline to play from
+     * @param delayMillis How far in the future to start; must comfortably exceed the slowest follower's round trip
+     * @return Leader System.nanoTime() at which playback starts
+     */
+    public synchronized long start(long positionMicros, long delayMillis) {
+        if (timeline == null) {
+            throw new IllegalStateException("No timeline loaded");
+        }
+        playStartNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        playPositionMicros = positionMicros;
+        playing = true;
+        followers.forEach(follower -> follower.sendStart(playStartNanos, positionMicros));
+        if (localPlayer != null) {
+            localPlayer.start(playStartNanos, positionMicros);
+        }
+        return playStartNanos;
+    }
+
+    /**
+     * Stops playback on every host.
+     */
+    public synchronized void stop(long delayMillis) {
+        long stopNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        playing = false;
+        followers.forEach(follower -> follower.sendStop(stopNanos));
+        if (localPlayer != null) {
+            localPlayer.stopAt(stopNanos);
+        }
+    }
+
+    /**
+     * @return Current position in the timeline if playing, otherwise -1
+     */
+    public synchronized long getPositionMicros() {
+        if (!playing) {
+            return -1;
+        }
+        return playPositionMicros + Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - playStartNanos));
+    }
+
+    /**
+     * @return Names of the followers currently connected
+     */
+    public List<String> getFollowers() {
+        List<String> names = new ArrayList<>();
+        followers.forEach(follower -> names.add(follower.name));
+        return names;
+    }
+
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                FollowerSession follower = new FollowerSession(socket);
+                followers.add(follower);
+                Thread sessionThread = new Thread(follower, "PlaybackLeader-" + socket.getRemoteSocketAddress());
+                sessionThread.setDaemon(true);
+                sessionThread.start();
+            } catch (SocketException ex) {
+                // Socket was closed
+            } catch (IOException ex) {
+                Logger.getLogger(PlaybackLeader.class.getName()).log(Level.WARNING, "Failed to accept follower", ex);
+            }
+        }
+    }
+
+    private synchronized void followerJoined(FollowerSession follower) {
+        if (timeline == null) {
+            return;
+        }
+        follower.sendTimeline(timeline);
+        if (playing) {
+            // Join in at a point far enough ahead for the follower to get ready
+            long joinNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            follower.sendStart(joinNanos, playPositionMicros + TimeUnit.NANOSECONDS.toMicros(joinNanos - playStartNanos));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (FollowerSession follower : followers) {
+            follower.close();
+        }
+        followers.clear();
+    }
+
+    /**
+     * Connection to a single follower.  Reads requests on its own thread; writes come from whichever
+     * thread issues a command.
+     */
+    private class FollowerSession implements Runnable {
+
+        private final Socket socket;
+        private final DataOutputStream out;
+        private String name;
+
+        FollowerSession(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.name = socket.getRemoteSocketAddress().toString();
+        }
+
+        @Override
+        public void run() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == PlaybackProtocol.TIME_REQUEST) {
+                        long followerNanos = in.readLong();
+                        long leaderNanos = System.nanoTime();
+                        synchronized (out) {
+                            out.writeByte(PlaybackProtocol.TIME_REPLY);
+                            out.writeLong(followerNanos);
+                            out.writeLong(leaderNanos);
+                            out.flush();
+                        }
+                    } else if (type == PlaybackProtocol.HELLO) {
+                        int version = in.readInt();
+                        name = in.readUTF();
+                        if (version != PlaybackProtocol.VERSION) {
+                            throw new IOException(String.format("Follower %s speaks protocol version %s", name, version));
+                        }
+                        Logger.getLogger(PlaybackLeader.class.getName()).log(Level.INFO, "Follower joined: {0}", name);
+                        followerJoined(this);
+                    } else {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                }
+            } catch (EOFException | SocketException ex) {
+                Logger.getLogger(PlaybackLeader.class.getName()).log(Level.INFO, "Follower left: {0}", name);
+            } catch (IOException ex) {
+                Logger.getLogger(PlaybackLeader.class.getName()).log(Level.WARNING, "Dropping follower " + name, ex);
+            } finally {
+                followers.remove(this);
+                close();
+            }
+        }
+
+        void sendTimeline(FrameTimeline timeline) {
+            send(() -> {
+                out.writeByte(PlaybackProtocol.TIMELINE);
+                timeline.writeTo(out);
+            });
+        }
+
+        void sendStart(long leaderStartNanos, long positionMicros) {
+            send(() -> {
+                out.writeByte(PlaybackProtocol.START);
+                out.writeLong(leaderStartNanos);
+                out.writeLong(positionMicros);
+            });
+        }
+
+        void sendStop(long leaderStopNanos) {
+            send(() -> {
+                out.writeByte(PlaybackProtocol.STOP);
+                out.writeLong(leaderStopNanos);
+            });
+        }
+
+        private void send(Write write) {
+            try {
+                synchronized (out) {
+                    write.write();
+                    out.flush();
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(PlaybackLeader.class.getName()).log(Level.WARNING, "Failed to send to follower " + name, ex);
+                close(); // The reader thread will notice and clean up
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // Already closed
+            }
+        }
+    }
+
+    private interface Write {
+        void write() throws IOException;
+    }
+}
@@ -0,0 +1,28 @@
+package com.moppy.core.distributed;
+
+/**
+ * Message types exchanged between a {@link PlaybackLeader} and its {@link PlaybackFollower}s.
+ *
+ * Each message is a type byte followed by its fields, written with DataOutputStream.  Instants are
+ * always on the leader's System.nanoTime() clock; followers translate them using their clock offset.
+ */
+final class PlaybackProtocol {
+
+    static final int VERSION = 1;
+
+    /** Follower to leader: [int version][UTF name] */
+    static final byte HELLO = 1;
+    /** Follower to leader: [long follower nanos] */
+    static final byte TIME_REQUEST = 2;
+    /** Leader to follower: [long follower nanos from the request][long leader nanos] */
+    static final byte TIME_REPLY = 3;
+    /** Leader to follower: a serialized {@link FrameTimeline} */
+    static final byte TIMELINE = 4;
+    /** Leader to follower: [long leader start nanos][long position micros] */
+    static final byte START = 5;
+    /** Leader to follower: [long leader stop nanos] */
+    static final byte STOP = 6;
+
+    private PlaybackProtocol() {
+    }
+}
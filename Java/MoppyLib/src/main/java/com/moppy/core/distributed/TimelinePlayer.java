@@ -0,0 +1,169 @@
+package com.moppy.core.distributed;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the frames of a {@link FrameTimeline} to a NetworkBridge at the right moments, measured from a
+ * start instant on this JVM's {@link System#nanoTime()} clock.  Optionally only frames for a given set of
+ * device addresses are sent, so that several hosts can share one timeline.
+ */
+public class TimelinePlayer {
+
+    private final NetworkBridge<?> bridge;
+    private final boolean[] ownedAddresses = new boolean[256];
+    private volatile FrameTimeline timeline = null;
+
+    private Thread playThread = null;
+    private volatile int generation = 0;
+    private volatile long stopAtNanos = Long.MAX_VALUE;
+
+    private long framesPlayed = 0;
+    private long totalLatenessNanos = 0;
+    private long maxLatenessNanos = 0;
+
+    /**
+     * @param bridge Bridge to send frames to
+     * @param ownedDeviceAddresses Device addresses this player is responsible for, or empty to play everything
+     */
+    public TimelinePlayer(NetworkBridge<?> bridge, Collection<Integer> ownedDeviceAddresses) {
+        this.bridge = bridge;
+        if (ownedDeviceAddresses.isEmpty()) {
+            Arrays.fill(ownedAddresses, true);
+        } else {
+            ownedDeviceAddresses.forEach(address -> ownedAddresses[address & 0xff] = true);
+        }
+        ownedAddresses[MoppyMessage.SYSTEM_ADDRESS] = true; // System messages are for everyone
+    }
+
+    /**
+     * Replaces the timeline, stopping any current playback.
+     */
+    public synchronized void setTimeline(FrameTimeline timeline) {
+        stopAt(System.nanoTime());
+        this.timeline = timeline;
+    }
+
+    public FrameTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Starts (or restarts, when seeking) playback.
+     *
+     * @param startNanos Local System.nanoTime() at which the frame at positionMicros should be sent
+     * @param positionMicros Position in the timeline to start from
+     */
+    public synchronized void start(long startNanos, long positionMicros) {
+        FrameTimeline current = timeline;
+        if (current == null) {
+            throw new IllegalStateException("No timeline loaded");
+        }
+        boolean wasPlaying = isPlaying();
+        int playGeneration = ++generation;
+        stopAtNanos = Long.MAX_VALUE;
+        if (playThread != null) {
+            LockSupport.unpark(playThread);
+        }
+        playThread = new Thread(() -> play(current, playGeneration, startNanos, positionMicros, wasPlaying), "TimelinePlayer");
+        playThread.setDaemon(true);
+        playThread.start();
+    }
+
+    /**
+     * Stops playback at the given local instant, silencing all devices.
+     */
+    public synchronized void stopAt(long stopNanos) {
+        stopAtNanos = stopNanos;
+        if (playThread != null) {
+            LockSupport.unpark(playThread);
+        }
+    }
+
+    public void stop() {
+        stopAt(System.nanoTime());
+    }
+
+    public synchronized boolean isPlaying() {
+        return playThread != null && playThread.isAlive();
+    }
+
+    private void play(FrameTimeline playing, int playGeneration, long startNanos, long positionMicros, boolean silenceFirst) {
+        try {
+            if (silenceFirst) {
+                // Seeking: notes from the old position would otherwise keep sounding
+                if (!waitUntil(startNanos, playGeneration)) {
+                    return;
+                }
+                bridge.sendMessage(MoppyMessage.SYS_STOP);
+            }
+
+            for (int i = playing.indexAt(positionMicros); i < playing.size(); i++) {
+                byte[] frame = playing.getFrame(i);
+                if (!ownedAddresses[frame[1] & 0xff]) {
+                    continue;
+                }
+                long dueNanos = startNanos + TimeUnit.MICROSECONDS.toNanos(playing.getTimeMicros(i) - positionMicros);
+                if (!waitUntil(dueNanos, playGeneration)) {
+                    return;
+                }
+                bridge.sendMessage(MoppyMessageFactory.fromBytes(frame));
+                recordLateness(System.nanoTime() - dueNanos);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TimelinePlayer.class.getName()).log(Level.WARNING, "Failed to send timeline frame", ex);
+        }
+    }
+
+    /**
+     * @return false if playback was stopped or restarted while waiting
+     */
+    private boolean waitUntil(long dueNanos, int playGeneration) throws IOException {
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+            if (generation != playGeneration) {
+                return false;
+            }
+            long untilStop = stopAtNanos - System.nanoTime();
+            if (untilStop <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(Math.min(waitNanos, untilStop));
+        }
+
+        if (generation != playGeneration) {
+            return false;
+        }
+        if (stopAtNanos - System.nanoTime() <= 0) {
+            bridge.sendMessage(MoppyMessage.SYS_STOP);
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void recordLateness(long latenessNanos) {
+        framesPlayed++;
+        totalLatenessNanos += Math.max(0, latenessNanos);
+        maxLatenessNanos = Math.max(maxLatenessNanos, latenessNanos);
+    }
+
+    public synchronized long getFramesPlayed() {
+        return framesPlayed;
+    }
+
+    public synchronized long getMeanLatenessMicros() {
+        return framesPlayed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatenessNanos / framesPlayed);
+    }
+
+    public synchronized long getMaxLatenessMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatenessNanos);
+    }
+}
@@ -0,0 +1,222 @@
+package com.moppy.core.events.mapper;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.device.DeviceDescriptor;
+import com.moppy.core.status.StatusConsumer;
+import com.moppy.core.status.StatusUpdate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Splits the drives of every discovered device between the MIDI channels of the loaded sequence.
+ *
+ * Each used channel first gets one drive, then drives go to the channels with the most unmet polyphony
+ * until every channel can play its busiest chord without stealing.  Any drives left over are shared out
+ * by note count.  Channels are laid out across the drives from lowest to highest register, and each
+ * channel's notes are placed by its own {@link VoiceAllocator}.
+ *
+ * The plan is rebuilt whenever a sequence is loaded or the set of devices changes.  Before a sequence is
+ * loaded, drives are split evenly between all 16 channels.
+ */
+public class AutoChannelMapper extends MIDIEventMapper implements StatusConsumer {
+
+    private static final int CHANNELS = ChannelUsage.CHANNELS;
+
+    private final Supplier<? extends Collection<DeviceDescriptor>> deviceSource;
+    private final MIDIEventMapper passThrough = MIDIEventMapper.defaultMapper((byte)0);
+
+    private ChannelUsage usage;
+    private volatile VoiceAllocator[] channelAllocators = new VoiceAllocator[CHANNELS];
+    private volatile int shortfall = 0;
+    private volatile String planDescription = "";
+    private volatile Consumer<MoppyMessage> stopSender = stop -> {};
+
+    public AutoChannelMapper(Supplier<? extends Collection<DeviceDescriptor>> deviceSource) {
+        this.deviceSource = deviceSource;
+        replan();
+    }
+
+    @Override
+    public void receiveUpdate(StatusUpdate update) {
+        switch (update.getType()) {
+            case SEQUENCE_LOAD:
+                synchronized (this) {
+                    usage = ChannelUsage.analyze((Sequence)update.getData().get());
+                }
+                replan();
+                break;
+            case NET_DEVICES_CHANGED:
+                replan();
+                break;
+        }
+    }
+
+    /**
+     * @param stopSender Sends stops for the notes still sounding on the old plan when it's replaced
+     * @see VoiceAllocator#setStopSender(Consumer)
+     */
+    public synchronized void setStopSender(Consumer<MoppyMessage> stopSender) {
+        this.stopSender = stopSender;
+        for (VoiceAllocator allocator : channelAllocators) {
+            if (allocator != null) {
+                allocator.setStopSender(stopSender);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the channel to drive plan from the current devices and sequence.  Notes sounding on the
+     * old plan are stopped, since their note-offs will be mapped by the new one.
+     */
+    public synchronized void replan() {
+        List<DeviceDescriptor> devices = new ArrayList<>(deviceSource.get());
+        devices.sort(Comparator.comparingInt(d -> d.getDeviceAddress() & 0xff));
+        int driveCount = 0;
+        for (DeviceDescriptor device : devices) {
+            driveCount += Math.max(0, device.getMaxSubAddress() - device.getMinSubAddress() + 1);
+        }
+        byte[] driveDevices = new byte[driveCount];
+        byte[] driveSubAddresses = new byte[driveCount];
+        int drive = 0;
+        for (DeviceDescriptor device : devices) {
+            for (int sub = device.getMinSubAddress(); sub <= device.getMaxSubAddress(); sub++) {
+                driveDevices[drive] = device.getDeviceAddress();
+                driveSubAddresses[drive++] = (byte)sub;
+            }
+        }
+
+        int[] peak = new int[CHANNELS];
+        int[] notes = new int[CHANNELS];
+        int[] lowest = new int[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            peak[c] = usage == null ? 1 : usage.getPeakPolyphony(c);
+            notes[c] = usage == null ? 1 : usage.getNoteCount(c);
+            lowest[c] = usage == null ? c : usage.getLowestNote(c);
+        }
+        int[] assigned = assignDrives(driveCount, peak, notes);
+
+        // Lay channels out from the lowest register up, giving each a contiguous run of drives
+        VoiceAllocator[] allocators = new VoiceAllocator[CHANNELS];
+        StringBuilder description = new StringBuilder();
+        int missing = 0;
+        int next = 0;
+        for (int c : IntStream.range(0, CHANNELS).boxed().sorted(Comparator.comparingInt(c -> lowest[c])).mapToInt(c -> c).toArray()) {
+            missing += Math.max(0, peak[c] - assigned[c]);
+            if (assigned[c] == 0) {
+                if (notes[c] > 0 && usage != null) {
+                    description.append(String.format("Channel %d: no drives (peak %d)%n", c + 1, peak[c]));
+                }
+                continue;
+            }
+            allocators[c] = new VoiceAllocator(VoiceAllocator.StealPolicy.OLDEST);
+            allocators[c].setStopSender(stopSender);
+            allocators[c].setVoices(Arrays.copyOfRange(driveDevices, next, next + assigned[c]),
+                    Arrays.copyOfRange(driveSubAddresses, next, next + assigned[c]));
+            description.append(String.format("Channel %d: %d drives (peak %d) from device %d sub-address %d%n",
+                    c + 1, assigned[c], peak[c], driveDevices[next], driveSubAddresses[next]));
+            next += assigned[c];
+        }
+
+        VoiceAllocator[] oldAllocators = channelAllocators;
+        channelAllocators = allocators;
+        for (VoiceAllocator oldAllocator : oldAllocators) {
+            if (oldAllocator != null) {
+                oldAllocator.reset();
+            }
+        }
+        shortfall = missing;
+        planDescription = description.toString();
+        if (missing > 0 && usage != null) {
+            Logger.getLogger(AutoChannelMapper.class.getName()).log(Level.WARNING,
+                    "{0} drives short of the sequence''s peak polyphony; some notes will steal drives", missing);
+        }
+    }
+
+    /**
+     * @return Number of drives each channel gets
+     */
+    private static int[] assignDrives(int driveCount, int[] peak, int[] notes) {
+        int[] assigned = new int[CHANNELS];
+        int remaining = driveCount;
+
+        // One drive for each used channel, busiest channels first
+        for (int c : IntStream.range(0, CHANNELS).boxed().sorted(Comparator.comparingInt(c -> -notes[c])).mapToInt(c -> c).toArray()) {
+            if (remaining > 0 && notes[c] > 0) {
+                assigned[c] = 1;
+                remaining--;
+            }
+        }
+
+        // Then cover peak polyphony, largest gap first
+        while (remaining > 0) {
+            int best = -1;
+            for (int c = 0; c < CHANNELS; c++) {
+                int gap = peak[c] - assigned[c];
+                if (gap > 0 && (best < 0 || gap > peak[best] - assigned[best]
+                        || (gap == peak[best] - assigned[best] && notes[c] > notes[best]))) {
+                    best = c;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            assigned[best]++;
+            remaining--;
+        }
+
+        // Spare drives go to the channels with the most notes per drive, giving the allocator room to rest drives
+        while (remaining > 0) {
+            int best = -1;
+            for (int c = 0; c < CHANNELS; c++) {
+                if (assigned[c] > 0 && (best < 0 || (long)notes[c] * assigned[best] > (long)notes[best] * assigned[c])) {
+                    best = c;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            assigned[best]++;
+            remaining--;
+        }
+        return assigned;
+    }
+
+    /**
+     * @return How many more drives the current plan would need to play every chord without stealing
+     */
+    public int getShortfall() {
+        return shortfall;
+    }
+
+    /**
+     * @return One line per channel describing the drives it was given
+     */
+    public String getPlanDescription() {
+        return planDescription;
+    }
+
+    @Override
+    public MoppyMessage mapEvent(MidiMessage event) {
+        if (!(event instanceof ShortMessage)) {
+            return passThrough.mapEvent(event); // Moppy system-exclusive messages
+        }
+
+        ShortMessage midiMessage = (ShortMessage)event;
+        VoiceAllocator allocator = channelAllocators[midiMessage.getChannel()];
+        if (allocator == null) {
+            return null; // This channel didn't get any drives
+        }
+        return VoiceAllocatingMapper.mapToVoice(allocator, midiMessage);
+    }
+}
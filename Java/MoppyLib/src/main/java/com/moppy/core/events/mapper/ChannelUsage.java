@@ -0,0 +1,99 @@
+package com.moppy.core.events.mapper;
+
+import java.util.Arrays;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Per-channel note statistics for a Sequence: how many notes sound at once at the busiest moment,
+ * how many notes there are in total, and the range they cover.
+ */
+public class ChannelUsage {
+
+    public static final int CHANNELS = 16;
+
+    private final PolyphonyCounter polyphony = new PolyphonyCounter();
+    private final int[] noteCount = new int[CHANNELS];
+    private final int[] lowestNote = new int[CHANNELS];
+    private final int[] highestNote = new int[CHANNELS];
+
+    private ChannelUsage() {
+        Arrays.fill(lowestNote, Integer.MAX_VALUE);
+        Arrays.fill(highestNote, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Walks every track of the sequence in tick order.  A note retriggered while it's still sounding is
+     * counted once, since it would be replayed on the same drive.
+     */
+    public static ChannelUsage analyze(Sequence sequence) {
+        // Gather every track's note events, packed so a single sort puts them in playback order
+        int events = 0;
+        for (Track track : sequence.getTracks()) {
+            events += track.size();
+        }
+        long[] packed = new long[events];
+        int count = 0;
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (!(event.getMessage() instanceof ShortMessage)) {
+                    continue;
+                }
+                ShortMessage message = (ShortMessage) event.getMessage();
+                boolean noteOn = message.getCommand() == ShortMessage.NOTE_ON && message.getData2() > 0;
+                boolean noteOff = message.getCommand() == ShortMessage.NOTE_OFF
+                        || (message.getCommand() == ShortMessage.NOTE_ON && message.getData2() == 0);
+                if (noteOn || noteOff) {
+                    packed[count++] = PolyphonyCounter.pack(event.getTick(), noteOn, message.getChannel(),
+                            message.getData1());
+                }
+            }
+        }
+        Arrays.sort(packed, 0, count);
+
+        ChannelUsage usage = new ChannelUsage();
+        for (int i = 0; i < count; i++) {
+            if (PolyphonyCounter.isNoteOn(packed[i])) {
+                int channel = PolyphonyCounter.channelOf(packed[i]);
+                int note = PolyphonyCounter.noteOf(packed[i]);
+                usage.noteCount[channel]++;
+                usage.lowestNote[channel] = Math.min(usage.lowestNote[channel], note);
+                usage.highestNote[channel] = Math.max(usage.highestNote[channel], note);
+            }
+            usage.polyphony.play(packed[i]);
+        }
+        return usage;
+    }
+
+    /**
+     * @return Most notes sounding at once on the channel (0 if the channel is unused)
+     */
+    public int getPeakPolyphony(int channel) {
+        return polyphony.getPeak(channel);
+    }
+
+    public int getNoteCount(int channel) {
+        return noteCount[channel];
+    }
+
+    /**
+     * @return Lowest note played on the channel, or -1 if the channel is unused
+     */
+    public int getLowestNote(int channel) {
+        return noteCount[channel] == 0 ? -1 : lowestNote[channel];
+    }
+
+    /**
+     * @return Highest note played on the channel, or -1 if the channel is unused
+     */
+    public int getHighestNote(int channel) {
+        return noteCount[channel] == 0 ? -1 : highestNote[channel];
+    }
+
+    public boolean isUsed(int channel) {
+        return noteCount[channel] > 0;
+    }
+}
@@ -11,9 +11,9 @@ import org.graalvm.polyglot.HostAccess;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Value;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.MidiMessage;
@@ -29,8 +29,16 @@ public class MIDIScriptMapper extends MIDIEventMapper {
     private static final Context SCRIPT_CONTEXT = Context.newBuilder("js").allowHostAccess(HostAccess.ALL).build();
     private final Value localBindings = SCRIPT_CONTEXT.getBindings("js");
 
-    private final HashMap<Integer, Integer> currentNotes = new HashMap<>(); // Sub-Address to Note map
-    private int nextOpenRoundRobinSubAddress = 0;
+    // The bindings are shared by every mapper, so each binds its own utility functions before running scripts
+    private final Function<Integer, Integer> nextRoundRobinSubAddressFunction = this::nextRoundRobinSubAddress;
+    private final Supplier<Integer> voiceDeviceAddressFunction = this::voiceDeviceAddress;
+    private final Supplier<Integer> voiceSubAddressFunction = this::voiceSubAddress;
+
+    private final VoiceAllocator roundRobinAllocator = new VoiceAllocator(VoiceAllocator.StealPolicy.OLDEST);
+    private final VoiceAllocator voiceAllocator = new VoiceAllocator(VoiceAllocator.StealPolicy.OLDEST);
+    private int currentVoice; // Voice chosen for the event being mapped (resolved at most once per event)
+    private boolean voiceResolved;
+    private boolean checkingScript; // Sample notes don't take voices
 
     private String conditionScript = ConditionScripts.ALL_EVENTS.toString();
     private String deviceAddressScript = DeviceAddressScripts.DEVICE_ONE.toString();
@@ -59,18 +67,37 @@ public class MIDIScriptMapper extends MIDIEventMapper {
         localBindings.putMember("v", 127);
     }
 
-    public MIDIScriptMapper() {
-        setDefaultBindings();
+    private void bindUtilityFunctions() {
+        localBindings.putMember("nextRoundRobinSubAddress", nextRoundRobinSubAddressFunction);
+        localBindings.putMember("voiceDeviceAddress", voiceDeviceAddressFunction);
+        localBindings.putMember("voiceSubAddress", voiceSubAddressFunction);
+    }
 
-        // Setup utility functions
-        localBindings.putMember("nextRoundRobinSubAddress", (Function<Integer, Integer>)this::nextRoundRobinSubAddress);
+    public MIDIScriptMapper() {
+        synchronized (SCRIPT_CONTEXT) {
+            setDefaultBindings();
+            bindUtilityFunctions();
+        }
     }
 
+    /**
+     * The script context can only be used by one thread at a time, so mappers on different threads (e.g. one
+     * playing and one analysing a song) take turns event by event.
+     */
     @Override
     public MoppyMessage mapEvent(MidiMessage event) {
+        synchronized (SCRIPT_CONTEXT) {
+            bindUtilityFunctions();
+            return mapScriptEvent(event);
+        }
+    }
+
+    private MoppyMessage mapScriptEvent(MidiMessage event) {
         if (event instanceof ShortMessage) {
             ShortMessage midiMessage = (ShortMessage)event;
 
+            voiceResolved = false;
+
             // Bind message variables
             localBindings.putMember("c", midiMessage.getChannel());
             localBindings.putMember("midiCommand", midiMessage.getCommand());
@@ -88,11 +115,11 @@ public class MIDIScriptMapper extends MIDIEventMapper {
                     case ShortMessage.NOTE_ON:
                         if (midiMessage.getData2() == 0) {
                             // For zero-velocity notes, turn the note off
-                            return MoppyMessageFactory.deviceStopNote(resolveDeviceId(), resolveSubAddress(), resolveNote());
+                            return unlessNoVoice(MoppyMessageFactory.deviceStopNote(resolveDeviceId(), resolveSubAddress(), resolveNote()));
                         }
-                        return MoppyMessageFactory.devicePlayNote(resolveDeviceId(), resolveSubAddress(), resolveNote(), (byte)midiMessage.getData2());
+                        return unlessNoVoice(MoppyMessageFactory.devicePlayNote(resolveDeviceId(), resolveSubAddress(), resolveNote(), (byte)midiMessage.getData2()));
                     case ShortMessage.NOTE_OFF:
-                        return MoppyMessageFactory.deviceStopNote(resolveDeviceId(), resolveSubAddress(), resolveNote());
+                        return unlessNoVoice(MoppyMessageFactory.deviceStopNote(resolveDeviceId(), resolveSubAddress(), resolveNote()));
                     case ShortMessage.PITCH_BEND:
                         /*
                         MIDI pitch bends are weird.  This next line converts the two 7-bit pitch bend values
@@ -100,7 +127,7 @@ public class MIDIScriptMapper extends MIDIEventMapper {
                         short where 0 = no bend, and with a range of -8192 to 8191
                         */
                         short pitchBend = (short)(((midiMessage.getData2() << 7) + midiMessage.getData1()) - 8192);
-                        return MoppyMessageFactory.devicePitchBend(resolveDeviceId(), resolveSubAddress(), pitchBend);
+                        return unlessNoVoice(MoppyMessageFactory.devicePitchBend(resolveDeviceId(), resolveSubAddress(), pitchBend));
                 }
             } catch (PolyglotException | ClassCastException ex) {
                 Logger.getLogger(MIDIScriptMapper.class.getName()).log(Level.WARNING, null, ex);
@@ -156,43 +183,50 @@ public class MIDIScriptMapper extends MIDIEventMapper {
     // Setters will attempt to evaluate the new script before setting it.
 
     public void setConditionScript(String conditionScript) throws PolyglotException, NullPointerException {
-        setDefaultBindings();
-        boolean checkOutput = SCRIPT_CONTEXT.eval("js", conditionScript).asBoolean();
-        setLowBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", conditionScript).asBoolean();
-        setHighBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", conditionScript).asBoolean();
-        this.conditionScript = conditionScript;
+        synchronized (SCRIPT_CONTEXT) {
+            checkScript(conditionScript, Value::asBoolean);
+            this.conditionScript = conditionScript;
+        }
     }
 
     public void setDeviceAddressScript(String deviceAddressScript) throws PolyglotException, NullPointerException {
-        setDefaultBindings();
-        byte checkOutput = SCRIPT_CONTEXT.eval("js", deviceAddressScript).asByte();
-        setLowBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", deviceAddressScript).asByte();
-        setHighBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", deviceAddressScript).asByte();
-        this.deviceAddressScript = deviceAddressScript;
+        synchronized (SCRIPT_CONTEXT) {
+            checkScript(deviceAddressScript, Value::asByte);
+            this.deviceAddressScript = deviceAddressScript;
+        }
     }
 
     public void setSubAddressScript(String subAddressScript) throws PolyglotException, NullPointerException {
-        setDefaultBindings();
-        byte checkOutput = SCRIPT_CONTEXT.eval("js", subAddressScript).asByte();
-        setLowBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", subAddressScript).asByte();
-        setHighBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", subAddressScript).asByte();
-        this.subAddressScript = subAddressScript;
+        synchronized (SCRIPT_CONTEXT) {
+            checkScript(subAddressScript, Value::asByte);
+            this.subAddressScript = subAddressScript;
+        }
     }
 
     public void setNoteScript(String noteScript) throws PolyglotException, NullPointerException {
-        setDefaultBindings();
-        byte checkOutput = SCRIPT_CONTEXT.eval("js", noteScript).asByte();
-        setLowBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", noteScript).asByte();
-        setHighBindings();
-        checkOutput = SCRIPT_CONTEXT.eval("js", noteScript).asByte();
-        this.noteScript = noteScript;
+        synchronized (SCRIPT_CONTEXT) {
+            checkScript(noteScript, Value::asByte);
+            this.noteScript = noteScript;
+        }
+    }
+
+    /**
+     * Evaluates a script for a few sample notes, so one that fails is rejected before it's used.  The
+     * samples don't allocate voices, which would otherwise leave drives looking busy.
+     */
+    private void checkScript(String script, Consumer<Value> checkOutput) {
+        checkingScript = true;
+        try {
+            setDefaultBindings();
+            bindUtilityFunctions();
+            checkOutput.accept(SCRIPT_CONTEXT.eval("js", script));
+            setLowBindings();
+            checkOutput.accept(SCRIPT_CONTEXT.eval("js", script));
+            setHighBindings();
+            checkOutput.accept(SCRIPT_CONTEXT.eval("js", script));
+        } finally {
+            checkingScript = false;
+        }
     }
 
     ////
@@ -200,27 +234,67 @@ public class MIDIScriptMapper extends MIDIEventMapper {
     ////
 
     private int nextRoundRobinSubAddress(Integer numberOfChannels) {
-        int incomingNote = localBindings.getMember("n").asInt(); // NOTE: Could be leftover binding from previously handled message! Confirm this event is a NOTE_ON or NOTE_OFF event!
-        if ((localBindings.getMember("midiCommand").asInt()) == ShortMessage.NOTE_ON) {
-            // If this is a note on event, increment the sub address to the next available
-            nextOpenRoundRobinSubAddress = nextOpenRoundRobinSubAddress%numberOfChannels+1;
-            // Set the note in the map so we know what to turn off the next time we get a note off event
-            currentNotes.put(nextOpenRoundRobinSubAddress, incomingNote);
-            return nextOpenRoundRobinSubAddress;
-        } else if ((localBindings.getMember("midiCommand").asInt()) == ShortMessage.NOTE_OFF
-                && currentNotes.containsValue(incomingNote)) {
-            int subAddressToTurnOff = numberOfChannels+1; // Initialize to an address outside the rotation
-
-            // If we're currently playing this note somewhere, figure out where it is, and then remove it from the map
-            for (Entry<Integer, Integer> e : currentNotes.entrySet()) {
-                if (e.getValue().equals(incomingNote)) {
-                    subAddressToTurnOff = e.getKey();
-                    break;
-                }
-            }
-            currentNotes.remove(subAddressToTurnOff);
-            return subAddressToTurnOff;
+        if (roundRobinAllocator.getVoiceCount() != numberOfChannels) {
+            roundRobinAllocator.setVoices((byte)0, numberOfChannels);
         }
-        return numberOfChannels+1; // If it's not a note on or off, push it outside the range (so hopefully it's ignored)
+        int voice = allocateVoice(roundRobinAllocator);
+        // If there's no drive for this note, push it outside the range (so hopefully it's ignored)
+        return voice == VoiceAllocator.NO_VOICE ? numberOfChannels+1 : roundRobinAllocator.getSubAddress(voice);
+    }
+
+    private int voiceDeviceAddress() {
+        int voice = currentVoice();
+        return voice == VoiceAllocator.NO_VOICE ? 0 : voiceAllocator.getDeviceAddress(voice);
+    }
+
+    private int voiceSubAddress() {
+        int voice = currentVoice();
+        return voice == VoiceAllocator.NO_VOICE ? 0 : voiceAllocator.getSubAddress(voice);
+    }
+
+    /**
+     * Both voice functions may be used in one mapping, so only allocate once per event.
+     */
+    private int currentVoice() {
+        if (!voiceResolved) {
+            currentVoice = allocateVoice(voiceAllocator);
+            voiceResolved = true;
+        }
+        return currentVoice;
+    }
+
+    private int allocateVoice(VoiceAllocator allocator) {
+        if (checkingScript) {
+            return VoiceAllocator.NO_VOICE;
+        }
+        int command = localBindings.getMember("midiCommand").asInt();
+        int channel = localBindings.getMember("c").asInt();
+        if (command == ShortMessage.PITCH_BEND) {
+            return allocator.newestVoice(channel);
+        }
+        if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) {
+            return VoiceAllocator.NO_VOICE;
+        }
+        int note = localBindings.getMember("n").asInt();
+        int velocity = localBindings.getMember("v").asInt();
+        if (command == ShortMessage.NOTE_ON && velocity > 0) {
+            return allocator.noteOn(channel, note, velocity);
+        }
+        return allocator.noteOff(channel, note);
+    }
+
+    /**
+     * Drops messages for notes that the voice allocator couldn't place (or that were already stolen).
+     */
+    private MoppyMessage unlessNoVoice(MoppyMessage message) {
+        return voiceResolved && currentVoice == VoiceAllocator.NO_VOICE ? null : message;
+    }
+
+    /**
+     * Allocator behind the voiceDeviceAddress() and voiceSubAddress() script functions.  It has no voices
+     * until the devices to spread notes across are set (e.g. from the NetworkManager's discovered devices).
+     */
+    public VoiceAllocator getVoiceAllocator() {
+        return voiceAllocator;
     }
 }
@@ -0,0 +1,77 @@
+package com.moppy.core.events.mapper;
+
+/**
+ * Counts the notes sounding at once, over the whole song and per channel, as its note-ons and note-offs
+ * are fed in in playback order.  A note retriggered while it's still sounding is counted once, since it
+ * would be replayed on the same drive.
+ *
+ * Events gathered out of order (e.g. track by track) can be {@link #pack packed} so a single sort puts them
+ * in playback order, with note-offs ahead of note-ons on the same tick, then fed in with {@link #play}.
+ */
+public class PolyphonyCounter {
+
+    private final boolean[] sounding = new boolean[ChannelUsage.CHANNELS * 128];
+    private final int[] channelCurrent = new int[ChannelUsage.CHANNELS];
+    private final int[] channelPeak = new int[ChannelUsage.CHANNELS];
+    private int current = 0;
+    private int peak = 0;
+
+    /**
+     * Packs a note event as [tick][on/off][channel][note].
+     */
+    public static long pack(long tick, boolean noteOn, int channel, int note) {
+        return (tick << 12) | ((noteOn ? 1L : 0L) << 11) | ((channel & 0xf) << 7) | (note & 0x7f);
+    }
+
+    public static boolean isNoteOn(long packed) {
+        return (packed & (1L << 11)) != 0;
+    }
+
+    public static int channelOf(long packed) {
+        return (int) (packed >> 7) & 0xf;
+    }
+
+    public static int noteOf(long packed) {
+        return (int) packed & 0x7f;
+    }
+
+    public void play(long packed) {
+        if (isNoteOn(packed)) {
+            noteOn(channelOf(packed), noteOf(packed));
+        } else {
+            noteOff(channelOf(packed), noteOf(packed));
+        }
+    }
+
+    public void noteOn(int channel, int note) {
+        int key = channel * 128 + note;
+        if (!sounding[key]) {
+            sounding[key] = true;
+            channelPeak[channel] = Math.max(channelPeak[channel], ++channelCurrent[channel]);
+            peak = Math.max(peak, ++current);
+        }
+    }
+
+    public void noteOff(int channel, int note) {
+        int key = channel * 128 + note;
+        if (sounding[key]) {
+            sounding[key] = false;
+            channelCurrent[channel]--;
+            current--;
+        }
+    }
+
+    /**
+     * @return Most notes sounding at once across all channels
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return Most notes sounding at once on the channel (0 if the channel is unused)
+     */
+    public int getPeak(int channel) {
+        return channelPeak[channel];
+    }
+}
@@ -0,0 +1,76 @@
+package com.moppy.core.events.mapper;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Maps MIDI notes from any channel onto whichever drive a {@link VoiceAllocator} picks, so a
+ * polyphonic part can be spread across all available drives instead of one drive per channel.
+ *
+ * Pitch bends go to the most recently started note on their channel.
+ */
+public class VoiceAllocatingMapper extends MIDIEventMapper {
+
+    private final VoiceAllocator allocator;
+    private final MIDIEventMapper passThrough = MIDIEventMapper.defaultMapper((byte)0);
+
+    public VoiceAllocatingMapper(VoiceAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public VoiceAllocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public MoppyMessage mapEvent(MidiMessage event) {
+        if (!(event instanceof ShortMessage)) {
+            return passThrough.mapEvent(event); // Moppy system-exclusive messages
+        }
+        return mapToVoice(allocator, (ShortMessage)event);
+    }
+
+    /**
+     * Maps a note or pitch bend onto the voice the allocator picks for it (shared with {@link AutoChannelMapper}).
+     *
+     * @return The message for the voice's drive, or null if there's no voice for it
+     */
+    static MoppyMessage mapToVoice(VoiceAllocator allocator, ShortMessage midiMessage) {
+        int channel = midiMessage.getChannel();
+        int voice;
+        switch (midiMessage.getCommand()) {
+            case ShortMessage.NOTE_ON:
+                if (midiMessage.getData2() == 0) {
+                    // For zero-velocity notes, turn the note off
+                    return stopNote(allocator, channel, midiMessage.getData1());
+                }
+                voice = allocator.noteOn(channel, midiMessage.getData1(), midiMessage.getData2());
+                if (voice == VoiceAllocator.NO_VOICE) {
+                    return null; // No drive free and stealing is disabled
+                }
+                return MoppyMessageFactory.devicePlayNote(allocator.getDeviceAddress(voice), allocator.getSubAddress(voice),
+                        (byte)midiMessage.getData1(), (byte)midiMessage.getData2());
+            case ShortMessage.NOTE_OFF:
+                return stopNote(allocator, channel, midiMessage.getData1());
+            case ShortMessage.PITCH_BEND:
+                voice = allocator.newestVoice(channel);
+                if (voice == VoiceAllocator.NO_VOICE) {
+                    return null;
+                }
+                short pitchBend = (short)(((midiMessage.getData2() << 7) + midiMessage.getData1()) - 8192);
+                return MoppyMessageFactory.devicePitchBend(allocator.getDeviceAddress(voice), allocator.getSubAddress(voice), pitchBend);
+            default:
+                return null;
+        }
+    }
+
+    private static MoppyMessage stopNote(VoiceAllocator allocator, int channel, int note) {
+        int voice = allocator.noteOff(channel, note);
+        if (voice == VoiceAllocator.NO_VOICE) {
+            return null; // The drive was already given to another note
+        }
+        return MoppyMessageFactory.deviceStopNote(allocator.getDeviceAddress(voice), allocator.getSubAddress(voice), (byte)note);
+    }
+}
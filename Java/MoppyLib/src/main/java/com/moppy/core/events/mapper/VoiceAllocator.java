@@ -0,0 +1,349 @@
+package com.moppy.core.events.mapper;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.device.DeviceDescriptor;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Assigns sounding notes to drives ("voices") spread across one or more devices.
+ *
+ * Free voices are handed out in the order they were released, so a drive is never taken from a note
+ * that's still sounding while another drive is idle.  When every voice is busy, one is stolen according
+ * to the {@link StealPolicy}.  Every operation is O(1): notes are found through a (channel, note) table,
+ * and busy voices are kept on intrusive linked lists (overall, per channel and per velocity) stored in
+ * primitive arrays, so nothing is allocated per note.
+ */
+public class VoiceAllocator {
+
+    public enum StealPolicy {
+        /** Take the voice that started sounding longest ago */
+        OLDEST,
+        /** Take the quietest sounding voice (oldest first among equals) */
+        LOWEST_VELOCITY,
+        /** Take the oldest voice playing on the same channel, or the oldest overall if there isn't one */
+        SAME_CHANNEL,
+        /** Never steal; drop the new note instead */
+        NONE
+    }
+
+    public static final int NO_VOICE = -1;
+
+    private static final int CHANNELS = 16;
+    private static final int NOTES = 128;
+
+    private StealPolicy stealPolicy;
+
+    // Per-voice state
+    private byte[] voiceDevice = new byte[0];
+    private byte[] voiceSubAddress = new byte[0];
+    private int[] voiceKey = new int[0]; // channel * NOTES + note, or NO_VOICE if free
+    private int[] voiceVelocity = new int[0];
+
+    // (channel, note) -> voice
+    private final int[] keyVoice = new int[CHANNELS * NOTES];
+
+    // Free voices, oldest release first
+    private int[] freeQueue = new int[0];
+    private int freeHead = 0;
+    private int freeCount = 0;
+
+    private Links allBusy = new Links(0, 1);
+    private Links channelBusy = new Links(0, CHANNELS);
+    private Links velocityBusy = new Links(0, NOTES);
+    private final long[] velocityBits = new long[2]; // Velocities with at least one busy voice
+
+    private long stealCount = 0;
+    private Consumer<MoppyMessage> stopSender = stop -> {};
+
+    public VoiceAllocator(StealPolicy stealPolicy) {
+        this.stealPolicy = stealPolicy;
+        setVoices(new byte[0], new byte[0]);
+    }
+
+    /**
+     * Uses every sub-address of every given device as a voice, releasing all current notes if the set of voices changed.
+     * The order of the devices doesn't matter.
+     */
+    public synchronized void setDevices(Collection<DeviceDescriptor> devices) {
+        int count = 0;
+        for (DeviceDescriptor device : devices) {
+            count += Math.max(0, device.getMaxSubAddress() - device.getMinSubAddress() + 1);
+        }
+        byte[] deviceAddresses = new byte[count];
+        byte[] subAddresses = new byte[count];
+        int voice = 0;
+        for (DeviceDescriptor device : devices) {
+            for (int sub = device.getMinSubAddress(); sub <= device.getMaxSubAddress(); sub++) {
+                deviceAddresses[voice] = device.getDeviceAddress();
+                subAddresses[voice++] = (byte)sub;
+            }
+        }
+        if (voiceSet(deviceAddresses, subAddresses).equals(voiceSet(voiceDevice, voiceSubAddress))) {
+            return; // Nothing changed, so leave sounding notes alone
+        }
+        setVoices(deviceAddresses, subAddresses);
+    }
+
+    /**
+     * Uses sub-addresses 1 to numberOfSubAddresses of a single device as voices, releasing all current notes.
+     */
+    public synchronized void setVoices(byte deviceAddress, int numberOfSubAddresses) {
+        byte[] deviceAddresses = new byte[numberOfSubAddresses];
+        byte[] subAddresses = new byte[numberOfSubAddresses];
+        for (int i = 0; i < numberOfSubAddresses; i++) {
+            deviceAddresses[i] = deviceAddress;
+            subAddresses[i] = (byte)(i + 1);
+        }
+        setVoices(deviceAddresses, subAddresses);
+    }
+
+    /**
+     * Uses the given (device address, sub-address) pairs as voices, releasing all current notes.
+     */
+    public synchronized void setVoices(byte[] deviceAddresses, byte[] subAddresses) {
+        if (deviceAddresses.length != subAddresses.length) {
+            throw new IllegalArgumentException("Every voice needs both a device address and a sub-address");
+        }
+        stopSoundingNotes();
+        int count = deviceAddresses.length;
+        voiceDevice = deviceAddresses;
+        voiceSubAddress = subAddresses;
+        voiceKey = new int[count];
+        voiceVelocity = new int[count];
+        freeQueue = new int[count];
+        allBusy = new Links(count, 1);
+        channelBusy = new Links(count, CHANNELS);
+        velocityBusy = new Links(count, NOTES);
+        reset();
+    }
+
+    /**
+     * Releases every voice without changing the set of voices, stopping any notes still sounding.
+     */
+    public synchronized void reset() {
+        stopSoundingNotes();
+        Arrays.fill(keyVoice, NO_VOICE);
+        Arrays.fill(voiceKey, NO_VOICE);
+        allBusy.clear();
+        channelBusy.clear();
+        velocityBusy.clear();
+        velocityBits[0] = 0;
+        velocityBits[1] = 0;
+        freeHead = 0;
+        freeCount = voiceKey.length;
+        for (int i = 0; i < freeCount; i++) {
+            freeQueue[i] = i;
+        }
+    }
+
+    /**
+     * @param stopSender Sends a stop for each note still sounding when its voice is released by {@link #reset()}
+     * or a change of voices, since no note-off for it will be mapped to that drive any more
+     */
+    public synchronized void setStopSender(Consumer<MoppyMessage> stopSender) {
+        this.stopSender = stopSender;
+    }
+
+    public synchronized void setStealPolicy(StealPolicy stealPolicy) {
+        this.stealPolicy = stealPolicy;
+    }
+
+    public synchronized StealPolicy getStealPolicy() {
+        return stealPolicy;
+    }
+
+    /**
+     * Finds a voice for a new note.  A note that's already sounding on the same channel keeps its voice.
+     *
+     * @return The voice to play the note on, or NO_VOICE if none is available
+     */
+    public synchronized int noteOn(int channel, int note, int velocity) {
+        int key = key(channel, note);
+        int voice = keyVoice[key];
+        if (voice != NO_VOICE) {
+            release(voice); // Retrigger on the same drive
+        } else if (freeCount > 0) {
+            voice = freeQueue[freeHead];
+            freeHead = (freeHead + 1) % freeQueue.length;
+            freeCount--;
+        } else {
+            voice = victim(channel);
+            if (voice == NO_VOICE) {
+                return NO_VOICE;
+            }
+            release(voice);
+            stealCount++;
+        }
+
+        velocity = Math.max(0, Math.min(NOTES - 1, velocity));
+        voiceKey[voice] = key;
+        voiceVelocity[voice] = velocity;
+        keyVoice[key] = voice;
+        allBusy.append(0, voice);
+        channelBusy.append(channel & 0xf, voice);
+        velocityBusy.append(velocity, voice);
+        velocityBits[velocity >> 6] |= 1L << (velocity & 63);
+        return voice;
+    }
+
+    /**
+     * Frees the voice playing a note.
+     *
+     * @return The voice that was playing the note, or NO_VOICE if it isn't sounding (e.g. it was stolen)
+     */
+    public synchronized int noteOff(int channel, int note) {
+        int voice = keyVoice[key(channel, note)];
+        if (voice == NO_VOICE) {
+            return NO_VOICE;
+        }
+        release(voice);
+        int tail = (freeHead + freeCount) % freeQueue.length;
+        freeQueue[tail] = voice;
+        freeCount++;
+        return voice;
+    }
+
+    /**
+     * @return The voice most recently started on a channel, or NO_VOICE if none are sounding (used for pitch bends)
+     */
+    public synchronized int newestVoice(int channel) {
+        return channelBusy.last(channel & 0xf);
+    }
+
+    private int victim(int channel) {
+        switch (stealPolicy) {
+            case OLDEST:
+                return allBusy.first(0);
+            case SAME_CHANNEL:
+                int sameChannel = channelBusy.first(channel & 0xf);
+                return sameChannel != NO_VOICE ? sameChannel : allBusy.first(0);
+            case LOWEST_VELOCITY:
+                int velocity = velocityBits[0] != 0
+                        ? Long.numberOfTrailingZeros(velocityBits[0])
+                        : velocityBits[1] != 0 ? 64 + Long.numberOfTrailingZeros(velocityBits[1]) : NO_VOICE;
+                return velocity == NO_VOICE ? NO_VOICE : velocityBusy.first(velocity);
+            case NONE:
+            default:
+                return NO_VOICE;
+        }
+    }
+
+    /**
+     * Removes a busy voice from every busy list (without returning it to the free queue).
+     */
+    private void release(int voice) {
+        int key = voiceKey[voice];
+        int velocity = voiceVelocity[voice];
+        keyVoice[key] = NO_VOICE;
+        voiceKey[voice] = NO_VOICE;
+        allBusy.remove(0, voice);
+        channelBusy.remove(key / NOTES, voice);
+        velocityBusy.remove(velocity, voice);
+        if (velocityBusy.first(velocity) == NO_VOICE) {
+            velocityBits[velocity >> 6] &= ~(1L << (velocity & 63));
+        }
+    }
+
+    private void stopSoundingNotes() {
+        for (int voice = allBusy.first(0); voice != NO_VOICE; voice = allBusy.next(voice)) {
+            stopSender.accept(MoppyMessageFactory.deviceStopNote(voiceDevice[voice], voiceSubAddress[voice],
+                    (byte)(voiceKey[voice] % NOTES)));
+        }
+    }
+
+    private static Set<Integer> voiceSet(byte[] deviceAddresses, byte[] subAddresses) {
+        Set<Integer> voices = new HashSet<>();
+        for (int i = 0; i < deviceAddresses.length; i++) {
+            voices.add((deviceAddresses[i] & 0xff) << 8 | (subAddresses[i] & 0xff));
+        }
+        return voices;
+    }
+
+    private static int key(int channel, int note) {
+        return (channel & 0xf) * NOTES + (note & 0x7f);
+    }
+
+    public synchronized int getVoiceCount() {
+        return voiceKey.length;
+    }
+
+    public synchronized byte getDeviceAddress(int voice) {
+        return voiceDevice[voice];
+    }
+
+    public synchronized byte getSubAddress(int voice) {
+        return voiceSubAddress[voice];
+    }
+
+    /**
+     * @return Number of notes that have had to take a voice from another sounding note
+     */
+    public synchronized long getStealCount() {
+        return stealCount;
+    }
+
+    /**
+     * Doubly-linked lists of voices, one per key, stored in arrays.  A voice is on at most one list
+     * per Links instance.
+     */
+    private static final class Links {
+        private final int[] prev;
+        private final int[] next;
+        private final int[] head;
+        private final int[] tail;
+
+        Links(int voices, int keys) {
+            prev = new int[voices];
+            next = new int[voices];
+            head = new int[keys];
+            tail = new int[keys];
+            clear();
+        }
+
+        void clear() {
+            Arrays.fill(head, NO_VOICE);
+            Arrays.fill(tail, NO_VOICE);
+        }
+
+        void append(int key, int voice) {
+            prev[voice] = tail[key];
+            next[voice] = NO_VOICE;
+            if (tail[key] != NO_VOICE) {
+                next[tail[key]] = voice;
+            } else {
+                head[key] = voice;
+            }
+            tail[key] = voice;
+        }
+
+        void remove(int key, int voice) {
+            if (prev[voice] != NO_VOICE) {
+                next[prev[voice]] = next[voice];
+            } else {
+                head[key] = next[voice];
+            }
+            if (next[voice] != NO_VOICE) {
+                prev[next[voice]] = prev[voice];
+            } else {
+                tail[key] = prev[voice];
+            }
+        }
+
+        int first(int key) {
+            return head[key];
+        }
+
+        int last(int key) {
+            return tail[key];
+        }
+
+        int next(int voice) {
+            return next[voice];
+        }
+    }
+}
@@ -6,7 +6,8 @@ package com.moppy.core.events.mapper.scripts;
 public enum DeviceAddressScripts {
 
     DEVICE_ONE("Device 1", "1"),
-    ONE_DEVICE_PER_CHANNEL("One Device per Channel", "c+1");
+    ONE_DEVICE_PER_CHANNEL("One Device per Channel", "c+1"),
+    ALLOCATED_VOICE("Allocated Voice (all devices)", "voiceDeviceAddress()");
 
     private final String displayName;
     private final String script;
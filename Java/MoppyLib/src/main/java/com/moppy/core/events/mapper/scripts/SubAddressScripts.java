@@ -6,7 +6,8 @@ package com.moppy.core.events.mapper.scripts;
 public enum SubAddressScripts {
 
     SUB_ADDRESS_PER_CHANNEL("Sub-address per Channel", "c+1"),
-    ROUND_ROBIN("Round Robin (8 drives)", "nextRoundRobinSubAddress(8)");
+    ROUND_ROBIN("Round Robin (8 drives)", "nextRoundRobinSubAddress(8)"),
+    ALLOCATED_VOICE("Allocated Voice (all devices)", "voiceSubAddress()");
 
     private final String displayName;
     private final String script;
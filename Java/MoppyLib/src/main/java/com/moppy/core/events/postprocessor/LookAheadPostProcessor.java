@@ -0,0 +1,121 @@
+package com.moppy.core.events.postprocessor;
+
+import com.moppy.core.comms.ClockSync;
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.util.SharedScheduler;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends device messages ahead of time, wrapped with the time they should be played on the target
+ * device's clock.  This trades a fixed delay of lookAheadMillis for removing network and serial
+ * jitter from note timing.
+ *
+ * Messages for devices that haven't answered a timestamped ping (and so can't be scheduled) are
+ * held back on the host for the same delay and then sent on the given bridge, so every device
+ * plays in step.  System messages are passed through unchanged so stops take effect immediately,
+ * and drop any messages still being held (just as devices drop their scheduled messages).
+ */
+public class LookAheadPostProcessor implements MessagePostProcessor {
+
+    private final MessagePostProcessor delegate;
+    private final ClockSync clockSync;
+    private final NetworkBridge<?> bridge;
+    private volatile int lookAheadMillis;
+
+    // Held messages for unsynchronized devices, in the order they're due
+    private final Deque<HeldMessage> held = new ArrayDeque<>();
+
+    /**
+     * @param delegate Post-processor to apply before scheduling (e.g. volume control)
+     * @param clockSync Source of per-device clock offsets
+     * @param lookAheadMillis How far ahead of their play time messages are sent
+     * @param bridge Bridge to send held-back messages for unsynchronized devices on (the one the
+     * post-processed messages would be sent on)
+     */
+    public LookAheadPostProcessor(MessagePostProcessor delegate, ClockSync clockSync, int lookAheadMillis, NetworkBridge<?> bridge) {
+        this.delegate = delegate;
+        this.clockSync = clockSync;
+        this.lookAheadMillis = lookAheadMillis;
+        this.bridge = bridge;
+    }
+
+    @Override
+    public MoppyMessage postProcess(MoppyMessage message) {
+        MoppyMessage processed = delegate.postProcess(message);
+        if (processed == null) {
+            return null;
+        }
+        if (processed.isSystemMessage()) {
+            synchronized (held) {
+                held.clear(); // Anything still held would play after the stop
+            }
+            return processed;
+        }
+        int delayMillis = lookAheadMillis;
+        if (delayMillis <= 0) {
+            return processed;
+        }
+
+        if (!clockSync.isSynchronized(processed.getDeviceAddress())) {
+            hold(processed, delayMillis);
+            return null; // Sent once it's due
+        }
+
+        int playAtHostMicros = ClockSync.hostMicros() + delayMillis * 1000;
+        return MoppyMessageFactory.deviceScheduled(
+                clockSync.toDeviceMicros(processed.getDeviceAddress(), playAtHostMicros),
+                processed);
+    }
+
+    private void hold(MoppyMessage message, int delayMillis) {
+        synchronized (held) {
+            held.add(new HeldMessage(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), message));
+        }
+        SharedScheduler.schedule(this::sendDue, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends every held message that's due.  Sending while holding the lock keeps messages in order even
+     * when several of these run at once.
+     */
+    private void sendDue() {
+        synchronized (held) {
+            long now = System.nanoTime();
+            while (!held.isEmpty() && held.peekFirst().dueNanos - now <= 0) {
+                try {
+                    bridge.sendMessage(held.pollFirst().message);
+                } catch (IOException ex) {
+                    Logger.getLogger(LookAheadPostProcessor.class.getName()).log(Level.WARNING, "Failed to send held message", ex);
+                }
+            }
+        }
+    }
+
+    public int getLookAheadMillis() {
+        return lookAheadMillis;
+    }
+
+    /**
+     * Messages already being held keep their delay, and later messages are never sent ahead of them.
+     */
+    public void setLookAheadMillis(int lookAheadMillis) {
+        this.lookAheadMillis = lookAheadMillis;
+    }
+
+    private static class HeldMessage {
+        private final long dueNanos;
+        private final MoppyMessage message;
+
+        private HeldMessage(long dueNanos, MoppyMessage message) {
+            this.dueNanos = dueNanos;
+            this.message = message;
+        }
+    }
+}
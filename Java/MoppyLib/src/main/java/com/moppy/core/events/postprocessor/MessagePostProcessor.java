@@ -6,6 +6,10 @@ import com.moppy.core.comms.MoppyMessage;
  * Used for transforming MoppyMessages after mapping (intially used for volume control)
  */
 public interface MessagePostProcessor {
+    /**
+     * @return The message to send, or null if it shouldn't be sent now (e.g. because the post-processor
+     * will send it itself later)
+     */
     public MoppyMessage postProcess(MoppyMessage message);
 
     /**
@@ -0,0 +1,462 @@
+package com.moppy.core.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An index of the MIDI files under some directories, for browsing and searching songs without loading
+ * them.
+ *
+ * Scans run in the background on their own fork/join pool, walking directories and reading files in
+ * parallel.  Files whose size and modification time haven't changed since the last scan aren't read
+ * again, so only the first scan of a large library takes long.  The index is saved to a file after each
+ * scan and loaded when the library is created, so songs can be searched straight away (while a scan
+ * finds what's changed).
+ *
+ * Index layout (gzipped): [8 byte magic][4 byte version][4 byte count] then a record per file as written
+ * by {@link SongInfo}.
+ */
+public class MidiLibrary implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(MidiLibrary.class.getName());
+
+    private static final long MAGIC = 0x4d4f505059494458L; // "MOPPYIDX"
+    private static final int VERSION = 1;
+    private static final int FILES_PER_TASK = 32;
+    private static final long MAX_FILE_SIZE = 16 << 20; // Anything bigger isn't a song
+
+    public enum SortOrder {
+        NAME(Comparator.comparing(SongInfo::getFileName, String.CASE_INSENSITIVE_ORDER)),
+        PATH(Comparator.comparing(SongInfo::getPath)),
+        DURATION(Comparator.comparingLong(SongInfo::getDurationMicros)),
+        POLYPHONY(Comparator.comparingInt(SongInfo::getPeakPolyphony)),
+        MODIFIED(Comparator.comparingLong(SongInfo::getLastModified).reversed());
+
+        private final Comparator<SongInfo> comparator;
+
+        private SortOrder(Comparator<SongInfo> comparator) {
+            this.comparator = comparator.thenComparing(SongInfo::getPath);
+        }
+    }
+
+    /**
+     * One page of search results.
+     */
+    public static class Page {
+        private final int total;
+        private final int offset;
+        private final List<SongInfo> songs;
+
+        private Page(int total, int offset, List<SongInfo> songs) {
+            this.total = total;
+            this.offset = offset;
+            this.songs = songs;
+        }
+
+        /**
+         * @return Number of songs matching the search (on every page)
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public List<SongInfo> getSongs() {
+            return songs;
+        }
+    }
+
+    /**
+     * What a scan found.
+     */
+    public static class ScanResult {
+        private final int files;
+        private final int read;
+        private final int unreadable;
+        private final int removed;
+        private final long elapsedMillis;
+
+        private ScanResult(int files, int read, int unreadable, int removed, long elapsedMillis) {
+            this.files = files;
+            this.read = read;
+            this.unreadable = unreadable;
+            this.removed = removed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return MIDI files found
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return Files that were new or had changed, and so were read
+         */
+        public int getRead() {
+            return read;
+        }
+
+        public int getUnreadable() {
+            return unreadable;
+        }
+
+        /**
+         * @return Files in the index that have gone
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files (%d read, %d unreadable, %d removed) in %d ms", files, read, unreadable, removed, elapsedMillis);
+        }
+    }
+
+    private final List<Path> directories;
+    private final Path indexFile;
+    private final ForkJoinPool pool;
+    private final Map<String, SongInfo> songs = new ConcurrentHashMap<>();
+
+    private CompletableFuture<ScanResult> currentScan = null;
+    private volatile ScanResult lastScan = null;
+
+    /**
+     * @param directories Directories to find MIDI files in (including subdirectories)
+     * @param indexFile Where to keep the index between runs (null to keep it in memory only)
+     */
+    public MidiLibrary(List<Path> directories, Path indexFile) {
+        this(directories, indexFile, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param parallelism Threads to scan with (defaults to one less than the number of cores, leaving one for playback)
+     */
+    public MidiLibrary(List<Path> directories, Path indexFile, int parallelism) {
+        this.directories = List.copyOf(directories);
+        this.indexFile = indexFile;
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("MidiLibrary-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false);
+        loadIndex();
+    }
+
+    public List<Path> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * Starts a scan in the background for files that are new, changed or gone.  If a scan is already
+     * running, that one is returned instead.
+     */
+    public synchronized CompletableFuture<ScanResult> scan() {
+        if (currentScan == null || currentScan.isDone()) {
+            currentScan = CompletableFuture.supplyAsync(this::runScan, pool);
+        }
+        return currentScan;
+    }
+
+    public synchronized boolean isScanning() {
+        return currentScan != null && !currentScan.isDone();
+    }
+
+    /**
+     * @return The last scan to finish, or null if none has
+     */
+    public ScanResult getLastScan() {
+        return lastScan;
+    }
+
+    /**
+     * @return Number of readable songs in the library
+     */
+    public int size() {
+        int size = 0;
+        for (SongInfo song : songs.values()) {
+            if (song.isReadable()) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The song at a path, or null if it isn't in the library (or couldn't be read)
+     */
+    public SongInfo get(String path) {
+        SongInfo song = songs.get(Path.of(path).toAbsolutePath().normalize().toString());
+        return song != null && song.isReadable() ? song : null;
+    }
+
+    /**
+     * @param text Text to find in file names and titles, ignoring case (null or "" for all songs)
+     * @param maxPolyphony Leave out songs needing more drives than this (0 for no limit)
+     * @param offset Number of matching songs to skip
+     * @param limit Most songs to return
+     */
+    public Page search(String text, int maxPolyphony, SortOrder sortOrder, int offset, int limit) {
+        String lowerCaseText = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        List<SongInfo> matches = new ArrayList<>();
+        for (SongInfo song : songs.values()) {
+            if (song.isReadable()
+                    && (maxPolyphony <= 0 || song.getPeakPolyphony() <= maxPolyphony)
+                    && (lowerCaseText.isEmpty() || song.matches(lowerCaseText))) {
+                matches.add(song);
+            }
+        }
+        matches.sort(sortOrder.comparator);
+        int from = Math.min(Math.max(0, offset), matches.size());
+        int to = Math.min(matches.size(), from + Math.max(0, limit));
+        return new Page(matches.size(), from, new ArrayList<>(matches.subList(from, to)));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private ScanResult runScan() {
+        long start = System.currentTimeMillis();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Set<Path> listed = ConcurrentHashMap.newKeySet();
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger unreadable = new AtomicInteger();
+        List<DirectoryTask> tasks = new ArrayList<>();
+        for (Path directory : directories) {
+            tasks.add(new DirectoryTask(directory.toAbsolutePath().normalize(), listed, seen, read, unreadable));
+        }
+        RecursiveAction.invokeAll(tasks);
+
+        int removed = 0;
+        for (String path : songs.keySet()) {
+            if (!seen.contains(path)) {
+                songs.remove(path);
+                removed++;
+            }
+        }
+        if (read.get() > 0 || removed > 0) {
+            saveIndex();
+        }
+
+        ScanResult result = new ScanResult(seen.size(), read.get(), unreadable.get(), removed, System.currentTimeMillis() - start);
+        lastScan = result;
+        LOG.info("Library scan: " + result);
+        return result;
+    }
+
+    /**
+     * Lists a directory, handing each subdirectory and each batch of files to tasks of their own.
+     *
+     * Symbolic links to directories are followed, but each directory is only listed once (by its real
+     * path), so links that loop back up the tree end.  If a directory can't be listed, the songs already
+     * indexed under it are kept rather than dropped as deleted.
+     */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path directory; // Tasks are never serialized
+        private final transient Set<Path> listed;
+        private final transient Set<String> seen;
+        private final AtomicInteger read;
+        private final AtomicInteger unreadable;
+
+        DirectoryTask(Path directory, Set<Path> listed, Set<String> seen, AtomicInteger read, AtomicInteger unreadable) {
+            this.directory = directory;
+            this.listed = listed;
+            this.seen = seen;
+            this.read = read;
+            this.unreadable = unreadable;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try {
+                if (!listed.add(directory.toRealPath())) {
+                    return; // Reached again through a link
+                }
+            } catch (NoSuchFileException ex) {
+                return; // Deleted, along with its songs
+            } catch (IOException ex) {
+                keepIndexedSongs(ex);
+                return;
+            }
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry)) {
+                        subtasks.add(new DirectoryTask(entry, listed, seen, read, unreadable));
+                    } else if (isMidiFile(entry)) {
+                        files.add(entry);
+                        if (files.size() == FILES_PER_TASK) {
+                            subtasks.add(new FilesTask(files, seen, read, unreadable));
+                            files = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (NoSuchFileException ex) {
+                // Deleted while scanning
+            } catch (IOException ex) {
+                keepIndexedSongs(ex);
+            } catch (DirectoryIteratorException ex) {
+                keepIndexedSongs(ex.getCause());
+            }
+            if (!files.isEmpty()) {
+                subtasks.add(new FilesTask(files, seen, read, unreadable));
+            }
+            invokeAll(subtasks);
+        }
+
+        private void keepIndexedSongs(IOException ex) {
+            LOG.log(Level.WARNING, "Couldn't list " + directory + ", keeping the songs already found there", ex);
+            String prefix = directory.toString() + File.separator;
+            for (String path : songs.keySet()) {
+                if (path.startsWith(prefix)) {
+                    seen.add(path);
+                }
+            }
+        }
+    }
+
+    private class FilesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files; // Tasks are never serialized
+        private final transient Set<String> seen;
+        private final AtomicInteger read;
+        private final AtomicInteger unreadable;
+
+        FilesTask(List<Path> files, Set<String> seen, AtomicInteger read, AtomicInteger unreadable) {
+            this.files = files;
+            this.seen = seen;
+            this.read = read;
+            this.unreadable = unreadable;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                String path = file.toString();
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    long size = attributes.size();
+                    long lastModified = attributes.lastModifiedTime().toMillis();
+                    seen.add(path);
+                    SongInfo known = songs.get(path);
+                    if (known != null && known.getFileSize() == size && known.getLastModified() == lastModified) {
+                        continue;
+                    }
+
+                    read.incrementAndGet();
+                    SongInfo song;
+                    try {
+                        if (size > MAX_FILE_SIZE) {
+                            throw new IOException("Too big to be a song");
+                        }
+                        song = SmfSummaryReader.read(path, size, lastModified, Files.readAllBytes(file));
+                    } catch (IOException | RuntimeException ex) {
+                        LOG.log(Level.FINE, "Couldn't read " + path, ex);
+                        unreadable.incrementAndGet();
+                        song = SongInfo.unreadable(path, size, lastModified);
+                    }
+                    songs.put(path, song);
+                } catch (NoSuchFileException ex) {
+                    // Deleted while scanning
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "Couldn't check " + path, ex);
+                }
+            }
+        }
+    }
+
+    private static boolean isMidiFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".mid") || name.endsWith(".midi");
+    }
+
+    private void loadIndex() {
+        if (indexFile == null || !Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(indexFile))))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                LOG.info("Library index is from another version; it will be rebuilt");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                SongInfo song = SongInfo.read(in);
+                songs.put(song.getPath(), song);
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Couldn't load library index " + indexFile + "; it will be rebuilt", ex);
+            songs.clear();
+        }
+    }
+
+    private synchronized void saveIndex() {
+        if (indexFile == null) {
+            return;
+        }
+        // Written alongside and moved into place, so a crash mid-write leaves the old index intact
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            if (indexFile.getParent() != null) {
+                Files.createDirectories(indexFile.getParent());
+            }
+            List<SongInfo> snapshot = new ArrayList<>(songs.values());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (SongInfo song : snapshot) {
+                    song.write(out);
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Couldn't save library index " + indexFile, ex);
+        }
+    }
+}
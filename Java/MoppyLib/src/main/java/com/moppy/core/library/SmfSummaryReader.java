@@ -0,0 +1,227 @@
+package com.moppy.core.library;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import com.moppy.core.events.mapper.PolyphonyCounter;
+import java.util.Arrays;
+
+/**
+ * Summarises a Standard MIDI File straight from its bytes.  Only note and tempo events are kept (packed
+ * into longs), so this is far lighter than building a Sequence of MidiEvents and is safe to run on many
+ * files at once.
+ */
+class SmfSummaryReader {
+
+    private static final int DEFAULT_TEMPO = 500_000; // Microseconds per quarter note (120 BPM)
+    private static final int MAX_TITLE_LENGTH = 1024; // Well within what the index can store
+
+    private final byte[] data;
+    private int pos;
+
+    // Notes packed as [tick][on/off][channel][note] (as in ChannelUsage), tempos as [tick][microseconds per quarter]
+    private long[] notes = new long[1024];
+    private int noteEvents = 0;
+    private long[] tempos = new long[8];
+    private int tempoEvents = 0;
+    private long lastTick = 0;
+    private String title = "";
+
+    private SmfSummaryReader(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @throws IOException If the bytes aren't a MIDI file
+     */
+    static SongInfo read(String path, long fileSize, long lastModified, byte[] data) throws IOException {
+        return new SmfSummaryReader(data).read(path, fileSize, lastModified);
+    }
+
+    private SongInfo read(String path, long fileSize, long lastModified) throws IOException {
+        if (data.length < 14 || !chunkIs("MThd", 0)) {
+            throw new IOException("Not a MIDI file");
+        }
+        int headerLength = readInt(4);
+        int trackCount = readShort(10);
+        int division = readShort(12);
+        if (division == 0) {
+            throw new IOException("Invalid time division");
+        }
+
+        pos = 8 + headerLength;
+        int tracksRead = 0;
+        while (pos + 8 <= data.length && tracksRead < trackCount) {
+            boolean isTrack = chunkIs("MTrk", pos);
+            int length = readInt(pos + 4);
+            int start = pos + 8;
+            int end = (int) Math.min(data.length, (long) start + length);
+            if (length < 0) {
+                throw new IOException("Invalid chunk length");
+            }
+            if (isTrack) {
+                readTrack(start, end, tracksRead == 0);
+                tracksRead++;
+            }
+            pos = end;
+        }
+        if (tracksRead == 0) {
+            throw new IOException("No tracks");
+        }
+
+        // Tempo
+        Arrays.sort(tempos, 0, tempoEvents);
+        long durationMicros;
+        float initialTempo = 60_000_000f / DEFAULT_TEMPO;
+        float minTempo;
+        float maxTempo;
+        if ((division & 0x8000) != 0) {
+            // SMPTE: a fixed number of ticks per second, and tempo events don't apply
+            int framesPerSecond = -(byte) (division >> 8);
+            double ticksPerSecond = (framesPerSecond == 29 ? 29.97 : framesPerSecond) * (division & 0xff);
+            durationMicros = ticksPerSecond > 0 ? (long) (lastTick * 1_000_000 / ticksPerSecond) : 0;
+            minTempo = maxTempo = initialTempo;
+        } else {
+            durationMicros = 0;
+            long segmentTick = 0;
+            int tempo = DEFAULT_TEMPO;
+            minTempo = maxTempo = tempoEvents > 0 && (tempos[0] >>> 24) == 0 ? Float.NaN : initialTempo;
+            for (int i = 0; i < tempoEvents; i++) {
+                long tick = Math.min(tempos[i] >>> 24, lastTick);
+                durationMicros += (tick - segmentTick) * tempo / division;
+                segmentTick = tick;
+                tempo = (int) (tempos[i] & 0xffffff);
+                float bpm = 60_000_000f / Math.max(1, tempo);
+                if (tick == 0) {
+                    initialTempo = bpm;
+                }
+                minTempo = Float.isNaN(minTempo) ? bpm : Math.min(minTempo, bpm);
+                maxTempo = Float.isNaN(maxTempo) ? bpm : Math.max(maxTempo, bpm);
+            }
+            durationMicros += (lastTick - segmentTick) * tempo / division;
+        }
+
+        // Notes, in playback order
+        Arrays.sort(notes, 0, noteEvents);
+        PolyphonyCounter polyphony = new PolyphonyCounter();
+        int noteCount = 0;
+        int lowestNote = -1;
+        int highestNote = -1;
+        for (int i = 0; i < noteEvents; i++) {
+            if (PolyphonyCounter.isNoteOn(notes[i])) {
+                int note = PolyphonyCounter.noteOf(notes[i]);
+                noteCount++;
+                lowestNote = lowestNote < 0 ? note : Math.min(lowestNote, note);
+                highestNote = Math.max(highestNote, note);
+            }
+            polyphony.play(notes[i]);
+        }
+        byte[] channelPolyphony = new byte[SongInfo.CHANNELS];
+        for (int channel = 0; channel < SongInfo.CHANNELS; channel++) {
+            channelPolyphony[channel] = (byte) Math.min(127, polyphony.getPeak(channel));
+        }
+
+        return new SongInfo(path, fileSize, lastModified, true, title, trackCount, durationMicros, initialTempo,
+                minTempo, maxTempo, tempoEvents, noteCount, polyphony.getPeak(), channelPolyphony, lowestNote, highestNote);
+    }
+
+    private void readTrack(int start, int end, boolean firstTrack) throws IOException {
+        pos = start;
+        long tick = 0;
+        int runningStatus = 0;
+        while (pos < end) {
+            tick += readVariableLength(end);
+            if (pos >= end) {
+                break;
+            }
+            int status = data[pos] & 0xff;
+            if (status >= 0x80) {
+                pos++;
+            } else if (runningStatus == 0) {
+                throw new IOException("Data byte without a status");
+            } else {
+                status = runningStatus;
+            }
+
+            if (status == 0xff) {
+                runningStatus = 0; // Meta events, like system exclusive ones, cancel running status
+                if (pos >= end) {
+                    break;
+                }
+                int type = data[pos++] & 0xff;
+                int length = (int) readVariableLength(end);
+                if (type == 0x51 && length == 3 && pos + 3 <= end) {
+                    int tempo = ((data[pos] & 0xff) << 16) | ((data[pos + 1] & 0xff) << 8) | (data[pos + 2] & 0xff);
+                    addTempo((tick << 24) | tempo);
+                } else if (type == 0x03 && firstTrack && title.isEmpty() && pos + length <= end) {
+                    title = new String(data, pos, Math.min(length, MAX_TITLE_LENGTH), StandardCharsets.ISO_8859_1).trim();
+                } else if (type == 0x2f) {
+                    lastTick = Math.max(lastTick, tick);
+                    pos += length;
+                    break;
+                }
+                pos += length;
+            } else if (status == 0xf0 || status == 0xf7) {
+                pos += (int) readVariableLength(end);
+                runningStatus = 0;
+            } else if (status >= 0xf0) {
+                runningStatus = 0; // System common/real-time messages don't appear in files; skip the byte
+            } else {
+                runningStatus = status;
+                int command = status & 0xf0;
+                int dataBytes = command == 0xc0 || command == 0xd0 ? 1 : 2;
+                if (pos + dataBytes > end) {
+                    break;
+                }
+                if (command == 0x90 || command == 0x80) {
+                    int note = data[pos] & 0x7f;
+                    boolean noteOn = command == 0x90 && (data[pos + 1] & 0x7f) > 0;
+                    addNote(PolyphonyCounter.pack(tick, noteOn, status & 0xf, note));
+                }
+                pos += dataBytes;
+            }
+            lastTick = Math.max(lastTick, tick);
+        }
+    }
+
+    private void addNote(long packed) {
+        if (noteEvents == notes.length) {
+            notes = Arrays.copyOf(notes, notes.length * 2);
+        }
+        notes[noteEvents++] = packed;
+    }
+
+    private void addTempo(long packed) {
+        if (tempoEvents == tempos.length) {
+            tempos = Arrays.copyOf(tempos, tempos.length * 2);
+        }
+        tempos[tempoEvents++] = packed;
+    }
+
+    private long readVariableLength(int end) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            if (pos >= end) {
+                return value;
+            }
+            int b = data[pos++] & 0xff;
+            value = (value << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable length value");
+    }
+
+    private boolean chunkIs(String id, int offset) {
+        return offset + 4 <= data.length && id.equals(new String(data, offset, 4, StandardCharsets.ISO_8859_1));
+    }
+
+    private int readInt(int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private int readShort(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+}
@@ -0,0 +1,234 @@
+package com.moppy.core.library;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * What the library knows about one MIDI file: enough to browse, search and pick songs that suit the
+ * drives available, without reading the file again.
+ */
+public class SongInfo {
+
+    public static final int CHANNELS = 16;
+
+    private final String path;
+    private final long fileSize;
+    private final long lastModified;
+    private final boolean readable;
+    private final String title;
+    private final int trackCount;
+    private final long durationMicros;
+    private final float initialTempo;
+    private final float minTempo;
+    private final float maxTempo;
+    private final int tempoChanges;
+    private final int noteCount;
+    private final int peakPolyphony;
+    private final byte[] channelPolyphony; // Peak polyphony of each channel (0 if unused)
+    private final int lowestNote;
+    private final int highestNote;
+
+    // Lower case name and title, for searching
+    private final String searchText;
+
+    SongInfo(String path, long fileSize, long lastModified, boolean readable, String title, int trackCount,
+            long durationMicros, float initialTempo, float minTempo, float maxTempo, int tempoChanges,
+            int noteCount, int peakPolyphony, byte[] channelPolyphony, int lowestNote, int highestNote) {
+        this.path = path;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.readable = readable;
+        this.title = title;
+        this.trackCount = trackCount;
+        this.durationMicros = durationMicros;
+        this.initialTempo = initialTempo;
+        this.minTempo = minTempo;
+        this.maxTempo = maxTempo;
+        this.tempoChanges = tempoChanges;
+        this.noteCount = noteCount;
+        this.peakPolyphony = peakPolyphony;
+        this.channelPolyphony = channelPolyphony;
+        this.lowestNote = lowestNote;
+        this.highestNote = highestNote;
+        this.searchText = (getFileName() + " " + title).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Placeholder for a file that couldn't be read, so it isn't tried again until it changes.
+     */
+    static SongInfo unreadable(String path, long fileSize, long lastModified) {
+        return new SongInfo(path, fileSize, lastModified, false, "", 0, 0, 0, 0, 0, 0, 0, 0, new byte[CHANNELS], -1, -1);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return Path.of(path).getFileName().toString();
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return Modification time of the file when it was read, in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isReadable() {
+        return readable;
+    }
+
+    /**
+     * @return Name of the first track (often the song's title), or "" if it has none
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public int getDurationSeconds() {
+        return (int) (durationMicros / 1_000_000);
+    }
+
+    /**
+     * @return Tempo at the start of the song, in BPM
+     */
+    public float getInitialTempo() {
+        return initialTempo;
+    }
+
+    public float getMinTempo() {
+        return minTempo;
+    }
+
+    public float getMaxTempo() {
+        return maxTempo;
+    }
+
+    /**
+     * @return Number of tempo events in the song
+     */
+    public int getTempoChanges() {
+        return tempoChanges;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    /**
+     * @return Most notes sounding at once across all channels, i.e. drives needed to play every note
+     */
+    public int getPeakPolyphony() {
+        return peakPolyphony;
+    }
+
+    /**
+     * @return Most notes sounding at once on each channel (0 for unused channels)
+     */
+    public int[] getChannelPolyphony() {
+        int[] polyphony = new int[CHANNELS];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            polyphony[channel] = channelPolyphony[channel];
+        }
+        return polyphony;
+    }
+
+    public int getChannelCount() {
+        int channels = 0;
+        for (byte polyphony : channelPolyphony) {
+            if (polyphony > 0) {
+                channels++;
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * @return Lowest note in the song, or -1 if it has none
+     */
+    public int getLowestNote() {
+        return lowestNote;
+    }
+
+    /**
+     * @return Highest note in the song, or -1 if it has none
+     */
+    public int getHighestNote() {
+        return highestNote;
+    }
+
+    /**
+     * @param lowerCaseText Text to find, already in lower case
+     */
+    boolean matches(String lowerCaseText) {
+        return searchText.contains(lowerCaseText);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(fileSize);
+        out.writeLong(lastModified);
+        out.writeBoolean(readable);
+        if (!readable) {
+            return;
+        }
+        out.writeUTF(title);
+        out.writeShort(trackCount);
+        out.writeLong(durationMicros);
+        out.writeFloat(initialTempo);
+        out.writeFloat(minTempo);
+        out.writeFloat(maxTempo);
+        out.writeInt(tempoChanges);
+        out.writeInt(noteCount);
+        out.writeShort(peakPolyphony);
+        out.write(channelPolyphony);
+        out.writeByte(lowestNote);
+        out.writeByte(highestNote);
+    }
+
+    static SongInfo read(DataInput in) throws IOException {
+        String path = in.readUTF();
+        long fileSize = in.readLong();
+        long lastModified = in.readLong();
+        if (!in.readBoolean()) {
+            return unreadable(path, fileSize, lastModified);
+        }
+        String title = in.readUTF();
+        int trackCount = in.readUnsignedShort();
+        long durationMicros = in.readLong();
+        float initialTempo = in.readFloat();
+        float minTempo = in.readFloat();
+        float maxTempo = in.readFloat();
+        int tempoChanges = in.readInt();
+        int noteCount = in.readInt();
+        int peakPolyphony = in.readUnsignedShort();
+        byte[] channelPolyphony = new byte[CHANNELS];
+        in.readFully(channelPolyphony);
+        int lowestNote = in.readByte();
+        int highestNote = in.readByte();
+        return new SongInfo(path, fileSize, lastModified, true, title, trackCount, durationMicros, initialTempo,
+                minTempo, maxTempo, tempoChanges, noteCount, peakPolyphony, channelPolyphony, lowestNote, highestNote);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d:%02d, %d channels, %d voices)", getFileName(), getDurationSeconds() / 60,
+                getDurationSeconds() % 60, getChannelCount(), peakPolyphony);
+    }
+}
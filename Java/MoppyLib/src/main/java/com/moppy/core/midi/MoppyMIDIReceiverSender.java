@@ -6,6 +6,7 @@ import com.moppy.core.status.StatusSender;
 import com.moppy.core.events.mapper.MapperCollection;
 import com.moppy.core.events.postprocessor.MessagePostProcessor;
 import java.io.IOException;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
@@ -32,7 +33,7 @@ public class MoppyMIDIReceiverSender extends StatusSender implements Receiver {
     @Override
     public void send(MidiMessage message, long timeStamp) {
         Set<MoppyMessage> messagesToSend = mappers.mapEvent(message);
-        messagesToSend = messagesToSend.stream().map(postProcessor::postProcess).collect(Collectors.toSet());
+        messagesToSend = messagesToSend.stream().map(postProcessor::postProcess).filter(Objects::nonNull).collect(Collectors.toSet());
 
         messagesToSend.forEach((messageToSend) -> {
             try {
@@ -48,6 +49,22 @@ public class MoppyMIDIReceiverSender extends StatusSender implements Receiver {
         }
     }
 
+    /**
+     * Post-processes and sends a message that wasn't mapped from a MIDI event, such as the stop for a note whose
+     * drive a {@link com.moppy.core.events.mapper.VoiceAllocator} gave up.
+     */
+    public void sendMoppyMessage(MoppyMessage message) {
+        MoppyMessage messageToSend = postProcessor.postProcess(message);
+        if (messageToSend == null) {
+            return;
+        }
+        try {
+            networkBridge.sendMessage(messageToSend);
+        } catch (IOException ex) {
+            Logger.getLogger(MoppyMIDIReceiverSender.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
     @Override
     public void close() {
         //TODO: Need to decide if it's best to control connect / disconnect from netBridge with ReceiverBridge,
@@ -89,8 +89,13 @@ public class MoppyMIDISequencer implements MetaEventListener, Closeable {
         if (!sequenceFile.isFile()) {
             throw new IOException(String.format("File '%s' not found, or isn't a file", sequenceFile.getAbsolutePath()));
         }
-        Sequence sequenceToLoad = MidiSystem.getSequence(sequenceFile);
+        loadSequence(MidiSystem.getSequence(sequenceFile));
+    }
 
+    /**
+     * Loads a sequence that's already been read, e.g. in the background while the last one played.
+     */
+    public void loadSequence(Sequence sequenceToLoad) throws InvalidMidiDataException {
         seq.setSequence(sequenceToLoad);
         statusBus.receiveUpdate(StatusUpdate.sequenceLoaded(sequenceToLoad));
         statusBus.receiveUpdate(StatusUpdate.tempoChange(seq.getTempoInBPM()));
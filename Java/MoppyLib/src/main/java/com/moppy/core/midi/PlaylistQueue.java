@@ -0,0 +1,593 @@
+package com.moppy.core.midi;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.bridge.NetworkBridge;
+import com.moppy.core.distributed.FrameTimeline;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.postprocessor.MessagePostProcessor;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Plays a queue of MIDI files back to back without a gap between them.
+ *
+ * While one song plays, the next is parsed and mapped to a {@link FrameTimeline} in the background, so
+ * nothing is left to do when the song ends.  Every song is placed on the same clock as the one before it,
+ * starting where that one ends (or a little before, with {@link #setOverlapMillis}, so the next song's
+ * opening overlaps the last one's closing notes).  The post-processor is applied as frames are sent, so
+ * e.g. volume changes take effect straight away.
+ *
+ * Songs that can't be read, or have nothing to play, are skipped.  Devices get a stop once the queue runs
+ * out or is stopped, but not between songs.
+ */
+public class PlaylistQueue implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(PlaylistQueue.class.getName());
+
+    private static final int NONE = -1;
+    private static final float DEFAULT_TEMPO_BPM = 120;
+    private static final int META_TEMPO = 0x51;
+
+    /**
+     * Told about songs starting and the queue finishing, on the playing thread.
+     */
+    public interface Listener {
+        void songStarted(int index, File file, long lengthMicros);
+
+        default void queueFinished() {
+        }
+    }
+
+    private final NetworkBridge<?> bridge;
+    private final Function<Sequence, MapperCollection<MidiMessage>> mapperFactory;
+    private final MessagePostProcessor postProcessor;
+    private final ExecutorService preparer = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("PlaylistQueue-preparer").factory());
+
+    private final List<File> files = new ArrayList<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private volatile long overlapMillis = 0;
+    private volatile double tempoFactor = 1.0;
+    private volatile boolean repeat = false;
+
+    // Playback
+    private Thread playThread = null;
+    private volatile int generation = 0;
+    private volatile int currentIndex = NONE;
+    private volatile long currentStartNanos;
+    private volatile long currentLengthMicros;
+    private volatile double currentTempoFactor = 1.0;
+    private volatile float currentSongTempo = 0;
+    // The song to play after the current one, kept in step with removals from the queue.  If the song
+    // itself is removed, the play thread prepares whichever song has taken its place.
+    private int pendingIndex = NONE;
+    private boolean pendingRemoved = false;
+    // Bumped to have the play thread look again at what it's waiting for (e.g. after a tempo change)
+    private volatile int wakeups = 0;
+
+    // How often the next song wasn't ready when it was due
+    private long lateStarts = 0;
+    private long maxStartLatenessNanos = 0;
+
+    /**
+     * @param bridge Bridge to send frames to
+     * @param mapperFactory Creates the mappers for each song (mappers keep state, so each song needs its own)
+     * @param postProcessor Applied to each message as it's sent
+     */
+    public PlaylistQueue(NetworkBridge<?> bridge, Function<Sequence, MapperCollection<MidiMessage>> mapperFactory,
+            MessagePostProcessor postProcessor) {
+        this.bridge = bridge;
+        this.mapperFactory = mapperFactory;
+        this.postProcessor = postProcessor;
+    }
+
+    public synchronized void add(File file) {
+        files.add(file);
+    }
+
+    public synchronized void addAll(List<File> filesToAdd) {
+        files.addAll(filesToAdd);
+    }
+
+    /**
+     * Removes a song from the queue.  The song playing keeps playing; if the song due to follow it is
+     * removed, the one after that follows it instead.
+     */
+    public synchronized void remove(int index) {
+        files.remove(index);
+        if (currentIndex != NONE && index <= currentIndex) {
+            currentIndex--;
+        }
+        if (pendingIndex != NONE && index < pendingIndex) {
+            pendingIndex--;
+        } else if (pendingIndex != NONE && index == pendingIndex) {
+            if (pendingIndex >= files.size()) {
+                pendingIndex = repeat && !files.isEmpty() ? 0 : NONE;
+            }
+            pendingRemoved = true;
+            wake();
+        }
+    }
+
+    /**
+     * Maps the song due to follow the current one again, e.g. because the devices its mappers spread it
+     * across have changed.  Songs are mapped before they start, so the song playing keeps its mapping.
+     */
+    public synchronized void remapPending() {
+        if (pendingIndex != NONE) {
+            pendingRemoved = true; // Has the play thread prepare whichever song is now at pendingIndex
+            wake();
+        }
+    }
+
+    /**
+     * Empties the queue.  The song playing keeps playing, but is the last.
+     */
+    public synchronized void clear() {
+        files.clear();
+        currentIndex = NONE;
+        pendingIndex = NONE;
+        wake();
+    }
+
+    public synchronized List<File> getFiles() {
+        return new ArrayList<>(files);
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * @param overlapMillis How long before a song's last frame to start the next one (0 to start right
+     * after it).  Takes effect from the next song.
+     */
+    public void setOverlapMillis(long overlapMillis) {
+        this.overlapMillis = Math.max(0, overlapMillis);
+    }
+
+    public long getOverlapMillis() {
+        return overlapMillis;
+    }
+
+    /**
+     * @param tempoFactor Speed to play at (2.0 for twice as fast).  Takes effect straight away, from where
+     * the songs playing have got to.
+     */
+    public synchronized void setTempoFactor(double tempoFactor) {
+        if (tempoFactor > 0) {
+            this.tempoFactor = tempoFactor;
+            wake();
+        }
+    }
+
+    public double getTempoFactor() {
+        return tempoFactor;
+    }
+
+    /**
+     * @param repeat Start again from the first song after the last
+     */
+    public void setRepeat(boolean repeat) {
+        this.repeat = repeat;
+    }
+
+    public boolean isRepeat() {
+        return repeat;
+    }
+
+    /**
+     * Starts playing from a song, stopping whatever's playing.
+     */
+    public synchronized void play(int index) {
+        if (index < 0 || index >= files.size()) {
+            throw new IllegalArgumentException("No song at position " + index);
+        }
+        int playGeneration = ++generation;
+        if (playThread != null) {
+            LockSupport.unpark(playThread);
+        }
+        currentIndex = NONE;
+        pendingIndex = index;
+        pendingRemoved = false;
+        playThread = new Thread(() -> play(index, playGeneration), "PlaylistQueue");
+        playThread.setDaemon(true);
+        playThread.start();
+    }
+
+    /**
+     * Moves straight on to the next song (or stops if there isn't one).
+     */
+    public synchronized void skip() {
+        int next = nextIndex(currentIndex);
+        if (next == NONE) {
+            stop();
+        } else {
+            play(next);
+        }
+    }
+
+    /**
+     * Stops playing and silences the devices.
+     */
+    public synchronized void stop() {
+        boolean wasPlaying = isPlaying();
+        generation++;
+        if (playThread != null) {
+            LockSupport.unpark(playThread);
+        }
+        currentIndex = NONE;
+        pendingIndex = NONE;
+        if (wasPlaying) {
+            send(MoppyMessage.SYS_STOP);
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return playThread != null && playThread.isAlive() && currentIndex != NONE;
+    }
+
+    /**
+     * @return Position in the queue of the song playing, or -1 if none is
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * @return How far into the current song playback is (at the song's own tempo)
+     */
+    public long getPositionMicros() {
+        if (currentIndex == NONE) {
+            return 0;
+        }
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - currentStartNanos);
+        return Math.max(0, Math.min(currentLengthMicros, (long)(elapsedMicros * currentTempoFactor)));
+    }
+
+    public long getCurrentLengthMicros() {
+        return currentIndex == NONE ? 0 : currentLengthMicros;
+    }
+
+    /**
+     * @return Tempo the current song opens with in BPM (at its own speed, before the tempo factor), or 0
+     * if none is playing
+     */
+    public float getCurrentSongTempo() {
+        return currentIndex == NONE ? 0 : currentSongTempo;
+    }
+
+    /**
+     * @return Songs that started late because they weren't ready in time
+     */
+    public synchronized long getLateStarts() {
+        return lateStarts;
+    }
+
+    public synchronized long getMaxStartLatenessMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxStartLatenessNanos);
+    }
+
+    @Override
+    public void close() {
+        stop();
+        preparer.shutdownNow();
+    }
+
+    private synchronized int nextIndex(int index) {
+        if (index + 1 < files.size()) {
+            return index + 1;
+        }
+        return repeat && !files.isEmpty() ? 0 : NONE;
+    }
+
+    private synchronized File fileAt(int index) {
+        return index >= 0 && index < files.size() ? files.get(index) : null;
+    }
+
+    private synchronized void wake() {
+        wakeups++;
+        if (playThread != null) {
+            LockSupport.unpark(playThread);
+        }
+    }
+
+    private CompletableFuture<Song> prepare(File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Sequence sequence = MidiSystem.getSequence(file);
+                FrameTimeline timeline = FrameTimeline.render(sequence, mapperFactory.apply(sequence), MessagePostProcessor.PASS_THROUGH);
+                return new Song(timeline, openingTempo(sequence));
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, preparer);
+    }
+
+    /**
+     * @return The first tempo set in the sequence in BPM, or the MIDI default if it never sets one
+     */
+    private static float openingTempo(Sequence sequence) {
+        long firstTick = Long.MAX_VALUE;
+        float tempo = DEFAULT_TEMPO_BPM;
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size() && track.get(i).getTick() < firstTick; i++) {
+                MidiEvent event = track.get(i);
+                if (event.getMessage() instanceof MetaMessage meta && meta.getType() == META_TEMPO && meta.getData().length >= 3) {
+                    byte[] data = meta.getData();
+                    int microsPerQuarter = ((data[0] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[2] & 0xff);
+                    if (microsPerQuarter > 0) {
+                        firstTick = event.getTick();
+                        tempo = 60_000_000f / microsPerQuarter;
+                    }
+                    break;
+                }
+            }
+        }
+        return tempo;
+    }
+
+    /**
+     * Sends the frames of every song from startIndex on, in time order across songs.
+     */
+    private void play(int startIndex, int playGeneration) {
+        List<Cursor> cursors = new ArrayList<>(2); // The current song, plus the next while they overlap
+        Cursor latest = null; // The song started last, which the next one starts from
+        double appliedTempoFactor = tempoFactor;
+        File pendingFile = fileAt(startIndex);
+        CompletableFuture<Song> pending = prepare(pendingFile);
+        long pendingStartNanos = System.nanoTime();
+        boolean firstSong = true;
+        int unplayableInARow = 0;
+
+        while (true) {
+            int seenWakeups = wakeups;
+            int pendingAt;
+            synchronized (this) {
+                if (generation != playGeneration) {
+                    return;
+                }
+                if (pendingRemoved) {
+                    pendingRemoved = false;
+                    if (pendingIndex != NONE) {
+                        pendingFile = files.get(pendingIndex);
+                        pending = prepare(pendingFile);
+                    }
+                }
+                pendingAt = pendingIndex;
+            }
+            if (cursors.isEmpty() && pendingAt == NONE) {
+                break;
+            }
+
+            double factor = tempoFactor;
+            if (factor != appliedTempoFactor) {
+                // Carry on from where each song has got to at the new speed
+                long nowNanos = System.nanoTime();
+                for (Cursor cursor : cursors) {
+                    cursor.retime(nowNanos, factor);
+                }
+                if (latest != null) {
+                    if (!cursors.contains(latest)) {
+                        latest.retime(nowNanos, factor);
+                    }
+                    pendingStartNanos = nextStartNanos(latest);
+                    synchronized (this) {
+                        currentStartNanos = latest.startNanos;
+                        currentTempoFactor = factor;
+                    }
+                }
+                appliedTempoFactor = factor;
+            }
+
+            long nextDueNanos = Long.MAX_VALUE;
+            Cursor nextCursor = null;
+            for (Cursor cursor : cursors) {
+                if (cursor.dueNanos() < nextDueNanos) {
+                    nextDueNanos = cursor.dueNanos();
+                    nextCursor = cursor;
+                }
+            }
+
+            // Songs that can't be read are skipped straight away, so the one after has time to be prepared
+            if (pendingAt != NONE && (pendingStartNanos <= nextDueNanos || pending.isCompletedExceptionally())) {
+                // Time for the next song
+                if (!pending.isCompletedExceptionally()) {
+                    if (!waitUntil(pendingStartNanos, playGeneration, seenWakeups)) {
+                        return;
+                    }
+                    if (System.nanoTime() < pendingStartNanos) {
+                        continue; // Woken early to look again
+                    }
+                }
+                Song song;
+                try {
+                    song = pending.join();
+                } catch (CompletionException | java.util.concurrent.CancellationException ex) {
+                    LOG.log(Level.WARNING, "Skipping " + pendingFile.getName() + ": couldn't read it", ex.getCause());
+                    song = null;
+                }
+                if (song != null && song.timeline.size() == 0) {
+                    LOG.log(Level.INFO, "Skipping {0}: it has nothing to play", pendingFile.getName());
+                    song = null;
+                }
+
+                long startNanos = pendingStartNanos;
+                long latenessNanos = System.nanoTime() - pendingStartNanos;
+                if (song != null && latenessNanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+                    // Wasn't ready in time; play it from now rather than rushing its first frames out
+                    if (!firstSong) {
+                        recordLateStart(latenessNanos); // Only the first song is expected to make us wait
+                    }
+                    startNanos = System.nanoTime();
+                }
+
+                Cursor started = null;
+                int startedIndex;
+                File startedFile = pendingFile;
+                synchronized (this) {
+                    if (generation != playGeneration) {
+                        return;
+                    }
+                    if (pendingRemoved) {
+                        continue; // Prepared a song that has since been removed
+                    }
+                    startedIndex = pendingIndex;
+                    unplayableInARow = song == null ? unplayableInARow + 1 : 0;
+                    if (song != null) {
+                        started = new Cursor(song.timeline, startNanos, factor);
+                        currentStartNanos = startNanos;
+                        currentLengthMicros = song.timeline.getLengthMicros();
+                        currentTempoFactor = factor;
+                        currentSongTempo = song.tempoBPM;
+                        currentIndex = startedIndex;
+                    }
+
+                    pendingIndex = unplayableInARow >= files.size() ? NONE : nextIndex(startedIndex); // NONE if nothing in the (repeating) queue can be played
+                    if (pendingIndex != NONE) {
+                        pendingFile = files.get(pendingIndex);
+                        pending = prepare(pendingFile);
+                    }
+                }
+                firstSong = false;
+
+                if (started != null) {
+                    cursors.add(started);
+                    latest = started;
+                    pendingStartNanos = nextStartNanos(started);
+                    long lengthMicros = started.timeline.getLengthMicros();
+                    forEachListener(listener -> listener.songStarted(startedIndex, startedFile, lengthMicros));
+                }
+                continue;
+            }
+
+            if (!waitUntil(nextDueNanos, playGeneration, seenWakeups)) {
+                return;
+            }
+            if (System.nanoTime() < nextDueNanos) {
+                continue; // Woken early to look again
+            }
+            byte[] frame = nextCursor.timeline.getFrame(nextCursor.index++);
+            send(postProcessor.postProcess(MoppyMessageFactory.fromBytes(frame.clone()))); // Post-processors may change the bytes
+            if (nextCursor.index >= nextCursor.timeline.size()) {
+                cursors.remove(nextCursor);
+            }
+        }
+
+        synchronized (this) {
+            if (generation != playGeneration) {
+                return;
+            }
+            currentIndex = NONE;
+        }
+        send(MoppyMessage.SYS_STOP);
+        forEachListener(Listener::queueFinished);
+    }
+
+    /**
+     * @return When the song after {@code cursor}'s should start
+     */
+    private long nextStartNanos(Cursor cursor) {
+        long lengthNanos = (long)(TimeUnit.MICROSECONDS.toNanos(cursor.timeline.getLengthMicros()) / cursor.tempoFactor);
+        return cursor.startNanos + Math.max(0, lengthNanos - TimeUnit.MILLISECONDS.toNanos(overlapMillis));
+    }
+
+    /**
+     * @return false if playback was stopped or restarted while waiting.  Also returns (true) early if
+     * woken to look again, e.g. after a tempo change.
+     */
+    private boolean waitUntil(long dueNanos, int playGeneration, int seenWakeups) {
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0 && generation == playGeneration && wakeups == seenWakeups) {
+            LockSupport.parkNanos(waitNanos);
+        }
+        return generation == playGeneration;
+    }
+
+    private void send(MoppyMessage message) {
+        if (message == null) {
+            return; // Held back by the post-processor
+        }
+        try {
+            bridge.sendMessage(message);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Failed to send playlist frame", ex);
+        }
+    }
+
+    private synchronized void recordLateStart(long latenessNanos) {
+        lateStarts++;
+        maxStartLatenessNanos = Math.max(maxStartLatenessNanos, latenessNanos);
+    }
+
+    private void forEachListener(java.util.function.Consumer<Listener> action) {
+        List<Listener> current;
+        synchronized (listeners) {
+            current = new ArrayList<>(listeners);
+        }
+        current.forEach(action);
+    }
+
+    /**
+     * A song ready to play.
+     */
+    private static class Song {
+        final FrameTimeline timeline;
+        final float tempoBPM;
+
+        Song(FrameTimeline timeline, float tempoBPM) {
+            this.timeline = timeline;
+            this.tempoBPM = tempoBPM;
+        }
+    }
+
+    /**
+     * Position in one song's timeline, placed on the local clock.
+     */
+    private static class Cursor {
+        final FrameTimeline timeline;
+        long startNanos;
+        double tempoFactor;
+        int index = 0;
+
+        Cursor(FrameTimeline timeline, long startNanos, double tempoFactor) {
+            this.timeline = timeline;
+            this.startNanos = startNanos;
+            this.tempoFactor = tempoFactor;
+        }
+
+        long dueNanos() {
+            return startNanos + (long)(TimeUnit.MICROSECONDS.toNanos(timeline.getTimeMicros(index)) / tempoFactor);
+        }
+
+        /**
+         * Moves the start so the song carries on from where it is at {@code nowNanos}, at a new speed.
+         */
+        void retime(long nowNanos, double newTempoFactor) {
+            double songNanos = (nowNanos - startNanos) * tempoFactor;
+            startNanos = nowNanos - (long)(songNanos / newTempoFactor);
+            tempoFactor = newTempoFactor;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.moppy.core.render;
+
+import com.moppy.core.util.Notes;
+import java.util.Arrays;
+
+/**
+ * Sound model of one floppy drive for {@link FloppyRenderer}: the same square wave the simulated drives
+ * in MoppyDeviceGUI play, with pitch bends applied the way the Arduino firmware applies them.
+ *
+ * Events are added up front (in time order), then the drive is rendered a block at a time.  Rendering
+ * only touches this drive's own state and buffer, so drives can be rendered in parallel.
+ */
+final class DriveVoice {
+
+    static final byte NOTE_ON = 0;
+    static final byte NOTE_OFF = 1;
+    static final byte BEND = 2;
+    static final byte RESET = 3;
+
+    // As BEND_OCTAVES in the firmware's MoppyInstrument.h: full deflection bends by 200 cents
+    private static final double BEND_OCTAVES = 200 / 1200.0;
+
+    private final int sampleRate;
+
+    private long[] eventSamples = new long[64];
+    private byte[] eventTypes = new byte[64];
+    private short[] eventValues = new short[64];
+    private int eventCount = 0;
+    private boolean soundingAfterLastEvent = false;
+
+    // Rendering state
+    private int nextEvent = 0;
+    private double noteFrequency = 0;
+    private double frequency = 0;
+    private double phase = 0;
+    private float[] buffer = new float[0];
+
+    DriveVoice(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Adds an event at or after every event added so far.
+     */
+    void addEvent(long sample, byte type, short value) {
+        if (eventCount == eventSamples.length) {
+            eventSamples = Arrays.copyOf(eventSamples, eventCount * 2);
+            eventTypes = Arrays.copyOf(eventTypes, eventCount * 2);
+            eventValues = Arrays.copyOf(eventValues, eventCount * 2);
+        }
+        eventSamples[eventCount] = sample;
+        eventTypes[eventCount] = type;
+        eventValues[eventCount] = value;
+        eventCount++;
+
+        if (type == NOTE_ON) {
+            soundingAfterLastEvent = noteFrequency(value) > 0;
+        } else if (type == NOTE_OFF || type == RESET) {
+            soundingAfterLastEvent = false;
+        }
+    }
+
+    /**
+     * @return True if the drive is playing a note after the last event added, for counting polyphony
+     */
+    boolean isSoundingAfterLastEvent() {
+        return soundingAfterLastEvent;
+    }
+
+    /**
+     * Renders the next block of samples, continuing from the previous call.
+     *
+     * @return This drive's buffer, holding the block in its first length samples.  The buffer is reused
+     * by the next call.
+     */
+    float[] render(long startSample, int length, float amplitude) {
+        if (buffer.length < length) {
+            buffer = new float[length];
+        }
+
+        int i = 0;
+        while (i < length) {
+            while (nextEvent < eventCount && eventSamples[nextEvent] <= startSample + i) {
+                applyEvent(nextEvent++);
+            }
+            int end = nextEvent < eventCount ? (int)Math.min(length, eventSamples[nextEvent] - startSample) : length;
+
+            if (frequency <= 0) {
+                Arrays.fill(buffer, i, end, 0f);
+                i = end;
+            } else {
+                double step = frequency / sampleRate;
+                for (; i < end; i++) {
+                    buffer[i] = phase < 0.5 ? amplitude : -amplitude;
+                    phase += step;
+                    if (phase >= 1) {
+                        phase -= 1;
+                    }
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private void applyEvent(int index) {
+        switch (eventTypes[index]) {
+            case NOTE_ON:
+                // The firmware plays new notes unbent until the next bend arrives
+                noteFrequency = noteFrequency(eventValues[index]);
+                frequency = noteFrequency;
+                break;
+            case NOTE_OFF:
+            case RESET:
+                noteFrequency = 0;
+                frequency = 0;
+                break;
+            case BEND:
+                frequency = noteFrequency * Math.pow(2.0, BEND_OCTAVES * (eventValues[index] / 8192.0));
+                break;
+        }
+    }
+
+    private static double noteFrequency(int note) {
+        return note >= 0 && note < Notes.FREQUENCIES.length ? Notes.FREQUENCIES[note] : 0;
+    }
+}
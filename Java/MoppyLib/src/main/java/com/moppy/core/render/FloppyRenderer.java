@@ -0,0 +1,349 @@
+package com.moppy.core.render;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.distributed.FrameTimeline;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Renders a {@link FrameTimeline} to a WAV file offline, as fast as the CPU allows, so a mapping can be
+ * checked without playing the song live.
+ *
+ * Every drive the timeline addresses gets its own {@link DriveVoice}.  The song is rendered in blocks: for
+ * each block the drives are rendered in parallel on a fork/join pool and summed pairwise as the tasks
+ * join, then the mix is written out before the next block starts, so memory use doesn't grow with the
+ * length of the song.
+ *
+ * Each drive's level is the gain divided by the most drives the song ever sounds at once, so the mix
+ * can't clip at a gain of 1 or less.
+ */
+public class FloppyRenderer {
+
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    private static final int BLOCK_MILLIS = 2000;
+    private static final long TAIL_MICROS = 500_000; // Silence after the last frame
+
+    private final int sampleRate;
+    private final ForkJoinPool pool;
+    private double gain = 1.0;
+
+    public FloppyRenderer() {
+        this(DEFAULT_SAMPLE_RATE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool Pool to render drives on (e.g. a smaller one, to leave cores free while batch rendering)
+     */
+    public FloppyRenderer(int sampleRate, ForkJoinPool pool) {
+        this.sampleRate = sampleRate;
+        this.pool = pool;
+    }
+
+    /**
+     * @param gain Level of the loudest moment of the song, where 1 is full scale
+     */
+    public void setGain(double gain) {
+        this.gain = gain;
+    }
+
+    public RenderStats render(FrameTimeline timeline, File wavFile) throws IOException {
+        long startNanos = System.nanoTime();
+        RenderStats stats = new RenderStats();
+
+        DriveVoice[] voices = buildVoices(timeline, stats);
+        long totalSamples = toSamples(timeline.getLengthMicros() + TAIL_MICROS);
+        float amplitude = stats.maxPolyphony == 0 ? 0 : (float)(gain / stats.maxPolyphony);
+
+        AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+        MixStream mix = new MixStream(voices, totalSamples, amplitude, stats);
+        try (AudioInputStream audio = new AudioInputStream(mix, format, totalSamples)) {
+            AudioSystem.write(audio, AudioFileFormat.Type.WAVE, wavFile);
+        }
+
+        stats.audioMicros = TimeUnit.SECONDS.toMicros(totalSamples) / sampleRate;
+        stats.elapsedNanos = System.nanoTime() - startNanos;
+        return stats;
+    }
+
+    /**
+     * Turns the timeline into events for each drive it addresses, working out the polyphony on the way.
+     */
+    private DriveVoice[] buildVoices(FrameTimeline timeline, RenderStats stats) {
+        // Find every drive first so frames for sub-address 0 know which drives they reach
+        Map<Integer, DriveVoice> voicesByAddress = new TreeMap<>();
+        List<List<DriveVoice>> voicesByDevice = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) {
+            voicesByDevice.add(new ArrayList<>());
+        }
+        for (int i = 0; i < timeline.size(); i++) {
+            byte[] frame = timeline.getFrame(i);
+            if (frame.length >= 5 && frame[1] != MoppyMessage.SYSTEM_ADDRESS && frame[2] != 0) {
+                int key = ((frame[1] & 0xff) << 8) | (frame[2] & 0xff);
+                if (!voicesByAddress.containsKey(key)) {
+                    DriveVoice voice = new DriveVoice(sampleRate);
+                    voicesByAddress.put(key, voice);
+                    voicesByDevice.get(frame[1] & 0xff).add(voice);
+                }
+            }
+        }
+        DriveVoice[] voices = voicesByAddress.values().toArray(new DriveVoice[0]);
+        List<DriveVoice> allVoices = List.of(voices);
+
+        int sounding = 0;
+        for (int i = 0; i < timeline.size(); i++) {
+            byte[] frame = timeline.getFrame(i);
+            if (frame.length < 5) {
+                continue;
+            }
+            long sample = toSamples(timeline.getTimeMicros(i));
+
+            byte type;
+            short value = 0;
+            List<DriveVoice> targets;
+            if (frame[1] == MoppyMessage.SYSTEM_ADDRESS) {
+                switch (frame[4]) {
+                    case (byte)0x82:
+                    case (byte)0xff:
+                        type = DriveVoice.RESET;
+                        break;
+                    case (byte)0xfc:
+                        type = DriveVoice.NOTE_OFF;
+                        break;
+                    default:
+                        continue;
+                }
+                targets = allVoices;
+            } else {
+                // Scheduled frames are already at their intended time in the timeline, so just unwrap them
+                int command = 4;
+                if (frame[4] == 0x20 && frame.length >= 10) {
+                    command = 9;
+                }
+                switch (frame[command]) {
+                    case 0x00:
+                        type = DriveVoice.RESET;
+                        break;
+                    case 0x09:
+                        if (frame.length <= command + 1) {
+                            continue;
+                        }
+                        type = DriveVoice.NOTE_ON;
+                        value = (short)(frame[command + 1] & 0xff);
+                        break;
+                    case 0x08:
+                        type = DriveVoice.NOTE_OFF;
+                        break;
+                    case 0x0e:
+                        if (frame.length <= command + 2) {
+                            continue;
+                        }
+                        type = DriveVoice.BEND;
+                        value = (short)((frame[command + 1] << 8) | (frame[command + 2] & 0xff));
+                        break;
+                    default:
+                        continue;
+                }
+                if (frame[2] == 0) {
+                    targets = voicesByDevice.get(frame[1] & 0xff);
+                } else {
+                    targets = List.of(voicesByAddress.get(((frame[1] & 0xff) << 8) | (frame[2] & 0xff)));
+                }
+            }
+
+            for (DriveVoice voice : targets) {
+                sounding -= voice.isSoundingAfterLastEvent() ? 1 : 0;
+                voice.addEvent(sample, type, value);
+                sounding += voice.isSoundingAfterLastEvent() ? 1 : 0;
+            }
+            stats.maxPolyphony = Math.max(stats.maxPolyphony, sounding);
+            stats.frameCount++;
+        }
+
+        stats.driveCount = voices.length;
+        return voices;
+    }
+
+    private long toSamples(long micros) {
+        return Math.round(micros * (double)sampleRate / TimeUnit.SECONDS.toMicros(1));
+    }
+
+    /**
+     * Renders drives from..to for one block, returning the sum in the first drive's buffer.
+     */
+    private static class MixTask extends RecursiveTask<float[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient DriveVoice[] voices; // Tasks are never serialized
+        private final int from;
+        private final int to;
+        private final long startSample;
+        private final int length;
+        private final float amplitude;
+
+        MixTask(DriveVoice[] voices, int from, int to, long startSample, int length, float amplitude) {
+            this.voices = voices;
+            this.from = from;
+            this.to = to;
+            this.startSample = startSample;
+            this.length = length;
+            this.amplitude = amplitude;
+        }
+
+        @Override
+        protected float[] compute() {
+            if (to - from == 1) {
+                return voices[from].render(startSample, length, amplitude);
+            }
+            int middle = (from + to) >>> 1;
+            MixTask left = new MixTask(voices, from, middle, startSample, length, amplitude);
+            left.fork();
+            float[] right = new MixTask(voices, middle, to, startSample, length, amplitude).compute();
+            float[] mixed = left.join();
+            for (int i = 0; i < length; i++) {
+                mixed[i] += right[i];
+            }
+            return mixed;
+        }
+    }
+
+    /**
+     * 16-bit little-endian PCM, mixed a block at a time as AudioSystem reads it.
+     */
+    private class MixStream extends InputStream {
+        private final DriveVoice[] voices;
+        private final long totalSamples;
+        private final float amplitude;
+        private final RenderStats stats;
+        private final int blockSamples = Math.max(1, sampleRate * BLOCK_MILLIS / 1000);
+
+        private final byte[] block = new byte[blockSamples * 2];
+        private int blockLength = 0;
+        private int blockPosition = 0;
+        private long nextSample = 0;
+
+        MixStream(DriveVoice[] voices, long totalSamples, float amplitude, RenderStats stats) {
+            this.voices = voices;
+            this.totalSamples = totalSamples;
+            this.amplitude = amplitude;
+            this.stats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (blockPosition == blockLength && !mixNextBlock()) {
+                return -1;
+            }
+            return block[blockPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (blockPosition == blockLength && !mixNextBlock()) {
+                return -1;
+            }
+            int count = Math.min(length, blockLength - blockPosition);
+            System.arraycopy(block, blockPosition, bytes, offset, count);
+            blockPosition += count;
+            return count;
+        }
+
+        private boolean mixNextBlock() {
+            int samples = (int)Math.min(blockSamples, totalSamples - nextSample);
+            if (samples <= 0) {
+                return false;
+            }
+
+            float[] mixed = voices.length == 0
+                    ? new float[samples]
+                    : pool.invoke(new MixTask(voices, 0, voices.length, nextSample, samples, amplitude));
+            for (int i = 0; i < samples; i++) {
+                float level = Math.abs(mixed[i]);
+                stats.peak = Math.max(stats.peak, level);
+                int pcm = Math.round(Math.max(-1f, Math.min(1f, mixed[i])) * Short.MAX_VALUE);
+                block[i * 2] = (byte)pcm;
+                block[i * 2 + 1] = (byte)(pcm >> 8);
+            }
+            nextSample += samples;
+            blockLength = samples * 2;
+            blockPosition = 0;
+            return true;
+        }
+    }
+
+    public static class RenderStats {
+        private int driveCount = 0;
+        private long frameCount = 0;
+        private int maxPolyphony = 0;
+        private float peak = 0;
+        private long audioMicros = 0;
+        private long elapsedNanos = 0;
+
+        public int getDriveCount() {
+            return driveCount;
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * @return Most drives playing a note at the same time
+         */
+        public int getMaxPolyphony() {
+            return maxPolyphony;
+        }
+
+        /**
+         * @return Loudest sample, where 1 is full scale
+         */
+        public float getPeak() {
+            return peak;
+        }
+
+        public long getAudioMicros() {
+            return audioMicros;
+        }
+
+        /**
+         * @return Wall-clock time rendering took
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return Seconds of audio rendered per second of wall-clock time
+         */
+        public double getSpeed() {
+            return elapsedNanos == 0 ? 0 : audioMicros * 1000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d drives (up to %d at once), %d frames, %.1f s of audio in %.2f s (%.0fx real time), peak %.1f dBFS",
+                    driveCount,
+                    maxPolyphony,
+                    frameCount,
+                    audioMicros / 1e6,
+                    elapsedNanos / 1e9,
+                    getSpeed(),
+                    peak == 0 ? Double.NEGATIVE_INFINITY : 20 * Math.log10(peak));
+        }
+    }
+}
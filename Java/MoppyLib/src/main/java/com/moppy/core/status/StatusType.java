@@ -11,5 +11,8 @@ public enum StatusType {
 
         // Network statuses
         NET_STATUS_CHANGED, // A NetworkBridge has either connected or disconnected
-        NET_DEVICES_CHANGED // A device has either become available or unavailable on the network
+        NET_DEVICES_CHANGED, // A device has either become available or unavailable on the network
+        NET_BRIDGE_ADDED, // A NetworkBridge became available (e.g. a USB serial device was plugged in)
+        NET_BRIDGE_REMOVED, // A NetworkBridge went away (e.g. a USB serial device was unplugged)
+        NET_LINK_STATS // Loss / reordering counters for a sequenced link
     }
@@ -1,5 +1,6 @@
 package com.moppy.core.status;
 
+import com.moppy.core.comms.LinkStats;
 import java.util.Optional;
 import javax.sound.midi.Sequence;
 
@@ -44,4 +45,15 @@ public class StatusUpdate {
 
     public static StatusUpdate NET_STATUS_CHANGED = new StatusUpdate(StatusType.NET_STATUS_CHANGED, Optional.empty());
     public static StatusUpdate NET_DEVICES_CHANGED = new StatusUpdate(StatusType.NET_DEVICES_CHANGED, Optional.empty());
+
+    public static StatusUpdate bridgeAdded(String bridgeIdentifier) {
+        return new StatusUpdate(StatusType.NET_BRIDGE_ADDED, Optional.of(bridgeIdentifier));
+    }
+    public static StatusUpdate bridgeRemoved(String bridgeIdentifier) {
+        return new StatusUpdate(StatusType.NET_BRIDGE_REMOVED, Optional.of(bridgeIdentifier));
+    }
+
+    public static StatusUpdate linkStats(LinkStats linkStats) {
+        return new StatusUpdate(StatusType.NET_LINK_STATS, Optional.of(linkStats));
+    }
 }
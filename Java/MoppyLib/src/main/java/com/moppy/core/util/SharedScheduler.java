@@ -0,0 +1,73 @@
+package com.moppy.core.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A scheduler shared by the housekeeping tasks of the network layer (pinging, device expiry, port
+ * watching, bridge health checks), so each of them doesn't start its own thread or pool.
+ *
+ * A single daemon thread keeps time and hands each task to a virtual thread of its own when it's due, so
+ * one that blocks (e.g. enumerating serial ports or writing to a slow link) doesn't hold up the others.
+ * A periodic task that's still running when it's next due skips that turn, so runs of the same task
+ * never overlap.
+ *
+ * The scheduler lives as long as the JVM: cancel the returned futures to stop tasks.  Cancelling stops
+ * later runs; one already running finishes.
+ */
+public final class SharedScheduler {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("moppy-scheduler").daemon().factory());
+    private static final ExecutorService WORKERS = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("moppy-task-", 0).factory());
+
+    private SharedScheduler() {
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(() -> WORKERS.execute(task), delay, unit);
+    }
+
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return TIMER.scheduleAtFixedRate(new HandOff(task), initialDelay, period, unit);
+    }
+
+    /**
+     * Runs {@code task} about every {@code delay}; as it runs on its own thread, the delay is counted from
+     * when the previous run was started rather than when it finished.
+     */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return TIMER.scheduleWithFixedDelay(new HandOff(task), initialDelay, delay, unit);
+    }
+
+    /**
+     * Starts a run of a periodic task on a worker unless the last one hasn't finished.
+     */
+    private static class HandOff implements Runnable {
+        private final Runnable task;
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        HandOff(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            WORKERS.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    running.set(false);
+                }
+            });
+        }
+    }
+}
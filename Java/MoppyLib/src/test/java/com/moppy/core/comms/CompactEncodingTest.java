@@ -0,0 +1,199 @@
+package com.moppy.core.comms;
+
+import com.moppy.core.comms.bridge.BridgeSerial;
+import com.moppy.core.device.MoppyDevice;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactEncodingTest {
+
+    /**
+     * Notes and bends across two 8-drive devices, with the odd message that has to go as a normal frame.
+     */
+    private static List<MoppyMessage> randomTraffic(Random random, int count) {
+        List<MoppyMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte device = (byte)(1 + random.nextInt(2));
+            byte subAddress = (byte)(1 + random.nextInt(8));
+            byte note = (byte)(24 + random.nextInt(72));
+            int kind = random.nextInt(100);
+            if (kind < 45) {
+                messages.add(MoppyMessageFactory.devicePlayNote(device, subAddress, note, (byte)(1 + random.nextInt(127))));
+            } else if (kind < 90) {
+                messages.add(MoppyMessageFactory.deviceStopNote(device, subAddress, note));
+            } else if (kind < 98) {
+                messages.add(MoppyMessageFactory.devicePitchBend(device, subAddress, (short)(random.nextInt(0x4000) - 0x2000)));
+            } else if (kind < 99) {
+                messages.add(MoppyMessageFactory.deviceReset(device));
+            } else {
+                messages.add(MoppyMessageFactory.systemPing(random.nextInt()));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Notes on random drives of two 8-drive devices, each note-on followed some time later by its note-off.
+     */
+    private static List<MoppyMessage> randomNotes(Random random, int notes) {
+        List<MoppyMessage> messages = new ArrayList<>();
+        List<MoppyMessage> sounding = new ArrayList<>();
+        boolean[] busy = new boolean[2 * 8];
+        int started = 0;
+        while (started < notes || !sounding.isEmpty()) {
+            int drive = random.nextInt(busy.length);
+            if (started < notes && !busy[drive] && (sounding.isEmpty() || random.nextBoolean())) {
+                byte device = (byte)(1 + drive / 8);
+                byte subAddress = (byte)(1 + drive % 8);
+                byte note = (byte)(24 + random.nextInt(72));
+                busy[drive] = true;
+                started++;
+                messages.add(MoppyMessageFactory.devicePlayNote(device, subAddress, note, (byte)(1 + random.nextInt(127))));
+                sounding.add(MoppyMessageFactory.deviceStopNote(device, subAddress, note));
+            } else if (!sounding.isEmpty()) {
+                MoppyMessage stop = sounding.remove(random.nextInt(sounding.size()));
+                busy[(stop.getDeviceAddress() - 1) * 8 + stop.getMessageBytes()[2] - 1] = false;
+                messages.add(stop);
+            }
+        }
+        return messages;
+    }
+
+    private static byte[] frameOf(MoppyMessage message) {
+        byte[] bytes = message.getMessageBytes();
+        return Arrays.copyOf(bytes, 4 + (bytes[3] & 0xff));
+    }
+
+    @Test
+    public void decodesMixedTrafficSplitAnywhere() {
+        Random random = new Random(37);
+        List<MoppyMessage> sent = randomTraffic(random, 5000);
+        CompactEncoder encoder = new CompactEncoder();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int normalBytes = 0;
+        for (MoppyMessage message : sent) {
+            stream.writeBytes(encoder.encode(message));
+            normalBytes += frameOf(message).length;
+        }
+        byte[] compact = stream.toByteArray();
+
+        List<byte[]> received = new ArrayList<>();
+        CompactDecoder decoder = new CompactDecoder(received::add);
+        for (int offset = 0; offset < compact.length; ) {
+            int length = Math.min(compact.length - offset, 1 + random.nextInt(9));
+            decoder.decode(compact, offset, length);
+            offset += length;
+        }
+
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertArrayEquals("Message " + i, frameOf(sent.get(i)), received.get(i));
+        }
+        // Notes hop between the two devices at random, which is about the worst case for running status
+        assertTrue(String.format("Compact stream was %d bytes against %d", compact.length, normalBytes),
+                compact.length * 3 < normalBytes * 2);
+    }
+
+    /**
+     * Effective notes (a note-on and its note-off) per second at each baud the serial bridge supports,
+     * from the bytes each encoding actually takes for random notes across two devices.
+     */
+    @Test
+    public void notesPerSecondAtEachBaud() {
+        int notes = 10_000;
+        List<MoppyMessage> messages = randomNotes(new Random(41), notes);
+        CompactEncoder encoder = new CompactEncoder();
+        long normalBytes = 0;
+        long compactBytes = 0;
+        for (MoppyMessage message : messages) {
+            normalBytes += frameOf(message).length;
+            compactBytes += encoder.encode(message).length;
+        }
+
+        System.out.println("Baud     Normal notes/s  Compact notes/s");
+        for (int baud : BridgeSerial.SUPPORTED_BAUDS) {
+            // 10 bits on the wire per byte (start, 8 data, stop)
+            long normalNotes = baud / 10L * notes / normalBytes;
+            long compactNotes = baud / 10L * notes / compactBytes;
+            System.out.printf("%-8d %14d %16d%n", baud, normalNotes, compactNotes);
+            assertTrue("Compact encoding should carry at least 40% more notes at " + baud,
+                    compactNotes * 10 >= normalNotes * 14);
+        }
+    }
+
+    @Test
+    public void startByteResyncsAfterStrayCommandByte() {
+        List<byte[]> received = new ArrayList<>();
+        CompactDecoder decoder = new CompactDecoder(received::add);
+        MoppyMessage note = MoppyMessageFactory.devicePlayNote((byte)1, (byte)2, (byte)60, (byte)100);
+
+        decoder.decode(CompactEncoder.SELECT_DEVICE);
+        decoder.decode(1);
+        decoder.decode(0x93); // Noise that looks like a note-on command
+        byte[] frame = frameOf(note);
+        decoder.decode(frame, 0, frame.length);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(frame, received.get(0));
+    }
+
+    @Test
+    public void firstDataByteNeverLooksLikeStartByte() {
+        CompactEncoder encoder = new CompactEncoder();
+        encoder.encode(MoppyMessageFactory.deviceStopNote((byte)1, (byte)1, (byte)60)); // Sets up running status
+        byte[] note = encoder.encode(MoppyMessageFactory.deviceStopNote((byte)1, (byte)1, MoppyMessage.START_BYTE));
+        assertEquals("Should go as a normal frame after ending running status", CompactEncoder.END_RUNNING_STATUS, note[0] & 0xff);
+        assertEquals(MoppyMessage.START_BYTE, note[1]);
+    }
+
+    @Test
+    public void deviceHandlesCompactStream() {
+        List<String> calls = new ArrayList<>();
+        MoppyDevice device = new MoppyDevice() {
+            @Override
+            public boolean matchesAddress(byte deviceAddress, byte subAddress) {
+                return deviceAddress == 1;
+            }
+
+            @Override
+            public void devicePlayNote(byte deviceAddress, byte subAddress, byte noteNumber) {
+                calls.add("play " + subAddress + " " + noteNumber);
+            }
+
+            @Override
+            public void deviceStopNote(byte deviceAddress, byte subAddress, byte noteNumber) {
+                calls.add("stop " + subAddress + " " + noteNumber);
+            }
+
+            @Override
+            public void deviceBendPitch(byte deviceAddress, byte subAddress, short bendAmount) {
+                calls.add("bend " + subAddress + " " + bendAmount);
+            }
+
+            @Override
+            protected boolean acceptsCompactEncoding() {
+                return true;
+            }
+        };
+
+        CompactEncoder encoder = new CompactEncoder();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.writeBytes(encoder.encode(MoppyMessageFactory.devicePlayNote((byte)1, (byte)3, (byte)60, (byte)127)));
+        stream.writeBytes(encoder.encode(MoppyMessageFactory.devicePlayNote((byte)2, (byte)3, (byte)62, (byte)127)));
+        stream.writeBytes(encoder.encode(MoppyMessageFactory.devicePitchBend((byte)1, (byte)3, (short)-100)));
+        stream.writeBytes(encoder.encode(MoppyMessageFactory.deviceStopNote((byte)1, (byte)3, (byte)60)));
+        byte[] bytes = stream.toByteArray();
+        device.handleBytes(bytes, 0, 3);
+        device.handleBytes(bytes, 3, bytes.length - 3);
+
+        assertEquals(List.of("play 3 60", "bend 3 -100", "stop 3 60"), calls);
+    }
+}
@@ -0,0 +1,130 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrioritySchedulingBridgeTest {
+
+    private final List<NetworkBridge<?>> bridges = new ArrayList<>();
+
+    @After
+    public void closeBridges() throws IOException {
+        for (NetworkBridge<?> bridge : bridges) {
+            bridge.close();
+        }
+    }
+
+    private <T extends NetworkBridge<?>> T connected(T bridge) throws IOException {
+        bridge.connect();
+        bridges.add(bridge);
+        return bridge;
+    }
+
+    @Test
+    public void noteOffNeverOvertakesItsNoteOn() throws Exception {
+        // 100 bytes a second, so each frame holds the link for about 70 ms and the rest queue up behind it
+        PrioritySchedulingBridge<Object> host = connected(new PrioritySchedulingBridge<>(new BridgeLoopback("priority-order"), () -> 100, 10_000));
+        BridgeLoopback device = connected(new BridgeLoopback("priority-order"));
+        List<byte[]> received = new ArrayList<>();
+        device.registerMessageReceiver(message -> {
+            synchronized (received) {
+                received.add(message.getMessageBytes());
+                received.notifyAll();
+            }
+        });
+
+        MoppyMessage otherDevice = MoppyMessageFactory.devicePlayNote((byte)2, (byte)1, (byte)40, (byte)127);
+        MoppyMessage noteOn = MoppyMessageFactory.devicePlayNote((byte)1, (byte)1, (byte)60, (byte)127);
+        MoppyMessage noteOff = MoppyMessageFactory.deviceStopNote((byte)1, (byte)1, (byte)60);
+        MoppyMessage otherDriveOff = MoppyMessageFactory.deviceStopNote((byte)1, (byte)2, (byte)62);
+        host.sendMessage(otherDevice);
+        host.sendMessage(noteOn);
+        host.sendMessage(noteOff);
+        host.sendMessage(otherDriveOff);
+
+        synchronized (received) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 4 && System.currentTimeMillis() < deadline) {
+                received.wait(100);
+            }
+            assertEquals(4, received.size());
+            int on = indexOf(received, noteOn);
+            int off = indexOf(received, noteOff);
+            int otherOff = indexOf(received, otherDriveOff);
+            assertTrue("note-off overtook its note-on", on < off);
+            assertTrue("another drive's note-off should still go first", otherOff < on);
+        }
+    }
+
+    @Test
+    public void stopsDropQueuedNotesTheyWouldOvertake() throws Exception {
+        // 100 bytes a second, so everything after the first frame is still queued when the resets arrive
+        PrioritySchedulingBridge<Object> host = connected(new PrioritySchedulingBridge<>(new BridgeLoopback("priority-stop"), () -> 100, 10_000));
+        BridgeLoopback device = connected(new BridgeLoopback("priority-stop"));
+        List<byte[]> received = new ArrayList<>();
+        device.registerMessageReceiver(message -> {
+            synchronized (received) {
+                received.add(message.getMessageBytes());
+                received.notifyAll();
+            }
+        });
+
+        MoppyMessage first = MoppyMessageFactory.devicePlayNote((byte)3, (byte)1, (byte)40, (byte)127);
+        MoppyMessage resetNote = MoppyMessageFactory.devicePlayNote((byte)1, (byte)1, (byte)60, (byte)127);
+        MoppyMessage resetBend = MoppyMessageFactory.devicePitchBend((byte)1, (byte)1, (short)100);
+        MoppyMessage otherDevice = MoppyMessageFactory.devicePlayNote((byte)2, (byte)1, (byte)62, (byte)127);
+        MoppyMessage deviceReset = MoppyMessageFactory.deviceReset((byte)1);
+        host.sendMessage(first);
+        host.sendMessage(resetNote);
+        host.sendMessage(resetBend);
+        host.sendMessage(otherDevice);
+        host.sendMessage(deviceReset);
+        MoppyMessage afterReset = MoppyMessageFactory.devicePlayNote((byte)1, (byte)2, (byte)64, (byte)127);
+        host.sendMessage(afterReset);
+
+        synchronized (received) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 4 && System.currentTimeMillis() < deadline) {
+                received.wait(100);
+            }
+            assertEquals(4, received.size());
+            assertTrue("device reset should go ahead", indexOf(received, deviceReset) < indexOf(received, otherDevice));
+            assertEquals(-1, indexOf(received, resetNote));
+            assertEquals(-1, indexOf(received, resetBend));
+            assertTrue("notes sent after the reset still play", indexOf(received, afterReset) >= 0);
+        }
+
+        // A system stop covers every device
+        MoppyMessage busy = MoppyMessageFactory.devicePlayNote((byte)3, (byte)1, (byte)41, (byte)127);
+        MoppyMessage stale = MoppyMessageFactory.devicePlayNote((byte)2, (byte)2, (byte)65, (byte)127);
+        host.sendMessage(busy);
+        host.sendMessage(stale);
+        host.sendMessage(MoppyMessage.SYS_STOP);
+        synchronized (received) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (indexOf(received, MoppyMessage.SYS_STOP) < 0 && System.currentTimeMillis() < deadline) {
+                received.wait(100);
+            }
+            assertTrue(indexOf(received, MoppyMessage.SYS_STOP) >= 0);
+            assertEquals(-1, indexOf(received, stale));
+        }
+    }
+
+    private static int indexOf(List<byte[]> received, MoppyMessage message) {
+        for (int i = 0; i < received.size(); i++) {
+            if (Arrays.equals(received.get(i), message.getMessageBytes())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,169 @@
+package com.moppy.core.comms.bridge;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.MoppyMessageFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SequencedBridgeTest {
+
+    private final List<NetworkBridge<?>> bridges = new ArrayList<>();
+
+    @After
+    public void closeBridges() throws IOException {
+        for (NetworkBridge<?> bridge : bridges) {
+            bridge.close();
+        }
+    }
+
+    private <T extends NetworkBridge<?>> T connected(T bridge) throws IOException {
+        bridge.connect();
+        bridges.add(bridge);
+        return bridge;
+    }
+
+    private static MoppyMessage pong(int deviceAddress, boolean acceptsTrailer) {
+        MoppyMessage pong = MoppyMessageFactory.systemPong((byte)deviceAddress, (byte)1, (byte)8);
+        return acceptsTrailer
+                ? MoppyMessageFactory.withPongExtension(pong, MoppyMessage.PongExtension.FEATURES, MoppyMessage.DeviceFeature.SEQUENCE_TRAILER)
+                : pong;
+    }
+
+    @Test
+    public void sendsPlainFramesUntilEveryDeviceAcceptsTrailer() throws IOException {
+        SequencedBridge<Object> host = connected(new SequencedBridge<>(new BridgeLoopback("sequenced-features"), 0));
+        BridgeLoopback device = connected(new BridgeLoopback("sequenced-features"));
+        List<byte[]> received = new ArrayList<>();
+        device.registerMessageReceiver(message -> {
+            if (!message.isSystemMessage()) {
+                received.add(message.getMessageBytes());
+            }
+        });
+        MoppyMessage note = MoppyMessageFactory.devicePlayNote((byte)1, (byte)1, (byte)60, (byte)127);
+
+        // Nothing has answered yet, and then a device without support does
+        host.sendMessage(note);
+        device.sendMessage(pong(1, false));
+        host.sendMessage(note);
+        assertFalse(host.isSequencing());
+
+        device.sendMessage(pong(1, true));
+        assertTrue(host.isSequencing());
+        host.sendMessage(note);
+
+        device.sendMessage(pong(2, false));
+        assertFalse(host.isSequencing());
+        host.sendMessage(note);
+
+        assertEquals(4, received.size());
+        assertEquals(7, received.get(0).length);
+        assertEquals(7, received.get(1).length);
+        assertEquals(10, received.get(2).length);
+        assertEquals(7, received.get(3).length);
+    }
+
+    @Test
+    public void detectsLossReorderingAndDuplicatesOnLossyLink() throws IOException {
+        LossyLinkBridge<Object> lossy = new LossyLinkBridge<>(new BridgeLoopback("sequenced-lossy"), 0.05, 0.02, 0.02, 42);
+        SequencedBridge<Object> host = connected(new SequencedBridge<>(lossy, 0));
+        SequencedBridge<Object> receiver = connected(new SequencedBridge<>(new BridgeLoopback("sequenced-lossy"), 0));
+        receiver.sendMessage(pong(1, true));
+        assertTrue(host.isSequencing());
+
+        Set<Integer> delivered = new HashSet<>();
+        int[] deliveries = new int[1];
+        receiver.registerMessageReceiver(message -> {
+            if (!message.isSystemMessage()) {
+                byte[] frame = message.getMessageBytes();
+                assertEquals("Trailer is removed", 4 + (frame[3] & 0xff), frame.length);
+                delivered.add(((frame[2] & 0xff) - 1) * 128 + frame[5]);
+                deliveries[0]++;
+            }
+        });
+
+        int frames = 2000;
+        for (int i = 0; i < frames; i++) {
+            host.sendMessage(MoppyMessageFactory.devicePlayNote((byte)1, (byte)(i / 128 + 1), (byte)(i % 128), (byte)127));
+        }
+        // Delivers any frame still held back for reordering
+        lossy.close();
+
+        assertTrue(lossy.getFramesDropped() > 0 && lossy.getFramesReordered() > 0 && lossy.getFramesDuplicated() > 0);
+        assertEquals("Each frame is delivered once", delivered.size(), deliveries[0]);
+        assertEquals(frames - lossy.getFramesDropped(), delivered.size());
+        assertEquals(lossy.getFramesDuplicated(), receiver.getLinkStats().getDuplicatesDropped());
+        assertTrue(receiver.getLinkStats().getFramesLost() <= lossy.getFramesDropped());
+        assertTrue(receiver.getLinkStats().getFramesLost() >= lossy.getFramesDropped() - 1);
+        assertTrue(receiver.getLinkStats().getFramesReordered() > 0);
+    }
+
+    @Test
+    public void redundantCopiesGetNoteOffsThroughLoss() throws IOException {
+        LossyLinkBridge<Object> lossy = new LossyLinkBridge<>(new BridgeLoopback("sequenced-redundant"), 0.1, 0, 0, 7);
+        SequencedBridge<Object> host = connected(new SequencedBridge<>(lossy, 2));
+        SequencedBridge<Object> receiver = connected(new SequencedBridge<>(new BridgeLoopback("sequenced-redundant"), 0));
+        receiver.sendMessage(pong(1, true));
+
+        int[] noteOns = new int[1];
+        int[] noteOffs = new int[1];
+        receiver.registerMessageReceiver(message -> {
+            if (message.getMessageCommandByte() == MoppyMessage.CommandByte.DEV_PLAYNOTE) {
+                noteOns[0]++;
+            } else if (message.getMessageCommandByte() == MoppyMessage.CommandByte.DEV_STOPNOTE) {
+                noteOffs[0]++;
+            }
+        });
+
+        int notes = 1000;
+        for (int i = 0; i < notes; i++) {
+            host.sendMessage(MoppyMessageFactory.devicePlayNote((byte)1, (byte)1, (byte)60, (byte)127));
+            host.sendMessage(MoppyMessageFactory.deviceStopNote((byte)1, (byte)1, (byte)60));
+        }
+
+        assertTrue("Extra copies aren't delivered", noteOffs[0] <= notes);
+        int noteOnsLost = notes - noteOns[0];
+        int noteOffsLost = notes - noteOffs[0];
+        assertTrue("Note-ons were lost", noteOnsLost > 0);
+        assertTrue("Note-offs lost: " + noteOffsLost + ", note-ons lost: " + noteOnsLost, noteOffsLost * 10 < noteOnsLost);
+        assertEquals(notes * 2, host.getLinkStats().getRedundantCopiesSent());
+    }
+
+    @Test
+    public void framesFromSeveralThreadsLeaveInSequenceOrder() throws Exception {
+        SequencedBridge<Object> host = connected(new SequencedBridge<>(new BridgeLoopback("sequenced-threads"), 0));
+        SequencedBridge<Object> receiver = connected(new SequencedBridge<>(new BridgeLoopback("sequenced-threads"), 0));
+        receiver.sendMessage(pong(1, true));
+
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            byte subAddress = (byte)(t + 1);
+            Thread sender = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    try {
+                        host.sendMessage(MoppyMessageFactory.devicePlayNote((byte)1, subAddress, (byte)60, (byte)127));
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        assertEquals(8000, receiver.getLinkStats().getFramesReceived());
+        assertEquals(0, receiver.getLinkStats().getFramesReordered());
+        assertEquals(0, receiver.getLinkStats().getFramesLost());
+    }
+}
@@ -0,0 +1,68 @@
+package com.moppy.core.device;
+
+import com.moppy.core.comms.MoppyMessageFactory;
+import com.moppy.core.comms.bridge.BridgeLoopback;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceHostTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final DeviceHost host = new DeviceHost(new BridgeLoopback("device-host"));
+
+    private final MoppyDevice device = new MoppyDevice() {
+        @Override
+        public boolean matchesAddress(byte deviceAddress, byte subAddress) {
+            return true;
+        }
+
+        @Override
+        public void devicePlayNote(byte deviceAddress, byte subAddress, byte noteNumber) {
+            calls.add("play " + subAddress + " " + noteNumber);
+        }
+
+        @Override
+        public void deviceStopNote(byte deviceAddress, byte subAddress, byte noteNumber) {
+            calls.add("stop " + subAddress + " " + noteNumber);
+        }
+
+        @Override
+        public void deviceBendPitch(byte deviceAddress, byte subAddress, short bendAmount) {
+            calls.add("bend " + subAddress + " " + bendAmount);
+        }
+    };
+
+    @After
+    public void closeHost() {
+        host.close();
+    }
+
+    @Test
+    public void dispatchesBySubAddressRange() {
+        host.addDevice(device, (byte)3, (byte)1, (byte)4);
+        host.handleFrame(MoppyMessageFactory.devicePlayNote((byte)3, (byte)2, (byte)60, (byte)127).getMessageBytes());
+        host.handleFrame(MoppyMessageFactory.devicePlayNote((byte)3, (byte)5, (byte)60, (byte)127).getMessageBytes());
+        host.handleFrame(MoppyMessageFactory.devicePitchBend((byte)3, (byte)4, (short)-300).getMessageBytes());
+        host.handleFrame(MoppyMessageFactory.deviceStopNote((byte)4, (byte)2, (byte)60).getMessageBytes());
+
+        assertEquals(List.of("play 2 60", "bend 4 -300"), calls);
+        assertEquals(2, host.getFramesDispatched());
+        assertEquals(2, host.getFramesUnmatched());
+    }
+
+    @Test
+    public void ignoresFramesWithoutTheirPayload() {
+        host.addDevice(device, (byte)3, (byte)1, (byte)4);
+        host.handleFrame(new byte[] {0x4d, 3, 1, 1, 0x09});             // Note-on with no note
+        host.handleFrame(new byte[] {0x4d, 3, 1, 2, 0x0e, 0x10});       // Bend with one byte of two
+        host.handleFrame(new byte[] {0x4d, 3, 1, 3, 0x0e, 0x10});       // Header longer than the frame
+        host.handleFrame(new byte[] {0x4d, 3, 1, 0, 0x09, 60});         // No command byte
+        host.handleFrame(new byte[] {0x4d, 3, 1, 2, 0x09, 60});
+
+        assertEquals(List.of("play 1 60"), calls);
+    }
+}
@@ -0,0 +1,120 @@
+package com.moppy.core.distributed;
+
+import com.moppy.core.comms.bridge.BridgeLoopback;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlaybackFollowerTest {
+
+    private ServerSocket leader;
+    private PlaybackFollower follower;
+    private final List<String> commands = new ArrayList<>();
+
+    /**
+     * Records the commands the follower passes on instead of playing anything.
+     */
+    private class RecordingPlayer extends TimelinePlayer {
+        RecordingPlayer() {
+            super(new BridgeLoopback("follower-test"), List.of());
+        }
+
+        @Override
+        public void start(long startNanos, long positionMicros) {
+            synchronized (commands) {
+                commands.add("start " + positionMicros);
+                commands.notifyAll();
+            }
+        }
+
+        @Override
+        public void stopAt(long stopNanos) {
+            synchronized (commands) {
+                commands.add("stop");
+                commands.notifyAll();
+            }
+        }
+    }
+
+    @Before
+    public void startLeader() throws IOException {
+        leader = new ServerSocket(0);
+        follower = new PlaybackFollower("127.0.0.1:" + leader.getLocalPort(), "test", new RecordingPlayer());
+    }
+
+    @After
+    public void stop() throws IOException {
+        follower.close();
+        leader.close();
+    }
+
+    /**
+     * Accepts the follower and sends it the given commands before answering its first clock request.
+     */
+    private void sendBeforeClockSync(CommandWriter writeCommands) throws Exception {
+        follower.connect();
+        try (Socket connection = leader.accept()) {
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            assertEquals(PlaybackProtocol.HELLO, in.readByte());
+            in.readInt();
+            in.readUTF();
+
+            writeCommands.write(out);
+            out.flush();
+
+            assertEquals(PlaybackProtocol.TIME_REQUEST, in.readByte());
+            long requestNanos = in.readLong();
+            out.writeByte(PlaybackProtocol.TIME_REPLY);
+            out.writeLong(requestNanos);
+            out.writeLong(System.nanoTime());
+            out.flush();
+
+            synchronized (commands) {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (commands.size() < 2 && System.currentTimeMillis() < deadline) {
+                    commands.wait(100);
+                }
+            }
+        }
+    }
+
+    private interface CommandWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @Test
+    public void stopAfterStartBeforeClockSyncStillStops() throws Exception {
+        sendBeforeClockSync(out -> {
+            out.writeByte(PlaybackProtocol.START);
+            out.writeLong(System.nanoTime());
+            out.writeLong(1000);
+            out.writeByte(PlaybackProtocol.STOP);
+            out.writeLong(System.nanoTime());
+        });
+
+        assertEquals(List.of("start 1000", "stop"), commands);
+    }
+
+    @Test
+    public void startAfterStopBeforeClockSyncStillStarts() throws Exception {
+        sendBeforeClockSync(out -> {
+            out.writeByte(PlaybackProtocol.STOP);
+            out.writeLong(System.nanoTime());
+            out.writeByte(PlaybackProtocol.START);
+            out.writeLong(System.nanoTime());
+            out.writeLong(2000);
+        });
+
+        assertEquals(List.of("stop", "start 2000"), commands);
+    }
+}
@@ -0,0 +1,102 @@
+package com.moppy.core.library;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MidiLibraryTest {
+
+    private final Path directory;
+    private MidiLibrary library;
+
+    public MidiLibraryTest() throws IOException {
+        directory = Files.createTempDirectory("library-test");
+    }
+
+    @After
+    public void delete() throws IOException {
+        if (library != null) {
+            library.close();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * A format 0 file with one track of the given events (each starting with its delta time).
+     */
+    private static byte[] smf(int... events) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] {'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0x01, (byte)0xe0});
+        int trackLength = events.length + 4;
+        out.writeBytes(new byte[] {'M', 'T', 'r', 'k',
+                (byte)(trackLength >> 24), (byte)(trackLength >> 16), (byte)(trackLength >> 8), (byte)trackLength});
+        for (int event : events) {
+            out.write(event);
+        }
+        out.writeBytes(new byte[] {0, (byte)0xff, 0x2f, 0});
+        return out.toByteArray();
+    }
+
+    @Test
+    public void followsLinksWithoutLooping() throws Exception {
+        Files.write(directory.resolve("song.mid"), smf(0, 0x90, 60, 100, 0x60, 0x80, 60, 0));
+        Files.createDirectory(directory.resolve("more"));
+        Files.createSymbolicLink(directory.resolve("more").resolve("back-up"), directory);
+
+        library = new MidiLibrary(List.of(directory), null);
+        MidiLibrary.ScanResult result = library.scan().get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, result.getFiles());
+        assertEquals(1, library.size());
+    }
+
+    @Test
+    public void metaEventsCancelRunningStatus() {
+        // A note-on, a text event, then a data byte that would only make sense as a running status note-on
+        byte[] data = smf(0, 0x90, 60, 100, 0, 0xff, 0x01, 0, 0, 62, 100);
+        try {
+            SmfSummaryReader.read("song.mid", data.length, 0, data);
+            fail("Data bytes after a meta event have no status to run on");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void longTitlesStillIndex() throws Exception {
+        // A track name far longer than the index could hold
+        int[] events = new int[3 + 3 + 70_000];
+        events[0] = 0;
+        events[1] = 0xff;
+        events[2] = 0x03;
+        // 70000 as a variable-length quantity
+        events[3] = 0x84;
+        events[4] = 0xa2;
+        events[5] = 0x70;
+        Arrays.fill(events, 6, events.length, 0xe9); // Two bytes each when written to the index
+        byte[] data = smf(events);
+
+        SongInfo song = SmfSummaryReader.read("song.mid", data.length, 0, data);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        song.write(new DataOutputStream(index));
+        SongInfo reread = SongInfo.read(new DataInputStream(new ByteArrayInputStream(index.toByteArray())));
+        assertEquals(song.getTitle(), reread.getTitle());
+    }
+}
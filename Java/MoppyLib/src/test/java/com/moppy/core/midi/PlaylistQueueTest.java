@@ -0,0 +1,134 @@
+package com.moppy.core.midi;
+
+import com.moppy.core.comms.MoppyMessage;
+import com.moppy.core.comms.bridge.BridgeLoopback;
+import com.moppy.core.events.mapper.MIDIEventMapper;
+import com.moppy.core.events.mapper.MapperCollection;
+import com.moppy.core.events.postprocessor.MessagePostProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlaylistQueueTest {
+
+    private final List<File> tempFiles = new ArrayList<>();
+    private final List<Byte> notesPlayed = new ArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private BridgeLoopback host;
+    private BridgeLoopback device;
+    private PlaylistQueue queue;
+
+    @Before
+    public void connect() throws IOException {
+        host = new BridgeLoopback("playlist-test");
+        device = new BridgeLoopback("playlist-test");
+        host.connect();
+        device.connect();
+        device.registerMessageReceiver(message -> {
+            if (message.getMessageCommandByte() == MoppyMessage.CommandByte.DEV_PLAYNOTE) {
+                synchronized (notesPlayed) {
+                    notesPlayed.add(message.getMessageCommandPayload()[0]);
+                }
+            }
+        });
+        queue = new PlaylistQueue(host, sequence -> {
+            MapperCollection<MidiMessage> mappers = new MapperCollection<>();
+            mappers.addMapper(MIDIEventMapper.defaultMapper((byte)1));
+            return mappers;
+        }, MessagePostProcessor.PASS_THROUGH);
+        queue.addListener(new PlaylistQueue.Listener() {
+            @Override
+            public void songStarted(int index, File file, long lengthMicros) {
+            }
+
+            @Override
+            public void queueFinished() {
+                finished.countDown();
+            }
+        });
+    }
+
+    @After
+    public void close() throws IOException {
+        queue.close();
+        host.close();
+        device.close();
+        tempFiles.forEach(File::delete);
+    }
+
+    /**
+     * @param note Note to play, or -1 for a song with nothing in it
+     * @param lengthMillis How long the note is held
+     */
+    private File song(int note, int lengthMillis, int tempoBPM) throws Exception {
+        Sequence sequence = new Sequence(Sequence.PPQ, 480);
+        Track track = sequence.createTrack();
+        int microsPerQuarter = 60_000_000 / tempoBPM;
+        track.add(new MidiEvent(new MetaMessage(0x51, new byte[] {
+                (byte)(microsPerQuarter >> 16), (byte)(microsPerQuarter >> 8), (byte)microsPerQuarter}, 3), 0));
+        if (note >= 0) {
+            long ticks = lengthMillis * 480L * tempoBPM / 60_000;
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, note, 100), 0));
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, note, 0), ticks));
+        }
+        File file = File.createTempFile("playlist-test", ".mid");
+        tempFiles.add(file);
+        MidiSystem.write(sequence, 0, file);
+        return file;
+    }
+
+    private List<Byte> playedWhenFinished() throws InterruptedException {
+        assertTrue("Queue didn't finish", finished.await(5, TimeUnit.SECONDS));
+        synchronized (notesPlayed) {
+            return new ArrayList<>(notesPlayed);
+        }
+    }
+
+    @Test
+    public void removingTheNextSongPlaysTheOneAfter() throws Exception {
+        queue.addAll(List.of(song(60, 400, 120), song(62, 100, 120), song(64, 100, 120)));
+        queue.play(0);
+        Thread.sleep(100);
+        queue.remove(1);
+
+        assertEquals(List.of((byte)60, (byte)64), playedWhenFinished());
+    }
+
+    @Test
+    public void skipsSongsWithNothingToPlay() throws Exception {
+        queue.addAll(List.of(song(60, 100, 120), song(-1, 0, 120), song(64, 100, 120)));
+        queue.play(0);
+
+        assertEquals(List.of((byte)60, (byte)64), playedWhenFinished());
+    }
+
+    @Test
+    public void tempoChangesTakeEffectMidSong() throws Exception {
+        queue.add(song(60, 2000, 90));
+        long startNanos = System.nanoTime();
+        queue.play(0);
+        Thread.sleep(100);
+        assertEquals(90, queue.getCurrentSongTempo(), 0.01);
+        queue.setTempoFactor(4);
+
+        playedWhenFinished();
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue("Took " + tookMillis + " ms", tookMillis < 1200); // 100 ms, then the other 1.9 s at 4x
+    }
+}
@@ -13,6 +13,7 @@
 
 #define NETBYTE_SYS_PING 0x80
 #define NETBYTE_SYS_PONG 0x81
+#define NETBYTE_SYS_SETBAUD 0x83 // See README "Baud rate negotiation"
 #define NETBYTE_SYS_RESET 0xff
 #define NETBYTE_SYS_START 0xfa
 #define NETBYTE_SYS_STOP 0xfc
@@ -21,6 +22,15 @@
 #define NETBYTE_DEV_NOTEOFF 0x08
 #define NETBYTE_DEV_NOTEON 0x09
 #define NETBYTE_DEV_BENDPITCH 0x0e
+#define NETBYTE_DEV_SCHEDULED 0x20
+
+// Pong extension block tags (see README "Clock synchronization and scheduled messages")
+#define PONGEXT_CLOCK_SYNC 0x01
+#define PONGEXT_FEATURES 0x02
+#define PONGEXT_CAPABILITIES 0x03 // See README "Device capabilities"
+
+// Flags for the PONGEXT_FEATURES block (see README "Compact serial encoding")
+#define FEATURE_COMPACT_ENCODING 0x01
 
 // Microcontroller/device-specific commands (still defined here to prevent overlap)
 #define NETBYTE_DEV_SETTARGETCOLOR 0x61